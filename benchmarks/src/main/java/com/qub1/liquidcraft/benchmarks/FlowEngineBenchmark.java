@@ -0,0 +1,90 @@
+package com.qub1.liquidcraft.benchmarks;
+
+import com.qub1.liquidcraft.engine.ArrayLiquidWorld;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hot paths of the flow engine against an in-memory world.
+ * Every invocation starts from the initial state of the scenario and handles all of its liquid blocks once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowEngineBenchmark {
+	@Param
+	private Scenario scenario;
+
+	/**
+	 * The initial state of the scenario, copied into the world before every invocation.
+	 */
+	private ArrayLiquidWorld initialWorld;
+
+	private ArrayLiquidWorld world;
+	private LiquidEngine engine;
+
+	/**
+	 * The packed positions of the liquid blocks in the initial state.
+	 */
+	private long[] liquidBlocks;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() {
+		initialWorld = scenario.createWorld();
+		world = scenario.createWorld();
+		liquidBlocks = Scenario.getLiquidBlocks(new LiquidEngine(initialWorld));
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() {
+		world.copyFrom(initialWorld);
+		engine = new LiquidEngine(world);
+	}
+
+	@Benchmark
+	public void flowDown(final Blackhole blackhole) throws Exception {
+		for (long position : liquidBlocks) {
+			blackhole.consume(engine.flowDown(position));
+		}
+	}
+
+	@Benchmark
+	public void flowHorizontally(final Blackhole blackhole) throws Exception {
+		for (long position : liquidBlocks) {
+			blackhole.consume(engine.flowHorizontally(position));
+		}
+	}
+
+	@Benchmark
+	public void flowToNearest() throws Exception {
+		for (long position : liquidBlocks) {
+			engine.flowToNearest(position);
+		}
+	}
+
+	@Benchmark
+	public int addBlock() {
+		for (long position : liquidBlocks) {
+			engine.addBlock(position);
+		}
+
+		return engine.getActiveBlockCount();
+	}
+
+	@Benchmark
+	public int tick() {
+		for (long position : liquidBlocks) {
+			engine.addBlock(position);
+		}
+
+		engine.tick();
+
+		return engine.getActiveBlockCount();
+	}
+}
@@ -0,0 +1,129 @@
+package com.qub1.liquidcraft.benchmarks;
+
+import com.qub1.liquidcraft.engine.ArrayLiquidWorld;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible starting situations for the benchmarks.
+ * Every scenario builds the same world every time, on a stone floor at Y 0.
+ */
+public enum Scenario {
+	/**
+	 * A tall block of water released onto a flat floor.
+	 */
+	DAM_BREAK {
+		@Override
+		protected void build(final ArrayLiquidWorld world) {
+			world.fill(0, 1, 0, 7, 16, 7, Material.STATIONARY_WATER, LiquidEngine.MAXIMUM_LIQUID_LEVEL);
+		}
+	},
+
+	/**
+	 * A walled basin with a shallow layer of water, being filled by a column of water falling in.
+	 */
+	LAKE_FILL {
+		@Override
+		protected void build(final ArrayLiquidWorld world) {
+			int last = SIZE - 1;
+
+			// Walls
+			world.fill(0, 1, 0, last, 6, 0, Material.STONE, 0);
+			world.fill(0, 1, last, last, 6, last, Material.STONE, 0);
+			world.fill(0, 1, 0, 0, 6, last, Material.STONE, 0);
+			world.fill(last, 1, 0, last, 6, last, Material.STONE, 0);
+
+			// Shallow water and a column of water above the middle
+			world.fill(1, 1, 1, last - 1, 1, last - 1, Material.STATIONARY_WATER, 3);
+			world.fill(14, 8, 14, 17, 24, 17, Material.STATIONARY_WATER, LiquidEngine.MAXIMUM_LIQUID_LEVEL);
+		}
+	},
+
+	/**
+	 * A pool on top of a cliff, overflowing down to the floor.
+	 */
+	WATERFALL {
+		@Override
+		protected void build(final ArrayLiquidWorld world) {
+			world.fill(0, 1, 0, 11, 20, SIZE - 1, Material.STONE, 0);
+			world.fill(4, 21, 4, 11, 24, SIZE - 5, Material.STATIONARY_WATER, LiquidEngine.MAXIMUM_LIQUID_LEVEL);
+		}
+	},
+
+	/**
+	 * A rough pit filled with lava of uneven levels.
+	 */
+	LAVA_POOL {
+		@Override
+		protected void build(final ArrayLiquidWorld world) {
+			Random random = new Random(SEED);
+
+			world.fill(0, 1, 0, SIZE - 1, 8, SIZE - 1, Material.STONE, 0);
+
+			for (int x = 4; x < SIZE - 4; ++x) {
+				for (int z = 4; z < SIZE - 4; ++z) {
+					int depth = 2 + random.nextInt(6);
+					world.fill(x, 9 - depth, z, x, 8, z, Material.AIR, 0);
+					world.set(x, 9 - depth, z, Material.STATIONARY_LAVA, 1 + random.nextInt(LiquidEngine.MAXIMUM_LIQUID_LEVEL));
+				}
+			}
+		}
+	};
+
+	/**
+	 * The size of the world along every axis.
+	 */
+	public static final int SIZE = 32;
+
+	/**
+	 * The seed used for all randomness in the scenarios.
+	 */
+	private static final long SEED = 42;
+
+	/**
+	 * Creates the world of this scenario.
+	 *
+	 * @return The world.
+	 */
+	public ArrayLiquidWorld createWorld() {
+		ArrayLiquidWorld world = new ArrayLiquidWorld(0, SIZE, SIZE, SIZE);
+		world.fill(0, 0, 0, SIZE - 1, 0, SIZE - 1, Material.STONE, 0);
+		build(world);
+
+		return world;
+	}
+
+	/**
+	 * Gets the packed positions of all liquid blocks in a world.
+	 *
+	 * @param engine The engine simulating the world.
+	 * @return The packed positions of all liquid blocks.
+	 */
+	public static long[] getLiquidBlocks(final LiquidEngine engine) {
+		ArrayLiquidWorld world = (ArrayLiquidWorld) engine.getWorld();
+		long[] result = new long[world.getSizeX() * world.getSizeY() * world.getSizeZ()];
+		int count = 0;
+
+		for (int y = 0; y < world.getSizeY(); ++y) {
+			for (int z = 0; z < world.getSizeZ(); ++z) {
+				for (int x = 0; x < world.getSizeX(); ++x) {
+					if (LiquidEngine.isLiquid(world.getMaterial(x, y, z), false)) {
+						result[count++] = engine.getPosition(x, y, z);
+					}
+				}
+			}
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Builds the scenario on top of the stone floor.
+	 *
+	 * @param world The world to build in.
+	 */
+	protected abstract void build(ArrayLiquidWorld world);
+}
@@ -0,0 +1,66 @@
+package com.qub1.liquidcraft.benchmarks;
+
+import com.qub1.liquidcraft.engine.TraceReplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Replays a trace recorded with /liquidtrace a number of times and reports how long the ticks took, so a lag spike can be measured before and after a fix.
+ * The trace is read into memory first, so only the engine and the decompression of the trace are timed.
+ */
+public class TraceReplayRunner {
+	/**
+	 * The amount of slowest ticks to report per run.
+	 */
+	private static final int SLOWEST_TICK_COUNT = 5;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: TraceReplayRunner <trace> [runs]");
+			System.exit(1);
+		}
+
+		byte[] trace = Files.readAllBytes(Paths.get(args[0]));
+		int runs = args.length == 2 ? Integer.parseInt(args[1]) : 5;
+
+		for (int run = 1; run <= runs; ++run) {
+			long[] tickTimes = new long[16];
+			int tickCount = 0;
+			long totalTime = 0;
+
+			try (TraceReplayer replayer = new TraceReplayer(new ByteArrayInputStream(trace))) {
+				while (true) {
+					long start = System.nanoTime();
+					if (!replayer.replayTick()) {
+						break;
+					}
+					long time = System.nanoTime() - start;
+
+					if (tickCount == tickTimes.length) {
+						tickTimes = Arrays.copyOf(tickTimes, tickCount * 2);
+					}
+					tickTimes[tickCount++] = time;
+					totalTime += time;
+				}
+
+				System.out.printf("Run %d: %d ticks in %.3f ms, %d active blocks at the end%n", run, tickCount, totalTime / 1e6, replayer.getEngine().getActiveBlockCount());
+			}
+
+			// Report the slowest ticks by their position in the trace, so the same spike can be found in every run
+			Integer[] order = new Integer[tickCount];
+			for (int i = 0; i < tickCount; ++i) {
+				order[i] = i;
+			}
+			final long[] times = tickTimes;
+			Arrays.sort(order, (first, second) -> Long.compare(times[second], times[first]));
+
+			for (int i = 0; i < Math.min(SLOWEST_TICK_COUNT, tickCount); ++i) {
+				System.out.printf("  tick %d: %.3f ms%n", order[i] + 1, times[order[i]] / 1e6);
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.qub1.liquidcraft;
+
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Continues the flows of a single world on a worker thread, against snapshots of the chunks around the blocks being handled.
+ * The server thread only takes the snapshots before a step and applies the changed blocks after it.
+ * Blocks changed by something else in the meantime are left alone, together with every block that liquid was moved to or from by the same handled blocks, and all of them are added to the engine again.
+ * <p>
+ * The engine must not be used by anything else while a step is running.
+ */
+public class AsyncFlow {
+	/**
+	 * The name of the world, used in log messages.
+	 */
+	private final String name;
+
+	/**
+	 * The engine of the world, which only the worker thread uses while a step is running.
+	 */
+	private final LiquidEngine engine;
+
+	/**
+	 * The world the engine simulates, which takes the snapshots and applies the changes.
+	 */
+	private final BukkitLiquidWorld world;
+
+	/**
+	 * The executor the steps run on.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The logger failed steps are reported to.
+	 */
+	private final Logger logger;
+
+	/**
+	 * The step running on the worker thread, or null if there is none or its changes were applied.
+	 */
+	private Future<Integer> step = null;
+
+	/**
+	 * Holds the blocks the next step may handle, reused between steps.
+	 */
+	private final LongList blocksToHandle = new LongList();
+
+	/**
+	 * Holds the chunks of the blocks the next step may handle, reused between steps.
+	 */
+	private final LongOrderedSet blockChunks = new LongOrderedSet();
+
+	/**
+	 * Holds the chunks the next step may read, reused between steps.
+	 */
+	private final LongOrderedSet chunks = new LongOrderedSet();
+
+	/**
+	 * Holds the blocks that were changed by something else during a step, reused between steps.
+	 */
+	private final LongList conflicts = new LongList();
+
+	/**
+	 * Holds the blocks whose changes are not applied after a step, because they were part of the same transfers as a conflicting block, reused between steps.
+	 */
+	private final LongOrderedSet rejected = new LongOrderedSet();
+
+	/**
+	 * The amount of blocks that were changed by something else during a step, since the flow was created.
+	 */
+	private long conflictCount = 0;
+
+	/**
+	 * Creates a new AsyncFlow.
+	 *
+	 * @param name     The name of the world.
+	 * @param engine   The engine of the world.
+	 * @param world    The world the engine simulates.
+	 * @param executor The executor to run steps on.
+	 * @param logger   The logger to report failed steps to.
+	 */
+	public AsyncFlow(final String name, final LiquidEngine engine, final BukkitLiquidWorld world, final ExecutorService executor, final Logger logger) {
+		this.name = name;
+		this.engine = engine;
+		this.world = world;
+		this.executor = executor;
+		this.logger = logger;
+	}
+
+	/**
+	 * Checks whether a step was started whose changes have not been applied yet, during which the engine must not be used.
+	 *
+	 * @return Whether a step is running.
+	 */
+	public boolean isRunning() {
+		return step != null;
+	}
+
+	/**
+	 * Starts a step which continues the current flow of the engine on the worker thread.
+	 * The chunks of the blocks the step may handle are captured together with every chunk within the nearest search radius of them, and one more around those for their neighbors.
+	 *
+	 * @param maximumBlocks   The maximum amount of blocks to handle.
+	 * @param maximumFlowTime The maximum time to spend handling blocks, in nanoseconds, counted from when the worker starts.
+	 * @throws IllegalStateException If a step is already running.
+	 */
+	public void start(final int maximumBlocks, final long maximumFlowTime) {
+		if (step != null) {
+			throw (new IllegalStateException("A step is already running in world " + name));
+		}
+
+		blocksToHandle.clear();
+		engine.collectBlocksToHandle(blocksToHandle, maximumBlocks);
+
+		blockChunks.clear();
+		for (int i = 0; i < blocksToHandle.size(); ++i) {
+			blockChunks.add(BlockPosition.getChunkKey(blocksToHandle.get(i)));
+		}
+
+		int radius = ((engine.getNearestSearchRadius() + 15) >> 4) + 1;
+		chunks.clear();
+		long[] keys = blockChunks.toArray();
+		for (long chunkKey : keys) {
+			long start = BlockPosition.getChunkStart(chunkKey);
+
+			for (int chunkX = -radius; chunkX <= radius; ++chunkX) {
+				for (int chunkZ = -radius; chunkZ <= radius; ++chunkZ) {
+					chunks.add(BlockPosition.getChunkKey(BlockPosition.offset(start, chunkX << 4, 0, chunkZ << 4)));
+				}
+			}
+		}
+
+		world.startSnapshots(chunks);
+		engine.startTransferLog();
+		step = executor.submit(() -> engine.continueFlow(System.nanoTime() + maximumFlowTime, maximumBlocks));
+	}
+
+	/**
+	 * Applies the changes of the running step once it is done, and adds the blocks whose changes were rejected to the engine again.
+	 *
+	 * @param wait Whether to wait for the step to finish, rather than returning if it is still running.
+	 * @return Whether no step is running anymore.
+	 */
+	public boolean finish(final boolean wait) {
+		if (step == null) {
+			return true;
+		}
+
+		if (!wait && !step.isDone()) {
+			return false;
+		}
+
+		// The server thread can't give up on a step, since the engine is only safe to use once it is done
+		boolean interrupted = false;
+		while (true) {
+			try {
+				step.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Liquids in world " + name + " failed to flow", e.getCause());
+				break;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		step = null;
+
+		// Liquid moved between the blocks a handled block changed, so the changes of a conflicting block are rejected together with the rest of its transfers
+		conflicts.clear();
+		rejected.clear();
+		world.collectConflicts(conflicts);
+		engine.rejectTransfers(conflicts, rejected);
+		world.applyChanges(rejected);
+		conflictCount += conflicts.size();
+
+		// The engine assumed these blocks were changed, so it has to look at them again
+		long[] positions = rejected.toArray();
+		for (long position : positions) {
+			engine.addRejectedBlock(position);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the amount of blocks that were changed by something else during a step, which are left alone and handled again.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public long getConflictCount() {
+		return conflictCount;
+	}
+}
@@ -0,0 +1,402 @@
+package com.qub1.liquidcraft;
+
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.engine.LiquidWorld;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.Arrays;
+
+/**
+ * A LiquidWorld backed by a Bukkit world.
+ * <p>
+ * While the engine runs on another thread, the world reads snapshots of the chunks around its active blocks instead, and collects its writes in a change list.
+ * The changes are applied on the server thread afterwards, skipping every block that no longer has the state it had in its snapshot, together with the blocks the engine rejects along with it.
+ */
+public class BukkitLiquidWorld implements LiquidWorld {
+	/**
+	 * The value used for blocks without a change, and for original states that are not known.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * The amount of snapshot rounds a snapshot of a chunk is reused for, if no change was reported in the chunk.
+	 * Changes that fire no event are only seen once the snapshot is taken again.
+	 */
+	private static final int MAXIMUM_SNAPSHOT_AGE = 20;
+
+	/**
+	 * All materials, by ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	private final World world;
+	private final int id;
+
+	/**
+	 * The snapshots of the chunks the engine can read while it runs on another thread, by chunk key.
+	 */
+	private LongObjectMap<ChunkSnapshot> snapshots = new LongObjectMap<>();
+
+	/**
+	 * Collects the snapshots of the next round, swapped with the snapshots of the current round.
+	 */
+	private LongObjectMap<ChunkSnapshot> nextSnapshots = new LongObjectMap<>();
+
+	/**
+	 * The round in which every snapshot was taken, by chunk key.
+	 */
+	private final LongIntMap snapshotRounds = new LongIntMap(NONE);
+
+	/**
+	 * The amount of snapshot rounds so far.
+	 */
+	private int round = 0;
+
+	/**
+	 * The chunks that changed since their snapshot was taken, by chunk key.
+	 */
+	private final LongOrderedSet dirtyChunks = new LongOrderedSet();
+
+	/**
+	 * Whether the engine reads the snapshots instead of the world.
+	 */
+	private boolean snapshotting = false;
+
+	/**
+	 * The state every block was written with while snapshotting, by packed position.
+	 */
+	private final LongIntMap changes = new LongIntMap(NONE);
+
+	/**
+	 * The state every written block had in its snapshot, by packed position.
+	 */
+	private final LongIntMap originals = new LongIntMap(NONE);
+
+	/**
+	 * Creates a new BukkitLiquidWorld.
+	 *
+	 * @param world The world to use.
+	 * @param id    The id of the world.
+	 */
+	public BukkitLiquidWorld(final World world, final int id) {
+		this.world = world;
+		this.id = id;
+	}
+
+	/**
+	 * Gets the Bukkit world.
+	 *
+	 * @return The Bukkit world.
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public Material getMaterial(final int x, final int y, final int z) {
+		if (snapshotting) {
+			int state = getSnapshotState(x, y, z);
+
+			return state == NONE ? Material.STONE : decodeMaterial(state);
+		}
+
+		return world.getBlockAt(x, y, z).getType();
+	}
+
+	@Override
+	public int getLevel(final int x, final int y, final int z) {
+		if (snapshotting) {
+			int state = getSnapshotState(x, y, z);
+
+			return state == NONE ? 0 : decodeLevel(state);
+		}
+
+		return toLevel(world.getBlockAt(x, y, z).getData());
+	}
+
+	/**
+	 * Sets the material and liquid level of a block, without applying physics.
+	 * The engine activates the neighbors of changed blocks itself, so physics would only cause redundant updates.
+	 * Liquids are written with their type and data at once, so every block is only written once.
+	 * While snapshotting, the change is only added to the change list.
+	 *
+	 * @param x        The X coordinate.
+	 * @param y        The Y coordinate.
+	 * @param z        The Z coordinate.
+	 * @param material The material to set.
+	 * @param level    The liquid level to set, ignored if the material is not a liquid.
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public void set(final int x, final int y, final int z, final Material material, final int level) {
+		if (snapshotting) {
+			long position = BlockPosition.pack(id, x, y, z);
+
+			// Remember the state of the snapshot on the first write, which the world has to still be in when the change is applied
+			if (!originals.containsKey(position)) {
+				originals.put(position, getSnapshotState(x, y, z));
+			}
+
+			changes.put(position, encode(material, level));
+
+			return;
+		}
+
+		Block block = world.getBlockAt(x, y, z);
+
+		if (LiquidEngine.isLiquid(material, false)) {
+			block.setTypeIdAndData(material.getId(), (byte) (LiquidEngine.MAXIMUM_LIQUID_LEVEL - level), false);
+		} else {
+			block.setType(material, false);
+		}
+	}
+
+	@Override
+	public boolean isReadable(final long chunkKey) {
+		return !snapshotting || snapshots.containsKey(chunkKey);
+	}
+
+	/**
+	 * Takes snapshots of chunks, and makes the engine read those instead of the world until the changes are applied.
+	 * Snapshots of the previous round are reused if nothing was reported to change in their chunk, and chunks that are not loaded are left out.
+	 * Must be called on the server thread.
+	 *
+	 * @param chunkKeys The chunk keys of the chunks the engine may read.
+	 */
+	public void startSnapshots(final LongOrderedSet chunkKeys) {
+		if (snapshotting) {
+			throw (new IllegalStateException("The changes of the previous snapshots have not been applied"));
+		}
+
+		++round;
+
+		long[] keys = chunkKeys.toArray();
+		for (long chunkKey : keys) {
+			ChunkSnapshot snapshot = snapshots.get(chunkKey);
+
+			if (snapshot == null || dirtyChunks.contains(chunkKey) || round - snapshotRounds.get(chunkKey) > MAXIMUM_SNAPSHOT_AGE) {
+				long start = BlockPosition.getChunkStart(chunkKey);
+				int chunkX = BlockPosition.getChunkX(start);
+				int chunkZ = BlockPosition.getChunkZ(start);
+
+				// Getting a chunk that is not loaded would load it
+				if (!world.isChunkLoaded(chunkX, chunkZ)) {
+					continue;
+				}
+
+				snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+				snapshotRounds.put(chunkKey, round);
+				dirtyChunks.remove(chunkKey);
+			}
+
+			nextSnapshots.put(chunkKey, snapshot);
+		}
+
+		// Drop the snapshots that are no longer needed
+		for (long chunkKey : snapshots.keys()) {
+			if (!nextSnapshots.containsKey(chunkKey)) {
+				snapshotRounds.remove(chunkKey);
+			}
+		}
+
+		LongObjectMap<ChunkSnapshot> previousSnapshots = snapshots;
+		snapshots = nextSnapshots;
+		nextSnapshots = previousSnapshots;
+		nextSnapshots.clear();
+		snapshotting = true;
+	}
+
+	/**
+	 * Finds the blocks of the change list that were changed by something else since their snapshot was taken, because their state differs from their snapshot.
+	 * Must be called on the server thread, before the changes are applied.
+	 *
+	 * @param conflicts The list to add the packed positions of conflicting blocks to.
+	 */
+	public void collectConflicts(final LongList conflicts) {
+		long[] positions = changes.keys();
+		for (long position : positions) {
+			int original = originals.get(position);
+
+			if (original == NONE || getWorldState(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position)) != original) {
+				conflicts.add(position);
+			}
+		}
+	}
+
+	/**
+	 * Applies the change list to the world, except for the rejected blocks, and makes the engine read the world again.
+	 * The rejected blocks are left as they are, which has to include every block found by {@link #collectConflicts(LongList)}.
+	 * Must be called on the server thread.
+	 *
+	 * @param rejected The packed positions of the blocks whose changes are not applied.
+	 * @return The amount of blocks written.
+	 */
+	public int applyChanges(final LongOrderedSet rejected) {
+		snapshotting = false;
+
+		if (changes.isEmpty()) {
+			return 0;
+		}
+
+		// Sorting packed positions groups them by chunk
+		long[] positions = changes.keys();
+		Arrays.sort(positions);
+
+		int written = 0;
+		for (long position : positions) {
+			int change = changes.get(position);
+
+			// The snapshot of the chunk no longer matches the world either way
+			dirtyChunks.add(BlockPosition.getChunkKey(position));
+
+			if (!rejected.contains(position) && change != originals.get(position)) {
+				set(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position), decodeMaterial(change), decodeLevel(change));
+				++written;
+			}
+		}
+
+		changes.clear();
+		originals.clear();
+
+		return written;
+	}
+
+	/**
+	 * Records that a block was changed by something other than the engine, so the snapshot of its chunk is taken again in the next round.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	public void markChanged(final long position) {
+		dirtyChunks.add(BlockPosition.getChunkKey(position));
+	}
+
+	/**
+	 * Drops the snapshot of a chunk that is being unloaded.
+	 * Must not be called while snapshotting.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 */
+	public void removeSnapshot(final long chunkKey) {
+		snapshots.remove(chunkKey);
+		snapshotRounds.remove(chunkKey);
+		dirtyChunks.remove(chunkKey);
+	}
+
+	/**
+	 * Drops all snapshots, for worlds that no longer run on another thread.
+	 * Must not be called while snapshotting.
+	 */
+	public void clearSnapshots() {
+		snapshots.clear();
+		snapshotRounds.clear();
+		dirtyChunks.clear();
+	}
+
+	/**
+	 * Gets the state of a block as the engine sees it while snapshotting, which is its last write or else its state in the snapshot.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The encoded state, or NONE if there is no snapshot of its chunk.
+	 */
+	private int getSnapshotState(final int x, final int y, final int z) {
+		long position = BlockPosition.pack(id, x, y, z);
+
+		int change = changes.get(position);
+		if (change != NONE) {
+			return change;
+		}
+
+		ChunkSnapshot snapshot = snapshots.get(BlockPosition.getChunkKey(position));
+		if (snapshot == null) {
+			return NONE;
+		}
+
+		@SuppressWarnings("deprecation")
+		Material material = Material.getMaterial(snapshot.getBlockTypeId(x & 0xF, y, z & 0xF));
+
+		// Block ids without a material are treated as solid, like blocks of chunks that can't be read
+		if (material == null) {
+			material = Material.STONE;
+		}
+
+		return encode(material, toLevel(snapshot.getBlockData(x & 0xF, y, z & 0xF)));
+	}
+
+	/**
+	 * Gets the current state of a block in the world.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The encoded state.
+	 */
+	private int getWorldState(final int x, final int y, final int z) {
+		Block block = world.getBlockAt(x, y, z);
+		Material material = block.getType();
+
+		// Treated the same way as in the snapshot, so an unknown block does not look like a conflict
+		if (material == null) {
+			material = Material.STONE;
+		}
+
+		return encode(material, toLevel(block.getData()));
+	}
+
+	/**
+	 * Converts the raw data of a liquid block to its liquid level.
+	 *
+	 * @param rawLiquidLevel The raw data.
+	 * @return The liquid level.
+	 */
+	private static int toLevel(final int rawLiquidLevel) {
+		// If the block is a source block or a falling block, the liquid level is the maximum
+		// Otherwise, calculate the liquid level
+		return rawLiquidLevel >= LiquidEngine.MAXIMUM_LIQUID_LEVEL ? LiquidEngine.MAXIMUM_LIQUID_LEVEL : LiquidEngine.MAXIMUM_LIQUID_LEVEL - rawLiquidLevel;
+	}
+
+	/**
+	 * Encodes a block state into an int, where only liquids keep their level.
+	 *
+	 * @param material The material.
+	 * @param level    The liquid level.
+	 * @return The encoded state.
+	 */
+	private static int encode(final Material material, final int level) {
+		return (material.ordinal() << 4) | (LiquidEngine.isLiquid(material, false) ? level : 0);
+	}
+
+	/**
+	 * Decodes the material of an encoded block state.
+	 *
+	 * @param state The encoded state.
+	 * @return The material.
+	 */
+	private static Material decodeMaterial(final int state) {
+		return MATERIALS[state >>> 4];
+	}
+
+	/**
+	 * Decodes the liquid level of an encoded block state.
+	 *
+	 * @param state The encoded state.
+	 * @return The liquid level.
+	 */
+	private static int decodeLevel(final int state) {
+		return state & 0xF;
+	}
+}
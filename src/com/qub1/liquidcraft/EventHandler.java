@@ -1,13 +1,16 @@
 package com.qub1.liquidcraft;
 
-import org.bukkit.Material;
 import org.bukkit.block.Block;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockFromToEvent;
 import org.bukkit.event.block.BlockPhysicsEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.block.BlockSpreadEvent;
 import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
 public class EventHandler implements Listener {
 	/**
@@ -26,50 +29,73 @@ public class EventHandler implements Listener {
 
 	@org.bukkit.event.EventHandler
 	public void onBlockFromToEvent(BlockFromToEvent event) {
-		// Cancel any original liquid spread and add any spreading liquids to the list
+		// Cancel any original liquid spread and queue any spreading liquids, other blocks that move (like dragon eggs) are left alone
 		final Block block = event.getBlock();
-		final Block toBlock = event.getToBlock();
-		if (LiquidCraft.isLiquid(block, false) && LiquidCraft.isLiquid(toBlock, true)) {
-			event.setCancelled(true);
-		}
+		if (LiquidCraft.isLiquid(block, false)) {
+			final Block toBlock = event.getToBlock();
+			if (LiquidCraft.isLiquid(toBlock, true)) {
+				event.setCancelled(true);
+			}
 
-		plugin.addBlock(block);
-		plugin.addBlock(toBlock);
+			plugin.queueBlock(block);
+			plugin.queueBlock(toBlock);
+		}
 	}
 
 	@org.bukkit.event.EventHandler
 	public void onBlockPlaceEvent(final BlockPlaceEvent event) {
-		// Add any placed liquids to the handle list
-		plugin.addBlock(event.getBlock());
+		// Queue any placed block, since placing a solid block can also split a body of liquid
+		plugin.queueBlock(event.getBlock());
 	}
 
 	@org.bukkit.event.EventHandler
 	public void onPlayerBucketEmptyEvent(final PlayerBucketEmptyEvent event) {
-		// Add any liquids from buckets to the handle list
-		plugin.addBlock(event.getBlockClicked().getRelative(event.getBlockFace()));
+		// Queue any liquids from buckets
+		plugin.queueBlock(event.getBlockClicked().getRelative(event.getBlockFace()));
 	}
 
 	@org.bukkit.event.EventHandler
 	public void onBlockPhysicsEvent(BlockPhysicsEvent event) {
-		// Cancel any liquid physics, since we handle those ourselves
+		// Cancel any liquid physics, since we handle those ourselves, and only queue liquids, since physics updates of other blocks are far more common
 		final Block block = event.getBlock();
-		final Material changedMaterial = event.getChangedType();
-		if (LiquidCraft.isLiquid(block, false) && LiquidCraft.isLiquid(changedMaterial, true)) {
-			event.setCancelled(true);
-		}
+		if (LiquidCraft.isLiquid(block, false)) {
+			if (LiquidCraft.isLiquid(event.getChangedType(), true)) {
+				event.setCancelled(true);
+			}
 
-		plugin.addBlock(block);
+			plugin.queueBlock(block);
+		}
 	}
 
 	@org.bukkit.event.EventHandler
 	public void onBlockSpreadEvent(BlockSpreadEvent event) {
-		// Cancel any liquid spreading, since we handle those ourselves
-		final Block block = event.getBlock();
+		// Cancel any liquid spreading, since we handle those ourselves, spreading from other blocks (like grass) is left alone
 		final Block sourceBlock = event.getSource();
-		if (LiquidCraft.isLiquid(block, true) && LiquidCraft.isLiquid(sourceBlock, false)) {
-			event.setCancelled(true);
+		if (LiquidCraft.isLiquid(sourceBlock, false)) {
+			final Block block = event.getBlock();
+			if (LiquidCraft.isLiquid(block, true)) {
+				event.setCancelled(true);
+			}
+
+			plugin.queueBlock(block);
 		}
+	}
+
+	@org.bukkit.event.EventHandler
+	public void onChunkLoadEvent(final ChunkLoadEvent event) {
+		// Restore the saved liquid state of the chunk
+		plugin.loadChunk(event.getChunk());
+	}
+
+	@org.bukkit.event.EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnloadEvent(final ChunkUnloadEvent event) {
+		// Save the liquid state of the chunk, once no other plugin can cancel the unload anymore
+		plugin.unloadChunk(event.getChunk());
+	}
 
-		plugin.addBlock(block);
+	@org.bukkit.event.EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnloadEvent(final WorldUnloadEvent event) {
+		// Save the liquid state of the world and release its engine, once no other plugin can cancel the unload anymore
+		plugin.unloadWorld(event.getWorld());
 	}
 }
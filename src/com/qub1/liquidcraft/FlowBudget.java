@@ -0,0 +1,113 @@
+package com.qub1.liquidcraft;
+
+/**
+ * The limits on how much and how often liquids are simulated in a single world.
+ */
+public class FlowBudget {
+	/**
+	 * The amount of ticks between the start of each flow.
+	 */
+	private final int ticksPerFlow;
+
+	/**
+	 * The amount of ticks between the start of each flow the world can be slowed down to when it can't keep up.
+	 */
+	private final int maximumTicksPerFlow;
+
+	/**
+	 * The maximum amount of liquid blocks handled in a single server tick.
+	 */
+	private final int maximumBlocksPerTick;
+
+	/**
+	 * The maximum time spent handling liquid blocks in a single server tick, in milliseconds.
+	 */
+	private final long maximumFlowTimePerTick;
+
+	/**
+	 * The maximum amount of active blocks handled in a single flow.
+	 */
+	private final int maximumBlocksPerFlow;
+
+	/**
+	 * Creates a new FlowBudget.
+	 *
+	 * @param ticksPerFlow           The amount of ticks between the start of each flow.
+	 * @param maximumTicksPerFlow    The amount of ticks between flows the world can be slowed down to.
+	 * @param maximumBlocksPerTick   The maximum amount of liquid blocks handled in a single server tick.
+	 * @param maximumFlowTimePerTick The maximum time spent handling liquid blocks in a single server tick, in milliseconds.
+	 * @param maximumBlocksPerFlow   The maximum amount of active blocks handled in a single flow.
+	 */
+	public FlowBudget(final int ticksPerFlow, final int maximumTicksPerFlow, final int maximumBlocksPerTick, final long maximumFlowTimePerTick, final int maximumBlocksPerFlow) {
+		if (ticksPerFlow < 1) {
+			throw (new IllegalArgumentException("Invalid ticks per flow \"" + ticksPerFlow + "\""));
+		}
+
+		if (maximumTicksPerFlow < ticksPerFlow) {
+			throw (new IllegalArgumentException("Invalid maximum ticks per flow \"" + maximumTicksPerFlow + "\""));
+		}
+
+		if (maximumBlocksPerTick < 1) {
+			throw (new IllegalArgumentException("Invalid maximum blocks per tick \"" + maximumBlocksPerTick + "\""));
+		}
+
+		if (maximumFlowTimePerTick < 1) {
+			throw (new IllegalArgumentException("Invalid maximum flow time per tick \"" + maximumFlowTimePerTick + "\""));
+		}
+
+		if (maximumBlocksPerFlow < 1) {
+			throw (new IllegalArgumentException("Invalid maximum blocks per flow \"" + maximumBlocksPerFlow + "\""));
+		}
+
+		this.ticksPerFlow = ticksPerFlow;
+		this.maximumTicksPerFlow = maximumTicksPerFlow;
+		this.maximumBlocksPerTick = maximumBlocksPerTick;
+		this.maximumFlowTimePerTick = maximumFlowTimePerTick;
+		this.maximumBlocksPerFlow = maximumBlocksPerFlow;
+	}
+
+	/**
+	 * Gets the amount of ticks between the start of each flow.
+	 *
+	 * @return The amount of ticks.
+	 */
+	public int getTicksPerFlow() {
+		return ticksPerFlow;
+	}
+
+	/**
+	 * Gets the amount of ticks between the start of each flow the world can be slowed down to when it can't keep up.
+	 *
+	 * @return The amount of ticks.
+	 */
+	public int getMaximumTicksPerFlow() {
+		return maximumTicksPerFlow;
+	}
+
+	/**
+	 * Gets the maximum amount of liquid blocks handled in a single server tick.
+	 *
+	 * @return The maximum amount of blocks.
+	 */
+	public int getMaximumBlocksPerTick() {
+		return maximumBlocksPerTick;
+	}
+
+	/**
+	 * Gets the maximum time spent handling liquid blocks in a single server tick.
+	 *
+	 * @return The time, in milliseconds.
+	 */
+	public long getMaximumFlowTimePerTick() {
+		return maximumFlowTimePerTick;
+	}
+
+	/**
+	 * Gets the maximum amount of active blocks handled in a single flow.
+	 *
+	 * @return The maximum amount of blocks.
+	 */
+	public int getMaximumBlocksPerFlow() {
+		return maximumBlocksPerFlow;
+	}
+}
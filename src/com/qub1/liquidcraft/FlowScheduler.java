@@ -0,0 +1,403 @@
+package com.qub1.liquidcraft;
+
+import com.qub1.liquidcraft.engine.FrozenRegion;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Shares the time and blocks available for liquids in every server tick fairly between the engines of all worlds.
+ * Every world flows at its own rate within its own budget, and a world that can't keep up is slowed down instead of taking time from the others.
+ */
+public class FlowScheduler {
+	/**
+	 * The amount of flows in a row a slowed down world has to finish in time before it is sped up again.
+	 */
+	private static final int RECOVERY_FLOWS = 4;
+
+	/**
+	 * The simulation state of a single world.
+	 */
+	private static class Context {
+		/**
+		 * The name of the world, used in log messages.
+		 */
+		private final String name;
+
+		/**
+		 * The engine of the world.
+		 */
+		private final LiquidEngine engine;
+
+		/**
+		 * The budget of the world, which limits how often and how long it flows.
+		 */
+		private FlowBudget budget;
+
+		/**
+		 * Continues the flows of the world on a worker thread, or null if the world flows on the server thread.
+		 */
+		private AsyncFlow asyncFlow = null;
+
+		/**
+		 * The current amount of ticks between the start of each flow, which is higher than the budget's if the world is slowed down.
+		 */
+		private int ticksPerFlow;
+
+		/**
+		 * The tick at which the next flow is due.
+		 */
+		private long nextFlowTick = 0;
+
+		/**
+		 * The amount of flows in a row that finished before the next one was due.
+		 */
+		private int flowsInTime = 0;
+
+		/**
+		 * Whether the world was reported to be slowed down as far as its budget allows.
+		 */
+		private boolean reported = false;
+
+		/**
+		 * Creates a new Context.
+		 *
+		 * @param name   The name of the world.
+		 * @param engine The engine of the world.
+		 * @param budget The budget of the world.
+		 */
+		private Context(final String name, final LiquidEngine engine, final FlowBudget budget) {
+			this.name = name;
+			this.engine = engine;
+			setBudget(budget);
+		}
+
+		/**
+		 * Sets the budget of the world, which resets any slowdown.
+		 *
+		 * @param budget The budget.
+		 */
+		private void setBudget(final FlowBudget budget) {
+			this.budget = budget;
+			ticksPerFlow = budget.getTicksPerFlow();
+			flowsInTime = 0;
+			reported = false;
+			engine.setMaximumBlocksPerFlow(budget.getMaximumBlocksPerFlow());
+		}
+
+		/**
+		 * Checks whether the world still has to finish its current flow, either on the server thread or on its worker.
+		 *
+		 * @return Whether the world is busy.
+		 */
+		private boolean isBusy() {
+			// The engine of a running step can't be asked anything
+			return (asyncFlow != null && asyncFlow.isRunning()) || engine.isFlowing();
+		}
+	}
+
+	/**
+	 * The logger to report slowdowns and frozen chunks to.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Holds the chunks a world froze when its flow started, reused between flows.
+	 */
+	private final List<FrozenRegion> trips = new ArrayList<>();
+
+	/**
+	 * The maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 */
+	private int maximumBlocksPerTick;
+
+	/**
+	 * The maximum time spent handling liquid blocks in a single server tick, in all worlds together, in milliseconds.
+	 */
+	private long maximumFlowTimePerTick;
+
+	/**
+	 * The contexts of all worlds, where the index is the world id, or null for ids of unloaded worlds.
+	 */
+	private final List<Context> contexts = new ArrayList<>();
+
+	/**
+	 * The amount of ticks since the scheduler was created.
+	 */
+	private long tick = 0;
+
+	/**
+	 * The index of the context that gets to use the budget first in the next tick, so no world is always last.
+	 */
+	private int firstContext = 0;
+
+	/**
+	 * Creates a new FlowScheduler.
+	 *
+	 * @param logger                 The logger to report slowdowns and frozen chunks to.
+	 * @param maximumBlocksPerTick   The maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 * @param maximumFlowTimePerTick The maximum time spent handling liquid blocks in a single server tick, in all worlds together, in milliseconds.
+	 */
+	public FlowScheduler(final Logger logger, final int maximumBlocksPerTick, final long maximumFlowTimePerTick) {
+		this.logger = logger;
+		this.maximumBlocksPerTick = maximumBlocksPerTick;
+		this.maximumFlowTimePerTick = maximumFlowTimePerTick;
+	}
+
+	/**
+	 * Sets the limits of every tick, which are shared by all worlds.
+	 *
+	 * @param maximumBlocksPerTick   The maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 * @param maximumFlowTimePerTick The maximum time spent handling liquid blocks in a single server tick, in all worlds together, in milliseconds.
+	 */
+	public void setLimits(final int maximumBlocksPerTick, final long maximumFlowTimePerTick) {
+		if (maximumBlocksPerTick < 1) {
+			throw (new IllegalArgumentException("Invalid maximum blocks per tick \"" + maximumBlocksPerTick + "\""));
+		}
+
+		if (maximumFlowTimePerTick < 1) {
+			throw (new IllegalArgumentException("Invalid maximum flow time per tick \"" + maximumFlowTimePerTick + "\""));
+		}
+
+		this.maximumBlocksPerTick = maximumBlocksPerTick;
+		this.maximumFlowTimePerTick = maximumFlowTimePerTick;
+	}
+
+	/**
+	 * Adds the engine of a world.
+	 *
+	 * @param id     The id of the world, which is either free or the next id.
+	 * @param name   The name of the world.
+	 * @param engine The engine of the world.
+	 * @param budget The budget of the world.
+	 */
+	public void addWorld(final int id, final String name, final LiquidEngine engine, final FlowBudget budget) {
+		Context context = new Context(name, engine, budget);
+
+		if (id == contexts.size()) {
+			contexts.add(context);
+		} else {
+			contexts.set(id, context);
+		}
+	}
+
+	/**
+	 * Removes the engine of a world that was unloaded, freeing its id.
+	 * A step that is still running is finished first.
+	 *
+	 * @param id The id of the world.
+	 */
+	public void removeWorld(final int id) {
+		setAsyncFlow(id, null);
+		contexts.set(id, null);
+	}
+
+	/**
+	 * Gets the budget of a world.
+	 *
+	 * @param id The id of the world.
+	 * @return The budget.
+	 */
+	public FlowBudget getBudget(final int id) {
+		return contexts.get(id).budget;
+	}
+
+	/**
+	 * Sets the budget of a world, which resets any slowdown.
+	 *
+	 * @param id     The id of the world.
+	 * @param budget The budget.
+	 */
+	public void setBudget(final int id, final FlowBudget budget) {
+		contexts.get(id).setBudget(budget);
+	}
+
+	/**
+	 * Makes a world continue its flows on a worker thread, or on the server thread again.
+	 * A step that is still running is finished first.
+	 *
+	 * @param id        The id of the world.
+	 * @param asyncFlow The asynchronous flow of the world, or null to flow on the server thread.
+	 */
+	public void setAsyncFlow(final int id, final AsyncFlow asyncFlow) {
+		Context context = contexts.get(id);
+
+		if (context.asyncFlow != null) {
+			context.asyncFlow.finish(true);
+		}
+
+		context.asyncFlow = asyncFlow;
+	}
+
+	/**
+	 * Gets the asynchronous flow of a world.
+	 *
+	 * @param id The id of the world.
+	 * @return The asynchronous flow, or null if the world flows on the server thread.
+	 */
+	public AsyncFlow getAsyncFlow(final int id) {
+		return contexts.get(id).asyncFlow;
+	}
+
+	/**
+	 * Checks whether the engine of a world is in use by a worker thread, so it must not be used.
+	 *
+	 * @param id The id of the world.
+	 * @return Whether the engine is in use.
+	 */
+	public boolean isRunning(final int id) {
+		AsyncFlow asyncFlow = contexts.get(id).asyncFlow;
+
+		return asyncFlow != null && asyncFlow.isRunning();
+	}
+
+	/**
+	 * Applies the changes of all asynchronous steps that are done.
+	 */
+	public void finishAsyncFlows() {
+		for (Context context : contexts) {
+			if (context != null && context.asyncFlow != null) {
+				context.asyncFlow.finish(false);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the asynchronous step of a world, if it has one running, and applies its changes, so the engine can be used.
+	 *
+	 * @param id The id of the world.
+	 */
+	public void awaitAsyncFlow(final int id) {
+		AsyncFlow asyncFlow = contexts.get(id).asyncFlow;
+
+		if (asyncFlow != null) {
+			asyncFlow.finish(true);
+		}
+	}
+
+	/**
+	 * Gets the current amount of ticks between the start of each flow of a world.
+	 *
+	 * @param id The id of the world.
+	 * @return The amount of ticks, which is higher than the budget's if the world is slowed down.
+	 */
+	public int getTicksPerFlow(final int id) {
+		return contexts.get(id).ticksPerFlow;
+	}
+
+	/**
+	 * Checks whether a world is slowed down because it couldn't keep up.
+	 *
+	 * @param id The id of the world.
+	 * @return Whether the world is slowed down.
+	 */
+	public boolean isSlowedDown(final int id) {
+		Context context = contexts.get(id);
+
+		return context.ticksPerFlow > context.budget.getTicksPerFlow();
+	}
+
+	/**
+	 * Handles liquid blocks in all worlds for a single server tick.
+	 */
+	public void tick() {
+		++tick;
+
+		long deadline = System.nanoTime() + maximumFlowTimePerTick * 1000000;
+		int blocksLeft = maximumBlocksPerTick;
+
+		// Start new flows in the worlds that are due
+		int flowingCount = 0;
+		for (Context context : contexts) {
+			if (context == null) {
+				continue;
+			}
+
+			if (tick >= context.nextFlowTick) {
+				startFlow(context);
+			}
+
+			if (context.asyncFlow == null && context.engine.isFlowing()) {
+				++flowingCount;
+			}
+		}
+
+		// Let every world continue its flow, rotating which world goes first
+		// Every world gets an equal part of what is left, within its own budget, so whatever a world doesn't use goes to the worlds after it
+		for (int i = 0; i < contexts.size() && flowingCount > 0; ++i) {
+			Context context = contexts.get((firstContext + i) % contexts.size());
+
+			if (context == null || context.asyncFlow != null || !context.engine.isFlowing()) {
+				continue;
+			}
+
+			long now = System.nanoTime();
+			if (now >= deadline || blocksLeft <= 0) {
+				break;
+			}
+
+			long timeShare = Math.min((deadline - now) / flowingCount, context.budget.getMaximumFlowTimePerTick() * 1000000);
+			int blockShare = Math.max(1, Math.min(blocksLeft / flowingCount, context.budget.getMaximumBlocksPerTick()));
+
+			blocksLeft -= context.engine.continueFlow(now + timeShare, blockShare);
+			--flowingCount;
+		}
+
+		if (!contexts.isEmpty()) {
+			firstContext = (firstContext + 1) % contexts.size();
+		}
+
+		// Worlds that flow on a worker thread don't take time from the server thread, so they only use their own budget
+		for (Context context : contexts) {
+			if (context != null && context.asyncFlow != null && !context.asyncFlow.isRunning() && context.engine.isFlowing()) {
+				context.asyncFlow.start(context.budget.getMaximumBlocksPerTick(), context.budget.getMaximumFlowTimePerTick() * 1000000);
+			}
+		}
+	}
+
+	/**
+	 * Starts a new flow in a world that is due, or slows the world down if its previous flow hasn't finished yet.
+	 *
+	 * @param context The context of the world.
+	 */
+	private void startFlow(final Context context) {
+		FlowBudget budget = context.budget;
+
+		if (context.isBusy()) {
+			// The world can't keep up, so give every flow more ticks
+			context.flowsInTime = 0;
+
+			context.ticksPerFlow = Math.min(context.ticksPerFlow * 2, budget.getMaximumTicksPerFlow());
+
+			// Only report worlds that are as slow as they can get, since small slowdowns come and go all the time
+			if (context.ticksPerFlow == budget.getMaximumTicksPerFlow() && !context.reported) {
+				context.reported = true;
+				logger.warning("Liquids in world " + context.name + " can't keep up, they now flow every " + context.ticksPerFlow + " ticks");
+			}
+		} else {
+			context.engine.startFlow();
+
+			// The engine freezes chunks in which liquid spreads beyond its limits when a flow starts
+			context.engine.pollBreakerTrips(trips);
+			for (FrozenRegion region : trips) {
+				logger.warning("Froze liquids in chunk " + region.getChunkX() + ", " + region.getChunkZ() + " of world " + context.name + " (blocks " + (region.getChunkX() << 4) + ", " + (region.getChunkZ() << 4) + ") because " + region.getReason() + ", use /liquidunfreeze to let them flow again");
+			}
+			trips.clear();
+
+			// Speed a slowed down world up again step by step, once it has kept up for a while
+			if (context.ticksPerFlow > budget.getTicksPerFlow() && ++context.flowsInTime >= RECOVERY_FLOWS) {
+				context.flowsInTime = 0;
+				context.ticksPerFlow = Math.max(context.ticksPerFlow / 2, budget.getTicksPerFlow());
+
+				if (context.ticksPerFlow == budget.getTicksPerFlow() && context.reported) {
+					context.reported = false;
+					logger.info("Liquids in world " + context.name + " have caught up");
+				}
+			}
+		}
+
+		context.nextFlowTick = tick + context.ticksPerFlow;
+	}
+}
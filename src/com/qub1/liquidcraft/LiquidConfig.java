@@ -0,0 +1,364 @@
+package com.qub1.liquidcraft;
+
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.engine.UpdateMode;
+import com.qub1.liquidcraft.util.BlockPosition;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.*;
+
+/**
+ * The validated contents of the configuration file.
+ * A configuration is only created once every value in it is valid, so it can replace the one in use without leaving anything half applied.
+ */
+public class LiquidConfig {
+	/**
+	 * The keys allowed at the top of the configuration.
+	 */
+	private static final Set<String> ROOT_KEYS = new HashSet<>(Arrays.asList("maximum-blocks-per-tick", "maximum-flow-time-per-tick", "seed", "defaults", "worlds"));
+
+	/**
+	 * The keys allowed in the default settings and the settings of a world.
+	 */
+	private static final Set<String> WORLD_KEYS = new HashSet<>(Arrays.asList("update-mode", "asynchronous", "ticks-per-flow", "maximum-ticks-per-flow", "maximum-blocks-per-tick", "maximum-flow-time-per-tick", "maximum-blocks-per-flow", "nearest-search-radius", "nearest-search-budget", "water-body-budget", "sleep-flows", "far-flow-interval", "vessels", "maximum-active-blocks", "maximum-source-body-size", "maximum-source-distance", "maximum-source-growth", "liquids"));
+
+	/**
+	 * The keys allowed in the profile of a liquid.
+	 */
+	private static final Set<String> PROFILE_KEYS = new HashSet<>(Arrays.asList("flow-rate", "flow-interval"));
+
+	/**
+	 * The configuration used when there is no configuration file, or it is invalid.
+	 */
+	public static final LiquidConfig DEFAULT = new LiquidConfig(20000, 10, null, WorldSettings.DEFAULT, Collections.<String, WorldSettings>emptyMap());
+
+	/**
+	 * The maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 */
+	private final int maximumBlocksPerTick;
+
+	/**
+	 * The maximum time spent handling liquid blocks in a single server tick, in all worlds together, in milliseconds.
+	 */
+	private final long maximumFlowTimePerTick;
+
+	/**
+	 * The seed the seeds of the worlds are derived from, or null if every run should use different seeds.
+	 */
+	private final Long seed;
+
+	/**
+	 * The settings of worlds that have none of their own.
+	 */
+	private final WorldSettings defaults;
+
+	/**
+	 * The settings of the worlds that have their own, by world name.
+	 */
+	private final Map<String, WorldSettings> worlds;
+
+	/**
+	 * Creates a new LiquidConfig.
+	 *
+	 * @param maximumBlocksPerTick   The maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 * @param maximumFlowTimePerTick The maximum time spent handling liquid blocks in a single server tick, in all worlds together, in milliseconds.
+	 * @param seed                   The seed the seeds of the worlds are derived from, or null if every run should use different seeds.
+	 * @param defaults               The settings of worlds that have none of their own.
+	 * @param worlds                 The settings of the worlds that have their own, by world name.
+	 */
+	private LiquidConfig(final int maximumBlocksPerTick, final long maximumFlowTimePerTick, final Long seed, final WorldSettings defaults, final Map<String, WorldSettings> worlds) {
+		this.maximumBlocksPerTick = maximumBlocksPerTick;
+		this.maximumFlowTimePerTick = maximumFlowTimePerTick;
+		this.seed = seed;
+		this.defaults = defaults;
+		this.worlds = worlds;
+	}
+
+	/**
+	 * Reads and validates a configuration.
+	 * Every value that is left out falls back to its default, and world settings fall back to the configured defaults.
+	 *
+	 * @param section The root of the configuration.
+	 * @return The configuration.
+	 * @throws IllegalArgumentException If a value is missing its section, has the wrong type, is out of range or has an unknown key.
+	 */
+	public static LiquidConfig load(final ConfigurationSection section) {
+		checkKeys(section, ROOT_KEYS);
+
+		int maximumBlocksPerTick = getInt(section, "maximum-blocks-per-tick", DEFAULT.maximumBlocksPerTick, 1, Integer.MAX_VALUE);
+		long maximumFlowTimePerTick = getInt(section, "maximum-flow-time-per-tick", (int) DEFAULT.maximumFlowTimePerTick, 1, 1000);
+		Long seed = getLong(section, "seed", DEFAULT.seed);
+
+		WorldSettings defaults = WorldSettings.DEFAULT;
+		if (section.contains("defaults")) {
+			defaults = loadWorldSettings(getSection(section, "defaults"), defaults);
+		}
+
+		Map<String, WorldSettings> worlds = new HashMap<>();
+		if (section.contains("worlds")) {
+			ConfigurationSection worldsSection = getSection(section, "worlds");
+
+			for (String name : worldsSection.getKeys(false)) {
+				worlds.put(name, loadWorldSettings(getSection(worldsSection, name), defaults));
+			}
+		}
+
+		return new LiquidConfig(maximumBlocksPerTick, maximumFlowTimePerTick, seed, defaults, Collections.unmodifiableMap(worlds));
+	}
+
+	/**
+	 * Reads and validates the settings of a world.
+	 *
+	 * @param section The section with the settings.
+	 * @param base    The settings to use for the values that are left out.
+	 * @return The settings.
+	 * @throws IllegalArgumentException If a value is invalid.
+	 */
+	private static WorldSettings loadWorldSettings(final ConfigurationSection section, final WorldSettings base) {
+		checkKeys(section, WORLD_KEYS);
+
+		UpdateMode updateMode = base.getUpdateMode();
+		if (section.contains("update-mode")) {
+			String value = section.getString("update-mode");
+
+			try {
+				updateMode = UpdateMode.valueOf(value.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				throw (new IllegalArgumentException("Invalid update mode \"" + value + "\" at " + getPath(section, "update-mode") + ", expected one of " + Arrays.toString(UpdateMode.values())));
+			}
+		}
+
+		FlowBudget baseBudget = base.getBudget();
+		int ticksPerFlow = getInt(section, "ticks-per-flow", baseBudget.getTicksPerFlow(), 1, Integer.MAX_VALUE);
+		int maximumTicksPerFlow = getInt(section, "maximum-ticks-per-flow", baseBudget.getMaximumTicksPerFlow(), 1, Integer.MAX_VALUE);
+		int maximumBlocksPerTick = getInt(section, "maximum-blocks-per-tick", baseBudget.getMaximumBlocksPerTick(), 1, Integer.MAX_VALUE);
+		int maximumFlowTimePerTick = getInt(section, "maximum-flow-time-per-tick", (int) baseBudget.getMaximumFlowTimePerTick(), 1, 1000);
+		int maximumBlocksPerFlow = getInt(section, "maximum-blocks-per-flow", baseBudget.getMaximumBlocksPerFlow(), 1, Integer.MAX_VALUE);
+
+		// The budget checks how its values relate to each other, so report its errors with the section they came from
+		FlowBudget budget;
+		try {
+			budget = new FlowBudget(ticksPerFlow, maximumTicksPerFlow, maximumBlocksPerTick, maximumFlowTimePerTick, maximumBlocksPerFlow);
+		} catch (IllegalArgumentException e) {
+			throw (new IllegalArgumentException(e.getMessage() + " at " + getPath(section, "")));
+		}
+
+		LiquidProfile[] profiles = new LiquidProfile[LiquidType.values().length];
+		ConfigurationSection liquids = section.contains("liquids") ? getSection(section, "liquids") : null;
+		if (liquids != null) {
+			Set<String> liquidKeys = new HashSet<>();
+			for (LiquidType liquidType : LiquidType.values()) {
+				liquidKeys.add(liquidType.name().toLowerCase(Locale.ROOT));
+			}
+
+			checkKeys(liquids, liquidKeys);
+		}
+
+		for (LiquidType liquidType : LiquidType.values()) {
+			LiquidProfile baseProfile = base.getProfile(liquidType);
+			String key = liquidType.name().toLowerCase(Locale.ROOT);
+
+			if (liquids == null || !liquids.contains(key)) {
+				profiles[liquidType.ordinal()] = baseProfile;
+			} else {
+				ConfigurationSection profile = getSection(liquids, key);
+				checkKeys(profile, PROFILE_KEYS);
+
+				profiles[liquidType.ordinal()] = new LiquidProfile(
+						getInt(profile, "flow-rate", baseProfile.getFlowRate(), 1, LiquidEngine.MAXIMUM_FLOW_RATE),
+						getInt(profile, "flow-interval", baseProfile.getFlowInterval(), 1, Integer.MAX_VALUE)
+				);
+			}
+		}
+
+		return new WorldSettings(
+				updateMode,
+				getBoolean(section, "asynchronous", base.isAsynchronous()),
+				budget,
+				getInt(section, "nearest-search-radius", base.getNearestSearchRadius(), 1, BlockPosition.WORLD_HEIGHT),
+				getInt(section, "nearest-search-budget", base.getNearestSearchBudget(), 1, Integer.MAX_VALUE),
+				getInt(section, "water-body-budget", base.getWaterBodyBudget(), 1, Integer.MAX_VALUE),
+				getInt(section, "sleep-flows", base.getSleepFlows(), 1, Integer.MAX_VALUE),
+				getInt(section, "far-flow-interval", base.getFarFlowInterval(), 1, Integer.MAX_VALUE),
+				getBoolean(section, "vessels", base.isVesselSolving()),
+				getInt(section, "maximum-active-blocks", base.getMaximumActiveBlocks(), 1, Integer.MAX_VALUE),
+				getInt(section, "maximum-source-body-size", base.getMaximumSourceBodySize(), 1, Integer.MAX_VALUE),
+				getInt(section, "maximum-source-distance", base.getMaximumSourceDistance(), 1, Integer.MAX_VALUE),
+				getInt(section, "maximum-source-growth", base.getMaximumSourceGrowth(), 1, Integer.MAX_VALUE),
+				profiles
+		);
+	}
+
+	/**
+	 * Checks that a section only has known keys, so typos are reported instead of silently ignored.
+	 *
+	 * @param section The section.
+	 * @param keys    The known keys.
+	 * @throws IllegalArgumentException If the section has an unknown key.
+	 */
+	private static void checkKeys(final ConfigurationSection section, final Set<String> keys) {
+		for (String key : section.getKeys(false)) {
+			if (!keys.contains(key)) {
+				throw (new IllegalArgumentException("Unknown setting \"" + getPath(section, key) + "\""));
+			}
+		}
+	}
+
+	/**
+	 * Gets a section within a section.
+	 *
+	 * @param section The parent section.
+	 * @param key     The key of the section.
+	 * @return The section.
+	 * @throws IllegalArgumentException If the value is not a section.
+	 */
+	private static ConfigurationSection getSection(final ConfigurationSection section, final String key) {
+		if (!section.isConfigurationSection(key)) {
+			throw (new IllegalArgumentException("Invalid setting \"" + getPath(section, key) + "\", expected a section"));
+		}
+
+		return section.getConfigurationSection(key);
+	}
+
+	/**
+	 * Gets a whole number within a range.
+	 *
+	 * @param section      The section with the value.
+	 * @param key          The key of the value.
+	 * @param defaultValue The value to use if it is left out.
+	 * @param minimum      The lowest allowed value.
+	 * @param maximum      The highest allowed value.
+	 * @return The value.
+	 * @throws IllegalArgumentException If the value is not a whole number or out of range.
+	 */
+	private static int getInt(final ConfigurationSection section, final String key, final int defaultValue, final int minimum, final int maximum) {
+		if (!section.contains(key)) {
+			return defaultValue;
+		}
+
+		if (!section.isInt(key)) {
+			throw (new IllegalArgumentException("Invalid value \"" + section.get(key) + "\" at " + getPath(section, key) + ", expected a whole number"));
+		}
+
+		int value = section.getInt(key);
+		if (value < minimum || value > maximum) {
+			throw (new IllegalArgumentException("Invalid value \"" + value + "\" at " + getPath(section, key) + ", expected a number from " + minimum + " to " + maximum));
+		}
+
+		return value;
+	}
+
+	/**
+	 * Gets a whole number of any size.
+	 *
+	 * @param section      The section with the value.
+	 * @param key          The key of the value.
+	 * @param defaultValue The value to use if it is left out.
+	 * @return The value.
+	 * @throws IllegalArgumentException If the value is not a whole number.
+	 */
+	private static Long getLong(final ConfigurationSection section, final String key, final Long defaultValue) {
+		if (!section.contains(key)) {
+			return defaultValue;
+		}
+
+		// Small numbers are read as ints and large ones as longs
+		if (!section.isInt(key) && !section.isLong(key)) {
+			throw (new IllegalArgumentException("Invalid value \"" + section.get(key) + "\" at " + getPath(section, key) + ", expected a whole number"));
+		}
+
+		return section.getLong(key);
+	}
+
+	/**
+	 * Gets a boolean.
+	 *
+	 * @param section      The section with the value.
+	 * @param key          The key of the value.
+	 * @param defaultValue The value to use if it is left out.
+	 * @return The value.
+	 * @throws IllegalArgumentException If the value is not a boolean.
+	 */
+	private static boolean getBoolean(final ConfigurationSection section, final String key, final boolean defaultValue) {
+		if (!section.contains(key)) {
+			return defaultValue;
+		}
+
+		if (!section.isBoolean(key)) {
+			throw (new IllegalArgumentException("Invalid value \"" + section.get(key) + "\" at " + getPath(section, key) + ", expected true or false"));
+		}
+
+		return section.getBoolean(key);
+	}
+
+	/**
+	 * Gets the full path of a value, for error messages.
+	 *
+	 * @param section The section with the value.
+	 * @param key     The key of the value, or an empty string for the section itself.
+	 * @return The path.
+	 */
+	private static String getPath(final ConfigurationSection section, final String key) {
+		String path = section.getCurrentPath();
+
+		if (path == null || path.isEmpty()) {
+			return key.isEmpty() ? "the top of the configuration" : key;
+		}
+
+		return key.isEmpty() ? path : path + "." + key;
+	}
+
+	/**
+	 * Gets the maximum amount of liquid blocks handled in a single server tick, in all worlds together.
+	 *
+	 * @return The maximum amount of blocks.
+	 */
+	public int getMaximumBlocksPerTick() {
+		return maximumBlocksPerTick;
+	}
+
+	/**
+	 * Gets the maximum time spent handling liquid blocks in a single server tick, in all worlds together.
+	 *
+	 * @return The time, in milliseconds.
+	 */
+	public long getMaximumFlowTimePerTick() {
+		return maximumFlowTimePerTick;
+	}
+
+	/**
+	 * Checks whether a seed is configured, so every run makes the same choices.
+	 *
+	 * @return Whether a seed is configured.
+	 */
+	public boolean hasSeed() {
+		return seed != null;
+	}
+
+	/**
+	 * Gets the seed of a world, derived from the configured seed and the name of the world so it doesn't depend on the order in which worlds are loaded.
+	 *
+	 * @param worldName The name of the world.
+	 * @return The seed.
+	 * @throws IllegalStateException If no seed is configured.
+	 */
+	public long getSeed(final String worldName) {
+		if (seed == null) {
+			throw (new IllegalStateException("No seed is configured"));
+		}
+
+		return new SplittableRandom(seed ^ worldName.hashCode()).nextLong();
+	}
+
+	/**
+	 * Gets the settings of a world, which are the defaults if the world has none of its own.
+	 *
+	 * @param worldName The name of the world.
+	 * @return The settings.
+	 */
+	public WorldSettings getWorldSettings(final String worldName) {
+		WorldSettings settings = worlds.get(worldName);
+
+		return settings == null ? defaults : settings;
+	}
+}
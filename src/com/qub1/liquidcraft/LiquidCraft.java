@@ -1,204 +1,162 @@
 package com.qub1.liquidcraft;
 
+import com.qub1.liquidcraft.commandhandlers.LiquidReloadCommand;
+import com.qub1.liquidcraft.commandhandlers.LiquidStatsCommand;
+import com.qub1.liquidcraft.commandhandlers.LiquidTraceCommand;
+import com.qub1.liquidcraft.commandhandlers.LiquidUnfreezeCommand;
 import com.qub1.liquidcraft.commandhandlers.MakeInfiniteSourceCommand;
+import com.qub1.liquidcraft.engine.ChunkLiquidState;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.engine.TraceRecorder;
+import com.qub1.liquidcraft.metrics.LiquidMetrics;
+import com.qub1.liquidcraft.storage.LiquidStorage;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongRingBuffer;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
-import org.bukkit.craftbukkit.libs.jline.internal.Nullable;
-import org.bukkit.metadata.FixedMetadataValue;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 // TODO: Add more event handlers
 // TODO: Check for and remove redundant event handlers
-// TODO: Divide liquid level over neighbors
 // BUG: Sometimes liquids disappear when you remove the block next to them
-// BUG: Infinite blocks won't flow if there is 1 difference (apparently)
-// BUG: FlowToNearest gets slower if the body of water it is traversing is deeper
 
 public class LiquidCraft extends JavaPlugin {
 	/**
-	 * The amount of ticks between each flow.
+	 * The amount of changed blocks that can be queued between two flow ticks before the queue is drained early.
 	 */
-	private static final long TICKS_PER_FLOW = 4;
+	private static final int CHANGED_BLOCK_QUEUE_CAPACITY = 1 << 16;
 
 	/**
-	 * The highest liquid level.
+	 * The amount of ticks between updates of the chunks players are in, which decide which liquids are simulated in full detail.
 	 */
-	private static final int MAXIMUM_LIQUID_LEVEL = 8;
+	private static final int PLAYER_CHUNK_UPDATE_TICKS = 20;
 
 	/**
-	 * The lowest liquid level.
+	 * The amount of seconds to wait for running asynchronous steps when the plugin is disabled.
 	 */
-	private static final int MINIMUM_LIQUID_LEVEL = 0;
+	private static final int ASYNC_FLOW_SHUTDOWN_SECONDS = 10;
 
 	/**
-	 * How much liquid can flow from a block in one tick.
-	 * The default is one entire block of liquid (8 levels).
+	 * The height of the packed position of a deferred chunk that was loaded.
 	 */
-	private static final int FLOW_RATE = 8;
+	private static final int DEFERRED_CHUNK_LOAD = 0;
 
 	/**
-	 * All active liquid blocks, cached.
+	 * The height of the packed position of a deferred chunk that was unloaded.
 	 */
-	private Queue<Block> liquidBlocks = new LinkedList<>();
+	private static final int DEFERRED_CHUNK_UNLOAD = 1;
 
 	/**
-	 * Checks whether a two blocks are the same type of liquid.
-	 *
-	 * @param block1 The first block to compare.
-	 * @param block2 The second block to compare.
-	 * @return Whether the two blocks are the same type of liquid.
+	 * The name the metrics are registered under over JMX.
 	 */
-	public static boolean isSameLiquid(final Block block1, final Block block2) {
-		return isSameLiquid(block1.getType(), block2.getType());
-	}
+	private static final String METRICS_OBJECT_NAME = "com.qub1.liquidcraft:type=LiquidMetrics";
 
 	/**
-	 * Checks whether a two materials are the same type of liquid. If one of the materials is AIR, they will match.
-	 *
-	 * @param material1 The first material to compare.
-	 * @param material2 The second material to compare.
-	 * @return Whether the two materials are the same type of liquid.
+	 * The liquid engines of all worlds, where the index is the world id, or null for ids of unloaded worlds.
 	 */
-	public static boolean isSameLiquid(final Material material1, final Material material2) {
-		try {
-			return isLiquid(material1, true) && isLiquid(material2, true) && (material1 == Material.AIR || material2 == Material.AIR || LiquidType.fromMaterial(material1) == LiquidType.fromMaterial(material2));
-		} catch (Exception e) {
-			// This should not happen
-			e.printStackTrace();
-			return false;
-		}
-	}
+	private List<LiquidEngine> engines = new ArrayList<>();
 
 	/**
-	 * Gets the blocks with the lowest liquid level.
-	 *
-	 * @param blocks     The block to check.
-	 * @param liquidType The liquid type the blocks need to be.
-	 * @return The blocks with the lowest liquid level.
-	 */
-	public static List<Block> getLowestLiquidLevel(final List<Block> blocks, final LiquidType liquidType) {
-		int lowestLiquidLevel = -1;
-		List<Block> result = new ArrayList<>();
-
-		// Loop blocks and try to find the lowest one
-		for (Block block : blocks.stream().filter(o -> isLiquid(o, true) && isSameLiquid(o.getType(), liquidType.getValue())).collect(Collectors.toList())) {
-			// Try to get the block's liquid level
-			try {
-				int liquidLevel = getLiquidLevel(block);
-
-				// If the liquid level is lower than the lowest until now, clear the current results
-				if (liquidLevel < lowestLiquidLevel) {
-					result.clear();
-				}
+	 * The worlds that have an engine, where the index is the world id, or null for ids of unloaded worlds.
+	 */
+	private List<World> worlds = new ArrayList<>();
 
-				// If there is no liquid level, or the current block is lower or equal to the results, add it
-				if (lowestLiquidLevel == -1 || liquidLevel <= lowestLiquidLevel) {
-					lowestLiquidLevel = liquidLevel;
-					result.add(block);
-				}
-			} catch (Exception e) {
-				// This shouldn't happen
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * The liquid worlds the engines simulate, where the index is the world id, or null for ids of unloaded worlds.
+	 */
+	private List<BukkitLiquidWorld> liquidWorlds = new ArrayList<>();
 
-		return result;
-	}
+	/**
+	 * The storage of the liquid state of all worlds, where the index is the world id, or null for ids of unloaded worlds.
+	 */
+	private List<LiquidStorage> storages = new ArrayList<>();
 
 	/**
-	 * Checks whether the specified block can accept liquid.
-	 *
-	 * @param block The block to check.
-	 * @return Whether the block can accept liquid.
+	 * The running trace of all worlds, where the index is the world id, or null for worlds that are not traced.
 	 */
-	public static boolean canAcceptLiquid(Block block) {
-		try {
-			return isLiquid(block, true) && getLiquidLevel(block) < MAXIMUM_LIQUID_LEVEL;
-		} catch (Exception e) {
-			return false; // Should never happen
-		}
-	}
+	private List<TraceRecorder> traces = new ArrayList<>();
 
 	/**
-	 * Checks if the specified block can flow to another block.
-	 *
-	 * @param block The block to check.
-	 * @return Whether the block can flow.
+	 * Gives every engine its own seed when no seed is configured, so the choices made in each world can be reproduced from a trace.
 	 */
-	public static boolean canFlow(Block block) {
-		try {
-			boolean belowFlowRate = getFlowed(block) < FLOW_RATE;
-			boolean hasLiquid = getLiquidLevel(block) > MINIMUM_LIQUID_LEVEL;
+	private final SplittableRandom seeds = new SplittableRandom();
 
-			return isLiquid(block, false) && belowFlowRate && hasLiquid;
-		} catch (Exception e) {
-			// This should not happen
-			e.printStackTrace();
-			return false;
-		}
-	}
+	/**
+	 * The packed positions of blocks reported by events, waiting to be added to their engine in the next flow tick.
+	 */
+	private final LongRingBuffer changedBlocks = new LongRingBuffer(CHANGED_BLOCK_QUEUE_CAPACITY);
 
 	/**
-	 * Gets the horizontal neighbors around a block.
-	 *
-	 * @param block The block to check from.
-	 * @return The horizontal neighbors.
+	 * Holds the drained changed blocks while they are deduplicated, reused between ticks.
 	 */
-	public static List<Block> getHorizontalNeighbors(final Block block) {
-		List<Block> result = new ArrayList<>();
+	private final LongList drainedBlocks = new LongList(CHANGED_BLOCK_QUEUE_CAPACITY);
 
-		result.add(block.getRelative(BlockFace.NORTH));
-		result.add(block.getRelative(BlockFace.EAST));
-		result.add(block.getRelative(BlockFace.SOUTH));
-		result.add(block.getRelative(BlockFace.WEST));
+	/**
+	 * The changed blocks of worlds whose engine was in use by a worker thread when the queue was drained, added in a later tick.
+	 */
+	private final LongList deferredBlocks = new LongList();
 
-		return result;
-	}
+	/**
+	 * The chunks of worlds whose engine was in use by a worker thread when they were loaded or unloaded, in the order of their events.
+	 * Each is the packed position of its first block, at height DEFERRED_CHUNK_LOAD or DEFERRED_CHUNK_UNLOAD.
+	 */
+	private final LongList deferredChunks = new LongList();
 
 	/**
-	 * Gets the horizontal liquid neighbors around a block.
-	 *
-	 * @param block    The block to check from.
-	 * @param allowAir Whether to allow air.
-	 * @return The horizontal liquid neighbors.
+	 * The metrics of all engines, collected every tick.
 	 */
-	public static List<Block> getHorizontalLiquidNeighbors(final Block block, final boolean allowAir) {
-		return getHorizontalNeighbors(block).stream().filter(o -> isLiquid(o, allowAir)).collect(Collectors.toList());
-	}
+	private final LiquidMetrics metrics = new LiquidMetrics();
 
 	/**
-	 * Gets the liquid neighbors around a block.
-	 *
-	 * @param block    The block to check from.
-	 * @param allowAir Whether to allow air.
-	 * @return The liquid neighbors.
+	 * Holds the chunks players are in while they are handed to an engine, reused between updates.
 	 */
-	public static List<Block> getLiquidNeighbors(final Block block, final boolean allowAir) {
-		return getNeighbors(block).stream().filter(o -> isLiquid(o, allowAir)).collect(Collectors.toList());
-	}
+	private final LongList playerChunks = new LongList();
 
 	/**
-	 * Gets the neighbors around a block.
-	 *
-	 * @param block The block to check from.
-	 * @return The neighbors.
+	 * The amount of server ticks since the plugin was enabled.
 	 */
-	public static List<Block> getNeighbors(final Block block) {
-		List<Block> result = new ArrayList<>();
+	private long tick = 0;
 
-		result.add(block.getRelative(BlockFace.UP));
-		result.add(block.getRelative(BlockFace.DOWN));
-		result.add(block.getRelative(BlockFace.NORTH));
-		result.add(block.getRelative(BlockFace.EAST));
-		result.add(block.getRelative(BlockFace.SOUTH));
-		result.add(block.getRelative(BlockFace.WEST));
+	/**
+	 * Shares the budget of every tick between the worlds, created when the plugin is enabled.
+	 */
+	private FlowScheduler scheduler;
 
-		return result;
-	}
+	/**
+	 * The configuration in use, which is only replaced by a configuration that is completely valid.
+	 */
+	private LiquidConfig config = LiquidConfig.DEFAULT;
+
+	/**
+	 * Runs the steps of the worlds that are simulated asynchronously, created when the plugin is enabled.
+	 */
+	private ExecutorService asyncFlowExecutor;
+
+	/**
+	 * Computes the synchronous updates of all worlds, created when the plugin is enabled.
+	 */
+	private ForkJoinPool synchronousPool;
 
 	/**
 	 * Checks whether the specified block is a liquid.
@@ -219,417 +177,673 @@ public class LiquidCraft extends JavaPlugin {
 	 * @return Whether the material is a liquid.
 	 */
 	public static boolean isLiquid(final Material material, final boolean allowAir) {
-		return !(!allowAir && material == Material.AIR) && LiquidType.contains(material);
+		return LiquidEngine.isLiquid(material, allowAir);
 	}
 
 	/**
-	 * Determines the liquid level of the specified block, where MINIMUM_LIQUID_LEVEL is the lowest level (air/empty) and MAXIMUM_LIQUID_LEVEL the highest (full).
+	 * Checks if the specified block is an infinite liquid source.
 	 *
 	 * @param block The block to check.
-	 * @return The specified block's liquid level.
-	 * @throws Exception When the specified block is not a liquid.
-	 */
-	public static int getLiquidLevel(Block block) throws Exception {
-		// Check if the block is air
-		if (block.isEmpty()) {
-			// If so, the level is MINIMUM_LIQUID_LEVEL
-			return MINIMUM_LIQUID_LEVEL;
-		} else {
-			if (!isLiquid(block, false)) {
-				throw (new Exception("Block \"" + block.toString() + "\" is not a liquid"));
+	 * @return Whether the block is an infinite liquid source.
+	 */
+	public boolean isInfiniteLiquidSource(Block block) {
+		LiquidEngine engine = getEngine(block.getWorld());
+
+		return engine.isInfiniteLiquidSource(engine.getPosition(block.getX(), block.getY(), block.getZ()));
+	}
+
+	/**
+	 * Sets whether the specified block is an infinite liquid source.
+	 *
+	 * @param block The block to set.
+	 * @param value Whether the block is an infinite liquid source.
+	 */
+	public void setInfiniteLiquidSource(Block block, boolean value) {
+		LiquidEngine engine = getEngine(block.getWorld());
+		engine.setInfiniteLiquidSource(engine.getPosition(block.getX(), block.getY(), block.getZ()), value);
+	}
+
+	@Override
+	public void onDisable() {
+		try {
+			ObjectName name = new ObjectName(METRICS_OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
 			}
+		} catch (JMException e) {
+			getLogger().log(Level.WARNING, "Could not unregister the metrics", e);
+		}
 
-			// Get block information
-			int rawLiquidLevel = block.getData();
-			boolean isFalling = rawLiquidLevel >= MAXIMUM_LIQUID_LEVEL;
+		for (World world : worlds) {
+			if (world != null) {
+				stopTrace(world);
+			}
+		}
 
-			// Check the liquid level
-			int level;
-			if (isFalling) {
-				// If the block is a source block or a falling block, the liquid level is the maximum
-				level = MAXIMUM_LIQUID_LEVEL;
-			} else {
-				// Otherwise, calculate the liquid level
-				level = MAXIMUM_LIQUID_LEVEL - rawLiquidLevel;
+		// The engines can only be saved once no worker thread uses them anymore
+		awaitAsyncFlows();
+		addDeferredChunks();
+		asyncFlowExecutor.shutdown();
+		try {
+			if (!asyncFlowExecutor.awaitTermination(ASYNC_FLOW_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+				getLogger().warning("Asynchronous liquid steps are still running");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Synchronous updates only run while an engine flows, so no more tasks are coming
+		synchronousPool.shutdown();
+		try {
+			if (!synchronousPool.awaitTermination(ASYNC_FLOW_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+				getLogger().warning("Synchronous liquid updates are still running");
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 
-			return level;
+		getLogger().info("Saving liquid state...");
+
+		addChangedBlocks();
+
+		for (int id = 0; id < engines.size(); ++id) {
+			if (engines.get(id) != null) {
+				saveWorld(id);
+			}
 		}
 	}
 
 	/**
-	 * Checks if liquid can flow from the source block to the target block.
+	 * Saves the liquid state of every loaded chunk of a world, and closes its storage.
+	 * No worker thread may be using the engine of the world.
 	 *
-	 * @param from The source block.
-	 * @param to   The target block.
-	 * @return Whether liquid can flow from the source block to the target block.
+	 * @param id The id of the world.
 	 */
-	public static boolean canFlowFromTo(Block from, Block to) {
+	private void saveWorld(final int id) {
+		LiquidEngine engine = engines.get(id);
+		LiquidStorage storage = storages.get(id);
+		LongObjectMap<ChunkLiquidState> states = engine.getChunkStates();
+
 		try {
-			boolean isDownBlock = to.equals(from.getRelative(BlockFace.DOWN));
-			boolean hasHorizontalPotential = getLiquidLevel(from) - getLiquidLevel(to) >= 2;
+			// Save every loaded chunk, so chunks whose state is gone have their saved state removed as well
+			for (Chunk chunk : worlds.get(id).getLoadedChunks()) {
+				ChunkLiquidState state = states.get(BlockPosition.getChunkKey(engine.getPosition(chunk.getX() << 4, 0, chunk.getZ() << 4)));
+				storage.save(state == null ? new ChunkLiquidState(chunk.getX(), chunk.getZ()) : state);
+			}
 
-			return canFlow(from) && canAcceptLiquid(to) && isSameLiquid(from, to) && (isDownBlock || hasHorizontalPotential);
-		} catch (Exception e) {
-			return false;
+			storage.close();
+		} catch (IOException e) {
+			getLogger().log(Level.SEVERE, "Could not save the liquid state of world " + worlds.get(id).getName(), e);
 		}
 	}
 
 	/**
-	 * Checks if the specified block is an infinite liquid source.
+	 * Saves the liquid state of a world that is being unloaded, and releases its engine, storage and id.
+	 * A world that is loaded again gets a new engine, which restores the saved state as its chunks load.
 	 *
-	 * @param block The block to check.
-	 * @return Whether the block is an infinite liquid source.
+	 * @param world The world.
 	 */
-	public static boolean isInfiniteLiquidSource(Block block) {
-		return block.hasMetadata("Infinite") && block.getMetadata("Infinite").get(0).asBoolean();
-	}
+	public void unloadWorld(final World world) {
+		int id = findWorldId(world);
+		if (id == -1) {
+			return;
+		}
 
-	@Override
-	public void onDisable() {
+		stopTrace(world);
+		scheduler.awaitAsyncFlow(id);
+
+		// Chunks and changes queued in the world have to reach the engine before its state is saved
+		addDeferredChunks();
+		addChangedBlocks();
+		saveWorld(id);
+
+		scheduler.removeWorld(id);
+		engines.set(id, null);
+		worlds.set(id, null);
+		liquidWorlds.set(id, null);
+		storages.set(id, null);
+		traces.set(id, null);
+
+		getLogger().info("Saved the liquid state of unloaded world " + world.getName());
 	}
 
 	@Override
 	public void onEnable() {
+		getLogger().info("Loading configuration...");
+		saveDefaultConfig();
+		try {
+			config = LiquidConfig.load(getConfig());
+		} catch (IllegalArgumentException e) {
+			getLogger().severe("Invalid configuration, using the defaults instead: " + e.getMessage());
+		}
+
+		scheduler = new FlowScheduler(getLogger(), config.getMaximumBlocksPerTick(), config.getMaximumFlowTimePerTick());
+
+		// Leave a core for the server thread, since it still applies the changes
+		asyncFlowExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), runnable -> {
+			Thread thread = new Thread(runnable, "LiquidCraft async flow");
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		// The thread continuing a synchronous flow only waits for the pool, so the pool leaves the same core free
+		synchronousPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
 		getLogger().info("Registering events...");
 		getServer().getPluginManager().registerEvents(new EventHandler(this), this);
 
 		getLogger().info("Registering commands...");
 		getCommand("makeinfinitesource").setExecutor(new MakeInfiniteSourceCommand(this));
+		getCommand("liquidstats").setExecutor(new LiquidStatsCommand(this));
+		getCommand("liquidreload").setExecutor(new LiquidReloadCommand(this));
+		getCommand("liquidtrace").setExecutor(new LiquidTraceCommand(this));
+		getCommand("liquidunfreeze").setExecutor(new LiquidUnfreezeCommand(this));
 
-		getLogger().info("Registering scheduled tasks...");
-		getServer().getScheduler().scheduleSyncRepeatingTask(this, () -> {
-			getLogger().info("Processing " + new Integer(liquidBlocks.size()).toString() + " blocks...");
+		getLogger().info("Registering metrics...");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(METRICS_OBJECT_NAME);
 
-			// First copy all current blocks, so as to loop through all blocks once per tick
-			Queue<Block> liquidBlocksToHandle = new LinkedList<>(liquidBlocks);
+			// A reload leaves the metrics of the previous instance behind
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
 
-			// Process all blocks
-			while (!liquidBlocksToHandle.isEmpty()) {
-				Block block = liquidBlocksToHandle.remove();
+			server.registerMBean(metrics, name);
+		} catch (JMException e) {
+			getLogger().log(Level.WARNING, "Could not register the metrics over JMX", e);
+		}
 
-				try {
-					handleLiquidBlock(block);
-				} catch (Exception e) {
-					// This should not happen
-					e.printStackTrace();
-				}
+		getLogger().info("Registering scheduled tasks...");
+		getServer().getScheduler().scheduleSyncRepeatingTask(this, this::flow, 1, 1);
+
+		// Chunks that were loaded before the plugin was enabled won't fire a load event
+		for (World world : getServer().getWorlds()) {
+			for (Chunk chunk : world.getLoadedChunks()) {
+				loadChunk(chunk);
 			}
-		}, TICKS_PER_FLOW, TICKS_PER_FLOW);
+		}
 	}
 
-	public void addBlock(final Block block) {
-		// Add block and neighbors
-		if (isLiquid(block, false) && !liquidBlocks.contains(block)) {
-			liquidBlocks.add(block);
+	/**
+	 * Restores the saved liquid state of a chunk that was loaded.
+	 * While a worker thread uses the engine of the world, the chunk is only queued, and loaded into the engine once the step is done.
+	 *
+	 * @param chunk The chunk.
+	 */
+	public void loadChunk(final Chunk chunk) {
+		deferChunk(getWorldId(chunk.getWorld()), chunk, DEFERRED_CHUNK_LOAD);
+	}
 
-			// Add all neighbors which are liquids and equal height or higher than the current block
-			liquidBlocks.addAll(getLiquidNeighbors(block, false).stream().filter(o -> !liquidBlocks.contains(o) && o.getY() >= block.getY()).collect(Collectors.toList()));
+	/**
+	 * Saves the liquid state of a chunk that is being unloaded, and removes it from the engine.
+	 * While a worker thread uses the engine of the world, the chunk is only queued, and saved once the step is done.
+	 * The saved state comes from the engine, so the chunk itself is not needed anymore by then.
+	 *
+	 * @param chunk The chunk.
+	 */
+	public void unloadChunk(final Chunk chunk) {
+		// The chunks of an unloaded world were already saved with it, and must not get a new engine
+		int id = findWorldId(chunk.getWorld());
+		if (id == -1) {
+			return;
 		}
+
+		deferChunk(id, chunk, DEFERRED_CHUNK_UNLOAD);
 	}
 
 	/**
-	 * Raises the amount of liquid that has flowed from the specified block.
+	 * Queues a chunk that was loaded or unloaded, and applies it right away unless the engine of its world is in use by a worker thread.
 	 *
-	 * @param block  The block to set.
-	 * @param amount The amount to raise the flowed value by.
+	 * @param id     The id of the world.
+	 * @param chunk  The chunk.
+	 * @param change DEFERRED_CHUNK_LOAD or DEFERRED_CHUNK_UNLOAD.
 	 */
-	private void raiseFlowed(Block block, int amount) {
-		setFlowed(block, getFlowed(block) + amount);
+	private void deferChunk(final int id, final Chunk chunk, final int change) {
+		deferredChunks.add(BlockPosition.pack(id, chunk.getX() << 4, change, chunk.getZ() << 4));
+
+		// Chunks queued before have to be applied first, since a chunk may be loaded and unloaded again
+		if (!scheduler.isRunning(id)) {
+			addDeferredChunks();
+		}
 	}
 
 	/**
-	 * Lowers the amount of liquid that has flowed from the specified block.
-	 *
-	 * @param block  The block to set.
-	 * @param amount The amount to lower the flowed value by.
+	 * Applies the queued chunks of all worlds whose engine is not in use by a worker thread, in the order they were queued.
 	 */
-	private void lowerFlowed(Block block, int amount) {
-		setFlowed(block, getFlowed(block) - amount);
+	private void addDeferredChunks() {
+		int kept = 0;
+
+		for (int i = 0; i < deferredChunks.size(); ++i) {
+			long position = deferredChunks.get(i);
+			int id = BlockPosition.getWorldId(position);
+
+			if (scheduler.isRunning(id)) {
+				deferredChunks.set(kept++, position);
+			} else if (BlockPosition.getY(position) == DEFERRED_CHUNK_LOAD) {
+				addChunk(id, BlockPosition.getChunkX(position), BlockPosition.getChunkZ(position));
+			} else {
+				removeChunk(id, BlockPosition.getChunkX(position), BlockPosition.getChunkZ(position));
+			}
+		}
+
+		while (deferredChunks.size() > kept) {
+			deferredChunks.removeLast();
+		}
 	}
 
 	/**
-	 * Sets the amount of liquid that has flowed from the specified block.
+	 * Restores the saved liquid state of a chunk into the engine of its world, which must not be in use by a worker thread.
 	 *
-	 * @param block  The block to set.
-	 * @param amount The amount that has flowed.
+	 * @param id     The id of the world.
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
 	 */
-	public void setFlowed(Block block, int amount) {
-		block.setMetadata("Flowed", new FixedMetadataValue(this, amount));
+	private void addChunk(final int id, final int chunkX, final int chunkZ) {
+		try {
+			engines.get(id).loadChunk(storages.get(id).load(chunkX, chunkZ));
+		} catch (IOException e) {
+			getLogger().log(Level.WARNING, "Could not load the liquid state of chunk " + chunkX + ", " + chunkZ + " in world " + worlds.get(id).getName(), e);
+		}
 	}
 
 	/**
-	 * Gets the amount of liquid that has flowed from a block in the current tick.
+	 * Saves the liquid state of a chunk, and removes it from the engine of its world, which must not be in use by a worker thread.
 	 *
-	 * @param block The block to check.
-	 * @return The amount of liquid that flowed from the specified block.
+	 * @param id     The id of the world.
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
 	 */
-	public static int getFlowed(Block block) {
-		if (block.hasMetadata("Flowed")) {
-			return block.getMetadata("Flowed").get(0).asInt();
-		} else {
-			return 0;
+	private void removeChunk(final int id, final int chunkX, final int chunkZ) {
+		// Changes queued in the chunk have to reach the engine before its state is saved
+		addChangedBlocks();
+
+		LiquidEngine engine = engines.get(id);
+		liquidWorlds.get(id).removeSnapshot(BlockPosition.getChunkKey(engine.getPosition(chunkX << 4, 0, chunkZ << 4)));
+
+		try {
+			storages.get(id).unload(engine.unloadChunk(chunkX, chunkZ));
+		} catch (IOException e) {
+			getLogger().log(Level.WARNING, "Could not save the liquid state of chunk " + chunkX + ", " + chunkZ + " in world " + worlds.get(id).getName(), e);
 		}
 	}
 
 	/**
-	 * Handles the specified liquid block.
-	 *
-	 * @param block The block to handle.
-	 * @throws Exception When the specified block cannot flow.
-	 */
-	private void handleLiquidBlock(Block block) throws Exception {
-		// First, let's set the blocks flow rate to nothing
-		if(isLiquid(block, false)) {
-			setFlowed(block, 0);
-		}
-
-		// Check if the block can flow
-		if (canFlow(block)) {
-			// First, move as much liquid as possible downward
-			if (!flowDown(block)) {
-				// If we're not done, divide the remaining liquid over the direct neighbors
-				if(!flowHorizontally(block)) {
-					// If we're still not done, perform a flood fill algorithm
-					flowToNearest(block);
+	 * Handles liquid blocks for a single server tick, within the time and block budget.
+	 */
+	private void flow() {
+		long start = System.nanoTime();
+
+		// Finish the steps that are done first, so the chunks and changes queued in their worlds can be added
+		scheduler.finishAsyncFlows();
+
+		addDeferredChunks();
+		addChangedBlocks();
+
+		if (tick++ % PLAYER_CHUNK_UPDATE_TICKS == 0) {
+			updatePlayerChunks();
+		}
+
+		scheduler.tick();
+
+		for (int id = 0; id < traces.size(); ++id) {
+			TraceRecorder trace = traces.get(id);
+
+			if (trace != null) {
+				trace.recordTick();
+
+				if (trace.getError() != null) {
+					getLogger().log(Level.SEVERE, "Could not write the trace of world " + worlds.get(id).getName(), trace.getError());
+					stopTrace(worlds.get(id));
 				}
 			}
 		}
 
-		// Check if anything flowed
-		if(getFlowed(block) == 0) {
-			// If not, remove the block from the handle list
-			liquidBlocks.remove(block);
-		}
+		metrics.recordTick(engines, scheduler::isRunning, System.nanoTime() - start);
 	}
 
 	/**
-	 * Flows as much liquid as possible downward.
-	 *
-	 * @param block The block to flow down from.
-	 * @return A boolean telling us if we're done.
-	 * @throws Exception If the specified block is not a liquid.
+	 * Tells every engine which chunks players are in, so liquids within view distance of a player are simulated in full detail and others coarsely.
 	 */
-	public boolean flowDown(Block block) throws Exception {
-		Block downBlock = block.getRelative(BlockFace.DOWN);
+	private void updatePlayerChunks() {
+		int viewDistance = getServer().getViewDistance();
 
-		// Move as much as possible downward
-		while (canFlowFromTo(block, downBlock)) {
-			flowLiquidFromTo(block, downBlock, 1);
+		for (int id = 0; id < engines.size(); ++id) {
+			// Engines in use by a worker thread are updated the next time
+			if (engines.get(id) == null || scheduler.isRunning(id)) {
+				continue;
+			}
+
+			LiquidEngine engine = engines.get(id);
+
+			playerChunks.clear();
+			for (Player player : worlds.get(id).getPlayers()) {
+				Location location = player.getLocation();
+				playerChunks.add(BlockPosition.getChunkKey(engine.getPosition(location.getBlockX(), 0, location.getBlockZ())));
+			}
+
+			engine.setPlayerChunks(playerChunks, viewDistance);
 		}
+	}
 
-		// Check if we're done
-		return !canFlow(block);
+	/**
+	 * Gets the scheduler that shares the budget of every tick between the worlds.
+	 *
+	 * @return The scheduler.
+	 */
+	public FlowScheduler getScheduler() {
+		return scheduler;
 	}
 
 	/**
-	 * Flows as much liquid as possible to the horizontal neighbors.
+	 * Sets the budget of a world, which resets any slowdown of the world.
 	 *
-	 * @param block The blow to flow from.
-	 * @return A boolean telling us if we're done.
-	 * @throws Exception If the source block is not a liquid.
-	 */
-	public boolean flowHorizontally(Block block) throws Exception {
-		while (true) {
-			// Get neighbors with lowest liquid level
-			List<Block> destinationBlocks = getLowestLiquidLevel(getHorizontalLiquidNeighbors(block, true), LiquidType.fromBlock(block));
-
-			// Check if there is one
-			if (destinationBlocks.size() > 0) {
-				// If so, pick a random one
-				Random random = new Random();
-				Block destinationBlock = destinationBlocks.get(random.nextInt(destinationBlocks.size()));
-
-				// Check if we can flow to it
-				if (canFlowFromTo(block, destinationBlock)) {
-					// If there is more than 1 difference in between the levels, simply flow and continue
-					flowLiquidFromTo(block, destinationBlock, 1);
-				} else {
-					// If we can't, then we need to check if all liquid flowed or if there is some left
-					// Get the difference in levels
-					int liquidLevelDifference = getLiquidLevel(block) - getLiquidLevel(destinationBlock);
-
-					// Check if we're done
-					if (liquidLevelDifference == 0) {
-						// If the level difference is 0 we've successfully equalized the liquid so we're done
-						return true;
-					} else {
-						// If there is one or more levels difference we couldn't equalize the liquid so we're not done
-						return false;
-					}
-				}
-			} else {
-				// If not, we're not done
-				return false;
+	 * @param world  The world.
+	 * @param budget The budget.
+	 */
+	public void setBudget(final World world, final FlowBudget budget) {
+		scheduler.setBudget(getWorldId(world), budget);
+	}
+
+	/**
+	 * Reads the configuration file again and applies it to the scheduler and every engine.
+	 * The whole file is validated before anything is applied, so an invalid file leaves the configuration in use untouched.
+	 * Commands and flows both run on the main thread, so the new configuration takes effect between two ticks.
+	 *
+	 * @throws IllegalArgumentException If the configuration is invalid.
+	 */
+	public void reloadSettings() {
+		reloadConfig();
+		LiquidConfig config = LiquidConfig.load(getConfig());
+
+		this.config = config;
+		scheduler.setLimits(config.getMaximumBlocksPerTick(), config.getMaximumFlowTimePerTick());
+		awaitAsyncFlows();
+
+		for (int id = 0; id < engines.size(); ++id) {
+			if (engines.get(id) == null) {
+				continue;
 			}
+
+			WorldSettings settings = config.getWorldSettings(worlds.get(id).getName());
+			settings.apply(engines.get(id));
+			scheduler.setBudget(id, settings.getBudget());
+			setAsynchronous(id, settings.isAsynchronous());
 		}
 	}
 
 	/**
-	 * Flows the block to the nearest block that can receive its flow without disrupting the balance.
+	 * Makes the engine of a world run on a worker thread, or on the server thread again.
+	 * Traces replay the engine against the blocks it read, which a worker thread only sees through snapshots, so a trace of the world is stopped.
 	 *
-	 * @param block The block to flow.
-	 * @throws Exception If the source block is not a liquid.
-	 */
-	public void flowToNearest(Block block) throws Exception {
-		// List of blocks that have been handled already
-		List<Block> handled = new ArrayList<>();
-
-		// List of blocks to handle in the first iteration (all direct neighbors which are lower or as high as the start block)
-		List<Block> toHandleNext = new ArrayList<>(getLiquidNeighbors(block, true).stream().filter(o -> o.getY() <= block.getY()).collect(Collectors.toList()));
-
-		// The current layer
-		int currentY = block.getY();
-
-		// Keep looping while there are blocks left to process
-		while (canFlow(block) && toHandleNext.size() > 0) {
-			// We need to copy the latest Y for use in lambda expressions
-			final int latestY = currentY;
-
-			// Get all blocks that we'll handle in this iteration
-			List<Block> toHandle = new ArrayList<>(toHandleNext.stream().filter(o -> o.getY() >= latestY).collect(Collectors.toList()));
-
-			// Check if the current layer still has blocks
-			if (toHandle.size() > 0) {
-				// If so, remove all blocks that we're handling from the wait list
-				toHandleNext.removeAll(toHandle);
-
-				// Shuffle the list that needs to be handled
-				// Since all blocks that need to be handled are direct neighbors of blocks which have been handled already, the flow distance remains the same
-				Collections.shuffle(toHandle);
-
-				// Handle all blocks in the current iteration
-				while (canFlow(block) && toHandle.size() > 0) {
-					// Get the next block to handle and remove it from the list
-					Block currentBlock = toHandle.remove(toHandle.size() - 1);
-
-					// Add the block to the handled list
-					handled.add(currentBlock);
-
-					// Check if the current block is an air block
-					// We need to check this, or else we get a chain reaction of air blocks adding air blocks
-					if (!currentBlock.isEmpty()) {
-						// If not, it's safe to add neighbors
-						// Add all neighbors which are not yet in any list and lower than the start block to the next iteration to be processed
-						toHandleNext.addAll(getLiquidNeighbors(currentBlock, true).stream().filter(o -> o.getY() <= block.getY() && !toHandleNext.contains(o) && !handled.contains(o)).collect(Collectors.toList()));
-					}
-
-					// Finally, check if we can flow to the current block, and if so, flow as much as possible
-					while (canFlowFromTo(block, currentBlock)) {
-						flowLiquidFromTo(block, currentBlock, 1);
-					}
-				}
-			} else {
-				// If not, we move on to the next layer
-				--currentY;
+	 * @param id           The id of the world.
+	 * @param asynchronous Whether the engine should run on a worker thread.
+	 */
+	private void setAsynchronous(final int id, final boolean asynchronous) {
+		if (asynchronous == (scheduler.getAsyncFlow(id) != null)) {
+			return;
+		}
+
+		if (asynchronous) {
+			stopTrace(worlds.get(id));
+			scheduler.setAsyncFlow(id, new AsyncFlow(worlds.get(id).getName(), engines.get(id), liquidWorlds.get(id), asyncFlowExecutor, getLogger()));
+		} else {
+			scheduler.setAsyncFlow(id, null);
+			liquidWorlds.get(id).clearSnapshots();
+		}
+	}
+
+	/**
+	 * Waits for the asynchronous steps of all worlds and applies their changes, so every engine can be used.
+	 */
+	public void awaitAsyncFlows() {
+		for (int id = 0; id < engines.size(); ++id) {
+			if (engines.get(id) != null) {
+				scheduler.awaitAsyncFlow(id);
 			}
 		}
 	}
 
 	/**
-	 * Flows liquid from the specified source to the specified target.
+	 * Starts recording every input of the engine of a world to a trace file, which can be replayed without a server by the benchmarks.
+	 * The blocks of all loaded chunks of the world are written first, so the server pauses for a moment.
 	 *
-	 * @param sourceBlock The source block.
-	 * @param targetBlock The target block.
-	 * @param amount      The amount to flow.
-	 * @throws Exception If the source can't flow or the target block can't receive.
+	 * @param world The world to trace.
+	 * @return The trace file.
+	 * @throws IOException           If the trace file could not be created.
+	 * @throws IllegalStateException If the world is already being traced, or is simulated asynchronously.
 	 */
-	public void flowLiquidFromTo(Block sourceBlock, Block targetBlock, int amount) throws Exception {
-		if (!isLiquid(sourceBlock, false)) {
-			throw (new Exception("Source block \"" + sourceBlock.toString() + "\" is not a liquid"));
+	public File startTrace(final World world) throws IOException {
+		int id = getWorldId(world);
+
+		if (traces.get(id) != null) {
+			throw (new IllegalStateException("World " + world.getName() + " is already being traced"));
 		}
 
-		if (!targetBlock.isEmpty() && LiquidType.fromMaterial(targetBlock.getType()) != LiquidType.fromMaterial(sourceBlock.getType())) {
-			throw (new Exception("Target block \"" + targetBlock.toString() + "\" is not empty, not a liquid or not the correct liquid"));
+		if (scheduler.getAsyncFlow(id) != null) {
+			throw (new IllegalStateException("World " + world.getName() + " is simulated asynchronously, which can't be traced"));
 		}
 
-		if (amount > FLOW_RATE - getFlowed(sourceBlock)) {
-			throw (new Exception("Flow exceeds flow rate"));
+		File folder = new File(getDataFolder(), "traces");
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw (new IOException("Could not create folder " + folder));
 		}
 
-		// Transact liquid
-		LiquidType liquidType = LiquidType.fromBlock(sourceBlock);
-		lowerLiquidLevel(sourceBlock, amount, liquidType);
-		raiseLiquidLevel(targetBlock, amount, liquidType);
+		// Blocks queued so far are part of the state the trace starts with
+		addChangedBlocks();
+
+		File file = new File(folder, world.getName() + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".lct");
+		FileOutputStream output = new FileOutputStream(file);
+		TraceRecorder trace;
+		try {
+			trace = new TraceRecorder(output);
+		} catch (IOException e) {
+			output.close();
+			throw e;
+		}
+		engines.get(id).startTrace(trace);
+		traces.set(id, trace);
 
-		// Raise flow rate
-		raiseFlowed(sourceBlock, amount);
+		getLogger().info("Tracing world " + world.getName() + " to " + file);
+
+		return file;
 	}
 
 	/**
-	 * Sets whether the specified block is an infinite liquid source.
+	 * Stops recording the trace of a world, if it is being traced.
 	 *
-	 * @param block The block to set.
-	 * @param value Whether the block is an infinite liquid source.
+	 * @param world The world.
+	 * @return The amount of ticks recorded, or -1 if the world was not being traced.
 	 */
-	public void setInfiniteLiquidSource(Block block, boolean value) {
-		block.setMetadata("Infinite", new FixedMetadataValue(this, value));
+	public int stopTrace(final World world) {
+		int id = getWorldId(world);
+		TraceRecorder trace = traces.get(id);
+
+		if (trace == null) {
+			return -1;
+		}
+
+		// Blocks queued so far are still part of the trace
+		addChangedBlocks();
+
+		engines.get(id).stopTrace();
+		traces.set(id, null);
+
+		try {
+			trace.close();
+		} catch (IOException e) {
+			getLogger().log(Level.SEVERE, "Could not write the trace of world " + world.getName(), e);
+		}
+
+		getLogger().info("Stopped tracing world " + world.getName() + " after " + trace.getTickCount() + " ticks");
+
+		return trace.getTickCount();
 	}
 
 	/**
-	 * Sets the liquid level of the specified block, where MINIMUM_LIQUID_LEVEL is the lowest level (air/empty) and MAXIMUM_LIQUID_LEVEL the highest (full).
+	 * Gets the metrics of all engines.
 	 *
-	 * @param block      The block to set.
-	 * @param level      The level to set.
-	 * @param liquidType The liquid type to set the block to.
-	 * @throws Exception If the block is not a liquid, or if the liquid level is invalid.
-	 */
-	public void setLiquidLevel(Block block, final int level, @Nullable final LiquidType liquidType) throws Exception {
-		// Only do something if necessary
-		// If the block is an infinite source, the level won't change
-		if (getLiquidLevel(block) != level && !isInfiniteLiquidSource(block)) {
-			if (level < MINIMUM_LIQUID_LEVEL || level > MAXIMUM_LIQUID_LEVEL) {
-				throw (new Exception("Invalid liquid level \"" + level + "\""));
-			}
+	 * @return The metrics.
+	 */
+	public LiquidMetrics getMetrics() {
+		return metrics;
+	}
 
-			if (level == MINIMUM_LIQUID_LEVEL) {
-				// The block should be air
-				block.setType(Material.AIR);
-			} else {
-				// Check if the block is air
-				if (block.isEmpty()) {
-					// Check if the target type is non-null
-					if (liquidType == null) {
-						throw (new Exception("Cannot convert target block \"" + block.toString() + "\" to liquid since no target liquid type is specified"));
-					}
-
-					// If the block is air, change it to the correct target type
-					block.setType(liquidType.getValue());
-				}
+	/**
+	 * Gets the liquid engines of all worlds, where the index is the world id, or null for ids of unloaded worlds.
+	 *
+	 * @return The engines.
+	 */
+	public List<LiquidEngine> getEngines() {
+		return Collections.unmodifiableList(engines);
+	}
 
-				// Stabilize block type
-				block.setType(LiquidType.fromBlock(block).getValue());
+	/**
+	 * Gets the worlds that have an engine, where the index is the world id, or null for ids of unloaded worlds.
+	 *
+	 * @return The worlds.
+	 */
+	public List<World> getWorlds() {
+		return Collections.unmodifiableList(worlds);
+	}
 
-				// If so, simply change the liquid level
-				block.setData((byte) (MAXIMUM_LIQUID_LEVEL - level));
-			}
+	/**
+	 * Queues a changed block, so it is added to the active blocks of its engine in the next flow tick.
+	 * Only the packed position is stored, so this is cheap enough to call from every event.
+	 *
+	 * @param block The block that changed.
+	 */
+	public void queueBlock(final Block block) {
+		int y = block.getY();
+		if (!BlockPosition.isValidY(y)) {
+			return;
+		}
+
+		long position = BlockPosition.pack(getWorldId(block.getWorld()), block.getX(), y, block.getZ());
+
+		// If a burst of events fills the queue, hand the queued blocks to the engines right away instead of losing any
+		if (!changedBlocks.offer(position)) {
+			addChangedBlocks();
+			changedBlocks.offer(position);
 		}
+	}
+
+	/**
+	 * Drains the queue of changed blocks and adds every distinct block to its engine once.
+	 */
+	private void addChangedBlocks() {
+		if (changedBlocks.isEmpty() && deferredBlocks.isEmpty()) {
+			return;
+		}
+
+		drainedBlocks.clear();
+		drainedBlocks.addAll(deferredBlocks);
+		deferredBlocks.clear();
+		changedBlocks.drainTo(drainedBlocks);
+
+		// Sorting puts duplicates next to each other, and groups the blocks by world and chunk
+		drainedBlocks.sort();
+
+		for (int i = 0; i < drainedBlocks.size(); ++i) {
+			long position = drainedBlocks.get(i);
 
-		// Add to handle list if not there
-		addBlock(block);
+			if (i == 0 || position != drainedBlocks.get(i - 1)) {
+				int id = BlockPosition.getWorldId(position);
+
+				// The snapshot of the chunk no longer matches the world, which is only used by asynchronous worlds
+				if (scheduler.getAsyncFlow(id) != null) {
+					liquidWorlds.get(id).markChanged(position);
+				}
+
+				if (scheduler.isRunning(id)) {
+					deferredBlocks.add(position);
+				} else {
+					engines.get(id).addChangedBlock(position);
+				}
+			}
+		}
 	}
 
 	/**
-	 * Raises the target block's liquid level by the specified amount.
+	 * Gets the liquid engine of the specified world, creating one if the world has none yet.
+	 * If the engine is in use by a worker thread, this waits until it is done, so the engine can be used right away.
 	 *
-	 * @param block      The block to raise.
-	 * @param liquidType The liquid type to set the block to.
-	 * @param amount     The amount to raise.
-	 * @throws Exception If the block is not a liquid.
+	 * @param world The world to get the engine of.
+	 * @return The engine of the world.
 	 */
-	public void raiseLiquidLevel(Block block, final int amount, final LiquidType liquidType) throws Exception {
-		setLiquidLevel(block, getLiquidLevel(block) + amount, liquidType);
+	public LiquidEngine getEngine(final World world) {
+		int id = getWorldId(world);
+		scheduler.awaitAsyncFlow(id);
+
+		return engines.get(id);
 	}
 
 	/**
-	 * Lowers the target block's liquid level by the specified amount.
+	 * Gets the id of the specified world, creating an engine and storage for it if the world has none yet.
+	 * The id of a world that was unloaded is reused, so worlds that are loaded again and again don't run out of ids.
 	 *
-	 * @param block      The block to lower.
-	 * @param liquidType The liquid type to set the block to.
-	 * @param amount     The amount to lower.
-	 * @throws Exception If the block is not a liquid.
+	 * @param world The world to get the id of.
+	 * @return The id of the world.
+	 * @throws IllegalStateException If the world has no engine and no id is left.
+	 */
+	private int getWorldId(final World world) {
+		int id = findWorldId(world);
+		if (id != -1) {
+			return id;
+		}
+
+		id = worlds.indexOf(null);
+		if (id == -1) {
+			if (engines.size() > BlockPosition.MAXIMUM_WORLD_ID) {
+				throw (new IllegalStateException("Too many worlds, at most " + (BlockPosition.MAXIMUM_WORLD_ID + 1) + " are supported"));
+			}
+
+			id = engines.size();
+			engines.add(null);
+			worlds.add(null);
+			liquidWorlds.add(null);
+			storages.add(null);
+			traces.add(null);
+		}
+
+		BukkitLiquidWorld liquidWorld = new BukkitLiquidWorld(world, id);
+		LiquidEngine engine = new LiquidEngine(liquidWorld);
+		WorldSettings settings = config.getWorldSettings(world.getName());
+		settings.apply(engine);
+		engine.setChunkTracking(true);
+		engine.setSynchronousPool(synchronousPool);
+		engine.setSeed(config.hasSeed() ? config.getSeed(world.getName()) : seeds.nextLong());
+		engines.set(id, engine);
+		worlds.set(id, world);
+		liquidWorlds.set(id, liquidWorld);
+		scheduler.addWorld(id, world.getName(), engine, settings.getBudget());
+		storages.set(id, new LiquidStorage(new File(getDataFolder(), world.getName()), id));
+		setAsynchronous(id, settings.isAsynchronous());
+
+		return id;
+	}
+
+	/**
+	 * Finds the id of the specified world by its unique id, since a world that is unloaded and loaded again is a different object.
+	 *
+	 * @param world The world to find the id of.
+	 * @return The id of the world, or -1 if it has no engine.
 	 */
-	public void lowerLiquidLevel(Block block, final int amount, final LiquidType liquidType) throws Exception {
-		setLiquidLevel(block, getLiquidLevel(block) - amount, liquidType);
+	private int findWorldId(final World world) {
+		UUID uid = world.getUID();
+
+		// There are only a few worlds, so a linear search is the fastest option
+		for (int id = 0; id < worlds.size(); ++id) {
+			World other = worlds.get(id);
+
+			if (other != null && other.getUID().equals(uid)) {
+				return id;
+			}
+		}
+
+		return -1;
 	}
 }
@@ -0,0 +1,45 @@
+package com.qub1.liquidcraft;
+
+/**
+ * How fast a type of liquid flows.
+ */
+public class LiquidProfile {
+	/**
+	 * How much liquid can flow from a block in one flow.
+	 */
+	private final int flowRate;
+
+	/**
+	 * The amount of flows between the flows in which blocks of the liquid are handled.
+	 */
+	private final int flowInterval;
+
+	/**
+	 * Creates a new LiquidProfile.
+	 *
+	 * @param flowRate     How much liquid can flow from a block in one flow.
+	 * @param flowInterval The amount of flows between the flows in which blocks of the liquid are handled.
+	 */
+	public LiquidProfile(final int flowRate, final int flowInterval) {
+		this.flowRate = flowRate;
+		this.flowInterval = flowInterval;
+	}
+
+	/**
+	 * Gets how much liquid can flow from a block in one flow.
+	 *
+	 * @return The flow rate.
+	 */
+	public int getFlowRate() {
+		return flowRate;
+	}
+
+	/**
+	 * Gets the amount of flows between the flows in which blocks of the liquid are handled.
+	 *
+	 * @return The flow interval.
+	 */
+	public int getFlowInterval() {
+		return flowInterval;
+	}
+}
@@ -5,20 +5,65 @@ import org.bukkit.block.Block;
 
 /**
  * The Material types of liquids.
+ * Every material is classified once, in lookup tables indexed by its ordinal, so adding a liquid only takes a new constant.
  */
 public enum LiquidType {
-	WATER(Material.STATIONARY_WATER),
-	LAVA(Material.STATIONARY_LAVA);
+	WATER(Material.STATIONARY_WATER, Material.WATER),
+	LAVA(Material.STATIONARY_LAVA, Material.LAVA);
+
+	/**
+	 * The flag of materials that are a liquid.
+	 */
+	private static final byte FLAG_LIQUID = 1;
+
+	/**
+	 * The flag of materials that are the stationary variant of a liquid.
+	 */
+	private static final byte FLAG_STATIONARY = 2;
+
+	/**
+	 * The flag of materials that are the flowing variant of a liquid.
+	 */
+	private static final byte FLAG_FLOWING = 4;
+
+	/**
+	 * The flag of materials that liquid can flow into, which are liquids and air.
+	 */
+	private static final byte FLAG_ACCEPTS_LIQUID = 8;
+
+	/**
+	 * The liquid type of every material, by ordinal, or null for materials that are not a liquid.
+	 */
+	private static final LiquidType[] TYPES = new LiquidType[Material.values().length];
+
+	/**
+	 * The flags of every material, by ordinal.
+	 */
+	private static final byte[] FLAGS = new byte[Material.values().length];
+
+	static {
+		for (LiquidType liquidType : values()) {
+			TYPES[liquidType.value.ordinal()] = liquidType;
+			TYPES[liquidType.flowingValue.ordinal()] = liquidType;
+			FLAGS[liquidType.value.ordinal()] = FLAG_LIQUID | FLAG_STATIONARY | FLAG_ACCEPTS_LIQUID;
+			FLAGS[liquidType.flowingValue.ordinal()] = FLAG_LIQUID | FLAG_FLOWING | FLAG_ACCEPTS_LIQUID;
+		}
+
+		FLAGS[Material.AIR.ordinal()] = FLAG_ACCEPTS_LIQUID;
+	}
 
 	private final Material value;
+	private final Material flowingValue;
 
 	/**
 	 * Creates a new LiquidType.
 	 *
-	 * @param value The value to use.
+	 * @param value        The value to use.
+	 * @param flowingValue The flowing variant of the value.
 	 */
-	LiquidType(final Material value) {
+	LiquidType(final Material value, final Material flowingValue) {
 		this.value = value;
+		this.flowingValue = flowingValue;
 	}
 
 	/**
@@ -32,23 +77,53 @@ public enum LiquidType {
 	}
 
 	/**
-	 * Checks if the LiquidType contains the specified material.
+	 * Checks if the LiquidType contains the specified material, where air counts as a liquid.
 	 *
 	 * @param material The material to look for.
 	 * @return Whether the liquid type contains the specified material.
 	 */
 	public static boolean contains(final Material material) {
-		if (material == Material.AIR || material == Material.WATER || material == Material.LAVA) {
-			return true;
-		}
+		return acceptsLiquid(material);
+	}
 
-		for (LiquidType liquidType : values()) {
-			if (liquidType.getValue() == material) {
-				return true;
-			}
-		}
+	/**
+	 * Checks whether liquid can flow into a block of the specified material, which is the case for liquids and air.
+	 *
+	 * @param material The material to check.
+	 * @return Whether the material accepts liquid.
+	 */
+	public static boolean acceptsLiquid(final Material material) {
+		return (FLAGS[material.ordinal()] & FLAG_ACCEPTS_LIQUID) != 0;
+	}
+
+	/**
+	 * Checks whether the specified material is a liquid, not counting air.
+	 *
+	 * @param material The material to check.
+	 * @return Whether the material is a liquid.
+	 */
+	public static boolean isLiquid(final Material material) {
+		return (FLAGS[material.ordinal()] & FLAG_LIQUID) != 0;
+	}
 
-		return false;
+	/**
+	 * Checks whether the specified material is the stationary variant of a liquid.
+	 *
+	 * @param material The material to check.
+	 * @return Whether the material is a stationary liquid.
+	 */
+	public static boolean isStationary(final Material material) {
+		return (FLAGS[material.ordinal()] & FLAG_STATIONARY) != 0;
+	}
+
+	/**
+	 * Checks whether the specified material is the flowing variant of a liquid.
+	 *
+	 * @param material The material to check.
+	 * @return Whether the material is a flowing liquid.
+	 */
+	public static boolean isFlowing(final Material material) {
+		return (FLAGS[material.ordinal()] & FLAG_FLOWING) != 0;
 	}
 
 	/**
@@ -60,14 +135,22 @@ public enum LiquidType {
 		return value;
 	}
 
+	/**
+	 * Gets the flowing variant of the value of the LiquidType.
+	 *
+	 * @return The flowing value.
+	 */
+	public Material getFlowingValue() {
+		return flowingValue;
+	}
+
 	/**
 	 * Gets the LiquidType associated with the specified block.
 	 *
 	 * @param block The block to associate with a LiquidType.
-	 * @return The associated LiquidType.
-	 * @throws Exception If the block is not convertible to a LiquidType.
+	 * @return The associated LiquidType, or null if the block is not a liquid.
 	 */
-	public static LiquidType fromBlock(final Block block) throws Exception {
+	public static LiquidType fromBlock(final Block block) {
 		return fromMaterial(block.getType());
 	}
 
@@ -75,22 +158,9 @@ public enum LiquidType {
 	 * Gets the LiquidType associated with the specified material.
 	 *
 	 * @param material The material to associate with a LiquidType.
-	 * @return The associated LiquidType.
-	 * @throws Exception If the material is not convertible to a LiquidType.
-	 */
-	public static LiquidType fromMaterial(final Material material) throws Exception {
-		if (material == Material.WATER) {
-			return LiquidType.WATER;
-		} else if (material == Material.LAVA) {
-			return LiquidType.LAVA;
-		}
-
-		for (LiquidType liquidType : values()) {
-			if (liquidType.getValue() == material) {
-				return liquidType;
-			}
-		}
-
-		throw (new Exception("Invalid material, \"" + material.toString() + "\" cannot be converted to a liquid"));
+	 * @return The associated LiquidType, or null if the material is not a liquid.
+	 */
+	public static LiquidType fromMaterial(final Material material) {
+		return TYPES[material.ordinal()];
 	}
 }
@@ -0,0 +1,249 @@
+package com.qub1.liquidcraft;
+
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.engine.UpdateMode;
+
+/**
+ * The simulation settings of a single world.
+ */
+public class WorldSettings {
+	/**
+	 * The settings used when there is no configuration, which match the defaults of the engine.
+	 */
+	public static final WorldSettings DEFAULT = new WorldSettings(
+			UpdateMode.SEQUENTIAL,
+			false,
+			new FlowBudget(4, 32, 20000, 10, 200000),
+			LiquidEngine.DEFAULT_NEAREST_SEARCH_RADIUS,
+			LiquidEngine.DEFAULT_NEAREST_SEARCH_BUDGET,
+			LiquidEngine.DEFAULT_WATER_BODY_BUDGET,
+			LiquidEngine.DEFAULT_SLEEP_FLOWS,
+			LiquidEngine.DEFAULT_FAR_FLOW_INTERVAL,
+			false,
+			LiquidEngine.DEFAULT_MAXIMUM_ACTIVE_BLOCKS,
+			LiquidEngine.DEFAULT_MAXIMUM_SOURCE_BODY_SIZE,
+			LiquidEngine.DEFAULT_MAXIMUM_SOURCE_DISTANCE,
+			LiquidEngine.DEFAULT_MAXIMUM_SOURCE_GROWTH,
+			createDefaultProfiles()
+	);
+
+	private final UpdateMode updateMode;
+	private final boolean asynchronous;
+	private final FlowBudget budget;
+	private final int nearestSearchRadius;
+	private final int nearestSearchBudget;
+	private final int waterBodyBudget;
+	private final int sleepFlows;
+	private final int farFlowInterval;
+	private final boolean vesselSolving;
+	private final int maximumActiveBlocks;
+	private final int maximumSourceBodySize;
+	private final int maximumSourceDistance;
+	private final int maximumSourceGrowth;
+
+	/**
+	 * The profile of every liquid type, by ordinal.
+	 */
+	private final LiquidProfile[] profiles;
+
+	/**
+	 * Creates a new WorldSettings.
+	 *
+	 * @param updateMode            How the engine updates its active blocks.
+	 * @param asynchronous          Whether the engine runs on a worker thread against snapshots of the world.
+	 * @param budget                The limits on how much and how often liquids are simulated.
+	 * @param nearestSearchRadius   The maximum horizontal and downward distance liquid searches for a lower block to flow to.
+	 * @param nearestSearchBudget   The maximum amount of blocks visited when searching for a lower block to flow to.
+	 * @param waterBodyBudget       The maximum amount of blocks indexed at once when looking up a body of liquid.
+	 * @param sleepFlows            The amount of flows in a row a chunk section has to go without changes before its liquids are left alone.
+	 * @param farFlowInterval       The amount of flows between the flows in which liquids far from all players are handled.
+	 * @param vesselSolving         Whether bodies of liquid are settled at once as communicating vessels.
+	 * @param maximumActiveBlocks   The maximum amount of active blocks in the world, beyond which the chunks with the most active blocks are frozen.
+	 * @param maximumSourceBodySize The maximum amount of blocks in the body of liquid of an infinite source.
+	 * @param maximumSourceDistance The maximum horizontal distance the body of liquid of an infinite source reaches from it.
+	 * @param maximumSourceGrowth   The maximum amount of blocks the body of liquid of an infinite source grows by per flow.
+	 * @param profiles              The profile of every liquid type, by ordinal.
+	 */
+	public WorldSettings(final UpdateMode updateMode, final boolean asynchronous, final FlowBudget budget, final int nearestSearchRadius, final int nearestSearchBudget, final int waterBodyBudget, final int sleepFlows, final int farFlowInterval, final boolean vesselSolving, final int maximumActiveBlocks, final int maximumSourceBodySize, final int maximumSourceDistance, final int maximumSourceGrowth, final LiquidProfile[] profiles) {
+		if (profiles.length != LiquidType.values().length) {
+			throw (new IllegalArgumentException("Invalid amount of liquid profiles \"" + profiles.length + "\""));
+		}
+
+		this.updateMode = updateMode;
+		this.asynchronous = asynchronous;
+		this.budget = budget;
+		this.nearestSearchRadius = nearestSearchRadius;
+		this.nearestSearchBudget = nearestSearchBudget;
+		this.waterBodyBudget = waterBodyBudget;
+		this.sleepFlows = sleepFlows;
+		this.farFlowInterval = farFlowInterval;
+		this.vesselSolving = vesselSolving;
+		this.maximumActiveBlocks = maximumActiveBlocks;
+		this.maximumSourceBodySize = maximumSourceBodySize;
+		this.maximumSourceDistance = maximumSourceDistance;
+		this.maximumSourceGrowth = maximumSourceGrowth;
+		this.profiles = profiles.clone();
+	}
+
+	/**
+	 * Creates the default profiles, where every liquid flows at the default rate in every flow.
+	 *
+	 * @return The profiles, by liquid type ordinal.
+	 */
+	private static LiquidProfile[] createDefaultProfiles() {
+		LiquidProfile[] profiles = new LiquidProfile[LiquidType.values().length];
+		for (LiquidType liquidType : LiquidType.values()) {
+			profiles[liquidType.ordinal()] = new LiquidProfile(LiquidEngine.DEFAULT_FLOW_RATE, 1);
+		}
+
+		return profiles;
+	}
+
+	/**
+	 * Applies the settings to the engine of the world.
+	 * The budget and whether the engine runs on a worker thread are applied by the scheduler.
+	 *
+	 * @param engine The engine.
+	 */
+	public void apply(final LiquidEngine engine) {
+		engine.setUpdateMode(updateMode);
+		engine.setNearestSearchBounds(nearestSearchRadius, nearestSearchBudget);
+		engine.setWaterBodyBudget(waterBodyBudget);
+		engine.setSleepFlows(sleepFlows);
+		engine.setFarFlowInterval(farFlowInterval);
+		engine.setVesselSolving(vesselSolving);
+		engine.setSpreadLimits(maximumActiveBlocks, maximumSourceBodySize, maximumSourceDistance, maximumSourceGrowth);
+
+		for (LiquidType liquidType : LiquidType.values()) {
+			LiquidProfile profile = profiles[liquidType.ordinal()];
+			engine.setLiquidProfile(liquidType, profile.getFlowRate(), profile.getFlowInterval());
+		}
+	}
+
+	/**
+	 * Gets how the engine updates its active blocks.
+	 *
+	 * @return The update mode.
+	 */
+	public UpdateMode getUpdateMode() {
+		return updateMode;
+	}
+
+	/**
+	 * Checks whether the engine runs on a worker thread against snapshots of the world, so the server thread only applies the changes.
+	 *
+	 * @return Whether the engine runs asynchronously.
+	 */
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	/**
+	 * Gets the limits on how much and how often liquids are simulated.
+	 *
+	 * @return The budget.
+	 */
+	public FlowBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the maximum horizontal and downward distance liquid searches for a lower block to flow to.
+	 *
+	 * @return The search radius.
+	 */
+	public int getNearestSearchRadius() {
+		return nearestSearchRadius;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks visited when searching for a lower block to flow to.
+	 *
+	 * @return The search budget.
+	 */
+	public int getNearestSearchBudget() {
+		return nearestSearchBudget;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks indexed at once when looking up a body of liquid.
+	 *
+	 * @return The budget.
+	 */
+	public int getWaterBodyBudget() {
+		return waterBodyBudget;
+	}
+
+	/**
+	 * Gets the amount of flows in a row a chunk section has to go without changes before its liquids are left alone.
+	 *
+	 * @return The amount of flows.
+	 */
+	public int getSleepFlows() {
+		return sleepFlows;
+	}
+
+	/**
+	 * Gets the amount of flows between the flows in which liquids far from all players are handled.
+	 *
+	 * @return The amount of flows.
+	 */
+	public int getFarFlowInterval() {
+		return farFlowInterval;
+	}
+
+	/**
+	 * Checks whether bodies of liquid are settled at once as communicating vessels.
+	 *
+	 * @return Whether vessel solving is enabled.
+	 */
+	public boolean isVesselSolving() {
+		return vesselSolving;
+	}
+
+	/**
+	 * Gets the maximum amount of active blocks in the world, beyond which the chunks with the most active blocks are frozen.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumActiveBlocks() {
+		return maximumActiveBlocks;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks in the body of liquid of an infinite source.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumSourceBodySize() {
+		return maximumSourceBodySize;
+	}
+
+	/**
+	 * Gets the maximum horizontal distance the body of liquid of an infinite source reaches from it.
+	 *
+	 * @return The distance in blocks.
+	 */
+	public int getMaximumSourceDistance() {
+		return maximumSourceDistance;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks the body of liquid of an infinite source grows by per flow.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumSourceGrowth() {
+		return maximumSourceGrowth;
+	}
+
+	/**
+	 * Gets the profile of a liquid type.
+	 *
+	 * @param liquidType The liquid type.
+	 * @return The profile.
+	 */
+	public LiquidProfile getProfile(final LiquidType liquidType) {
+		return profiles[liquidType.ordinal()];
+	}
+}
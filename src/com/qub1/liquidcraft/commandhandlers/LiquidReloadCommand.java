@@ -0,0 +1,39 @@
+package com.qub1.liquidcraft.commandhandlers;
+
+import com.qub1.liquidcraft.LiquidCraft;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+public class LiquidReloadCommand implements CommandExecutor {
+	private LiquidCraft plugin;
+
+	/**
+	 * Creates a new LiquidReloadCommand.
+	 *
+	 * @param plugin The plugin to use.
+	 */
+	public LiquidReloadCommand(LiquidCraft plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] parameters) {
+		if (parameters.length != 0) {
+			return false;
+		}
+
+		// An invalid configuration is rejected as a whole, so the settings in use stay as they were
+		try {
+			plugin.reloadSettings();
+		} catch (IllegalArgumentException e) {
+			sender.sendMessage("The configuration was not reloaded: " + e.getMessage());
+
+			return true;
+		}
+
+		sender.sendMessage("Liquid configuration reloaded.");
+
+		return true;
+	}
+}
@@ -0,0 +1,213 @@
+package com.qub1.liquidcraft.commandhandlers;
+
+import com.qub1.liquidcraft.AsyncFlow;
+import com.qub1.liquidcraft.LiquidCraft;
+import com.qub1.liquidcraft.engine.FlowMetrics;
+import com.qub1.liquidcraft.engine.FrozenRegion;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import com.qub1.liquidcraft.metrics.LiquidMetrics;
+import com.qub1.liquidcraft.util.BlockPosition;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LiquidStatsCommand implements CommandExecutor {
+	/**
+	 * The amount of seconds chunks are sampled for if no duration is given.
+	 */
+	private static final int DEFAULT_SAMPLE_SECONDS = 10;
+
+	/**
+	 * The longest a sample can take, in seconds.
+	 */
+	private static final int MAXIMUM_SAMPLE_SECONDS = 300;
+
+	/**
+	 * The amount of chunks listed after sampling.
+	 */
+	private static final int HOTTEST_CHUNK_COUNT = 10;
+
+	/**
+	 * The amount of frozen chunks listed per world.
+	 */
+	private static final int FROZEN_CHUNK_COUNT = 10;
+
+	private LiquidCraft plugin;
+
+	/**
+	 * Whether a sample is running.
+	 */
+	private boolean sampling = false;
+
+	/**
+	 * Creates a new LiquidStatsCommand.
+	 *
+	 * @param plugin The plugin to use.
+	 */
+	public LiquidStatsCommand(LiquidCraft plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] parameters) {
+		if (parameters.length == 0) {
+			showStats(sender);
+
+			return true;
+		} else if (parameters[0].equalsIgnoreCase("reset") && parameters.length == 1) {
+			plugin.getMetrics().reset();
+			sender.sendMessage("Liquid metrics reset.");
+
+			return true;
+		} else if (parameters[0].equalsIgnoreCase("sample") && parameters.length <= 2) {
+			int seconds = DEFAULT_SAMPLE_SECONDS;
+
+			if (parameters.length == 2) {
+				try {
+					seconds = Integer.parseInt(parameters[1]);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+
+				if (seconds < 1 || seconds > MAXIMUM_SAMPLE_SECONDS) {
+					sender.sendMessage("The sample duration has to be between 1 and " + MAXIMUM_SAMPLE_SECONDS + " seconds.");
+
+					return true;
+				}
+			}
+
+			startSample(sender, seconds);
+
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Shows the current metrics.
+	 *
+	 * @param sender The sender to show the metrics to.
+	 */
+	private void showStats(final CommandSender sender) {
+		LiquidMetrics metrics = plugin.getMetrics();
+
+		sender.sendMessage("Active blocks: " + metrics.getActiveBlocks() + ", sleeping sections: " + metrics.getSleepingSections() + ", waiting for chunks: " + metrics.getPendingBlocks());
+		sender.sendMessage("Frozen chunks: " + metrics.getFrozenChunks() + ", frozen in total: " + metrics.getBreakerTrips());
+		sender.sendMessage(String.format("Blocks handled: %d last tick, %.1f per tick, %d in total", metrics.getHandledBlocksLastTick(), metrics.getHandledBlocksPerTick(), metrics.getHandledBlocks()));
+		sender.sendMessage("Block updates: " + metrics.getBlockUpdates());
+		sender.sendMessage(String.format("Phase times: down %.1f ms, horizontal %.1f ms, nearest %.1f ms, synchronous %.1f ms, writes %.1f ms", metrics.getDownTime(), metrics.getHorizontalTime(), metrics.getNearestTime(), metrics.getSynchronousTime(), metrics.getWriteTime()));
+		sender.sendMessage(String.format("Tick time over %d ticks: %.2f ms average, %.2f ms maximum", metrics.getTicks(), metrics.getAverageTickTime(), metrics.getMaximumTickTime()));
+
+		// Show every bucket of the histogram as its range and its amount of ticks
+		double[] bounds = metrics.getTickTimeBucketBounds();
+		long[] histogram = metrics.getTickTimeHistogram();
+		StringBuilder line = new StringBuilder("Tick time histogram:");
+		for (int i = 0; i < histogram.length; ++i) {
+			line.append(i < bounds.length ? " <" + bounds[i] : " >=" + bounds[bounds.length - 1]).append(" ms: ").append(histogram[i]);
+		}
+		sender.sendMessage(line.toString());
+
+		// Show how often every world flows, which is less often than its budget allows if it can't keep up
+		List<LiquidEngine> engines = plugin.getEngines();
+		for (int id = 0; id < engines.size(); ++id) {
+			if (engines.get(id) == null) {
+				continue;
+			}
+
+			int ticksPerFlow = plugin.getScheduler().getTicksPerFlow(id);
+			AsyncFlow asyncFlow = plugin.getScheduler().getAsyncFlow(id);
+			sender.sendMessage(" " + plugin.getWorlds().get(id).getName() + ": " + engines.get(id).getActiveBlockCount() + " active blocks, flowing every " + ticksPerFlow + " ticks" + (plugin.getScheduler().isSlowedDown(id) ? " (slowed down)" : "") + (asyncFlow != null ? ", asynchronously with " + asyncFlow.getConflictCount() + " conflicting blocks" : ""));
+
+			// The frozen chunks can only be listed while no worker thread uses the engine
+			if (engines.get(id).getFrozenRegionCount() > 0) {
+				plugin.getScheduler().awaitAsyncFlow(id);
+
+				List<FrozenRegion> regions = engines.get(id).getFrozenRegions();
+				for (int i = 0; i < Math.min(FROZEN_CHUNK_COUNT, regions.size()); ++i) {
+					FrozenRegion region = regions.get(i);
+					sender.sendMessage("  frozen chunk " + region.getChunkX() + ", " + region.getChunkZ() + " (" + region.getBlockCount() + " blocks): " + region.getReason());
+				}
+
+				if (regions.size() > FROZEN_CHUNK_COUNT) {
+					sender.sendMessage("  and " + (regions.size() - FROZEN_CHUNK_COUNT) + " more frozen chunks");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the blocks handled in every chunk for a while, and then lists the busiest chunks.
+	 *
+	 * @param sender  The sender to list the chunks to.
+	 * @param seconds The amount of seconds to sample for.
+	 */
+	private void startSample(final CommandSender sender, final int seconds) {
+		if (sampling) {
+			sender.sendMessage("A sample is already running.");
+
+			return;
+		}
+
+		// The engines count the blocks they handle themselves, so they can't be in use by a worker thread while sampling is switched
+		plugin.awaitAsyncFlows();
+
+		sampling = true;
+		for (LiquidEngine engine : plugin.getEngines()) {
+			if (engine != null) {
+				engine.getMetrics().setSampling(true);
+			}
+		}
+
+		sender.sendMessage("Sampling chunks for " + seconds + " seconds...");
+		plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, () -> finishSample(sender), seconds * 20L);
+	}
+
+	/**
+	 * Stops sampling and lists the busiest chunks of all worlds.
+	 *
+	 * @param sender The sender to list the chunks to.
+	 */
+	private void finishSample(final CommandSender sender) {
+		sampling = false;
+		plugin.awaitAsyncFlows();
+
+		// Collect the busiest chunks of every world, and keep the busiest of those
+		List<LiquidEngine> engines = plugin.getEngines();
+		List<long[]> chunks = new ArrayList<>();
+		for (int id = 0; id < engines.size(); ++id) {
+			// Worlds unloaded while sampling took their samples with them
+			if (engines.get(id) == null) {
+				continue;
+			}
+
+			FlowMetrics metrics = engines.get(id).getMetrics();
+			metrics.setSampling(false);
+
+			for (long chunkKey : metrics.getHottestChunks(HOTTEST_CHUNK_COUNT)) {
+				chunks.add(new long[]{metrics.getChunkSample(chunkKey), id, chunkKey});
+			}
+		}
+
+		chunks.sort((chunk1, chunk2) -> Long.compare(chunk2[0], chunk1[0]));
+
+		if (chunks.isEmpty()) {
+			sender.sendMessage("No liquid blocks were handled while sampling.");
+
+			return;
+		}
+
+		sender.sendMessage("Busiest chunks:");
+		for (int i = 0; i < Math.min(HOTTEST_CHUNK_COUNT, chunks.size()); ++i) {
+			long[] chunk = chunks.get(i);
+			World world = plugin.getWorlds().get((int) chunk[1]);
+
+			long position = BlockPosition.getChunkStart(chunk[2]);
+			sender.sendMessage(" " + world.getName() + " chunk " + BlockPosition.getChunkX(position) + ", " + BlockPosition.getChunkZ(position) + " (blocks " + BlockPosition.getX(position) + ", " + BlockPosition.getZ(position) + "): " + chunk[0] + " blocks handled");
+		}
+	}
+}
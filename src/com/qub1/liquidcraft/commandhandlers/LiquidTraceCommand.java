@@ -0,0 +1,70 @@
+package com.qub1.liquidcraft.commandhandlers;
+
+import com.qub1.liquidcraft.LiquidCraft;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+
+public class LiquidTraceCommand implements CommandExecutor {
+	private LiquidCraft plugin;
+
+	/**
+	 * Creates a new LiquidTraceCommand.
+	 *
+	 * @param plugin The plugin to use.
+	 */
+	public LiquidTraceCommand(LiquidCraft plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] parameters) {
+		if (parameters.length < 1 || parameters.length > 2) {
+			return false;
+		}
+
+		// Players trace their own world unless they name another, the console always has to name one
+		World world;
+		if (parameters.length == 2) {
+			world = plugin.getServer().getWorld(parameters[1]);
+
+			if (world == null) {
+				sender.sendMessage("There is no world named " + parameters[1] + ".");
+
+				return true;
+			}
+		} else if (sender instanceof Player) {
+			world = ((Player) sender).getWorld();
+		} else {
+			return false;
+		}
+
+		if (parameters[0].equalsIgnoreCase("start")) {
+			try {
+				File file = plugin.startTrace(world);
+				sender.sendMessage("Tracing liquids in world " + world.getName() + " to " + file.getName() + ".");
+			} catch (IOException | IllegalStateException e) {
+				sender.sendMessage("Could not start tracing: " + e.getMessage());
+			}
+
+			return true;
+		} else if (parameters[0].equalsIgnoreCase("stop")) {
+			int ticks = plugin.stopTrace(world);
+
+			if (ticks < 0) {
+				sender.sendMessage("World " + world.getName() + " is not being traced.");
+			} else {
+				sender.sendMessage("Stopped tracing world " + world.getName() + " after " + ticks + " ticks.");
+			}
+
+			return true;
+		} else {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.qub1.liquidcraft.commandhandlers;
+
+import com.qub1.liquidcraft.LiquidCraft;
+import com.qub1.liquidcraft.engine.FrozenRegion;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.List;
+
+public class LiquidUnfreezeCommand implements CommandExecutor {
+	private LiquidCraft plugin;
+
+	/**
+	 * Creates a new LiquidUnfreezeCommand.
+	 *
+	 * @param plugin The plugin to use.
+	 */
+	public LiquidUnfreezeCommand(LiquidCraft plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] parameters) {
+		// Players unfreeze chunks in their own world unless they name another, the console always has to name one
+		boolean all = parameters.length >= 1 && parameters[0].equalsIgnoreCase("all");
+		int worldParameter = all ? 1 : 2;
+		if (parameters.length > worldParameter + 1) {
+			return false;
+		}
+
+		World world;
+		if (parameters.length > worldParameter) {
+			world = plugin.getServer().getWorld(parameters[worldParameter]);
+
+			if (world == null) {
+				sender.sendMessage("There is no world named " + parameters[worldParameter] + ".");
+
+				return true;
+			}
+		} else if (sender instanceof Player) {
+			world = ((Player) sender).getWorld();
+		} else {
+			return false;
+		}
+
+		LiquidEngine engine = plugin.getEngine(world);
+
+		if (all) {
+			List<FrozenRegion> regions = engine.getFrozenRegions();
+			for (FrozenRegion region : regions) {
+				engine.unfreezeChunk(region.getChunkX(), region.getChunkZ());
+			}
+
+			sender.sendMessage("Unfroze " + regions.size() + " chunks in world " + world.getName() + ".");
+			plugin.getLogger().info(sender.getName() + " unfroze " + regions.size() + " chunks in world " + world.getName());
+
+			return true;
+		}
+
+		// Without coordinates, players unfreeze the chunk they are standing in
+		int chunkX;
+		int chunkZ;
+		if (parameters.length >= 2) {
+			try {
+				chunkX = Integer.parseInt(parameters[0]);
+				chunkZ = Integer.parseInt(parameters[1]);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		} else if (parameters.length == 0 && sender instanceof Player) {
+			Location location = ((Player) sender).getLocation();
+			chunkX = location.getBlockX() >> 4;
+			chunkZ = location.getBlockZ() >> 4;
+		} else {
+			return false;
+		}
+
+		if (engine.unfreezeChunk(chunkX, chunkZ)) {
+			sender.sendMessage("Unfroze chunk " + chunkX + ", " + chunkZ + " in world " + world.getName() + ". It freezes again if it still exceeds a limit.");
+			plugin.getLogger().info(sender.getName() + " unfroze chunk " + chunkX + ", " + chunkZ + " in world " + world.getName());
+		} else {
+			sender.sendMessage("Chunk " + chunkX + ", " + chunkZ + " in world " + world.getName() + " is not frozen.");
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,188 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The active blocks of a LiquidEngine, in the order they became active.
+ * The blocks are indexed by chunk as well, so the blocks of a chunk that is unloaded can be taken out without going through the blocks of all other chunks.
+ */
+class ActiveBlockSet {
+	/**
+	 * The maximum amount of empty chunk sets kept for reuse.
+	 */
+	private static final int MAXIMUM_SPARE_CHUNKS = 64;
+
+	/**
+	 * All active blocks, as packed positions in the order they became active.
+	 */
+	private final LongOrderedSet blocks = new LongOrderedSet();
+
+	/**
+	 * The active blocks of every chunk that has any, by chunk key.
+	 */
+	private final LongObjectMap<LongOrderedSet> chunks = new LongObjectMap<>();
+
+	/**
+	 * Empty chunk sets, reused for the next chunk that gets active blocks so chunks that keep settling and waking up don't allocate.
+	 */
+	private final List<LongOrderedSet> spareChunks = new ArrayList<>();
+
+	/**
+	 * The chunk key of the chunk set that was used last, since consecutive blocks are usually in the same chunk.
+	 */
+	private long lastChunkKey = 0;
+
+	/**
+	 * The chunk set that was used last, or null if there is none.
+	 */
+	private LongOrderedSet lastChunk = null;
+
+	/**
+	 * Adds a block to the end of the active blocks, if it is not active already.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block was added.
+	 */
+	boolean add(final long position) {
+		if (!blocks.add(position)) {
+			return false;
+		}
+
+		long chunkKey = BlockPosition.getChunkKey(position);
+		LongOrderedSet chunk = getChunk(chunkKey);
+
+		if (chunk == null) {
+			chunk = spareChunks.isEmpty() ? new LongOrderedSet() : spareChunks.remove(spareChunks.size() - 1);
+			chunks.put(chunkKey, chunk);
+			lastChunkKey = chunkKey;
+			lastChunk = chunk;
+		}
+
+		chunk.add(position);
+
+		return true;
+	}
+
+	/**
+	 * Removes a block from the active blocks.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block was active.
+	 */
+	boolean remove(final long position) {
+		if (!blocks.remove(position)) {
+			return false;
+		}
+
+		long chunkKey = BlockPosition.getChunkKey(position);
+		LongOrderedSet chunk = getChunk(chunkKey);
+		chunk.remove(position);
+
+		if (chunk.isEmpty()) {
+			releaseChunk(chunkKey);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes all active blocks of a chunk.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @param target   The list to add the packed positions of the removed blocks to, in the order they became active.
+	 */
+	void removeChunk(final long chunkKey, final LongList target) {
+		LongOrderedSet chunk = getChunk(chunkKey);
+		if (chunk == null) {
+			return;
+		}
+
+		while (!chunk.isEmpty()) {
+			long position = chunk.removeFirst();
+			blocks.remove(position);
+			target.add(position);
+		}
+
+		releaseChunk(chunkKey);
+	}
+
+	/**
+	 * Copies all active blocks into an array, in the order they became active.
+	 * The target array is reused if it is large enough, otherwise a new one is allocated.
+	 *
+	 * @param target The array to copy into.
+	 * @return The array holding the blocks, followed by unspecified values if it is larger than the amount of blocks.
+	 */
+	long[] toArray(final long[] target) {
+		return blocks.toArray(target);
+	}
+
+	/**
+	 * Copies all active blocks into a new array, in the order they became active.
+	 *
+	 * @return The blocks.
+	 */
+	long[] toArray() {
+		return blocks.toArray();
+	}
+
+	/**
+	 * Removes all active blocks.
+	 */
+	void clear() {
+		blocks.clear();
+
+		for (long chunkKey : chunks.keys()) {
+			releaseChunk(chunkKey);
+		}
+	}
+
+	/**
+	 * Gets the amount of active blocks.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int size() {
+		return blocks.size();
+	}
+
+	/**
+	 * Gets the set of active blocks of a chunk.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @return The set, or null if the chunk has no active blocks.
+	 */
+	private LongOrderedSet getChunk(final long chunkKey) {
+		if (lastChunk == null || lastChunkKey != chunkKey) {
+			lastChunk = chunks.get(chunkKey);
+			lastChunkKey = chunkKey;
+		}
+
+		return lastChunk;
+	}
+
+	/**
+	 * Removes the set of a chunk, keeping it for reuse if there are not too many spare sets already.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 */
+	private void releaseChunk(final long chunkKey) {
+		LongOrderedSet chunk = chunks.remove(chunkKey);
+
+		if (chunk == lastChunk) {
+			lastChunk = null;
+		}
+
+		// Clearing also drops the slots of removed blocks, so a reused set starts out clean
+		if (spareChunks.size() < MAXIMUM_SPARE_CHUNKS) {
+			chunk.clear();
+			spareChunks.add(chunk);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.qub1.liquidcraft.engine;
+
+import org.bukkit.Material;
+
+/**
+ * A LiquidWorld backed by dense arrays, so the engine can run without a server.
+ * The world spans from (0, 0, 0) up to but excluding its size, every block outside of it is solid.
+ */
+public class ArrayLiquidWorld implements LiquidWorld {
+	/**
+	 * The material of blocks outside of the world.
+	 */
+	private static final Material OUTSIDE_MATERIAL = Material.STONE;
+
+	/**
+	 * All materials, by ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	private final int id;
+	private final int sizeX;
+	private final int sizeY;
+	private final int sizeZ;
+
+	/**
+	 * The material ordinal of every block.
+	 */
+	private final short[] materials;
+
+	/**
+	 * The liquid level of every block.
+	 */
+	private final byte[] levels;
+
+	/**
+	 * Creates a new ArrayLiquidWorld filled with air.
+	 *
+	 * @param id    The id of the world.
+	 * @param sizeX The size along the X axis.
+	 * @param sizeY The size along the Y axis.
+	 * @param sizeZ The size along the Z axis.
+	 */
+	public ArrayLiquidWorld(final int id, final int sizeX, final int sizeY, final int sizeZ) {
+		this.id = id;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+
+		materials = new short[sizeX * sizeY * sizeZ];
+		levels = new byte[materials.length];
+
+		fill(0, 0, 0, sizeX - 1, sizeY - 1, sizeZ - 1, Material.AIR, 0);
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public Material getMaterial(final int x, final int y, final int z) {
+		return contains(x, y, z) ? MATERIALS[materials[index(x, y, z)]] : OUTSIDE_MATERIAL;
+	}
+
+	@Override
+	public int getLevel(final int x, final int y, final int z) {
+		return contains(x, y, z) ? levels[index(x, y, z)] : 0;
+	}
+
+	@Override
+	public void set(final int x, final int y, final int z, final Material material, final int level) {
+		if (contains(x, y, z)) {
+			int index = index(x, y, z);
+			materials[index] = (short) material.ordinal();
+			levels[index] = (byte) level;
+		}
+	}
+
+	/**
+	 * Sets all blocks in a box, including both corners.
+	 *
+	 * @param fromX    The lowest X coordinate.
+	 * @param fromY    The lowest Y coordinate.
+	 * @param fromZ    The lowest Z coordinate.
+	 * @param toX      The highest X coordinate.
+	 * @param toY      The highest Y coordinate.
+	 * @param toZ      The highest Z coordinate.
+	 * @param material The material to set.
+	 * @param level    The liquid level to set.
+	 */
+	public void fill(final int fromX, final int fromY, final int fromZ, final int toX, final int toY, final int toZ, final Material material, final int level) {
+		for (int y = fromY; y <= toY; ++y) {
+			for (int z = fromZ; z <= toZ; ++z) {
+				for (int x = fromX; x <= toX; ++x) {
+					set(x, y, z, material, level);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies all blocks from another world of the same size.
+	 *
+	 * @param other The world to copy from.
+	 */
+	public void copyFrom(final ArrayLiquidWorld other) {
+		if (other.sizeX != sizeX || other.sizeY != sizeY || other.sizeZ != sizeZ) {
+			throw (new IllegalArgumentException("Cannot copy from a world of a different size"));
+		}
+
+		System.arraycopy(other.materials, 0, materials, 0, materials.length);
+		System.arraycopy(other.levels, 0, levels, 0, levels.length);
+	}
+
+	/**
+	 * Checks whether a block lies within the world.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return Whether the block lies within the world.
+	 */
+	public boolean contains(final int x, final int y, final int z) {
+		return x >= 0 && y >= 0 && z >= 0 && x < sizeX && y < sizeY && z < sizeZ;
+	}
+
+	/**
+	 * Gets the size along the X axis.
+	 *
+	 * @return The size along the X axis.
+	 */
+	public int getSizeX() {
+		return sizeX;
+	}
+
+	/**
+	 * Gets the size along the Y axis.
+	 *
+	 * @return The size along the Y axis.
+	 */
+	public int getSizeY() {
+		return sizeY;
+	}
+
+	/**
+	 * Gets the size along the Z axis.
+	 *
+	 * @return The size along the Z axis.
+	 */
+	public int getSizeZ() {
+		return sizeZ;
+	}
+
+	/**
+	 * Calculates the array index of a block.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The array index.
+	 */
+	private int index(final int x, final int y, final int z) {
+		return (y * sizeZ + z) * sizeX + x;
+	}
+}
@@ -0,0 +1,171 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+/**
+ * A LiquidWorld that collects all writes to another world and applies them at once.
+ * Reads see the pending writes, so the buffer is invisible to the engine.
+ * A block written several times before a flush is only written once, with its final state, and not at all if that state equals its original state.
+ */
+public class BufferedLiquidWorld implements LiquidWorld {
+	/**
+	 * The value used for blocks without a pending write.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * All materials, by ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	/**
+	 * The world to write to.
+	 */
+	private final LiquidWorld world;
+
+	/**
+	 * The ID of the world, used to pack positions.
+	 */
+	private final int id;
+
+	/**
+	 * The pending state of every written block, by packed position.
+	 */
+	private final LongIntMap changes = new LongIntMap(NONE);
+
+	/**
+	 * The state every written block had before its first write, by packed position.
+	 */
+	private final LongIntMap originals = new LongIntMap(NONE);
+
+	/**
+	 * Creates a new BufferedLiquidWorld.
+	 *
+	 * @param world The world to write to.
+	 */
+	public BufferedLiquidWorld(final LiquidWorld world) {
+		this.world = world;
+		this.id = world.getId();
+	}
+
+	/**
+	 * Gets the world the writes are applied to.
+	 *
+	 * @return The world.
+	 */
+	public LiquidWorld getWorld() {
+		return world;
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public Material getMaterial(final int x, final int y, final int z) {
+		int change = changes.get(BlockPosition.pack(id, x, y, z));
+
+		return change == NONE ? world.getMaterial(x, y, z) : decodeMaterial(change);
+	}
+
+	@Override
+	public int getLevel(final int x, final int y, final int z) {
+		int change = changes.get(BlockPosition.pack(id, x, y, z));
+
+		return change == NONE ? world.getLevel(x, y, z) : decodeLevel(change);
+	}
+
+	@Override
+	public void set(final int x, final int y, final int z, final Material material, final int level) {
+		long position = BlockPosition.pack(id, x, y, z);
+
+		// Remember the original state on the first write
+		if (!originals.containsKey(position)) {
+			Material originalMaterial = world.getMaterial(x, y, z);
+			originals.put(position, encode(originalMaterial, LiquidEngine.isLiquid(originalMaterial, false) ? world.getLevel(x, y, z) : 0));
+		}
+
+		changes.put(position, encode(material, LiquidEngine.isLiquid(material, false) ? level : 0));
+	}
+
+	@Override
+	public boolean isReadable(final long chunkKey) {
+		return world.isReadable(chunkKey);
+	}
+
+	/**
+	 * Gets the amount of blocks with a pending write.
+	 *
+	 * @return The amount of pending writes.
+	 */
+	public int getPendingCount() {
+		return changes.size();
+	}
+
+	/**
+	 * Applies all pending writes to the world, grouped by chunk.
+	 *
+	 * @return The amount of blocks actually written.
+	 */
+	public int flush() {
+		if (changes.isEmpty()) {
+			return 0;
+		}
+
+		// Sorting packed positions groups them by chunk
+		long[] positions = changes.keys();
+		Arrays.sort(positions);
+
+		int written = 0;
+		for (long position : positions) {
+			int change = changes.get(position);
+
+			// Skip blocks that ended up in their original state
+			if (change != originals.get(position)) {
+				world.set(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position), decodeMaterial(change), decodeLevel(change));
+				++written;
+			}
+		}
+
+		changes.clear();
+		originals.clear();
+
+		return written;
+	}
+
+	/**
+	 * Encodes a block state into an int.
+	 *
+	 * @param material The material.
+	 * @param level    The liquid level.
+	 * @return The encoded state.
+	 */
+	private static int encode(final Material material, final int level) {
+		return (material.ordinal() << 4) | level;
+	}
+
+	/**
+	 * Decodes the material of an encoded block state.
+	 *
+	 * @param state The encoded state.
+	 * @return The material.
+	 */
+	private static Material decodeMaterial(final int state) {
+		return MATERIALS[state >>> 4];
+	}
+
+	/**
+	 * Decodes the liquid level of an encoded block state.
+	 *
+	 * @param state The encoded state.
+	 * @return The liquid level.
+	 */
+	private static int decodeLevel(final int state) {
+		return state & 0xF;
+	}
+}
@@ -0,0 +1,124 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.LongList;
+
+import java.util.Arrays;
+
+/**
+ * The simulation state of a single chunk which isn't stored in the world itself, used to save and restore chunks.
+ * Positions are packed using {@link com.qub1.liquidcraft.util.BlockPosition}.
+ */
+public class ChunkLiquidState {
+	private final int chunkX;
+	private final int chunkZ;
+
+	/**
+	 * The packed positions of the infinite liquid sources in the chunk.
+	 */
+	private final LongList infiniteSources = new LongList();
+
+	/**
+	 * The packed positions of the active blocks in the chunk, which still had to be handled.
+	 */
+	private final LongList activeBlocks = new LongList();
+
+	/**
+	 * The packed positions of the blocks in the chunk which hold more or less than the volume of their liquid level.
+	 */
+	private final LongList remainderBlocks = new LongList();
+
+	/**
+	 * The remainders of the blocks in {@link #remainderBlocks}, by index.
+	 */
+	private byte[] remainders = new byte[0];
+
+	/**
+	 * Creates a new, empty ChunkLiquidState.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 */
+	public ChunkLiquidState(final int chunkX, final int chunkZ) {
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+	}
+
+	/**
+	 * Gets the X coordinate of the chunk.
+	 *
+	 * @return The X coordinate.
+	 */
+	public int getChunkX() {
+		return chunkX;
+	}
+
+	/**
+	 * Gets the Z coordinate of the chunk.
+	 *
+	 * @return The Z coordinate.
+	 */
+	public int getChunkZ() {
+		return chunkZ;
+	}
+
+	/**
+	 * Gets the infinite liquid sources in the chunk.
+	 *
+	 * @return The packed positions of the infinite liquid sources.
+	 */
+	public LongList getInfiniteSources() {
+		return infiniteSources;
+	}
+
+	/**
+	 * Gets the active blocks in the chunk.
+	 *
+	 * @return The packed positions of the active blocks.
+	 */
+	public LongList getActiveBlocks() {
+		return activeBlocks;
+	}
+
+	/**
+	 * Gets the blocks in the chunk which hold more or less than the volume of their liquid level.
+	 *
+	 * @return The packed positions of the blocks, in the order of their remainders.
+	 */
+	public LongList getRemainderBlocks() {
+		return remainderBlocks;
+	}
+
+	/**
+	 * Gets the remainder of a block in the chunk.
+	 *
+	 * @param index The index of the block in {@link #getRemainderBlocks()}.
+	 * @return The volume the block holds above or below the volume of its liquid level.
+	 */
+	public int getRemainder(final int index) {
+		return remainders[index];
+	}
+
+	/**
+	 * Adds a block which holds more or less than the volume of its liquid level.
+	 *
+	 * @param position  The packed position of the block.
+	 * @param remainder The volume the block holds above or below the volume of its liquid level.
+	 */
+	public void addRemainder(final long position, final int remainder) {
+		if (remainders.length == remainderBlocks.size()) {
+			remainders = Arrays.copyOf(remainders, Math.max(16, remainders.length * 2));
+		}
+
+		remainders[remainderBlocks.size()] = (byte) remainder;
+		remainderBlocks.add(position);
+	}
+
+	/**
+	 * Checks whether the chunk has any state.
+	 *
+	 * @return Whether the state is empty.
+	 */
+	public boolean isEmpty() {
+		return infiniteSources.isEmpty() && activeBlocks.isEmpty() && remainderBlocks.isEmpty();
+	}
+}
@@ -0,0 +1,110 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import org.bukkit.Material;
+
+/**
+ * A LiquidWorld that only holds the chunks it was given, so the engine can run without a server on any part of a real world.
+ * Every block is stored as the material code and liquid level used by traces, and every block outside of the chunks is solid.
+ */
+public class ChunkedLiquidWorld implements LiquidWorld {
+	/**
+	 * The material of blocks outside of the chunks.
+	 */
+	private static final Material OUTSIDE_MATERIAL = Material.STONE;
+
+	private final int id;
+
+	/**
+	 * The blocks of every chunk, by chunk key.
+	 */
+	private final LongObjectMap<byte[]> chunks = new LongObjectMap<>();
+
+	/**
+	 * Creates a new ChunkedLiquidWorld without any chunks.
+	 *
+	 * @param id The id of the world.
+	 */
+	public ChunkedLiquidWorld(final int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Sets all blocks of a chunk.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @param blocks The encoded blocks, ordered by Y, then Z, then X, which the world keeps.
+	 */
+	public void setChunk(final int chunkX, final int chunkZ, final byte[] blocks) {
+		if (blocks.length != TraceRecorder.CHUNK_VOLUME) {
+			throw (new IllegalArgumentException("Invalid amount of blocks \"" + blocks.length + "\""));
+		}
+
+		chunks.put(getChunkKey(chunkX << 4, chunkZ << 4), blocks);
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public Material getMaterial(final int x, final int y, final int z) {
+		byte[] blocks = getChunk(x, y, z);
+
+		return blocks == null ? OUTSIDE_MATERIAL : TraceRecorder.MATERIALS[(blocks[index(x, y, z)] & 0xFF) >> 4];
+	}
+
+	@Override
+	public int getLevel(final int x, final int y, final int z) {
+		byte[] blocks = getChunk(x, y, z);
+
+		return blocks == null ? 0 : blocks[index(x, y, z)] & 0xF;
+	}
+
+	@Override
+	public void set(final int x, final int y, final int z, final Material material, final int level) {
+		byte[] blocks = getChunk(x, y, z);
+
+		if (blocks != null) {
+			blocks[index(x, y, z)] = (byte) TraceRecorder.encodeBlock(material, level);
+		}
+	}
+
+	/**
+	 * Gets the blocks of the chunk of a block.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The blocks, or null if the world doesn't hold the chunk or the block is outside of the world height.
+	 */
+	private byte[] getChunk(final int x, final int y, final int z) {
+		return BlockPosition.isValidY(y) ? chunks.get(getChunkKey(x, z)) : null;
+	}
+
+	/**
+	 * Gets the chunk key of a block.
+	 *
+	 * @param x The X coordinate.
+	 * @param z The Z coordinate.
+	 * @return The chunk key.
+	 */
+	private long getChunkKey(final int x, final int z) {
+		return BlockPosition.getChunkKey(BlockPosition.pack(id, x, 0, z));
+	}
+
+	/**
+	 * Calculates the index of a block within the blocks of its chunk.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The index.
+	 */
+	private static int index(final int x, final int y, final int z) {
+		return (y << 8) | ((z & 0xF) << 4) | (x & 0xF);
+	}
+}
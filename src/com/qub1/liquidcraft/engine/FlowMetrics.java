@@ -0,0 +1,278 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.LongIntMap;
+
+/**
+ * Counts the work done by a single LiquidEngine, and the time it spends in every phase of a flow.
+ * All counters are totals since the engine was created or the metrics were reset, and are only updated on the thread that runs the engine.
+ */
+public class FlowMetrics {
+	/**
+	 * The amount of blocks handled.
+	 */
+	private long handledBlocks = 0;
+
+	/**
+	 * The amount of blocks actually written to the world.
+	 */
+	private long blockUpdates = 0;
+
+	/**
+	 * The time spent flowing down, in nanoseconds.
+	 */
+	private long downTime = 0;
+
+	/**
+	 * The time spent flowing to direct horizontal neighbors, in nanoseconds.
+	 */
+	private long horizontalTime = 0;
+
+	/**
+	 * The time spent flowing to the lowest open block or nearest lower block, or settling bodies as vessels, in nanoseconds.
+	 */
+	private long nearestTime = 0;
+
+	/**
+	 * The time spent computing synchronous updates, in nanoseconds.
+	 */
+	private long synchronousTime = 0;
+
+	/**
+	 * The time spent writing changed blocks to the world, in nanoseconds.
+	 */
+	private long writeTime = 0;
+
+	/**
+	 * The amount of chunks frozen because liquid spread beyond its limits.
+	 */
+	private long breakerTrips = 0;
+
+	/**
+	 * Whether the blocks handled in every chunk are being counted.
+	 */
+	private boolean sampling = false;
+
+	/**
+	 * The amount of blocks handled in every chunk while sampling, by chunk key.
+	 */
+	private final LongIntMap chunkSamples = new LongIntMap(0);
+
+	/**
+	 * Records that a block was handled.
+	 *
+	 * @param chunkKey The key of the chunk the block is in.
+	 */
+	void addHandledBlock(final long chunkKey) {
+		++handledBlocks;
+
+		if (sampling) {
+			chunkSamples.add(chunkKey, 1);
+		}
+	}
+
+	/**
+	 * Records that blocks were handled by a synchronous update.
+	 *
+	 * @param count The amount of blocks.
+	 * @param time  The time it took, in nanoseconds.
+	 */
+	void addSynchronousStep(final int count, final long time) {
+		handledBlocks += count;
+		synchronousTime += time;
+	}
+
+	/**
+	 * Records time spent flowing down.
+	 *
+	 * @param time The time, in nanoseconds.
+	 */
+	void addDownTime(final long time) {
+		downTime += time;
+	}
+
+	/**
+	 * Records time spent flowing to direct horizontal neighbors.
+	 *
+	 * @param time The time, in nanoseconds.
+	 */
+	void addHorizontalTime(final long time) {
+		horizontalTime += time;
+	}
+
+	/**
+	 * Records time spent flowing to the lowest open block or nearest lower block.
+	 *
+	 * @param time The time, in nanoseconds.
+	 */
+	void addNearestTime(final long time) {
+		nearestTime += time;
+	}
+
+	/**
+	 * Records a flush of changed blocks to the world.
+	 *
+	 * @param written The amount of blocks written.
+	 * @param time    The time it took, in nanoseconds.
+	 */
+	void addWrite(final int written, final long time) {
+		blockUpdates += written;
+		writeTime += time;
+	}
+
+	/**
+	 * Records that a chunk was frozen because liquid spread beyond its limits.
+	 */
+	void addBreakerTrip() {
+		++breakerTrips;
+	}
+
+	/**
+	 * Gets the amount of blocks handled.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public long getHandledBlocks() {
+		return handledBlocks;
+	}
+
+	/**
+	 * Gets the amount of blocks actually written to the world.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public long getBlockUpdates() {
+		return blockUpdates;
+	}
+
+	/**
+	 * Gets the time spent flowing down.
+	 *
+	 * @return The time, in nanoseconds.
+	 */
+	public long getDownTime() {
+		return downTime;
+	}
+
+	/**
+	 * Gets the time spent flowing to direct horizontal neighbors.
+	 *
+	 * @return The time, in nanoseconds.
+	 */
+	public long getHorizontalTime() {
+		return horizontalTime;
+	}
+
+	/**
+	 * Gets the time spent flowing to the lowest open block or nearest lower block.
+	 *
+	 * @return The time, in nanoseconds.
+	 */
+	public long getNearestTime() {
+		return nearestTime;
+	}
+
+	/**
+	 * Gets the time spent computing synchronous updates.
+	 *
+	 * @return The time, in nanoseconds.
+	 */
+	public long getSynchronousTime() {
+		return synchronousTime;
+	}
+
+	/**
+	 * Gets the time spent writing changed blocks to the world.
+	 *
+	 * @return The time, in nanoseconds.
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Gets the amount of chunks frozen because liquid spread beyond its limits.
+	 *
+	 * @return The amount of chunks.
+	 */
+	public long getBreakerTrips() {
+		return breakerTrips;
+	}
+
+	/**
+	 * Checks whether the blocks handled in every chunk are being counted.
+	 *
+	 * @return Whether chunks are being sampled.
+	 */
+	public boolean isSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Starts or stops counting the blocks handled in every chunk.
+	 * Starting a new sample drops the counts of the previous one.
+	 *
+	 * @param sampling Whether to sample chunks.
+	 */
+	public void setSampling(final boolean sampling) {
+		if (sampling && !this.sampling) {
+			chunkSamples.clear();
+		}
+
+		this.sampling = sampling;
+	}
+
+	/**
+	 * Gets the keys of the chunks in which the most blocks were handled while sampling.
+	 *
+	 * @param count The maximum amount of chunks to get.
+	 * @return The chunk keys, the busiest chunk first.
+	 */
+	public long[] getHottestChunks(final int count) {
+		long[] keys = chunkSamples.keys();
+		int resultCount = Math.min(count, keys.length);
+
+		// Partial selection sort, since only a few of the chunks are needed
+		for (int i = 0; i < resultCount; ++i) {
+			int best = i;
+			for (int j = i + 1; j < keys.length; ++j) {
+				if (chunkSamples.get(keys[j]) > chunkSamples.get(keys[best])) {
+					best = j;
+				}
+			}
+
+			long key = keys[i];
+			keys[i] = keys[best];
+			keys[best] = key;
+		}
+
+		long[] result = new long[resultCount];
+		System.arraycopy(keys, 0, result, 0, resultCount);
+
+		return result;
+	}
+
+	/**
+	 * Gets the amount of blocks handled in a chunk while sampling.
+	 *
+	 * @param chunkKey The key of the chunk.
+	 * @return The amount of blocks.
+	 */
+	public int getChunkSample(final long chunkKey) {
+		return chunkSamples.get(chunkKey);
+	}
+
+	/**
+	 * Sets all counters back to zero and drops the chunk samples.
+	 */
+	public void reset() {
+		handledBlocks = 0;
+		blockUpdates = 0;
+		downTime = 0;
+		horizontalTime = 0;
+		nearestTime = 0;
+		synchronousTime = 0;
+		writeTime = 0;
+		breakerTrips = 0;
+		chunkSamples.clear();
+	}
+}
@@ -0,0 +1,46 @@
+package com.qub1.liquidcraft.engine;
+
+/**
+ * The outcomes of changing the liquid of a block.
+ * Conditions that are normal while liquid flows are returned instead of thrown, so deciding where to flow never builds an exception.
+ */
+public enum FlowResult {
+	/**
+	 * The change was made.
+	 */
+	SUCCESS,
+
+	/**
+	 * The block to take liquid from is not a liquid.
+	 */
+	SOURCE_NOT_LIQUID,
+
+	/**
+	 * The block to change is not empty, not a liquid or not the correct liquid.
+	 */
+	TARGET_NOT_LIQUID,
+
+	/**
+	 * The source block has no flow left in the current flow.
+	 */
+	FLOW_RATE_EXCEEDED,
+
+	/**
+	 * The new liquid level is outside of the valid range.
+	 */
+	INVALID_LEVEL,
+
+	/**
+	 * An empty block would be filled, but no liquid type was given to fill it with.
+	 */
+	NO_LIQUID_TYPE;
+
+	/**
+	 * Checks whether the change was made.
+	 *
+	 * @return Whether the result is SUCCESS.
+	 */
+	public boolean isSuccess() {
+		return this == SUCCESS;
+	}
+}
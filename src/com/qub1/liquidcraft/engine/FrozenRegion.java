@@ -0,0 +1,153 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+
+/**
+ * A chunk whose liquids were frozen by the circuit breaker of a LiquidEngine, because a spread limit was exceeded.
+ * The active blocks of a frozen chunk are set aside instead of being handled, until the chunk is unfrozen or unloaded.
+ */
+public class FrozenRegion {
+	private final long chunkKey;
+	private final SpreadLimit limit;
+
+	/**
+	 * The packed position of the infinite source that exceeded the limit, or the start of the chunk if the limit is not about a source.
+	 */
+	private final long source;
+
+	/**
+	 * The value that exceeded the limit.
+	 */
+	private final int value;
+
+	/**
+	 * The maximum the limit allowed.
+	 */
+	private final int maximum;
+
+	/**
+	 * The active blocks of the chunk which were set aside.
+	 */
+	private final LongOrderedSet blocks = new LongOrderedSet();
+
+	/**
+	 * Creates a new FrozenRegion.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @param limit    The limit that was exceeded.
+	 * @param source   The packed position of the infinite source that exceeded the limit, or the start of the chunk if the limit is not about a source.
+	 * @param value    The value that exceeded the limit.
+	 * @param maximum  The maximum the limit allowed.
+	 */
+	FrozenRegion(final long chunkKey, final SpreadLimit limit, final long source, final int value, final int maximum) {
+		this.chunkKey = chunkKey;
+		this.limit = limit;
+		this.source = source;
+		this.value = value;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * Gets the chunk key of the chunk.
+	 *
+	 * @return The chunk key.
+	 */
+	public long getChunkKey() {
+		return chunkKey;
+	}
+
+	/**
+	 * Gets the X coordinate of the chunk.
+	 *
+	 * @return The X coordinate.
+	 */
+	public int getChunkX() {
+		return BlockPosition.getChunkX(BlockPosition.getChunkStart(chunkKey));
+	}
+
+	/**
+	 * Gets the Z coordinate of the chunk.
+	 *
+	 * @return The Z coordinate.
+	 */
+	public int getChunkZ() {
+		return BlockPosition.getChunkZ(BlockPosition.getChunkStart(chunkKey));
+	}
+
+	/**
+	 * Gets the limit that was exceeded.
+	 *
+	 * @return The limit.
+	 */
+	public SpreadLimit getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Gets the amount of active blocks that were set aside.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * Describes why the chunk was frozen.
+	 *
+	 * @return The description.
+	 */
+	public String getReason() {
+		String at = BlockPosition.getX(source) + ", " + BlockPosition.getY(source) + ", " + BlockPosition.getZ(source);
+
+		switch (limit) {
+			case ACTIVE_BLOCKS:
+				return "the world had " + value + " active blocks, more than the maximum of " + maximum;
+			case SOURCE_BODY_SIZE:
+				return "the infinite source at " + at + " fed a body of " + value + " blocks, more than the maximum of " + maximum;
+			case SOURCE_DISTANCE:
+				return "the infinite source at " + at + " spread " + value + " blocks away, more than the maximum of " + maximum;
+			case SOURCE_GROWTH:
+				return "the body of the infinite source at " + at + " grew by " + value + " blocks per flow, more than the maximum of " + maximum;
+			default:
+				return limit.toString();
+		}
+	}
+
+	/**
+	 * Gets the packed position of the infinite source that exceeded the limit.
+	 *
+	 * @return The packed position, or the start of the chunk if the limit is not about a source.
+	 */
+	long getSource() {
+		return source;
+	}
+
+	/**
+	 * Gets the value that exceeded the limit.
+	 *
+	 * @return The value.
+	 */
+	int getValue() {
+		return value;
+	}
+
+	/**
+	 * Gets the maximum the limit allowed.
+	 *
+	 * @return The maximum.
+	 */
+	int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Gets the active blocks of the chunk which were set aside.
+	 *
+	 * @return The packed positions of the blocks.
+	 */
+	LongOrderedSet getBlocks() {
+		return blocks;
+	}
+}
@@ -0,0 +1,2918 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.LiquidType;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Simulates liquids in a single LiquidWorld using a cellular automaton.
+ * Blocks are addressed by positions packed using {@link BlockPosition}.
+ */
+public class LiquidEngine {
+	/**
+	 * The highest liquid level.
+	 */
+	public static final int MAXIMUM_LIQUID_LEVEL = 8;
+
+	/**
+	 * The lowest liquid level.
+	 */
+	public static final int MINIMUM_LIQUID_LEVEL = 0;
+
+	/**
+	 * The liquid level returned for blocks that are neither a liquid nor air.
+	 */
+	public static final int NOT_A_LIQUID = -1;
+
+	/**
+	 * The volume of liquid in a single liquid level. Blocks hold their volume in these units, and show it rounded to the nearest level.
+	 */
+	public static final int VOLUME_PER_LEVEL = 32;
+
+	/**
+	 * The volume of liquid in a full block.
+	 */
+	public static final int MAXIMUM_VOLUME = MAXIMUM_LIQUID_LEVEL * VOLUME_PER_LEVEL;
+
+	/**
+	 * The default amount of liquid that can flow from a block in one flow, which is one entire block of liquid.
+	 */
+	public static final int DEFAULT_FLOW_RATE = 8;
+
+	/**
+	 * The highest amount of liquid that can be set to flow from a block in one flow, which the flowed values have to be able to hold in volume units.
+	 */
+	public static final int MAXIMUM_FLOW_RATE = 64;
+
+	/**
+	 * The default maximum horizontal and downward distance the nearest search travels from its start block.
+	 */
+	public static final int DEFAULT_NEAREST_SEARCH_RADIUS = 32;
+
+	/**
+	 * The default maximum amount of blocks the nearest search visits from a single start block.
+	 */
+	public static final int DEFAULT_NEAREST_SEARCH_BUDGET = 4096;
+
+	/**
+	 * The default maximum amount of blocks indexed at once when a body of liquid is looked up.
+	 */
+	public static final int DEFAULT_WATER_BODY_BUDGET = 65536;
+
+	/**
+	 * The default amount of flows in a row a chunk section has to go without changes before it goes to sleep.
+	 */
+	public static final int DEFAULT_SLEEP_FLOWS = 8;
+
+	/**
+	 * The default amount of flows between the flows in which blocks far from all players are handled.
+	 */
+	public static final int DEFAULT_FAR_FLOW_INTERVAL = 4;
+
+	/**
+	 * The default maximum amount of active blocks in a world, beyond which the chunks with the most active blocks are frozen.
+	 */
+	public static final int DEFAULT_MAXIMUM_ACTIVE_BLOCKS = 1000000;
+
+	/**
+	 * The default maximum amount of blocks in the body of liquid of an infinite source.
+	 */
+	public static final int DEFAULT_MAXIMUM_SOURCE_BODY_SIZE = 32768;
+
+	/**
+	 * The default maximum horizontal distance the body of liquid of an infinite source reaches from it.
+	 */
+	public static final int DEFAULT_MAXIMUM_SOURCE_DISTANCE = 128;
+
+	/**
+	 * The default maximum amount of blocks the body of liquid of an infinite source grows by per flow, on average.
+	 */
+	public static final int DEFAULT_MAXIMUM_SOURCE_GROWTH = 64;
+
+	/**
+	 * The default seed of the random number generator, so engines that are not given a seed make the same choices every run.
+	 */
+	public static final long DEFAULT_SEED = 0;
+
+	/**
+	 * The offsets to the neighbors of a block: up, down, north, east, south and west.
+	 * This is the one table of neighbors of the engine, which its helpers share.
+	 */
+	static final int[][] NEIGHBOR_OFFSETS = {{0, 1, 0}, {0, -1, 0}, {0, 0, -1}, {1, 0, 0}, {0, 0, 1}, {-1, 0, 0}};
+
+	/**
+	 * The amount of cells the flow kernel reads around a handled block, which are the block itself and every neighbor but the one above it.
+	 */
+	private static final int CELL_COUNT = NEIGHBOR_OFFSETS.length;
+
+	/**
+	 * The cell of the handled block in the flow kernel.
+	 */
+	private static final int CELL_SELF = 0;
+
+	/**
+	 * The cell of the block below the handled block in the flow kernel.
+	 */
+	private static final int CELL_DOWN = 1;
+
+	/**
+	 * The world to simulate, buffering all writes until the end of each call to {@link #continueFlow(long, int)}.
+	 */
+	private final BufferedLiquidWorld world;
+
+	/**
+	 * The id of the world, used to pack positions.
+	 */
+	private final int worldId;
+
+	/**
+	 * All active liquid blocks, as packed positions in the order they became active, indexed by chunk as well.
+	 */
+	private final ActiveBlockSet liquidBlocks = new ActiveBlockSet();
+
+	/**
+	 * The flowed values, remainders and infinite source flags of all blocks.
+	 */
+	private final LiquidStateStore liquidStates = new LiquidStateStore();
+
+	/**
+	 * The seed the random number generator was created with.
+	 */
+	private long seed = DEFAULT_SEED;
+
+	/**
+	 * The random number generator used to pick and shuffle blocks, which is the only source of randomness in the simulation.
+	 */
+	private SplittableRandom random = new SplittableRandom(DEFAULT_SEED);
+
+	/**
+	 * Holds the active blocks of the current flow while they are being handled, reused between flows.
+	 */
+	private long[] liquidBlocksToHandle = new long[0];
+
+	/**
+	 * The amount of blocks in the current flow.
+	 */
+	private int liquidBlocksToHandleCount = 0;
+
+	/**
+	 * The index of the next block to handle in the current flow.
+	 */
+	private int liquidBlocksToHandleCursor = 0;
+
+	/**
+	 * The maximum amount of active blocks handled in a single flow.
+	 */
+	private int maximumBlocksPerFlow = Integer.MAX_VALUE;
+
+	/**
+	 * The index in the active blocks at which the next capped flow starts, so every active block gets its turn.
+	 */
+	private int flowRotation = 0;
+
+	/**
+	 * How much liquid can flow from a block in one flow, by liquid type ordinal.
+	 */
+	private final int[] flowRates = new int[LiquidType.values().length];
+
+	/**
+	 * The amount of flows between the flows in which a block is handled, by liquid type ordinal.
+	 */
+	private final int[] flowIntervals = new int[LiquidType.values().length];
+
+	/**
+	 * Whether blocks far from all players are handled less often. If not, all blocks are handled in every flow.
+	 */
+	private boolean levelOfDetail = false;
+
+	/**
+	 * The keys of all chunks near a player, if the level of detail is enabled.
+	 */
+	private final LongOrderedSet nearChunks = new LongOrderedSet();
+
+	/**
+	 * The chunk keys of the chunks players are in, as last set.
+	 */
+	private final LongList playerChunks = new LongList();
+
+	/**
+	 * The distance in chunks around a player in which blocks are near, as last set.
+	 */
+	private int playerChunkRadius = 0;
+
+	/**
+	 * The amount of flows between the flows in which blocks far from all players are handled.
+	 */
+	private int farFlowInterval = DEFAULT_FAR_FLOW_INTERVAL;
+
+	/**
+	 * The amount of flows started, used to pick the flows in which far blocks are handled.
+	 */
+	private long flowCount = 0;
+
+	/**
+	 * The maximum horizontal and downward distance the nearest search travels from its start block.
+	 */
+	private int nearestSearchRadius;
+
+	/**
+	 * The maximum amount of blocks the nearest search visits from a single start block.
+	 */
+	private int nearestSearchBudget;
+
+	/**
+	 * The generation stamp of every block in the box around the start block of the nearest search, indexed by offset from the start block.
+	 * A block was visited by the current search if its stamp equals the current generation, so the box never needs to be cleared.
+	 */
+	private int[] nearestSearchVisited;
+
+	/**
+	 * The generation of the current nearest search.
+	 */
+	private int nearestSearchGeneration;
+
+	/**
+	 * The amount of blocks visited by the current nearest search.
+	 */
+	private int nearestSearchVisitedCount;
+
+	/**
+	 * The blocks waiting to be handled by the nearest search, by depth below the start block.
+	 */
+	private LongList[] nearestSearchLayers;
+
+	/**
+	 * The blocks handled in the current iteration of the nearest search.
+	 */
+	private final LongList nearestSearchBatch = new LongList();
+
+	/**
+	 * The packed positions of the cells read by the flow kernel, in the order of {@link #NEIGHBOR_OFFSETS} with the handled block itself in place of the block above it.
+	 */
+	private final long[] cellPositions = new long[CELL_COUNT];
+
+	/**
+	 * The materials of the cells as they were read or last written.
+	 */
+	private final Material[] cellMaterials = new Material[CELL_COUNT];
+
+	/**
+	 * The liquid levels of the cells as they were read or last written, or NOT_A_LIQUID for cells that can't hold liquid.
+	 */
+	private final int[] cellLevels = new int[CELL_COUNT];
+
+	/**
+	 * The volumes of the cells as they were read or last written, or NOT_A_LIQUID for cells that can't hold liquid.
+	 */
+	private final int[] cellWrittenVolumes = new int[CELL_COUNT];
+
+	/**
+	 * The volumes of the cells after the transfers computed so far.
+	 */
+	private final int[] cellVolumes = new int[CELL_COUNT];
+
+	/**
+	 * Whether each cell is an infinite liquid source.
+	 */
+	private final boolean[] cellInfinite = new boolean[CELL_COUNT];
+
+	/**
+	 * Whether liquid flowed to or from each cell since the cells were last written.
+	 */
+	private final boolean[] cellTouched = new boolean[CELL_COUNT];
+
+	/**
+	 * The cells liquid flowed to or from since the cells were last written, in the order they were first flowed to, so they are activated in that order.
+	 */
+	private final int[] touchedCells = new int[CELL_COUNT];
+
+	/**
+	 * The amount of cells in {@link #touchedCells}.
+	 */
+	private int touchedCellCount;
+
+	/**
+	 * The volume that has flowed from the handled block in the current flow, including the transfers computed so far.
+	 */
+	private int cellFlowed;
+
+	/**
+	 * Holds the cells of the horizontal neighbors the handled block may spread to, ordered by volume.
+	 */
+	private final int[] spreadCells = new int[4];
+
+	/**
+	 * The connected bodies of liquid, used to find lower blocks without searching.
+	 */
+	private final WaterBodyIndex waterBodies;
+
+	/**
+	 * Keeps track of settled chunk sections, whose blocks are left alone until something changes around them.
+	 */
+	private final SectionSleepTracker sleepTracker = new SectionSleepTracker(DEFAULT_SLEEP_FLOWS);
+
+	/**
+	 * Whether the engine keeps track of loaded chunks. If not, all chunks are considered loaded.
+	 */
+	private boolean chunkTracking = false;
+
+	/**
+	 * The keys of all loaded chunks, if chunks are tracked.
+	 */
+	private final LongOrderedSet loadedChunks = new LongOrderedSet();
+
+	/**
+	 * Active blocks next to a chunk that is not loaded, waiting for that chunk to load, by the chunk key of that chunk.
+	 */
+	private final LongObjectMap<LongOrderedSet> pendingBlocks = new LongObjectMap<>();
+
+	/**
+	 * The chunks unloaded while a flow was in progress, whose blocks are dropped from the flow before it continues.
+	 * Dropping them once for all chunks unloaded in between keeps a burst of unloads from going through the flow for every chunk.
+	 */
+	private final LongOrderedSet unloadedFlowChunks = new LongOrderedSet();
+
+	/**
+	 * How the active blocks are updated.
+	 */
+	private UpdateMode updateMode = UpdateMode.SEQUENTIAL;
+
+	/**
+	 * Computes the updates in the synchronous update mode, created when first needed.
+	 */
+	private SynchronousStep synchronousStep = null;
+
+	/**
+	 * The pool the synchronous update is computed on.
+	 */
+	private ForkJoinPool synchronousPool = ForkJoinPool.commonPool();
+
+	/**
+	 * Whether bodies of liquid are settled at once as communicating vessels, when a block can't even out with its direct neighbors.
+	 */
+	private boolean vesselSolving = false;
+
+	/**
+	 * Settles bodies of liquid at once when vessel solving is enabled, created when first needed.
+	 */
+	private VesselSolver vesselSolver = null;
+
+	/**
+	 * The work done by the engine and the time spent in every phase.
+	 */
+	private final FlowMetrics metrics = new FlowMetrics();
+
+	/**
+	 * Freezes the chunks in which liquid spreads beyond its limits.
+	 */
+	private final SpreadLimiter spreadLimiter;
+
+	/**
+	 * The infinite sources that were active in the current flow, which are checked against the spread limits at the start of the next flow.
+	 */
+	private final LongList flowSources = new LongList();
+
+	/**
+	 * Whether failed changes and broken invariants are reported as exceptions, which is meant for debugging only.
+	 */
+	private boolean debugValidation = false;
+
+	/**
+	 * Records every input of the engine while a trace is running, or null if none is.
+	 */
+	private TraceRecorder trace = null;
+
+	/**
+	 * Records the blocks every handled block changes while the changes may still be rejected, reused between rounds.
+	 */
+	private final TransferLog transferLog = new TransferLog();
+
+	/**
+	 * Whether changed blocks are recorded in the transfer log.
+	 */
+	private boolean loggingTransfers = false;
+
+	/**
+	 * Creates a new LiquidEngine.
+	 *
+	 * @param world The world to simulate.
+	 */
+	public LiquidEngine(final LiquidWorld world) {
+		this.world = new BufferedLiquidWorld(world);
+		this.worldId = world.getId();
+		this.waterBodies = new WaterBodyIndex(this.world, this, DEFAULT_WATER_BODY_BUDGET);
+		this.spreadLimiter = new SpreadLimiter(waterBodies, metrics, DEFAULT_MAXIMUM_ACTIVE_BLOCKS, DEFAULT_MAXIMUM_SOURCE_BODY_SIZE, DEFAULT_MAXIMUM_SOURCE_DISTANCE, DEFAULT_MAXIMUM_SOURCE_GROWTH);
+
+		setNearestSearchBounds(DEFAULT_NEAREST_SEARCH_RADIUS, DEFAULT_NEAREST_SEARCH_BUDGET);
+		Arrays.fill(flowRates, DEFAULT_FLOW_RATE);
+		Arrays.fill(flowIntervals, 1);
+	}
+
+	/**
+	 * Checks whether the specified material is a liquid.
+	 *
+	 * @param material The material to check.
+	 * @param allowAir Whether to allow air.
+	 * @return Whether the material is a liquid.
+	 */
+	public static boolean isLiquid(final Material material, final boolean allowAir) {
+		return allowAir ? LiquidType.acceptsLiquid(material) : LiquidType.isLiquid(material);
+	}
+
+	/**
+	 * Checks whether a two materials are the same type of liquid. If one of the materials is AIR, they will match.
+	 *
+	 * @param material1 The first material to compare.
+	 * @param material2 The second material to compare.
+	 * @return Whether the two materials are the same type of liquid.
+	 */
+	public static boolean isSameLiquid(final Material material1, final Material material2) {
+		return isLiquid(material1, true) && isLiquid(material2, true) && (material1 == Material.AIR || material2 == Material.AIR || LiquidType.fromMaterial(material1) == LiquidType.fromMaterial(material2));
+	}
+
+	/**
+	 * Gets the world this engine simulates.
+	 *
+	 * @return The world.
+	 */
+	public LiquidWorld getWorld() {
+		return world.getWorld();
+	}
+
+	/**
+	 * Packs the specified coordinates into a position in this engine's world.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The packed position.
+	 */
+	public long getPosition(final int x, final int y, final int z) {
+		return BlockPosition.pack(worldId, x, y, z);
+	}
+
+	/**
+	 * Gets the amount of active liquid blocks.
+	 *
+	 * @return The amount of active liquid blocks.
+	 */
+	public int getActiveBlockCount() {
+		return liquidBlocks.size();
+	}
+
+	/**
+	 * Gets the amount of chunk sections that are sleeping because they have settled.
+	 *
+	 * @return The amount of sleeping sections.
+	 */
+	public int getSleepingSectionCount() {
+		return sleepTracker.getSleepingSectionCount();
+	}
+
+	/**
+	 * Sets how fast a type of liquid flows.
+	 * Only the sequential update mode uses the profile, the synchronous update mode always moves liquid one level at a time.
+	 *
+	 * @param liquidType   The liquid type.
+	 * @param flowRate     How much liquid can flow from a block in one flow.
+	 * @param flowInterval The amount of flows between the flows in which blocks of the liquid are handled.
+	 */
+	public void setLiquidProfile(final LiquidType liquidType, final int flowRate, final int flowInterval) {
+		if (flowRate < 1 || flowRate > MAXIMUM_FLOW_RATE) {
+			throw (new IllegalArgumentException("Invalid flow rate \"" + flowRate + "\""));
+		}
+
+		if (flowInterval < 1) {
+			throw (new IllegalArgumentException("Invalid flow interval \"" + flowInterval + "\""));
+		}
+
+		flowRates[liquidType.ordinal()] = flowRate;
+		flowIntervals[liquidType.ordinal()] = flowInterval;
+		traceSettings();
+	}
+
+	/**
+	 * Gets how much liquid can flow from a block of a type of liquid in one flow.
+	 *
+	 * @param liquidType The liquid type.
+	 * @return The flow rate.
+	 */
+	public int getFlowRate(final LiquidType liquidType) {
+		return flowRates[liquidType.ordinal()];
+	}
+
+	/**
+	 * Gets the amount of flows between the flows in which blocks of a type of liquid are handled.
+	 *
+	 * @param liquidType The liquid type.
+	 * @return The flow interval.
+	 */
+	public int getFlowInterval(final LiquidType liquidType) {
+		return flowIntervals[liquidType.ordinal()];
+	}
+
+	/**
+	 * Sets the chunks players are in, so blocks far from all of them are handled less often and more coarsely.
+	 * Blocks within the radius of a player's chunk are handled in every flow, other blocks only every far flow interval.
+	 * Far blocks flow straight to the lowest blocks of their body of liquid, so they end up in the same place with far fewer steps.
+	 *
+	 * @param playerChunks The chunk keys of the chunks players are in.
+	 * @param radius       The distance in chunks around a player in which blocks are near.
+	 */
+	public void setPlayerChunks(final LongList playerChunks, final int radius) {
+		if (radius < 0) {
+			throw (new IllegalArgumentException("Invalid radius \"" + radius + "\""));
+		}
+
+		if (trace != null) {
+			trace.recordPlayerChunks(playerChunks, radius);
+		}
+
+		levelOfDetail = true;
+		nearChunks.clear();
+		this.playerChunks.clear();
+		this.playerChunks.addAll(playerChunks);
+		playerChunkRadius = radius;
+
+		for (int i = 0; i < playerChunks.size(); ++i) {
+			long chunkStart = BlockPosition.getChunkStart(playerChunks.get(i));
+			int chunkX = BlockPosition.getChunkX(chunkStart);
+			int chunkZ = BlockPosition.getChunkZ(chunkStart);
+
+			for (int dx = -radius; dx <= radius; ++dx) {
+				for (int dz = -radius; dz <= radius; ++dz) {
+					nearChunks.add(BlockPosition.getChunkKey(getPosition((chunkX + dx) << 4, 0, (chunkZ + dz) << 4)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops handling blocks far from players differently, so all blocks are handled in every flow.
+	 */
+	public void disableLevelOfDetail() {
+		if (trace != null) {
+			trace.recordLevelOfDetailDisabled();
+		}
+
+		levelOfDetail = false;
+		nearChunks.clear();
+	}
+
+	/**
+	 * Checks whether a block is near a player, which all blocks are if the level of detail is disabled.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block is near a player.
+	 */
+	public boolean isNear(final long position) {
+		return !levelOfDetail || nearChunks.contains(BlockPosition.getChunkKey(position));
+	}
+
+	/**
+	 * Sets the amount of flows between the flows in which blocks far from all players are handled.
+	 *
+	 * @param farFlowInterval The amount of flows.
+	 */
+	public void setFarFlowInterval(final int farFlowInterval) {
+		if (farFlowInterval < 1) {
+			throw (new IllegalArgumentException("Invalid far flow interval \"" + farFlowInterval + "\""));
+		}
+
+		this.farFlowInterval = farFlowInterval;
+		traceSettings();
+	}
+
+	/**
+	 * Gets the amount of flows between the flows in which blocks far from all players are handled.
+	 *
+	 * @return The amount of flows.
+	 */
+	public int getFarFlowInterval() {
+		return farFlowInterval;
+	}
+
+	/**
+	 * Gets the maximum amount of active blocks handled in a single flow.
+	 *
+	 * @return The maximum amount of blocks.
+	 */
+	public int getMaximumBlocksPerFlow() {
+		return maximumBlocksPerFlow;
+	}
+
+	/**
+	 * Sets the maximum amount of active blocks handled in a single flow.
+	 * If there are more active blocks, every flow handles the next part of them, so a large flood is spread over several flows.
+	 *
+	 * @param maximumBlocksPerFlow The maximum amount of blocks.
+	 */
+	public void setMaximumBlocksPerFlow(final int maximumBlocksPerFlow) {
+		if (maximumBlocksPerFlow < 1) {
+			throw (new IllegalArgumentException("Invalid maximum blocks per flow \"" + maximumBlocksPerFlow + "\""));
+		}
+
+		this.maximumBlocksPerFlow = maximumBlocksPerFlow;
+		traceSettings();
+	}
+
+	/**
+	 * Sets the amount of flows in a row a chunk section with active blocks has to go without changes before it goes to sleep.
+	 * A sleeping section is left alone until one of its blocks or a block next to it changes, or one of its blocks is added from outside of the engine.
+	 * Only flows in which blocks of the section were handled count, so slow liquids and blocks far from players don't go to sleep before they flowed.
+	 *
+	 * @param sleepFlows The amount of flows.
+	 */
+	public void setSleepFlows(final int sleepFlows) {
+		if (sleepFlows < 1) {
+			throw (new IllegalArgumentException("Invalid amount of sleep flows \"" + sleepFlows + "\""));
+		}
+
+		sleepTracker.setSleepFlows(sleepFlows);
+		traceSettings();
+	}
+
+	/**
+	 * Gets the amount of flows in a row a chunk section with active blocks has to go without changes before it goes to sleep.
+	 *
+	 * @return The amount of flows.
+	 */
+	public int getSleepFlows() {
+		return sleepTracker.getSleepFlows();
+	}
+
+	/**
+	 * Gets the material of the block at the specified position.
+	 *
+	 * @param position The packed position.
+	 * @return The material.
+	 */
+	public Material getMaterial(final long position) {
+		return world.getMaterial(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position));
+	}
+
+	/**
+	 * Checks whether the block at the specified position is a liquid.
+	 *
+	 * @param position The packed position.
+	 * @param allowAir Whether to allow air.
+	 * @return Whether the block is a liquid.
+	 */
+	public boolean isLiquid(final long position, final boolean allowAir) {
+		return isLiquid(getMaterial(position), allowAir);
+	}
+
+	/**
+	 * Checks whether the block at the specified position is air.
+	 *
+	 * @param position The packed position.
+	 * @return Whether the block is air.
+	 */
+	public boolean isEmpty(final long position) {
+		return getMaterial(position) == Material.AIR;
+	}
+
+	/**
+	 * Checks whether a two blocks are the same type of liquid.
+	 *
+	 * @param position1 The packed position of the first block to compare.
+	 * @param position2 The packed position of the second block to compare.
+	 * @return Whether the two blocks are the same type of liquid.
+	 */
+	public boolean isSameLiquid(final long position1, final long position2) {
+		return isSameLiquid(getMaterial(position1), getMaterial(position2));
+	}
+
+	/**
+	 * Checks whether the specified block can accept liquid.
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return Whether the block can accept liquid.
+	 */
+	public boolean canAcceptLiquid(final long position) {
+		int volume = getVolume(position);
+
+		return volume != NOT_A_LIQUID && volume < MAXIMUM_VOLUME;
+	}
+
+	/**
+	 * Checks if the specified block can flow to another block.
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return Whether the block can flow.
+	 */
+	public boolean canFlow(final long position) {
+		LiquidType liquidType = LiquidType.fromMaterial(getMaterial(position));
+
+		// Only liquids can have liquid to flow
+		return liquidType != null && getFlowed(position) < flowRates[liquidType.ordinal()] * VOLUME_PER_LEVEL && getVolume(position) > 0;
+	}
+
+	/**
+	 * Gets the horizontal neighbors around a block.
+	 * This allocates a new list, so the flow itself loops over the neighbor offsets instead.
+	 *
+	 * @param position The packed position of the block to check from.
+	 * @return The packed positions of the horizontal neighbors.
+	 */
+	public LongList getHorizontalNeighbors(final long position) {
+		LongList result = new LongList(4);
+
+		for (int[] offset : NEIGHBOR_OFFSETS) {
+			if (offset[1] == 0) {
+				result.add(BlockPosition.offset(position, offset[0], 0, offset[2]));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the neighbors around a block. Neighbors above or below the world are left out.
+	 * This allocates a new list, so the flow itself loops over the neighbor offsets instead.
+	 *
+	 * @param position The packed position of the block to check from.
+	 * @return The packed positions of the neighbors.
+	 */
+	public LongList getNeighbors(final long position) {
+		LongList result = new LongList(NEIGHBOR_OFFSETS.length);
+		int y = BlockPosition.getY(position);
+
+		for (int[] offset : NEIGHBOR_OFFSETS) {
+			if (BlockPosition.isValidY(y + offset[1])) {
+				result.add(BlockPosition.offset(position, offset[0], offset[1], offset[2]));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the horizontal liquid neighbors around a block.
+	 *
+	 * @param position The packed position of the block to check from.
+	 * @param allowAir Whether to allow air.
+	 * @return The packed positions of the horizontal liquid neighbors.
+	 */
+	public LongList getHorizontalLiquidNeighbors(final long position, final boolean allowAir) {
+		return filterLiquids(getHorizontalNeighbors(position), allowAir);
+	}
+
+	/**
+	 * Gets the liquid neighbors around a block.
+	 *
+	 * @param position The packed position of the block to check from.
+	 * @param allowAir Whether to allow air.
+	 * @return The packed positions of the liquid neighbors.
+	 */
+	public LongList getLiquidNeighbors(final long position, final boolean allowAir) {
+		return filterLiquids(getNeighbors(position), allowAir);
+	}
+
+	/**
+	 * Determines the liquid level of the specified block, where MINIMUM_LIQUID_LEVEL is the lowest level (air/empty) and MAXIMUM_LIQUID_LEVEL the highest (full).
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return The specified block's liquid level, or NOT_A_LIQUID if the block is neither a liquid nor air.
+	 */
+	public int getLiquidLevel(final long position) {
+		Material material = getMaterial(position);
+
+		// Check if the block is air
+		if (material == Material.AIR) {
+			// If so, the level is MINIMUM_LIQUID_LEVEL
+			return MINIMUM_LIQUID_LEVEL;
+		} else if (!isLiquid(material, false)) {
+			return NOT_A_LIQUID;
+		}
+
+		return world.getLevel(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position));
+	}
+
+	/**
+	 * Determines the volume of liquid in the specified block, which is its liquid level in volume units together with its remainder.
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return The volume, from 0 for air up to MAXIMUM_VOLUME, or NOT_A_LIQUID if the block is neither a liquid nor air.
+	 */
+	public int getVolume(final long position) {
+		return toVolume(position, getLiquidLevel(position));
+	}
+
+	/**
+	 * Determines the volume of liquid in a block from the liquid level it shows.
+	 *
+	 * @param position The packed position of the block.
+	 * @param level    The liquid level of the block, or NOT_A_LIQUID.
+	 * @return The volume, or NOT_A_LIQUID if the block is neither a liquid nor air.
+	 */
+	private int toVolume(final long position, final int level) {
+		// Air never has a remainder
+		if (level <= MINIMUM_LIQUID_LEVEL) {
+			return level;
+		}
+
+		// The block may have been changed without the engine knowing, so keep the volume within what a liquid block can hold
+		return Math.max(1, Math.min(MAXIMUM_VOLUME, level * VOLUME_PER_LEVEL + liquidStates.getRemainder(position)));
+	}
+
+	/**
+	 * Gets the liquid level a block with the specified volume shows, which is the nearest level but never empty while there is any liquid left.
+	 *
+	 * @param volume The volume.
+	 * @return The liquid level.
+	 */
+	public static int toLiquidLevel(final int volume) {
+		if (volume <= 0) {
+			return MINIMUM_LIQUID_LEVEL;
+		}
+
+		return Math.max(1, Math.min(MAXIMUM_LIQUID_LEVEL, (volume + VOLUME_PER_LEVEL / 2) / VOLUME_PER_LEVEL));
+	}
+
+	/**
+	 * Checks if liquid can flow from the source block to the target block.
+	 *
+	 * @param from The packed position of the source block.
+	 * @param to   The packed position of the target block.
+	 * @return Whether liquid can flow from the source block to the target block.
+	 */
+	public boolean canFlowFromTo(final long from, final long to) {
+		if (!canFlow(from) || !canAcceptLiquid(to) || !isSameLiquid(from, to)) {
+			return false;
+		}
+
+		boolean isDownBlock = BlockPosition.getY(from) > 0 && to == BlockPosition.offset(from, 0, -1, 0);
+
+		return isDownBlock || getVolume(from) - getVolume(to) >= 2 * VOLUME_PER_LEVEL;
+	}
+
+	/**
+	 * Gets the volume of liquid that can still flow from a block in the current flow.
+	 *
+	 * @param position   The packed position of the block.
+	 * @param liquidType The liquid type of the block.
+	 * @return The volume.
+	 */
+	private int getRemainingFlow(final long position, final LiquidType liquidType) {
+		return flowRates[liquidType.ordinal()] * VOLUME_PER_LEVEL - getFlowed(position);
+	}
+
+	/**
+	 * Gets the largest volume that can flow from one block to another, as allowed by the flow rate and volume of the source and the room in the target.
+	 * Only valid if liquid can flow from the source to the target.
+	 *
+	 * @param source The packed position of the source block.
+	 * @param target The packed position of the target block.
+	 * @return The volume.
+	 */
+	private int getTransferableVolume(final long source, final long target) {
+		int volume = getRemainingFlow(source, LiquidType.fromMaterial(getMaterial(source)));
+
+		if (!isInfiniteLiquidSource(source)) {
+			volume = Math.min(volume, getVolume(source));
+		}
+
+		if (!isInfiniteLiquidSource(target)) {
+			volume = Math.min(volume, MAXIMUM_VOLUME - getVolume(target));
+		}
+
+		return volume;
+	}
+
+	/**
+	 * Checks if the specified block is an infinite liquid source.
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return Whether the block is an infinite liquid source.
+	 */
+	public boolean isInfiniteLiquidSource(final long position) {
+		return liquidStates.isInfinite(position);
+	}
+
+	/**
+	 * Sets whether the specified block is an infinite liquid source.
+	 *
+	 * @param position The packed position of the block to set.
+	 * @param value    Whether the block is an infinite liquid source.
+	 */
+	public void setInfiniteLiquidSource(final long position, final boolean value) {
+		if (trace != null) {
+			trace.recordInfiniteSource(position, value);
+		}
+
+		liquidStates.setInfinite(position, value);
+	}
+
+	/**
+	 * Handles all active liquid blocks once, without any time limit.
+	 */
+	public void tick() {
+		startFlow();
+		continueFlow(Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Starts a new flow, in which every currently active block is handled once.
+	 * Any blocks left over from the previous flow are dropped, so callers should only start a flow when {@link #isFlowing()} is false.
+	 */
+	public void startFlow() {
+		if (trace != null) {
+			trace.recordFlowStarted();
+		}
+
+		// Reset the flow rates of all blocks that flowed last flow
+		liquidStates.resetFlowed();
+		unloadedFlowChunks.clear();
+
+		// Count the quiet flows of the previous flow
+		sleepTracker.endFlow();
+
+		// First copy all current blocks, so as to loop through all blocks once per flow
+		int count = liquidBlocks.size();
+		liquidBlocksToHandle = liquidBlocks.toArray(liquidBlocksToHandle);
+
+		// Freeze the chunks in which liquid spreads beyond its limits, before any of their blocks are handled
+		checkSpreadLimits(count);
+
+		// If there are more active blocks than a flow may handle, take the next part of them and leave the others active for later flows
+		int first = 0;
+		if (count > maximumBlocksPerFlow) {
+			first = Math.min(flowRotation, count - maximumBlocksPerFlow);
+			flowRotation = first + maximumBlocksPerFlow >= count ? 0 : first + maximumBlocksPerFlow;
+			count = maximumBlocksPerFlow;
+		} else {
+			flowRotation = 0;
+		}
+
+		// Blocks far from all players are only handled in some flows, but stay active in between
+		++flowCount;
+		boolean handleFar = !levelOfDetail || flowCount % farFlowInterval == 0;
+
+		// Slow liquids are left out of the flows they skip, so they don't use up the budget of the flow
+		// The synchronous update handles every block of a flow at once, so there every liquid flows every flow
+		boolean skipSlow = false;
+		if (updateMode == UpdateMode.SEQUENTIAL) {
+			for (int flowInterval : flowIntervals) {
+				skipSlow |= flowCount % flowInterval != 0;
+			}
+		}
+
+		// Put the blocks of settled sections to sleep instead of handling them
+		// The blocks are moved to the front, which is safe since no block is ever written past the one being read
+		liquidBlocksToHandleCount = 0;
+		for (int i = 0; i < count; ++i) {
+			long position = liquidBlocksToHandle[first + i];
+
+			if (spreadLimiter.setAside(position) || sleepTracker.sleepIfSettled(position)) {
+				liquidBlocks.remove(position);
+			} else if (parkIfNextToUnloadedChunk(position)) {
+				continue;
+			} else if (handleFar || isNear(position)) {
+				if (!skipSlow || isDueToFlow(position)) {
+					liquidBlocksToHandle[liquidBlocksToHandleCount++] = position;
+				}
+
+				if (liquidStates.isInfinite(position)) {
+					flowSources.add(position);
+				}
+			}
+		}
+
+		liquidBlocksToHandleCursor = 0;
+	}
+
+	/**
+	 * Checks whether a block flows in the current flow, since slow liquids only flow in some flows but stay active in between.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block flows, which is true for blocks that are not liquids.
+	 */
+	private boolean isDueToFlow(final long position) {
+		LiquidType liquidType = LiquidType.fromMaterial(getMaterial(position));
+
+		return liquidType == null || flowCount % flowIntervals[liquidType.ordinal()] == 0;
+	}
+
+	/**
+	 * Checks the active blocks and the infinite sources of the previous flow against the spread limits, and freezes the chunks that exceed them.
+	 *
+	 * @param count The amount of active blocks, which are at the start of the blocks to handle.
+	 */
+	private void checkSpreadLimits(final int count) {
+		spreadLimiter.checkActiveBlocks(liquidBlocksToHandle, count);
+
+		// A source may have been unloaded or taken away since
+		for (int i = 0; i < flowSources.size(); ++i) {
+			long source = flowSources.get(i);
+
+			if (isLoaded(source) && liquidStates.isInfinite(source)) {
+				spreadLimiter.checkSource(source, flowCount);
+			}
+		}
+
+		flowSources.clear();
+		spreadLimiter.dropStaleSources(flowCount);
+	}
+
+	/**
+	 * Continues the current flow until all of its blocks have been handled or the budget runs out.
+	 * Blocks that were not handled are the first to be handled on the next call, so no block waits longer than the blocks that became active after it.
+	 *
+	 * @param deadline      The System.nanoTime() value after which no more blocks are handled.
+	 * @param maximumBlocks The maximum amount of blocks to handle.
+	 * @return The amount of blocks handled.
+	 */
+	public int continueFlow(final long deadline, final int maximumBlocks) {
+		dropUnloadedFlowBlocks();
+
+		// The synchronous update handles the whole flow at once, since all blocks depend on the same snapshot
+		if (updateMode == UpdateMode.SYNCHRONOUS) {
+			if (loggingTransfers) {
+				transferLog.startTransfer();
+			}
+
+			int handled = continueSynchronousFlow();
+			flush();
+
+			if (trace != null) {
+				trace.recordFlowContinued(handled);
+			}
+
+			return handled;
+		}
+
+		int handled = 0;
+
+		// Process blocks until the flow is done or the budget is used up
+		// The time is checked after every block, since a single block can take a while
+		while (liquidBlocksToHandleCursor < liquidBlocksToHandleCount && handled < maximumBlocks && System.nanoTime() < deadline) {
+			// A neighboring chunk may have been unloaded since the flow started
+			long position = liquidBlocksToHandle[liquidBlocksToHandleCursor++];
+
+			if (!parkIfNextToUnloadedChunk(position)) {
+				if (loggingTransfers) {
+					transferLog.startTransfer();
+				}
+
+				handleLiquidBlock(position);
+
+				if (debugValidation) {
+					validate(position);
+				}
+			}
+
+			++handled;
+		}
+
+		flush();
+
+		if (trace != null) {
+			trace.recordFlowContinued(handled);
+		}
+
+		return handled;
+	}
+
+	/**
+	 * Collects the blocks the next call to {@link #continueFlow(long, int)} may handle, which are all blocks left in the flow in the synchronous update mode.
+	 *
+	 * @param target        The list to add the packed positions to.
+	 * @param maximumBlocks The maximum amount of blocks the call may handle.
+	 */
+	public void collectBlocksToHandle(final LongList target, final int maximumBlocks) {
+		dropUnloadedFlowBlocks();
+
+		int count = liquidBlocksToHandleCount - liquidBlocksToHandleCursor;
+		if (updateMode != UpdateMode.SYNCHRONOUS) {
+			count = Math.min(count, maximumBlocks);
+		}
+
+		for (int i = 0; i < count; ++i) {
+			target.add(liquidBlocksToHandle[liquidBlocksToHandleCursor + i]);
+		}
+	}
+
+	/**
+	 * Writes all buffered block changes to the world.
+	 * Blocks are only written once, with their final state, no matter how often they changed since the last flush.
+	 *
+	 * @return The amount of blocks written.
+	 */
+	public int flush() {
+		long start = System.nanoTime();
+		int written = world.flush();
+		metrics.addWrite(written, System.nanoTime() - start);
+
+		return written;
+	}
+
+	/**
+	 * Gets the work done by the engine and the time spent in every phase.
+	 *
+	 * @return The metrics.
+	 */
+	public FlowMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Updates all blocks left in the current flow at once, in parallel.
+	 *
+	 * @return The amount of blocks handled.
+	 */
+	private int continueSynchronousFlow() {
+		if (synchronousStep == null) {
+			synchronousStep = new SynchronousStep(this);
+		}
+
+		int handled = liquidBlocksToHandleCount - liquidBlocksToHandleCursor;
+		for (int i = liquidBlocksToHandleCursor; i < liquidBlocksToHandleCount; ++i) {
+			sleepTracker.markHandled(liquidBlocksToHandle[i]);
+		}
+
+		long start = System.nanoTime();
+		synchronousStep.run(liquidBlocksToHandle, liquidBlocksToHandleCursor, liquidBlocksToHandleCount, synchronousPool);
+		metrics.addSynchronousStep(handled, System.nanoTime() - start);
+		liquidBlocksToHandleCursor = liquidBlocksToHandleCount;
+
+		return handled;
+	}
+
+	/**
+	 * Writes the result of a synchronous update to a block, and activates it together with the neighbors that may flow into it.
+	 * The synchronous update works in whole levels, so the block holds exactly the volume of its new level afterwards.
+	 *
+	 * @param position The packed position of the block.
+	 * @param material The new material.
+	 * @param level    The new liquid level.
+	 */
+	void writeStep(final long position, final Material material, final int level) {
+		Material oldMaterial = getMaterial(position);
+		int oldLevel = isLiquid(oldMaterial, false) ? world.getLevel(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position)) : MINIMUM_LIQUID_LEVEL;
+
+		world.set(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position), material, level);
+		setChangedRemainder(position, 0);
+		waterBodies.update(position, oldMaterial, oldLevel, material, level);
+		markChanged(position);
+
+		if (isLiquid(material, false)) {
+			liquidBlocks.add(position);
+		}
+
+		addNeighbors(position);
+
+		if (debugValidation) {
+			validateBlock(position);
+		}
+	}
+
+	/**
+	 * Removes a block from the active blocks.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	void deactivate(final long position) {
+		liquidBlocks.remove(position);
+	}
+
+	/**
+	 * Gets how the active blocks are updated.
+	 *
+	 * @return The update mode.
+	 */
+	public UpdateMode getUpdateMode() {
+		return updateMode;
+	}
+
+	/**
+	 * Sets how the active blocks are updated. Takes effect from the next call to {@link #continueFlow(long, int)}.
+	 *
+	 * @param updateMode The update mode.
+	 */
+	public void setUpdateMode(final UpdateMode updateMode) {
+		this.updateMode = updateMode;
+		traceSettings();
+	}
+
+	/**
+	 * Sets the pool the synchronous update is computed on, which is the common pool by default.
+	 * The owner of the pool shuts it down, so it should only be replaced while no flow is being continued.
+	 *
+	 * @param synchronousPool The pool.
+	 */
+	public void setSynchronousPool(final ForkJoinPool synchronousPool) {
+		this.synchronousPool = synchronousPool;
+	}
+
+	/**
+	 * Checks whether a flow is in progress, meaning it still has blocks left to handle.
+	 *
+	 * @return Whether a flow is in progress.
+	 */
+	public boolean isFlowing() {
+		dropUnloadedFlowBlocks();
+
+		return liquidBlocksToHandleCursor < liquidBlocksToHandleCount;
+	}
+
+	/**
+	 * Adds the specified block to the active blocks, together with its liquid neighbors which are as high or higher.
+	 * Meant for blocks changed outside of the engine, so the bodies of liquid around the block are indexed again.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 */
+	public void addBlock(final int x, final int y, final int z) {
+		if (BlockPosition.isValidY(y)) {
+			addChangedBlock(getPosition(x, y, z));
+		}
+	}
+
+	/**
+	 * Adds the specified block to the active blocks, together with its liquid neighbors which are as high or higher.
+	 * Meant for blocks changed outside of the engine, so the bodies of liquid around the block are indexed again.
+	 * Blocks in chunks that are not loaded are ignored, since changes may be reported after their chunk was unloaded.
+	 *
+	 * @param position The packed position of the block to add.
+	 */
+	public void addChangedBlock(final long position) {
+		if (!isLoaded(position)) {
+			return;
+		}
+
+		if (trace != null) {
+			trace.recordChangedBlock(position, getMaterial(position), world.getLevel(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position)));
+		}
+
+		// The block may have changed outside of the engine, so the bodies around it are no longer known, and its section has to wake up
+		// Its volume is whatever its level shows now
+		liquidStates.setRemainder(position, 0);
+		waterBodies.invalidate(position);
+		wake(position);
+		addBlock(position);
+	}
+
+	/**
+	 * Starts recording the blocks every handled block changes, for a world that applies the changes later and may reject some of them.
+	 * Recording stops when the rejected transfers are determined by {@link #rejectTransfers(LongList, LongOrderedSet)}.
+	 */
+	public void startTransferLog() {
+		transferLog.clear();
+		loggingTransfers = true;
+	}
+
+	/**
+	 * Determines which of the recorded changes must not be applied, because some of the blocks they changed were changed by something else, and stops recording.
+	 * Every handled block moves liquid only between the blocks it changed, so all changes of a handled block are rejected together, as well as the changes of handled blocks that changed the same blocks.
+	 * The rejected blocks keep the state they have in the world. Blocks changed by something else hold the volume their level shows, and other blocks get back the remainder they had before they were changed.
+	 * Each rejected block has to be added again with {@link #addRejectedBlock(long)} once the other changes are applied.
+	 *
+	 * @param conflicts The packed positions of the blocks that were changed by something else.
+	 * @param target    The set to add the packed positions of the rejected blocks to, including the conflicting blocks.
+	 */
+	public void rejectTransfers(final LongList conflicts, final LongOrderedSet target) {
+		loggingTransfers = false;
+		transferLog.reject(conflicts, target);
+
+		long[] positions = target.toArray();
+		for (long position : positions) {
+			liquidStates.setRemainder(position, transferLog.getOriginalRemainder(position));
+
+			// The bodies were updated with the rejected changes
+			waterBodies.invalidate(position);
+		}
+
+		// The volume of a block changed by something else is whatever its level shows now
+		for (int i = 0; i < conflicts.size(); ++i) {
+			liquidStates.setRemainder(conflicts.get(i), 0);
+		}
+
+		transferLog.clear();
+	}
+
+	/**
+	 * Adds a block whose changes were rejected to the active blocks again, together with its liquid neighbors which are as high or higher.
+	 * Unlike {@link #addChangedBlock(long)}, the block keeps the volume it was given when the changes were rejected.
+	 * Blocks in chunks that are not loaded are ignored.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	public void addRejectedBlock(final long position) {
+		if (!isLoaded(position)) {
+			return;
+		}
+
+		wake(position);
+		addBlock(position);
+	}
+
+	/**
+	 * Adds the specified block to the active blocks, together with its liquid neighbors which are as high or higher.
+	 *
+	 * @param position The packed position of the block to add.
+	 */
+	public void addBlock(final long position) {
+		// Add block and neighbors, unless the block is in a settled section
+		if (isLiquid(position, false) && !sleepTracker.isSleeping(position) && liquidBlocks.add(position)) {
+			addNeighbors(position);
+		}
+	}
+
+	/**
+	 * Adds all neighbors of a block which are liquids and equal height or higher than the block to the active blocks.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void addNeighbors(final long position) {
+		int y = BlockPosition.getY(position);
+
+		// This runs for every written cell, so loop over the offsets instead of allocating a list of neighbors
+		for (int[] offset : NEIGHBOR_OFFSETS) {
+			if (offset[1] < 0 || !BlockPosition.isValidY(y + offset[1])) {
+				continue;
+			}
+
+			long neighbor = BlockPosition.offset(position, offset[0], offset[1], offset[2]);
+			if (isLoaded(neighbor) && isLiquid(neighbor, false) && !sleepTracker.isSleeping(neighbor)) {
+				liquidBlocks.add(neighbor);
+			}
+		}
+	}
+
+	/**
+	 * Sets the remainder of a block the engine changed, recording the change in the transfer log while transfers are logged.
+	 *
+	 * @param position  The packed position of the block.
+	 * @param remainder The new remainder.
+	 */
+	private void setChangedRemainder(final long position, final int remainder) {
+		if (loggingTransfers) {
+			transferLog.add(position, liquidStates.getRemainder(position));
+		}
+
+		liquidStates.setRemainder(position, remainder);
+	}
+
+	/**
+	 * Records that a block changed, waking up its section and any neighboring section it borders.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void markChanged(final long position) {
+		sleepTracker.markChanged(position);
+		wake(position);
+
+		// Only blocks at the edge of a section have neighbors in other sections
+		int localX = BlockPosition.getX(position) & 0xF;
+		int localY = BlockPosition.getY(position) & 0xF;
+		int localZ = BlockPosition.getZ(position) & 0xF;
+		if (localX == 0 || localX == 0xF || localY == 0 || localY == 0xF || localZ == 0 || localZ == 0xF) {
+			for (int[] offset : NEIGHBOR_OFFSETS) {
+				if (BlockPosition.isValidY(BlockPosition.getY(position) + offset[1])) {
+					wake(BlockPosition.offset(position, offset[0], offset[1], offset[2]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wakes up the section of a block if it is sleeping, activating the blocks that were active when it went to sleep.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void wake(final long position) {
+		LongList sleeping = sleepTracker.wake(position);
+
+		if (sleeping != null) {
+			for (int i = 0; i < sleeping.size(); ++i) {
+				liquidBlocks.add(sleeping.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Removes all state of a chunk from the engine, so the chunk can be unloaded from the world.
+	 * Sleeping blocks in the chunk are returned as active blocks, and blocks of the current flow in the chunk are no longer handled.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return The state of the chunk.
+	 */
+	public ChunkLiquidState unloadChunk(final int chunkX, final int chunkZ) {
+		if (trace != null) {
+			trace.recordChunkUnloaded(chunkX, chunkZ);
+		}
+
+		ChunkLiquidState state = new ChunkLiquidState(chunkX, chunkZ);
+		long chunkKey = BlockPosition.getChunkKey(getPosition(chunkX << 4, 0, chunkZ << 4));
+		loadedChunks.remove(chunkKey);
+
+		// Collect the blocks in the chunk that were waiting for one of its neighbors to load, which can only be the chunks next to it
+		if (!pendingBlocks.isEmpty()) {
+			for (int[] offset : NEIGHBOR_OFFSETS) {
+				if (offset[1] != 0) {
+					continue;
+				}
+
+				long pendingChunkKey = BlockPosition.getChunkKey(getPosition((chunkX + offset[0]) << 4, 0, (chunkZ + offset[2]) << 4));
+				LongOrderedSet pending = pendingBlocks.get(pendingChunkKey);
+				if (pending == null) {
+					continue;
+				}
+
+				for (long position : pending.toArray()) {
+					if (BlockPosition.getChunkKey(position) == chunkKey) {
+						state.getActiveBlocks().add(position);
+						pending.remove(position);
+					}
+				}
+
+				if (pending.isEmpty()) {
+					pendingBlocks.remove(pendingChunkKey);
+				}
+			}
+		}
+
+		// A frozen chunk is no longer frozen once it loads again, so its blocks are saved as active blocks
+		FrozenRegion region = spreadLimiter.unfreeze(chunkKey);
+		if (region != null) {
+			LongOrderedSet frozen = region.getBlocks();
+
+			while (!frozen.isEmpty()) {
+				state.getActiveBlocks().add(frozen.removeFirst());
+			}
+		}
+
+		// Collect the infinite sources, remainders and sleeping blocks of every section in the chunk
+		for (int sectionY = 0; sectionY < BlockPosition.WORLD_HEIGHT >> 4; ++sectionY) {
+			long sectionKey = (chunkKey << 4) | sectionY;
+			liquidStates.removeInfiniteSources(sectionKey, state.getInfiniteSources());
+			liquidStates.removeRemainders(sectionKey, state);
+
+			LongList sleeping = sleepTracker.wake(sectionKey << 12);
+			if (sleeping != null) {
+				state.getActiveBlocks().addAll(sleeping);
+			}
+		}
+
+		// Collect the active blocks in the chunk
+		liquidBlocks.removeChunk(chunkKey, state.getActiveBlocks());
+
+		// The blocks of the current flow in the chunk can't be read anymore, so drop them before the flow continues
+		if (liquidBlocksToHandleCursor < liquidBlocksToHandleCount) {
+			unloadedFlowChunks.add(chunkKey);
+		}
+
+		// Bodies of liquid may extend into the chunk
+		waterBodies.unloadChunk(chunkKey);
+
+		return state;
+	}
+
+	/**
+	 * Drops the blocks left in the current flow which are in chunks that were unloaded since the flow started.
+	 */
+	private void dropUnloadedFlowBlocks() {
+		if (unloadedFlowChunks.isEmpty()) {
+			return;
+		}
+
+		int remaining = liquidBlocksToHandleCursor;
+		for (int i = liquidBlocksToHandleCursor; i < liquidBlocksToHandleCount; ++i) {
+			if (!unloadedFlowChunks.contains(BlockPosition.getChunkKey(liquidBlocksToHandle[i]))) {
+				liquidBlocksToHandle[remaining++] = liquidBlocksToHandle[i];
+			}
+		}
+		liquidBlocksToHandleCount = remaining;
+
+		unloadedFlowChunks.clear();
+	}
+
+	/**
+	 * Restores the state of a chunk that was loaded into the world.
+	 *
+	 * @param state The state of the chunk.
+	 */
+	public void loadChunk(final ChunkLiquidState state) {
+		if (trace != null) {
+			trace.recordChunkLoaded(world, state);
+		}
+
+		long chunkKey = BlockPosition.getChunkKey(getPosition(state.getChunkX() << 4, 0, state.getChunkZ() << 4));
+		loadedChunks.add(chunkKey);
+
+		// Resume the blocks that were waiting for this chunk, which are handled again in the next flow
+		LongOrderedSet pending = pendingBlocks.remove(chunkKey);
+		if (pending != null) {
+			while (!pending.isEmpty()) {
+				liquidBlocks.add(pending.removeFirst());
+			}
+		}
+
+		LongList infiniteSources = state.getInfiniteSources();
+		for (int i = 0; i < infiniteSources.size(); ++i) {
+			liquidStates.setInfinite(infiniteSources.get(i), true);
+		}
+
+		LongList remainderBlocks = state.getRemainderBlocks();
+		for (int i = 0; i < remainderBlocks.size(); ++i) {
+			liquidStates.setRemainder(remainderBlocks.get(i), state.getRemainder(i));
+		}
+
+		// Neighbors are not activated, since they may be in chunks that are not loaded
+		LongList activeBlocks = state.getActiveBlocks();
+		for (int i = 0; i < activeBlocks.size(); ++i) {
+			if (isLiquid(activeBlocks.get(i), false)) {
+				liquidBlocks.add(activeBlocks.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Gets the state of all chunks which have any, without removing it from the engine.
+	 *
+	 * @return The states, by chunk key.
+	 */
+	public LongObjectMap<ChunkLiquidState> getChunkStates() {
+		LongObjectMap<ChunkLiquidState> states = new LongObjectMap<>();
+		LongList positions = new LongList();
+
+		// Active blocks, including the blocks of sleeping sections, blocks waiting for a chunk to load and blocks of frozen chunks
+		for (long position : liquidBlocks.toArray()) {
+			getChunkState(states, position).getActiveBlocks().add(position);
+		}
+
+		sleepTracker.getSleepingBlocks(positions);
+		pendingBlocks.forEachValue(pending -> {
+			for (long position : pending.toArray()) {
+				positions.add(position);
+			}
+		});
+		for (long chunkKey : spreadLimiter.getFrozenChunks()) {
+			for (long position : spreadLimiter.getFrozenRegion(chunkKey).getBlocks().toArray()) {
+				positions.add(position);
+			}
+		}
+		for (int i = 0; i < positions.size(); ++i) {
+			getChunkState(states, positions.get(i)).getActiveBlocks().add(positions.get(i));
+		}
+
+		// Infinite sources
+		positions.clear();
+		for (long sectionKey : liquidStates.getSectionKeys()) {
+			liquidStates.getInfiniteSources(sectionKey, positions);
+		}
+
+		for (int i = 0; i < positions.size(); ++i) {
+			getChunkState(states, positions.get(i)).getInfiniteSources().add(positions.get(i));
+		}
+
+		// Remainders
+		for (long sectionKey : liquidStates.getSectionKeys()) {
+			if (liquidStates.hasRemainders(sectionKey)) {
+				liquidStates.getRemainders(sectionKey, getChunkState(states, sectionKey << 12));
+			}
+		}
+
+		return states;
+	}
+
+	/**
+	 * Sets whether the engine keeps track of loaded chunks.
+	 * If so, chunks only count as loaded between calls to {@link #loadChunk(ChunkLiquidState)} and {@link #unloadChunk(int, int)}, and the engine never reads blocks in other chunks.
+	 * Active blocks next to a chunk that is not loaded wait until it loads. If not, all chunks count as loaded.
+	 *
+	 * @param chunkTracking Whether to keep track of loaded chunks.
+	 */
+	public void setChunkTracking(final boolean chunkTracking) {
+		this.chunkTracking = chunkTracking;
+		traceSettings();
+	}
+
+	/**
+	 * Checks whether the engine keeps track of loaded chunks.
+	 *
+	 * @return Whether loaded chunks are tracked.
+	 */
+	public boolean isChunkTracking() {
+		return chunkTracking;
+	}
+
+	/**
+	 * Checks whether the chunk of a block is loaded and can be read by the engine.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the chunk is loaded, always true if chunks are not tracked and the world can read every chunk.
+	 */
+	public boolean isLoaded(final long position) {
+		long chunkKey = BlockPosition.getChunkKey(position);
+
+		return (!chunkTracking || loadedChunks.contains(chunkKey)) && world.isReadable(chunkKey);
+	}
+
+	/**
+	 * Gets the amount of active blocks waiting for a neighboring chunk to load.
+	 *
+	 * @return The amount of waiting blocks.
+	 */
+	public int getPendingBlockCount() {
+		int[] count = {0};
+		pendingBlocks.forEachValue(pending -> count[0] += pending.size());
+
+		return count[0];
+	}
+
+	/**
+	 * Sets the limits on how far liquid may spread. Once a limit is exceeded at the start of a flow, the chunk responsible is frozen until it is unfrozen or unloaded.
+	 *
+	 * @param maximumActiveBlocks   The maximum amount of active blocks in the world, beyond which the chunks with the most active blocks are frozen.
+	 * @param maximumSourceBodySize The maximum amount of blocks in the body of liquid of an infinite source, which counts at most the water body budget.
+	 * @param maximumSourceDistance The maximum horizontal distance the body of liquid of an infinite source reaches from it.
+	 * @param maximumSourceGrowth   The maximum amount of blocks the body of liquid of an infinite source grows by per flow, on average.
+	 */
+	public void setSpreadLimits(final int maximumActiveBlocks, final int maximumSourceBodySize, final int maximumSourceDistance, final int maximumSourceGrowth) {
+		if (maximumActiveBlocks < 1) {
+			throw (new IllegalArgumentException("Invalid maximum active blocks \"" + maximumActiveBlocks + "\""));
+		}
+
+		if (maximumSourceBodySize < 1) {
+			throw (new IllegalArgumentException("Invalid maximum source body size \"" + maximumSourceBodySize + "\""));
+		}
+
+		if (maximumSourceDistance < 1) {
+			throw (new IllegalArgumentException("Invalid maximum source distance \"" + maximumSourceDistance + "\""));
+		}
+
+		if (maximumSourceGrowth < 1) {
+			throw (new IllegalArgumentException("Invalid maximum source growth \"" + maximumSourceGrowth + "\""));
+		}
+
+		spreadLimiter.setLimits(maximumActiveBlocks, maximumSourceBodySize, maximumSourceDistance, maximumSourceGrowth);
+		traceSettings();
+	}
+
+	/**
+	 * Gets the maximum amount of active blocks in the world.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumActiveBlocks() {
+		return spreadLimiter.getMaximumActiveBlocks();
+	}
+
+	/**
+	 * Gets the maximum amount of blocks in the body of liquid of an infinite source.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumSourceBodySize() {
+		return spreadLimiter.getMaximumSourceBodySize();
+	}
+
+	/**
+	 * Gets the maximum horizontal distance the body of liquid of an infinite source reaches from it.
+	 *
+	 * @return The distance in blocks.
+	 */
+	public int getMaximumSourceDistance() {
+		return spreadLimiter.getMaximumSourceDistance();
+	}
+
+	/**
+	 * Gets the maximum amount of blocks the body of liquid of an infinite source grows by per flow.
+	 *
+	 * @return The amount of blocks.
+	 */
+	public int getMaximumSourceGrowth() {
+		return spreadLimiter.getMaximumSourceGrowth();
+	}
+
+	/**
+	 * Gets all frozen chunks, ordered by chunk key.
+	 *
+	 * @return The frozen regions.
+	 */
+	public List<FrozenRegion> getFrozenRegions() {
+		long[] chunkKeys = spreadLimiter.getFrozenChunks();
+		Arrays.sort(chunkKeys);
+
+		List<FrozenRegion> regions = new ArrayList<>(chunkKeys.length);
+		for (long chunkKey : chunkKeys) {
+			regions.add(spreadLimiter.getFrozenRegion(chunkKey));
+		}
+
+		return regions;
+	}
+
+	/**
+	 * Gets the amount of frozen chunks.
+	 *
+	 * @return The amount of chunks.
+	 */
+	public int getFrozenRegionCount() {
+		return spreadLimiter.getFrozenRegionCount();
+	}
+
+	/**
+	 * Moves the chunks that were frozen since the last call to a list, so they can be reported.
+	 *
+	 * @param target The list to add the frozen regions to.
+	 */
+	public void pollBreakerTrips(final List<FrozenRegion> target) {
+		spreadLimiter.pollTrips(target);
+	}
+
+	/**
+	 * Unfreezes a chunk, so its active blocks are handled again from the next flow.
+	 * If the chunk still exceeds a spread limit, it is frozen again at the start of that flow.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return Whether the chunk was frozen.
+	 */
+	public boolean unfreezeChunk(final int chunkX, final int chunkZ) {
+		long chunkKey = BlockPosition.getChunkKey(getPosition(chunkX << 4, 0, chunkZ << 4));
+
+		if (spreadLimiter.getFrozenRegion(chunkKey) == null) {
+			return false;
+		}
+
+		if (trace != null) {
+			trace.recordRegionUnfrozen(chunkKey);
+		}
+
+		resumeFrozenBlocks(spreadLimiter.unfreeze(chunkKey));
+
+		return true;
+	}
+
+	/**
+	 * Freezes a chunk, as if it exceeded a spread limit. Used to restore the state of a trace.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @param limit    The limit that was exceeded.
+	 * @param source   The packed position of the infinite source that exceeded the limit, or the start of the chunk if the limit is not about a source.
+	 * @param value    The value that exceeded the limit.
+	 * @param maximum  The maximum the limit allowed.
+	 */
+	void freezeChunk(final long chunkKey, final SpreadLimit limit, final long source, final int value, final int maximum) {
+		spreadLimiter.freeze(chunkKey, limit, source, value, maximum);
+	}
+
+	/**
+	 * Makes the blocks that were set aside in a frozen chunk active again.
+	 *
+	 * @param region The region that was frozen.
+	 */
+	private void resumeFrozenBlocks(final FrozenRegion region) {
+		LongOrderedSet blocks = region.getBlocks();
+
+		while (!blocks.isEmpty()) {
+			long position = blocks.removeFirst();
+
+			if (isLiquid(position, false)) {
+				liquidBlocks.add(position);
+			}
+		}
+	}
+
+	/**
+	 * Removes an active block from the active blocks if it is next to a chunk that is not loaded, and makes it wait for that chunk to load.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block has to wait.
+	 */
+	private boolean parkIfNextToUnloadedChunk(final long position) {
+		if (!chunkTracking) {
+			return false;
+		}
+
+		// Only blocks at the edge of a chunk have neighbors in other chunks
+		int localX = BlockPosition.getX(position) & 0xF;
+		int localZ = BlockPosition.getZ(position) & 0xF;
+		long unloadedChunk;
+
+		if (!isLoaded(position)) {
+			unloadedChunk = BlockPosition.getChunkKey(position);
+		} else if (localX == 0 && !isLoaded(BlockPosition.offset(position, -1, 0, 0))) {
+			unloadedChunk = BlockPosition.getChunkKey(BlockPosition.offset(position, -1, 0, 0));
+		} else if (localX == 0xF && !isLoaded(BlockPosition.offset(position, 1, 0, 0))) {
+			unloadedChunk = BlockPosition.getChunkKey(BlockPosition.offset(position, 1, 0, 0));
+		} else if (localZ == 0 && !isLoaded(BlockPosition.offset(position, 0, 0, -1))) {
+			unloadedChunk = BlockPosition.getChunkKey(BlockPosition.offset(position, 0, 0, -1));
+		} else if (localZ == 0xF && !isLoaded(BlockPosition.offset(position, 0, 0, 1))) {
+			unloadedChunk = BlockPosition.getChunkKey(BlockPosition.offset(position, 0, 0, 1));
+		} else {
+			return false;
+		}
+
+		LongOrderedSet pending = pendingBlocks.get(unloadedChunk);
+		if (pending == null) {
+			pending = new LongOrderedSet();
+			pendingBlocks.put(unloadedChunk, pending);
+		}
+
+		pending.add(position);
+		liquidBlocks.remove(position);
+
+		return true;
+	}
+
+	/**
+	 * Makes blocks wait for a chunk to load, without removing them from the active blocks.
+	 * Used to restore the state of a trace, in which a block can be both active and waiting.
+	 *
+	 * @param chunkKey  The chunk key of the chunk the blocks wait for.
+	 * @param positions The packed positions of the blocks.
+	 */
+	void addPendingBlocks(final long chunkKey, final LongList positions) {
+		LongOrderedSet pending = pendingBlocks.get(chunkKey);
+		if (pending == null) {
+			pending = new LongOrderedSet();
+			pendingBlocks.put(chunkKey, pending);
+		}
+
+		for (int i = 0; i < positions.size(); ++i) {
+			pending.add(positions.get(i));
+		}
+	}
+
+	/**
+	 * Gets the state of the chunk of a block from a map of states, adding an empty state if there is none.
+	 *
+	 * @param states   The states, by chunk key.
+	 * @param position The packed position of the block.
+	 * @return The state of the chunk.
+	 */
+	private static ChunkLiquidState getChunkState(final LongObjectMap<ChunkLiquidState> states, final long position) {
+		long chunkKey = BlockPosition.getChunkKey(position);
+		ChunkLiquidState state = states.get(chunkKey);
+
+		if (state == null) {
+			state = new ChunkLiquidState(BlockPosition.getChunkX(position), BlockPosition.getChunkZ(position));
+			states.put(chunkKey, state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * Raises the volume of liquid that has flowed from the specified block.
+	 *
+	 * @param position The packed position of the block to set.
+	 * @param amount   The volume to raise the flowed value by.
+	 */
+	private void raiseFlowed(final long position, final int amount) {
+		setFlowed(position, getFlowed(position) + amount);
+	}
+
+	/**
+	 * Sets the volume of liquid that has flowed from the specified block.
+	 *
+	 * @param position The packed position of the block to set.
+	 * @param amount   The volume that has flowed.
+	 */
+	public void setFlowed(final long position, final int amount) {
+		liquidStates.setFlowed(position, amount);
+	}
+
+	/**
+	 * Gets the volume of liquid that has flowed from a block in the current tick.
+	 *
+	 * @param position The packed position of the block to check.
+	 * @return The volume of liquid that flowed from the specified block.
+	 */
+	public int getFlowed(final long position) {
+		return liquidStates.getFlowed(position);
+	}
+
+	/**
+	 * Handles the specified liquid block.
+	 *
+	 * @param position The packed position of the block to handle.
+	 */
+	private void handleLiquidBlock(final long position) {
+		sleepTracker.markHandled(position);
+		metrics.addHandledBlock(BlockPosition.getChunkKey(position));
+
+		// Read the block and its neighbors once, everything up to the searches works on those
+		long time = System.nanoTime();
+		readCells(position);
+
+		// Check if the block can flow
+		if (getCellOutflow() > 0) {
+			// First, move as much liquid as possible downward
+			boolean done = spreadDown();
+			long now = System.nanoTime();
+			metrics.addDownTime(now - time);
+
+			// Far from players, move the rest straight to the lowest blocks of the body of liquid, instead of spreading it level by level
+			if (!done && !isNear(position)) {
+				time = now;
+				writeCells();
+				done = flowToLowestOpenBlock(position);
+
+				// The lowest blocks may be direct neighbors, so read them again
+				if (!done) {
+					readCells(position);
+				}
+
+				now = System.nanoTime();
+				metrics.addNearestTime(now - time);
+			}
+
+			// If we're not done, divide the remaining liquid over the direct neighbors
+			time = now;
+			if (!done) {
+				done = spreadHorizontally();
+			}
+
+			writeCells();
+			now = System.nanoTime();
+			metrics.addHorizontalTime(now - time);
+
+			if (!done) {
+				// If we're still not done, settle the whole body at once if we may, and otherwise perform a flood fill algorithm
+				if (!vesselSolving || !solveVessel(position)) {
+					flowToNearest(position);
+				}
+
+				metrics.addNearestTime(System.nanoTime() - now);
+			} else if (vesselSolving && hasLowerOpenBlock(position)) {
+				// The block is level with its neighbors, but its body may not be, like the two sides of a U-shaped pipe
+				solveVessel(position);
+				metrics.addNearestTime(System.nanoTime() - now);
+			}
+		}
+
+		// Check if anything flowed
+		if (getFlowed(position) == 0) {
+			// If not, remove the block from the handle list
+			liquidBlocks.remove(position);
+		}
+	}
+
+	/**
+	 * Flows as much liquid as possible downward.
+	 *
+	 * @param position The packed position of the block to flow down from.
+	 * @return A boolean telling us if we're done.
+	 */
+	public boolean flowDown(final long position) {
+		readCells(position);
+		boolean done = spreadDown();
+		writeCells();
+
+		return done;
+	}
+
+	/**
+	 * Divides the liquid of a block over its lower horizontal neighbors in a single pass.
+	 * The block and the neighbors it flows to even out at their average volume, so every neighbor receives in proportion to how much lower it is, and nothing flows back.
+	 * Neighbors less than a level lower are left alone, and empty neighbors are only filled if they would receive at least a full level, so thin layers don't spread forever.
+	 *
+	 * @param position The packed position of the block to flow from.
+	 * @return A boolean telling us if we're done.
+	 */
+	public boolean flowHorizontally(final long position) {
+		readCells(position);
+		boolean done = spreadHorizontally();
+		writeCells();
+
+		return done;
+	}
+
+	/**
+	 * Reads a block and the neighbors it can flow to into the cells of the flow kernel, so it can compute all of its transfers without going back to the world.
+	 * Every cell costs a single material lookup, and a level lookup if it is a liquid.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void readCells(final long position) {
+		int y = BlockPosition.getY(position);
+
+		for (int i = 0; i < CELL_COUNT; ++i) {
+			cellTouched[i] = false;
+
+			// There is nothing below the bottom of the world
+			if (i == CELL_DOWN && y == 0) {
+				cellMaterials[i] = null;
+				cellLevels[i] = NOT_A_LIQUID;
+				cellWrittenVolumes[i] = NOT_A_LIQUID;
+				cellVolumes[i] = NOT_A_LIQUID;
+				cellInfinite[i] = false;
+				continue;
+			}
+
+			long cell = i == CELL_SELF ? position : BlockPosition.offset(position, NEIGHBOR_OFFSETS[i][0], NEIGHBOR_OFFSETS[i][1], NEIGHBOR_OFFSETS[i][2]);
+			Material material = getMaterial(cell);
+			int level = material == Material.AIR ? MINIMUM_LIQUID_LEVEL : isLiquid(material, false) ? world.getLevel(BlockPosition.getX(cell), BlockPosition.getY(cell), BlockPosition.getZ(cell)) : NOT_A_LIQUID;
+			int volume = toVolume(cell, level);
+
+			cellPositions[i] = cell;
+			cellMaterials[i] = material;
+			cellLevels[i] = level;
+			cellWrittenVolumes[i] = volume;
+			cellVolumes[i] = volume;
+			cellInfinite[i] = level != NOT_A_LIQUID && isInfiniteLiquidSource(cell);
+		}
+
+		touchedCellCount = 0;
+		cellFlowed = getFlowed(position);
+	}
+
+	/**
+	 * Checks whether liquid of the handled block could flow into a cell, which has to be air or the same liquid.
+	 *
+	 * @param cell The cell.
+	 * @return Whether the cell can hold liquid of the handled block.
+	 */
+	private boolean isOpenCell(final int cell) {
+		return cellLevels[cell] != NOT_A_LIQUID && (cellMaterials[cell] == Material.AIR || isSameLiquid(cellMaterials[cell], cellMaterials[CELL_SELF]));
+	}
+
+	/**
+	 * Gets the volume the handled block can still give away in the current flow, as far as its flow rate and volume allow.
+	 *
+	 * @return The volume.
+	 */
+	private int getCellOutflow() {
+		LiquidType liquidType = LiquidType.fromMaterial(cellMaterials[CELL_SELF]);
+
+		// Only liquids can have liquid to flow
+		if (liquidType == null) {
+			return 0;
+		}
+
+		int volume = flowRates[liquidType.ordinal()] * VOLUME_PER_LEVEL - cellFlowed;
+
+		return cellInfinite[CELL_SELF] ? volume : Math.min(volume, cellVolumes[CELL_SELF]);
+	}
+
+	/**
+	 * Moves volume from the handled block to a cell, without writing anything yet.
+	 * Infinite sources keep their volume on either side.
+	 *
+	 * @param cell   The cell to flow to.
+	 * @param volume The volume to flow.
+	 */
+	private void moveToCell(final int cell, final int volume) {
+		if (!cellInfinite[CELL_SELF]) {
+			cellVolumes[CELL_SELF] -= volume;
+		}
+
+		if (!cellInfinite[cell]) {
+			cellVolumes[cell] += volume;
+		}
+
+		cellFlowed += volume;
+		touchCell(CELL_SELF);
+		touchCell(cell);
+	}
+
+	/**
+	 * Records that liquid flowed to or from a cell, so it is written.
+	 *
+	 * @param cell The cell.
+	 */
+	private void touchCell(final int cell) {
+		if (!cellTouched[cell]) {
+			cellTouched[cell] = true;
+			touchedCells[touchedCellCount++] = cell;
+		}
+	}
+
+	/**
+	 * Moves as much liquid as possible from the handled block to the cell below it in a single transfer.
+	 *
+	 * @return Whether the handled block is done, since it has nothing left to flow.
+	 */
+	private boolean spreadDown() {
+		if (isOpenCell(CELL_DOWN) && cellVolumes[CELL_DOWN] < MAXIMUM_VOLUME) {
+			int volume = getCellOutflow();
+
+			if (!cellInfinite[CELL_DOWN]) {
+				volume = Math.min(volume, MAXIMUM_VOLUME - cellVolumes[CELL_DOWN]);
+			}
+
+			if (volume > 0) {
+				moveToCell(CELL_DOWN, volume);
+			}
+		}
+
+		return getCellOutflow() <= 0;
+	}
+
+	/**
+	 * Divides the liquid of the handled block over the cells of its lower horizontal neighbors in a single pass, as described by {@link #flowHorizontally(long)}.
+	 *
+	 * @return Whether the handled block is done, false if no neighbor could be reached or a neighbor is still lower.
+	 */
+	private boolean spreadHorizontally() {
+		int remainingFlow = getCellOutflow();
+		if (remainingFlow <= 0) {
+			return true;
+		}
+
+		int volume = cellVolumes[CELL_SELF];
+
+		// Gather the neighbors which are air or the same liquid, ordered by volume
+		// They are visited from a random direction, so neighbors with the same volume take turns
+		int count = 0;
+		int firstDirection = random.nextInt(4);
+		for (int i = 0; i < 4; ++i) {
+			int cell = 2 + ((firstDirection + i) & 3);
+
+			if (!isOpenCell(cell)) {
+				continue;
+			}
+
+			int index = count++;
+			while (index > 0 && cellVolumes[spreadCells[index - 1]] > cellVolumes[cell]) {
+				spreadCells[index] = spreadCells[index - 1];
+				--index;
+			}
+
+			spreadCells[index] = cell;
+		}
+
+		// Without neighbors, only a search can find somewhere to flow to
+		if (count == 0) {
+			return false;
+		}
+
+		// Take the lowest neighbors first, as long as they stay below the average of the block and the neighbors taken so far
+		// Neighbors less than a level lower count as settled, since flowing to them would hardly ever change a visible level
+		int total = volume;
+		int taken = 0;
+		while (taken < count) {
+			int neighborVolume = cellVolumes[spreadCells[taken]];
+			int average = (total + neighborVolume) / (taken + 2);
+
+			if (volume - neighborVolume < VOLUME_PER_LEVEL || neighborVolume >= average || (neighborVolume == 0 && average < VOLUME_PER_LEVEL)) {
+				break;
+			}
+
+			total += neighborVolume;
+			++taken;
+		}
+
+		if (taken > 0) {
+			// The block gives away everything above the average, scaled down if its flow rate doesn't allow that much
+			int average = total / (taken + 1);
+			int outflow = volume - average;
+
+			for (int i = 0; i < taken; ++i) {
+				int cell = spreadCells[i];
+				int amount = average - cellVolumes[cell];
+
+				if (outflow > remainingFlow) {
+					amount = (int) ((long) amount * remainingFlow / outflow);
+				}
+
+				if (amount > 0) {
+					moveToCell(cell, amount);
+				}
+			}
+		}
+
+		// We're done once no neighbor is lower, otherwise the body of liquid may have a lower block further away
+		int lowestVolume = cellVolumes[spreadCells[0]];
+		for (int i = 1; i < count; ++i) {
+			lowestVolume = Math.min(lowestVolume, cellVolumes[spreadCells[i]]);
+		}
+
+		return cellVolumes[CELL_SELF] <= lowestVolume;
+	}
+
+	/**
+	 * Writes the cells that liquid flowed to or from, with a single write per cell whose liquid level changed.
+	 * Afterwards, the cells hold what was written, so they can be used for more transfers.
+	 */
+	private void writeCells() {
+		if (touchedCellCount == 0) {
+			return;
+		}
+
+		LiquidType liquidType = LiquidType.fromMaterial(cellMaterials[CELL_SELF]);
+
+		for (int j = 0; j < touchedCellCount; ++j) {
+			int i = touchedCells[j];
+			long cell = cellPositions[i];
+			int volume = cellVolumes[i];
+
+			// Infinite sources never change their volume
+			if (volume != cellWrittenVolumes[i]) {
+				int level = toLiquidLevel(volume);
+
+				if (level != cellLevels[i]) {
+					Material material = level == MINIMUM_LIQUID_LEVEL ? Material.AIR : liquidType.getValue();
+
+					world.set(BlockPosition.getX(cell), BlockPosition.getY(cell), BlockPosition.getZ(cell), material, level);
+
+					// Keep the body of the block up to date
+					waterBodies.update(cell, cellMaterials[i], cellLevels[i], material, level);
+
+					cellMaterials[i] = material;
+					cellLevels[i] = level;
+				}
+
+				// The rest of the volume is only kept by the engine, and keeps the section awake until it settles as well
+				setChangedRemainder(cell, volume - level * VOLUME_PER_LEVEL);
+				markChanged(cell);
+				cellWrittenVolumes[i] = volume;
+			}
+
+			cellTouched[i] = false;
+			addBlock(cell);
+		}
+
+		touchedCellCount = 0;
+		setFlowed(cellPositions[CELL_SELF], cellFlowed);
+	}
+
+	/**
+	 * Settles the body of liquid of a block at once, as communicating vessels.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the body was settled, false if it has to flow as usual.
+	 */
+	private boolean solveVessel(final long position) {
+		if (vesselSolver == null) {
+			vesselSolver = new VesselSolver(this);
+		}
+
+		return vesselSolver.solve(position, flowCount);
+	}
+
+	/**
+	 * Checks whether the body of a block has a block that can receive liquid lower than the block itself, which the block can't reach through its neighbors when it is level with them.
+	 * Only complete bodies are checked, since the rest of a larger body is not known.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether there is a lower open block.
+	 */
+	private boolean hasLowerOpenBlock(final long position) {
+		int body = waterBodies.getBody(position);
+
+		return body != WaterBodyIndex.NONE && waterBodies.isComplete(body) && waterBodies.hasOpenBlock(body) && BlockPosition.getY(waterBodies.getLowestOpenBlock(body)) < BlockPosition.getY(position);
+	}
+
+	/**
+	 * Flows the block to the nearest block that can receive its flow without disrupting the balance.
+	 * The search visits blocks in layers from the height of the block downward, nearest blocks first within each layer.
+	 * It is bounded by the nearest search radius and budget, and does not allocate.
+	 *
+	 * @param position The packed position of the block to flow.
+	 */
+	public void flowToNearest(final long position) {
+		// Flow to the lowest blocks of the body of liquid first, and only search if the body can't tell whether there is anything else
+		if (flowToLowestOpenBlock(position)) {
+			return;
+		}
+
+		// Start a new search, so all blocks stamped by earlier searches count as unvisited
+		if (++nearestSearchGeneration == 0) {
+			Arrays.fill(nearestSearchVisited, 0);
+			nearestSearchGeneration = 1;
+		}
+
+		for (LongList layer : nearestSearchLayers) {
+			layer.clear();
+		}
+
+		// Blocks to handle in the first iteration are all direct neighbors which are lower or as high as the start block
+		nearestSearchVisitedCount = 0;
+		visitNearest(position, position);
+		enqueueNearestNeighbors(position, position);
+
+		// The current layer, counted downward from the start block
+		int currentDepth = 0;
+
+		// Keep looping while there are blocks left to process
+		while (canFlow(position) && currentDepth <= nearestSearchRadius) {
+			// Get all blocks that we'll handle in this iteration, and remove them from the wait list
+			LongList toHandle = nearestSearchBatch;
+			toHandle.clear();
+			for (int depth = 0; depth <= currentDepth; ++depth) {
+				toHandle.addAll(nearestSearchLayers[depth]);
+				nearestSearchLayers[depth].clear();
+			}
+
+			// Check if the current layer still has blocks
+			if (toHandle.size() > 0) {
+				// Shuffle the list that needs to be handled
+				// Since all blocks that need to be handled are direct neighbors of blocks which have been handled already, the flow distance remains the same
+				toHandle.shuffle(random);
+
+				// Handle all blocks in the current iteration
+				while (canFlow(position) && toHandle.size() > 0) {
+					// Get the next block to handle and remove it from the list
+					long current = toHandle.removeLast();
+
+					// Check if the current block is an air block
+					// We need to check this, or else we get a chain reaction of air blocks adding air blocks
+					if (!isEmpty(current)) {
+						// If not, it's safe to add neighbors
+						enqueueNearestNeighbors(position, current);
+					}
+
+					// Finally, check if we can flow to the current block, and if so, flow as much as possible
+					while (canFlowFromTo(position, current)) {
+						check(flowEvenlyFromTo(position, current));
+					}
+				}
+			} else {
+				// If not, we move on to the next layer
+				++currentDepth;
+			}
+		}
+	}
+
+	/**
+	 * Flows the block to the lowest blocks of its body of liquid which can receive its flow, as found by the water body index.
+	 * The lowest blocks are filled first, which may be reached through blocks higher than the block itself, like in communicating vessels.
+	 *
+	 * @param position The packed position of the block to flow.
+	 * @return Whether the block is done, false if there may be blocks left to flow to which only a search can find.
+	 */
+	private boolean flowToLowestOpenBlock(final long position) {
+		final int startY = BlockPosition.getY(position);
+
+		// Liquid only flows sideways to blocks at least two levels lower, and flowing down is handled by flowDown
+		if (getVolume(position) < 2 * VOLUME_PER_LEVEL) {
+			return true;
+		}
+
+		while (canFlow(position)) {
+			int body = waterBodies.getBody(position);
+
+			if (body == WaterBodyIndex.NONE) {
+				return false;
+			}
+
+			// A complete body without open blocks has nowhere to flow to
+			if (!waterBodies.hasOpenBlock(body)) {
+				return waterBodies.isComplete(body);
+			}
+
+			long target = waterBodies.getLowestOpenBlock(body);
+			int targetY = BlockPosition.getY(target);
+
+			if (targetY > startY || !canFlowFromTo(position, target)) {
+				// Open blocks are ordered by height and then level, so if the lowest can't receive and is not below the block, no other block in the body can either
+				return waterBodies.isComplete(body) && targetY >= startY;
+			}
+
+			// Flow as much as possible
+			while (canFlowFromTo(position, target)) {
+				check(flowEvenlyFromTo(position, target));
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sets the maximum amount of blocks indexed at once when a body of liquid is looked up.
+	 * Larger bodies are indexed in parts, for which the engine falls back to the bounded nearest search.
+	 *
+	 * @param budget The budget.
+	 */
+	public void setWaterBodyBudget(final int budget) {
+		if (budget < 1) {
+			throw (new IllegalArgumentException("Invalid water body budget \"" + budget + "\""));
+		}
+
+		waterBodies.setBudget(budget);
+		traceSettings();
+	}
+
+	/**
+	 * Gets the maximum amount of blocks indexed at once when looking up a body of liquid.
+	 *
+	 * @return The budget.
+	 */
+	public int getWaterBodyBudget() {
+		return waterBodies.getBudget();
+	}
+
+	/**
+	 * Adds all unvisited liquid and air neighbors of a block that lie within the search bounds of a nearest search to its wait lists.
+	 *
+	 * @param start    The packed position of the block the search started from.
+	 * @param position The packed position of the block to add the neighbors of.
+	 */
+	private void enqueueNearestNeighbors(final long start, final long position) {
+		int y = BlockPosition.getY(position);
+
+		for (int direction = 0; direction < NEIGHBOR_OFFSETS.length; ++direction) {
+			int[] offset = NEIGHBOR_OFFSETS[direction];
+
+			// Leave out neighbors above or below the world
+			if (!BlockPosition.isValidY(y + offset[1])) {
+				continue;
+			}
+
+			long neighbor = BlockPosition.offset(position, offset[0], offset[1], offset[2]);
+
+			if (isLoaded(neighbor) && isLiquid(neighbor, true) && visitNearest(start, neighbor)) {
+				nearestSearchLayers[BlockPosition.getY(start) - BlockPosition.getY(neighbor)].add(neighbor);
+			}
+		}
+	}
+
+	/**
+	 * Marks a block as visited by the current nearest search.
+	 * Blocks above the start block, outside the search radius or beyond the search budget are never visited.
+	 *
+	 * @param start    The packed position of the block the search started from.
+	 * @param position The packed position of the block to visit.
+	 * @return Whether the block was visited, false if it was visited before or can't be visited.
+	 */
+	private boolean visitNearest(final long start, final long position) {
+		int diameter = 2 * nearestSearchRadius + 1;
+		int dx = BlockPosition.getX(position) - BlockPosition.getX(start) + nearestSearchRadius;
+		int dy = BlockPosition.getY(start) - BlockPosition.getY(position);
+		int dz = BlockPosition.getZ(position) - BlockPosition.getZ(start) + nearestSearchRadius;
+
+		// Check the search bounds
+		if (dx < 0 || dx >= diameter || dy < 0 || dy > nearestSearchRadius || dz < 0 || dz >= diameter || nearestSearchVisitedCount >= nearestSearchBudget) {
+			return false;
+		}
+
+		int index = (dy * diameter + dx) * diameter + dz;
+		if (nearestSearchVisited[index] == nearestSearchGeneration) {
+			return false;
+		}
+
+		nearestSearchVisited[index] = nearestSearchGeneration;
+		++nearestSearchVisitedCount;
+
+		return true;
+	}
+
+	/**
+	 * Checks whether bodies of liquid are settled at once as communicating vessels.
+	 *
+	 * @return Whether vessel solving is enabled.
+	 */
+	public boolean isVesselSolving() {
+		return vesselSolving;
+	}
+
+	/**
+	 * Sets whether bodies of liquid are settled at once as communicating vessels, in the sequential update mode.
+	 * A block that can't even out with its direct neighbors then fills its whole body from the lowest layer up, instead of searching for a lower block to flow to.
+	 * Bodies and the air they can reach are limited by the water body budget, and larger ones flow as usual.
+	 *
+	 * @param vesselSolving Whether to enable vessel solving.
+	 */
+	public void setVesselSolving(final boolean vesselSolving) {
+		this.vesselSolving = vesselSolving;
+		traceSettings();
+	}
+
+	/**
+	 * Gets the maximum horizontal and downward distance the nearest search travels from its start block.
+	 *
+	 * @return The search radius.
+	 */
+	public int getNearestSearchRadius() {
+		return nearestSearchRadius;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks the nearest search visits from a single start block.
+	 *
+	 * @return The search budget.
+	 */
+	public int getNearestSearchBudget() {
+		return nearestSearchBudget;
+	}
+
+	/**
+	 * Sets the bounds of the nearest search.
+	 *
+	 * @param radius The maximum horizontal and downward distance to travel from the start block.
+	 * @param budget The maximum amount of blocks to visit from a single start block.
+	 */
+	public void setNearestSearchBounds(final int radius, final int budget) {
+		if (radius < 1 || radius > BlockPosition.WORLD_HEIGHT) {
+			throw (new IllegalArgumentException("Invalid nearest search radius \"" + radius + "\""));
+		}
+
+		if (budget < 1) {
+			throw (new IllegalArgumentException("Invalid nearest search budget \"" + budget + "\""));
+		}
+
+		int diameter = 2 * radius + 1;
+		nearestSearchRadius = radius;
+		nearestSearchBudget = budget;
+		nearestSearchVisited = new int[diameter * diameter * (radius + 1)];
+		nearestSearchGeneration = 0;
+
+		nearestSearchLayers = new LongList[radius + 1];
+		for (int depth = 0; depth <= radius; ++depth) {
+			nearestSearchLayers[depth] = new LongList();
+		}
+
+		traceSettings();
+	}
+
+	/**
+	 * Flows whole levels of liquid from the specified source to the specified target.
+	 *
+	 * @param source The packed position of the source block.
+	 * @param target The packed position of the target block.
+	 * @param amount The amount of levels to flow.
+	 * @return SUCCESS, or why the source can't flow or the target block can't receive, in which case nothing changed.
+	 */
+	public FlowResult flowLiquidFromTo(final long source, final long target, final int amount) {
+		return flowVolumeFromTo(source, target, amount * VOLUME_PER_LEVEL);
+	}
+
+	/**
+	 * Flows half the difference in volume from the specified source to the specified target, so both end up holding the same volume, as far as the flow rate and the room in the target allow.
+	 * Only valid if liquid can flow from the source to the target.
+	 *
+	 * @param source The packed position of the source block.
+	 * @param target The packed position of the target block.
+	 * @return SUCCESS, or why the source can't flow or the target block can't receive, in which case nothing changed.
+	 */
+	private FlowResult flowEvenlyFromTo(final long source, final long target) {
+		return flowVolumeFromTo(source, target, Math.min(Math.max(1, (getVolume(source) - getVolume(target)) / 2), getTransferableVolume(source, target)));
+	}
+
+	/**
+	 * Flows a volume of liquid from the specified source to the specified target.
+	 *
+	 * @param source The packed position of the source block.
+	 * @param target The packed position of the target block.
+	 * @param volume The volume to flow.
+	 * @return SUCCESS, or why the source can't flow or the target block can't receive, in which case nothing changed.
+	 */
+	public FlowResult flowVolumeFromTo(final long source, final long target, final int volume) {
+		Material sourceMaterial = getMaterial(source);
+		if (!isLiquid(sourceMaterial, false)) {
+			return FlowResult.SOURCE_NOT_LIQUID;
+		}
+
+		Material targetMaterial = getMaterial(target);
+		if (targetMaterial != Material.AIR && LiquidType.fromMaterial(targetMaterial) != LiquidType.fromMaterial(sourceMaterial)) {
+			return FlowResult.TARGET_NOT_LIQUID;
+		}
+
+		LiquidType liquidType = LiquidType.fromMaterial(sourceMaterial);
+		if (volume > getRemainingFlow(source, liquidType)) {
+			return FlowResult.FLOW_RATE_EXCEEDED;
+		}
+
+		// Make sure both volumes stay valid before changing anything, so a failed flow never loses liquid
+		int sourceVolume = getVolume(source) - volume;
+		int targetVolume = getVolume(target) + volume;
+		if ((sourceVolume < 0 && !isInfiniteLiquidSource(source)) || (targetVolume > MAXIMUM_VOLUME && !isInfiniteLiquidSource(target))) {
+			return FlowResult.INVALID_LEVEL;
+		}
+
+		// Transact liquid
+		setVolume(source, sourceVolume, liquidType);
+		setVolume(target, targetVolume, liquidType);
+
+		// Raise flow rate
+		raiseFlowed(source, volume);
+
+		return FlowResult.SUCCESS;
+	}
+
+	/**
+	 * Sets the liquid level of the specified block, where MINIMUM_LIQUID_LEVEL is the lowest level (air/empty) and MAXIMUM_LIQUID_LEVEL the highest (full).
+	 * The block holds exactly the volume of the level afterwards.
+	 *
+	 * @param position   The packed position of the block to set.
+	 * @param level      The level to set.
+	 * @param liquidType The liquid type to set the block to, or null to keep the current one.
+	 * @return SUCCESS, or why the level could not be set, in which case nothing changed.
+	 */
+	public FlowResult setLiquidLevel(final long position, final int level, final LiquidType liquidType) {
+		return setVolume(position, level * VOLUME_PER_LEVEL, liquidType);
+	}
+
+	/**
+	 * Sets the volume of liquid in the specified block, from 0 (air/empty) up to MAXIMUM_VOLUME (full).
+	 * The block itself is only written when the liquid level it shows changes.
+	 *
+	 * @param position   The packed position of the block to set.
+	 * @param volume     The volume to set.
+	 * @param liquidType The liquid type to set the block to, or null to keep the current one.
+	 * @return SUCCESS, or why the volume could not be set, in which case nothing changed.
+	 */
+	public FlowResult setVolume(final long position, final int volume, final LiquidType liquidType) {
+		Material oldMaterial = getMaterial(position);
+		int oldVolume = getVolume(position);
+
+		if (oldVolume == NOT_A_LIQUID) {
+			return FlowResult.TARGET_NOT_LIQUID;
+		}
+
+		// Only do something if necessary
+		// If the block is an infinite source, the volume won't change
+		if (oldVolume != volume && !isInfiniteLiquidSource(position)) {
+			if (volume < 0 || volume > MAXIMUM_VOLUME) {
+				return FlowResult.INVALID_LEVEL;
+			}
+
+			int oldLevel = getLiquidLevel(position);
+			int level = toLiquidLevel(volume);
+
+			if (level != oldLevel) {
+				int x = BlockPosition.getX(position);
+				int y = BlockPosition.getY(position);
+				int z = BlockPosition.getZ(position);
+
+				if (level == MINIMUM_LIQUID_LEVEL) {
+					// The block should be air
+					world.set(x, y, z, Material.AIR, MINIMUM_LIQUID_LEVEL);
+				} else {
+					LiquidType newLiquidType = LiquidType.fromMaterial(oldMaterial);
+
+					// Check if the block is air
+					if (newLiquidType == null) {
+						// Check if the target type is non-null
+						if (liquidType == null) {
+							return FlowResult.NO_LIQUID_TYPE;
+						}
+
+						// If the block is air, change it to the correct target type
+						newLiquidType = liquidType;
+					}
+
+					// Stabilize block type and change the liquid level
+					world.set(x, y, z, newLiquidType.getValue(), level);
+				}
+
+				// Keep the body of the block up to date
+				waterBodies.update(position, oldMaterial, oldLevel, getMaterial(position), level);
+			}
+
+			// The rest of the volume is only kept by the engine, and keeps the section awake until it settles as well
+			setChangedRemainder(position, volume - level * VOLUME_PER_LEVEL);
+			markChanged(position);
+		}
+
+		// Add to handle list if not there
+		addBlock(position);
+
+		return FlowResult.SUCCESS;
+	}
+
+	/**
+	 * Raises the target block's liquid level by the specified amount.
+	 *
+	 * @param position   The packed position of the block to raise.
+	 * @param amount     The amount to raise.
+	 * @param liquidType The liquid type to set the block to.
+	 * @return SUCCESS, or why the level could not be raised.
+	 */
+	public FlowResult raiseLiquidLevel(final long position, final int amount, final LiquidType liquidType) {
+		int volume = getVolume(position);
+
+		return volume == NOT_A_LIQUID ? FlowResult.TARGET_NOT_LIQUID : setVolume(position, volume + amount * VOLUME_PER_LEVEL, liquidType);
+	}
+
+	/**
+	 * Lowers the target block's liquid level by the specified amount.
+	 *
+	 * @param position   The packed position of the block to lower.
+	 * @param amount     The amount to lower.
+	 * @param liquidType The liquid type to set the block to.
+	 * @return SUCCESS, or why the level could not be lowered.
+	 */
+	public FlowResult lowerLiquidLevel(final long position, final int amount, final LiquidType liquidType) {
+		int volume = getVolume(position);
+
+		return volume == NOT_A_LIQUID ? FlowResult.TARGET_NOT_LIQUID : setVolume(position, volume - amount * VOLUME_PER_LEVEL, liquidType);
+	}
+
+	/**
+	 * Gets the seed the random number generator was created with.
+	 *
+	 * @return The seed.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Restarts the random number generator with a seed, so the choices between equal options are the same every time the engine is given the same blocks.
+	 *
+	 * @param seed The seed.
+	 */
+	public void setSeed(final long seed) {
+		this.seed = seed;
+		random = new SplittableRandom(seed);
+		traceSettings();
+	}
+
+	/**
+	 * Starts recording every input of the engine, so the simulation can be repeated by a {@link TraceReplayer}.
+	 * <p>
+	 * Everything that depends on the history of the simulation instead of the state of the world is reset first, so a new engine can continue from exactly the same state:
+	 * the current flow ends, sleeping sections wake up, the active blocks are sorted, the flow counters and random number generator restart and the bodies of liquid are indexed again.
+	 * This costs a few flows of extra work, but doesn't change where liquid ends up.
+	 *
+	 * @param recorder The recorder to write the inputs to.
+	 */
+	public void startTrace(final TraceRecorder recorder) {
+		if (!chunkTracking) {
+			throw (new IllegalStateException("Traces need loaded chunks to be tracked"));
+		}
+
+		if (trace != null) {
+			throw (new IllegalStateException("A trace is already running"));
+		}
+
+		// The blocks left in the current flow are still active, so they are handled in the next flow
+		liquidBlocksToHandleCount = liquidBlocksToHandleCursor;
+
+		// Wake all sections and sort the active blocks, which a new engine gets by loading the chunks in order
+		// Loading a chunk skips blocks that are no longer liquid, so those are dropped here as well
+		// The blocks of frozen chunks are active again until the next flow sets them aside, which a new engine does the same way
+		LongList blocks = new LongList();
+		sleepTracker.reset(blocks);
+		long[] frozenChunks = spreadLimiter.getFrozenChunks();
+		Arrays.sort(frozenChunks);
+		for (long chunkKey : frozenChunks) {
+			LongOrderedSet frozen = spreadLimiter.getFrozenRegion(chunkKey).getBlocks();
+
+			while (!frozen.isEmpty()) {
+				blocks.add(frozen.removeFirst());
+			}
+		}
+		for (long position : liquidBlocks.toArray()) {
+			blocks.add(position);
+		}
+		blocks.sort();
+
+		liquidBlocks.clear();
+		LongList activeBlocks = new LongList(blocks.size());
+		for (int i = 0; i < blocks.size(); ++i) {
+			long position = blocks.get(i);
+
+			if (isLiquid(position, false) && liquidBlocks.add(position)) {
+				activeBlocks.add(position);
+			}
+		}
+
+		waterBodies.clear();
+		flowCount = 0;
+		flowRotation = 0;
+		random = new SplittableRandom(seed);
+		synchronousStep = null;
+		vesselSolver = null;
+		flowSources.clear();
+		spreadLimiter.resetSources();
+
+		// Collect the rest of the state
+		long[] chunks = loadedChunks.toArray();
+		Arrays.sort(chunks);
+
+		LongList infiniteSources = new LongList();
+		for (long sectionKey : liquidStates.getSectionKeys()) {
+			liquidStates.getInfiniteSources(sectionKey, infiniteSources);
+		}
+		infiniteSources.sort();
+
+		trace = recorder;
+		recorder.recordStart(this, world, worldId, chunks, activeBlocks, infiniteSources, liquidStates, pendingBlocks, levelOfDetail ? playerChunks : null, playerChunkRadius);
+
+		for (long chunkKey : frozenChunks) {
+			recorder.recordRegionFrozen(spreadLimiter.getFrozenRegion(chunkKey));
+		}
+	}
+
+	/**
+	 * Stops recording the inputs of the engine. The recorder is not closed.
+	 *
+	 * @return The recorder, or null if no trace was running.
+	 */
+	public TraceRecorder stopTrace() {
+		TraceRecorder recorder = trace;
+		trace = null;
+
+		return recorder;
+	}
+
+	/**
+	 * Records the settings of the engine if a trace is running, after one of them changed.
+	 */
+	private void traceSettings() {
+		if (trace != null) {
+			trace.recordSettings(this);
+		}
+	}
+
+	/**
+	 * Checks whether debug validation is enabled.
+	 *
+	 * @return Whether debug validation is enabled.
+	 */
+	public boolean isDebugValidation() {
+		return debugValidation;
+	}
+
+	/**
+	 * Sets whether failed changes and broken invariants are reported as exceptions.
+	 * Normal flow decisions never build an exception, so this only costs time while it is enabled.
+	 *
+	 * @param debugValidation Whether to enable debug validation.
+	 */
+	public void setDebugValidation(final boolean debugValidation) {
+		this.debugValidation = debugValidation;
+	}
+
+	/**
+	 * Checks the result of a change the engine expected to succeed, if debug validation is enabled.
+	 *
+	 * @param result The result of the change.
+	 */
+	private void check(final FlowResult result) {
+		if (debugValidation && !result.isSuccess()) {
+			throw (new IllegalStateException("Expected flow failed with " + result));
+		}
+	}
+
+	/**
+	 * Checks the invariants of a block and its neighbors after it was handled.
+	 *
+	 * @param position The packed position of the handled block.
+	 */
+	private void validate(final long position) {
+		validateBlock(position);
+
+		for (int[] offset : NEIGHBOR_OFFSETS) {
+			if (BlockPosition.isValidY(BlockPosition.getY(position) + offset[1])) {
+				long neighbor = BlockPosition.offset(position, offset[0], offset[1], offset[2]);
+
+				if (isLoaded(neighbor)) {
+					validateBlock(neighbor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the invariants of a single block.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void validateBlock(final long position) {
+		int level = getLiquidLevel(position);
+
+		if (level != NOT_A_LIQUID && (level < MINIMUM_LIQUID_LEVEL || level > MAXIMUM_LIQUID_LEVEL)) {
+			throw (new IllegalStateException("Block " + BlockPosition.toString(position) + " has invalid liquid level \"" + level + "\""));
+		}
+
+		if (level == MINIMUM_LIQUID_LEVEL && isLiquid(position, false)) {
+			throw (new IllegalStateException("Block " + BlockPosition.toString(position) + " is an empty liquid"));
+		}
+
+		int remainder = liquidStates.getRemainder(position);
+		if (remainder != 0 && (level <= MINIMUM_LIQUID_LEVEL || toLiquidLevel(level * VOLUME_PER_LEVEL + remainder) != level)) {
+			throw (new IllegalStateException("Block " + BlockPosition.toString(position) + " has invalid remainder \"" + remainder + "\""));
+		}
+
+		int flowed = getFlowed(position);
+		if (flowed < 0 || flowed > MAXIMUM_FLOW_RATE * VOLUME_PER_LEVEL) {
+			throw (new IllegalStateException("Block " + BlockPosition.toString(position) + " has invalid flowed amount \"" + flowed + "\""));
+		}
+	}
+
+	/**
+	 * Keeps only the liquid blocks from a list of blocks.
+	 *
+	 * @param positions The packed positions of the blocks to filter, which is modified.
+	 * @param allowAir  Whether to allow air.
+	 * @return The filtered list.
+	 */
+	private LongList filterLiquids(final LongList positions, final boolean allowAir) {
+		for (int i = positions.size() - 1; i >= 0; --i) {
+			if (!isLiquid(positions.get(i), allowAir)) {
+				positions.swapRemove(i);
+			}
+		}
+
+		return positions;
+	}
+}
@@ -0,0 +1,373 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the simulation state of liquid blocks in primitive arrays, one per 16x16x16 chunk section.
+ * Volumes are in the units of {@link LiquidEngine#VOLUME_PER_LEVEL}.
+ * Positions are packed using {@link BlockPosition}.
+ */
+public class LiquidStateStore {
+	/**
+	 * The amount of blocks in a chunk section.
+	 */
+	private static final int SECTION_VOLUME = 4096;
+
+	/**
+	 * The maximum amount of unused sections kept for reuse.
+	 */
+	private static final int MAXIMUM_POOLED_SECTIONS = 64;
+
+	/**
+	 * The sections holding state, by section key.
+	 */
+	private final LongObjectMap<Section> sections = new LongObjectMap<>();
+
+	/**
+	 * The sections with a non-zero flowed value.
+	 */
+	private final List<Section> dirtySections = new ArrayList<>();
+
+	/**
+	 * Unused sections, kept so resetting and setting flowed values does not allocate.
+	 */
+	private final List<Section> sectionPool = new ArrayList<>();
+
+	/**
+	 * Gets the volume of liquid that has flowed from a block in the current flow.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The volume of liquid that has flowed.
+	 */
+	public int getFlowed(final long position) {
+		Section section = sections.get(BlockPosition.getSectionKey(position));
+
+		return section == null ? 0 : section.flowed[BlockPosition.getSectionIndex(position)];
+	}
+
+	/**
+	 * Sets the volume of liquid that has flowed from a block in the current flow.
+	 *
+	 * @param position The packed position of the block.
+	 * @param amount   The volume of liquid that has flowed.
+	 */
+	public void setFlowed(final long position, final int amount) {
+		Section section = sections.get(BlockPosition.getSectionKey(position));
+
+		if (section == null) {
+			// Nothing to reset in a section without state
+			if (amount == 0) {
+				return;
+			}
+
+			section = createSection(BlockPosition.getSectionKey(position));
+		}
+
+		if (!section.dirty && amount != 0) {
+			section.dirty = true;
+			dirtySections.add(section);
+		}
+
+		section.flowed[BlockPosition.getSectionIndex(position)] = (short) amount;
+	}
+
+	/**
+	 * Resets the flowed values of all blocks.
+	 */
+	public void resetFlowed() {
+		for (Section section : dirtySections) {
+			Arrays.fill(section.flowed, (short) 0);
+			section.dirty = false;
+
+			// Release sections that no longer hold any state
+			if (section.infiniteCount == 0 && section.remainderCount == 0) {
+				releaseSection(section);
+			}
+		}
+
+		dirtySections.clear();
+	}
+
+	/**
+	 * Checks whether a block is an infinite liquid source.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block is an infinite liquid source.
+	 */
+	public boolean isInfinite(final long position) {
+		Section section = sections.get(BlockPosition.getSectionKey(position));
+
+		if (section == null) {
+			return false;
+		}
+
+		int index = BlockPosition.getSectionIndex(position);
+
+		return (section.infinite[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Sets whether a block is an infinite liquid source.
+	 *
+	 * @param position The packed position of the block.
+	 * @param value    Whether the block is an infinite liquid source.
+	 */
+	public void setInfinite(final long position, final boolean value) {
+		if (isInfinite(position) == value) {
+			return;
+		}
+
+		long sectionKey = BlockPosition.getSectionKey(position);
+		Section section = sections.get(sectionKey);
+
+		if (section == null) {
+			section = createSection(sectionKey);
+		}
+
+		int index = BlockPosition.getSectionIndex(position);
+		section.infinite[index >>> 6] ^= 1L << index;
+		section.infiniteCount += value ? 1 : -1;
+
+		if (section.infiniteCount == 0 && section.remainderCount == 0 && !section.dirty) {
+			releaseSection(section);
+		}
+	}
+
+	/**
+	 * Adds the packed positions of all infinite liquid sources in a section to a list.
+	 *
+	 * @param sectionKey The section key.
+	 * @param target     The list to add the positions to.
+	 */
+	public void getInfiniteSources(final long sectionKey, final LongList target) {
+		Section section = sections.get(sectionKey);
+
+		if (section == null || section.infiniteCount == 0) {
+			return;
+		}
+
+		// Every set bit is the index of a source within the section
+		for (int word = 0; word < section.infinite.length; ++word) {
+			long bits = section.infinite[word];
+
+			while (bits != 0) {
+				int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+				target.add((sectionKey << 12) | index);
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	/**
+	 * Removes all infinite liquid sources in a section, adding their packed positions to a list.
+	 *
+	 * @param sectionKey The section key.
+	 * @param target     The list to add the positions to.
+	 */
+	public void removeInfiniteSources(final long sectionKey, final LongList target) {
+		Section section = sections.get(sectionKey);
+
+		if (section == null || section.infiniteCount == 0) {
+			return;
+		}
+
+		getInfiniteSources(sectionKey, target);
+		Arrays.fill(section.infinite, 0);
+		section.infiniteCount = 0;
+
+		if (section.remainderCount == 0 && !section.dirty) {
+			releaseSection(section);
+		}
+	}
+
+	/**
+	 * Gets the volume a block holds above or below the volume of its visible liquid level.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The remainder, which is 0 for blocks holding exactly their level.
+	 */
+	public int getRemainder(final long position) {
+		Section section = sections.get(BlockPosition.getSectionKey(position));
+
+		return section == null ? 0 : section.remainders[BlockPosition.getSectionIndex(position)];
+	}
+
+	/**
+	 * Sets the volume a block holds above or below the volume of its visible liquid level.
+	 *
+	 * @param position  The packed position of the block.
+	 * @param remainder The remainder, which has to fit in a byte.
+	 */
+	public void setRemainder(final long position, final int remainder) {
+		long sectionKey = BlockPosition.getSectionKey(position);
+		Section section = sections.get(sectionKey);
+
+		if (section == null) {
+			// Nothing to reset in a section without state
+			if (remainder == 0) {
+				return;
+			}
+
+			section = createSection(sectionKey);
+		}
+
+		int index = BlockPosition.getSectionIndex(position);
+		int oldRemainder = section.remainders[index];
+		section.remainders[index] = (byte) remainder;
+
+		if (oldRemainder == 0 && remainder != 0) {
+			++section.remainderCount;
+		} else if (oldRemainder != 0 && remainder == 0) {
+			--section.remainderCount;
+
+			if (section.remainderCount == 0 && section.infiniteCount == 0 && !section.dirty) {
+				releaseSection(section);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether any block in a section has a remainder.
+	 *
+	 * @param sectionKey The section key.
+	 * @return Whether the section has remainders.
+	 */
+	public boolean hasRemainders(final long sectionKey) {
+		Section section = sections.get(sectionKey);
+
+		return section != null && section.remainderCount != 0;
+	}
+
+	/**
+	 * Adds the remainders of all blocks in a section that have one to the state of their chunk.
+	 *
+	 * @param sectionKey The section key.
+	 * @param target     The state to add the remainders to.
+	 */
+	public void getRemainders(final long sectionKey, final ChunkLiquidState target) {
+		Section section = sections.get(sectionKey);
+
+		if (section == null || section.remainderCount == 0) {
+			return;
+		}
+
+		for (int index = 0; index < SECTION_VOLUME; ++index) {
+			if (section.remainders[index] != 0) {
+				target.addRemainder((sectionKey << 12) | index, section.remainders[index]);
+			}
+		}
+	}
+
+	/**
+	 * Removes the remainders of all blocks in a section, adding them to the state of their chunk.
+	 *
+	 * @param sectionKey The section key.
+	 * @param target     The state to add the remainders to.
+	 */
+	public void removeRemainders(final long sectionKey, final ChunkLiquidState target) {
+		Section section = sections.get(sectionKey);
+
+		if (section == null || section.remainderCount == 0) {
+			return;
+		}
+
+		getRemainders(sectionKey, target);
+		Arrays.fill(section.remainders, (byte) 0);
+		section.remainderCount = 0;
+
+		if (section.infiniteCount == 0 && !section.dirty) {
+			releaseSection(section);
+		}
+	}
+
+	/**
+	 * Gets the keys of all sections currently holding state.
+	 *
+	 * @return The section keys.
+	 */
+	public long[] getSectionKeys() {
+		return sections.keys();
+	}
+
+	/**
+	 * Gets the amount of sections currently holding state.
+	 *
+	 * @return The amount of sections.
+	 */
+	public int getSectionCount() {
+		return sections.size();
+	}
+
+	/**
+	 * Creates or reuses a section and registers it.
+	 *
+	 * @param key The section key.
+	 * @return The section.
+	 */
+	private Section createSection(final long key) {
+		Section section = sectionPool.isEmpty() ? new Section() : sectionPool.remove(sectionPool.size() - 1);
+		section.key = key;
+		sections.put(key, section);
+
+		return section;
+	}
+
+	/**
+	 * Unregisters an empty section and keeps it for reuse.
+	 *
+	 * @param section The section to release.
+	 */
+	private void releaseSection(final Section section) {
+		sections.remove(section.key);
+
+		if (sectionPool.size() < MAXIMUM_POOLED_SECTIONS) {
+			sectionPool.add(section);
+		}
+	}
+
+	/**
+	 * The state of a single chunk section.
+	 */
+	private static class Section {
+		/**
+		 * The section key.
+		 */
+		private long key;
+
+		/**
+		 * The flowed value of every block.
+		 */
+		private final short[] flowed = new short[SECTION_VOLUME];
+
+		/**
+		 * The remainder of every block.
+		 */
+		private final byte[] remainders = new byte[SECTION_VOLUME];
+
+		/**
+		 * The amount of blocks with a remainder.
+		 */
+		private int remainderCount = 0;
+
+		/**
+		 * A bitmap marking the infinite liquid sources.
+		 */
+		private final long[] infinite = new long[SECTION_VOLUME / 64];
+
+		/**
+		 * The amount of infinite liquid sources.
+		 */
+		private int infiniteCount = 0;
+
+		/**
+		 * Whether the section is in the dirty list.
+		 */
+		private boolean dirty = false;
+	}
+}
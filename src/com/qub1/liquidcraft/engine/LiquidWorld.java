@@ -0,0 +1,58 @@
+package com.qub1.liquidcraft.engine;
+
+import org.bukkit.Material;
+
+/**
+ * The blocks a {@link LiquidEngine} simulates liquids in.
+ */
+public interface LiquidWorld {
+	/**
+	 * Gets the id of the world, used to pack positions.
+	 *
+	 * @return The id of the world.
+	 */
+	int getId();
+
+	/**
+	 * Gets the material of a block.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The material of the block.
+	 */
+	Material getMaterial(int x, int y, int z);
+
+	/**
+	 * Gets the liquid level of a liquid block, where {@link LiquidEngine#MAXIMUM_LIQUID_LEVEL} is full.
+	 * The result is undefined for blocks which are not liquids.
+	 *
+	 * @param x The X coordinate.
+	 * @param y The Y coordinate.
+	 * @param z The Z coordinate.
+	 * @return The liquid level of the block.
+	 */
+	int getLevel(int x, int y, int z);
+
+	/**
+	 * Sets the material and liquid level of a block.
+	 *
+	 * @param x        The X coordinate.
+	 * @param y        The Y coordinate.
+	 * @param z        The Z coordinate.
+	 * @param material The material to set.
+	 * @param level    The liquid level to set, ignored if the material is not a liquid.
+	 */
+	void set(int x, int y, int z, Material material, int level);
+
+	/**
+	 * Checks whether the blocks of a chunk can be read right now.
+	 * The engine treats chunks that can't be read like chunks that are not loaded.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @return Whether the chunk can be read, true unless the world only holds part of its chunks for a while.
+	 */
+	default boolean isReadable(final long chunkKey) {
+		return true;
+	}
+}
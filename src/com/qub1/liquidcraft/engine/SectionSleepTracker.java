@@ -0,0 +1,209 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+
+/**
+ * Keeps track of which chunk sections have settled, so their blocks can be put to sleep.
+ * A section settles once its blocks were handled in a number of flows without any of its blocks changing in between.
+ * Flows in which its active blocks were skipped, such as slow liquids between their flows and blocks far from players, don't count, so those don't settle before they ever flowed.
+ * The active blocks of a settled section are set aside until the section is woken up again.
+ */
+class SectionSleepTracker {
+	/**
+	 * The amount of quiet flows after which a section goes to sleep.
+	 */
+	private int sleepFlows;
+
+	/**
+	 * The amount of flows every section with active blocks was handled in without changes since it last changed, by section key.
+	 */
+	private final LongIntMap quietFlows = new LongIntMap(0);
+
+	/**
+	 * The sections which had active blocks in the current flow.
+	 */
+	private final LongOrderedSet activeSections = new LongOrderedSet();
+
+	/**
+	 * The sections in which an active block was handled in the current flow.
+	 */
+	private final LongOrderedSet handledSections = new LongOrderedSet();
+
+	/**
+	 * The sections in which a block changed during the current flow.
+	 */
+	private final LongOrderedSet changedSections = new LongOrderedSet();
+
+	/**
+	 * The blocks that were active when every sleeping section went to sleep, by section key.
+	 */
+	private final LongObjectMap<LongList> sleepingSections = new LongObjectMap<>();
+
+	/**
+	 * Holds the new quiet flow counts while they are being updated, reused between flows.
+	 */
+	private final LongList updatedQuietFlows = new LongList();
+
+	/**
+	 * Creates a new SectionSleepTracker.
+	 *
+	 * @param sleepFlows The amount of quiet flows after which a section goes to sleep.
+	 */
+	SectionSleepTracker(final int sleepFlows) {
+		this.sleepFlows = sleepFlows;
+	}
+
+	/**
+	 * Sets the amount of quiet flows after which a section goes to sleep.
+	 *
+	 * @param sleepFlows The amount of flows.
+	 */
+	void setSleepFlows(final int sleepFlows) {
+		this.sleepFlows = sleepFlows;
+	}
+
+	/**
+	 * Gets the amount of quiet flows after which a section goes to sleep.
+	 *
+	 * @return The amount of flows.
+	 */
+	int getSleepFlows() {
+		return sleepFlows;
+	}
+
+	/**
+	 * Wakes up all sections and forgets how long every section has been quiet, as if no flow had happened yet.
+	 *
+	 * @param target The list to add the packed positions of the blocks of the sleeping sections to.
+	 */
+	void reset(final LongList target) {
+		getSleepingBlocks(target);
+
+		sleepingSections.clear();
+		quietFlows.clear();
+		activeSections.clear();
+		handledSections.clear();
+		changedSections.clear();
+	}
+
+	/**
+	 * Ends the current flow, counting a quiet flow for every section whose blocks were handled without any changes.
+	 * Sections whose active blocks were all skipped keep their count.
+	 */
+	void endFlow() {
+		// Only sections that had active blocks keep a count, so sections that were left alone don't build up stale counts
+		updatedQuietFlows.clear();
+		while (!activeSections.isEmpty()) {
+			long section = activeSections.removeFirst();
+
+			if (!changedSections.contains(section)) {
+				updatedQuietFlows.add(section);
+				updatedQuietFlows.add(quietFlows.get(section) + (handledSections.contains(section) ? 1 : 0));
+			}
+		}
+
+		quietFlows.clear();
+		for (int i = 0; i < updatedQuietFlows.size(); i += 2) {
+			quietFlows.put(updatedQuietFlows.get(i), (int) updatedQuietFlows.get(i + 1));
+		}
+
+		handledSections.clear();
+		changedSections.clear();
+	}
+
+	/**
+	 * Registers an active block for the new flow, and puts it to sleep if its section has settled.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block was put to sleep.
+	 */
+	boolean sleepIfSettled(final long position) {
+		long section = BlockPosition.getSectionKey(position);
+
+		if (quietFlows.get(section) < sleepFlows) {
+			activeSections.add(section);
+			return false;
+		}
+
+		LongList sleeping = sleepingSections.get(section);
+		if (sleeping == null) {
+			sleeping = new LongList();
+			sleepingSections.put(section, sleeping);
+		}
+
+		sleeping.add(position);
+
+		return true;
+	}
+
+	/**
+	 * Records that an active block was handled, so a flow without changes counts as quiet for its section.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	void markHandled(final long position) {
+		handledSections.add(BlockPosition.getSectionKey(position));
+	}
+
+	/**
+	 * Records that a block changed, so its section is not quiet in the current flow.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	void markChanged(final long position) {
+		changedSections.add(BlockPosition.getSectionKey(position));
+	}
+
+	/**
+	 * Checks whether the section of a block is sleeping.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the section is sleeping.
+	 */
+	boolean isSleeping(final long position) {
+		return !sleepingSections.isEmpty() && sleepingSections.containsKey(BlockPosition.getSectionKey(position));
+	}
+
+	/**
+	 * Wakes up the section of a block, if it is sleeping.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The blocks that were active when the section went to sleep, or null if it wasn't sleeping.
+	 */
+	LongList wake(final long position) {
+		if (sleepingSections.isEmpty()) {
+			return null;
+		}
+
+		long section = BlockPosition.getSectionKey(position);
+		LongList sleeping = sleepingSections.remove(section);
+
+		if (sleeping != null) {
+			quietFlows.remove(section);
+		}
+
+		return sleeping;
+	}
+
+	/**
+	 * Adds the blocks of all sleeping sections to a list.
+	 *
+	 * @param target The list to add the packed positions to.
+	 */
+	void getSleepingBlocks(final LongList target) {
+		sleepingSections.forEachValue(target::addAll);
+	}
+
+	/**
+	 * Gets the amount of sleeping sections.
+	 *
+	 * @return The amount of sleeping sections.
+	 */
+	int getSleepingSectionCount() {
+		return sleepingSections.size();
+	}
+}
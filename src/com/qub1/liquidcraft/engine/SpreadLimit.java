@@ -0,0 +1,26 @@
+package com.qub1.liquidcraft.engine;
+
+/**
+ * The limits on how far liquid may spread, any of which freezes a region of a LiquidEngine when it is exceeded.
+ */
+public enum SpreadLimit {
+	/**
+	 * The amount of active blocks in the whole world.
+	 */
+	ACTIVE_BLOCKS,
+
+	/**
+	 * The amount of blocks in the body of liquid of an infinite source.
+	 */
+	SOURCE_BODY_SIZE,
+
+	/**
+	 * How far the body of liquid of an infinite source reaches horizontally from the source.
+	 */
+	SOURCE_DISTANCE,
+
+	/**
+	 * How many blocks the body of liquid of an infinite source grows by per flow, on average.
+	 */
+	SOURCE_GROWTH
+}
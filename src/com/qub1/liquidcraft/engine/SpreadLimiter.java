@@ -0,0 +1,395 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The circuit breaker of a LiquidEngine, which freezes the chunks in which liquid spreads beyond its limits.
+ * <p>
+ * Without infinite sources, liquid only moves its volume around, so the only thing that can grow without bound is the body of liquid of an infinite source.
+ * Every infinite source that flowed is checked at the start of the next flow: the size of its body, how far its body reaches from it, and how fast its body grows.
+ * The amount of active blocks in the whole world is checked as well, in which case the chunks with the most active blocks are frozen until the world is back within its limit.
+ * <p>
+ * The active blocks of a frozen chunk are set aside instead of being handled, so a frozen source stops pouring and the rest of its body settles.
+ */
+class SpreadLimiter {
+	/**
+	 * The amount of flows over which the growth of a body is averaged, so joining a pond doesn't count as runaway growth.
+	 */
+	private static final int GROWTH_FLOWS = 16;
+
+	/**
+	 * The growth of the body of an infinite source, measured since the start of the current period.
+	 */
+	private static class SourceHistory {
+		/**
+		 * The flow the current period started in.
+		 */
+		private long startFlow;
+
+		/**
+		 * The size of the body at the start of the current period.
+		 */
+		private int startSize;
+
+		/**
+		 * The last flow the source was checked in.
+		 */
+		private long lastFlow;
+	}
+
+	/**
+	 * The bodies of liquid of the engine, which tell the size and reach of the body of a source.
+	 */
+	private final WaterBodyIndex waterBodies;
+
+	/**
+	 * The metrics of the engine, in which the trips are counted.
+	 */
+	private final FlowMetrics metrics;
+
+	/**
+	 * The maximum amount of active blocks in the world.
+	 */
+	private int maximumActiveBlocks;
+
+	/**
+	 * The maximum amount of blocks in the body of an infinite source.
+	 */
+	private int maximumSourceBodySize;
+
+	/**
+	 * The maximum horizontal distance the body of an infinite source reaches from it.
+	 */
+	private int maximumSourceDistance;
+
+	/**
+	 * The maximum amount of blocks the body of an infinite source grows by per flow.
+	 */
+	private int maximumSourceGrowth;
+
+	/**
+	 * The frozen chunks, by chunk key.
+	 */
+	private final LongObjectMap<FrozenRegion> frozenRegions = new LongObjectMap<>();
+
+	/**
+	 * The chunks frozen since they were last polled.
+	 */
+	private final List<FrozenRegion> trips = new ArrayList<>();
+
+	/**
+	 * The growth of the bodies of the infinite sources that flowed recently, by packed position.
+	 */
+	private final LongObjectMap<SourceHistory> sourceHistories = new LongObjectMap<>();
+
+	/**
+	 * Counts the active blocks of every chunk while the world is over its limit, reused between flows.
+	 */
+	private final LongIntMap chunkCounts = new LongIntMap(0);
+
+	/**
+	 * Holds the chunk keys of the counted chunks while the world is over its limit, reused between flows.
+	 */
+	private long[] chunkKeys = new long[0];
+
+	/**
+	 * Holds the counted chunks ordered by their amount of active blocks while the world is over its limit, reused between flows.
+	 */
+	private long[] chunkOrder = new long[0];
+
+	/**
+	 * Creates a new SpreadLimiter.
+	 *
+	 * @param waterBodies           The bodies of liquid of the engine.
+	 * @param metrics               The metrics to count the trips in.
+	 * @param maximumActiveBlocks   The maximum amount of active blocks in the world.
+	 * @param maximumSourceBodySize The maximum amount of blocks in the body of an infinite source.
+	 * @param maximumSourceDistance The maximum horizontal distance the body of an infinite source reaches from it.
+	 * @param maximumSourceGrowth   The maximum amount of blocks the body of an infinite source grows by per flow.
+	 */
+	SpreadLimiter(final WaterBodyIndex waterBodies, final FlowMetrics metrics, final int maximumActiveBlocks, final int maximumSourceBodySize, final int maximumSourceDistance, final int maximumSourceGrowth) {
+		this.waterBodies = waterBodies;
+		this.metrics = metrics;
+		setLimits(maximumActiveBlocks, maximumSourceBodySize, maximumSourceDistance, maximumSourceGrowth);
+	}
+
+	/**
+	 * Sets the limits. Chunks that are already frozen stay frozen.
+	 *
+	 * @param maximumActiveBlocks   The maximum amount of active blocks in the world.
+	 * @param maximumSourceBodySize The maximum amount of blocks in the body of an infinite source.
+	 * @param maximumSourceDistance The maximum horizontal distance the body of an infinite source reaches from it.
+	 * @param maximumSourceGrowth   The maximum amount of blocks the body of an infinite source grows by per flow.
+	 */
+	void setLimits(final int maximumActiveBlocks, final int maximumSourceBodySize, final int maximumSourceDistance, final int maximumSourceGrowth) {
+		this.maximumActiveBlocks = maximumActiveBlocks;
+		this.maximumSourceBodySize = maximumSourceBodySize;
+		this.maximumSourceDistance = maximumSourceDistance;
+		this.maximumSourceGrowth = maximumSourceGrowth;
+	}
+
+	/**
+	 * Gets the maximum amount of active blocks in the world.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getMaximumActiveBlocks() {
+		return maximumActiveBlocks;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks in the body of an infinite source.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getMaximumSourceBodySize() {
+		return maximumSourceBodySize;
+	}
+
+	/**
+	 * Gets the maximum horizontal distance the body of an infinite source reaches from it.
+	 *
+	 * @return The distance in blocks.
+	 */
+	int getMaximumSourceDistance() {
+		return maximumSourceDistance;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks the body of an infinite source grows by per flow.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getMaximumSourceGrowth() {
+		return maximumSourceGrowth;
+	}
+
+	/**
+	 * Checks the amount of active blocks in the world, and freezes the chunks with the most active blocks until the rest is within the limit.
+	 *
+	 * @param blocks The packed positions of the active blocks.
+	 * @param count  The amount of active blocks.
+	 */
+	void checkActiveBlocks(final long[] blocks, final int count) {
+		if (count <= maximumActiveBlocks) {
+			return;
+		}
+
+		// Blocks of chunks that are already frozen are set aside in this flow anyway
+		chunkCounts.clear();
+		int remaining = count;
+		for (int i = 0; i < count; ++i) {
+			long chunkKey = BlockPosition.getChunkKey(blocks[i]);
+
+			if (frozenRegions.containsKey(chunkKey)) {
+				--remaining;
+			} else {
+				chunkCounts.add(chunkKey, 1);
+			}
+		}
+
+		// Order the chunks by their amount of active blocks, and then by chunk key so the order doesn't depend on the map
+		int chunkCount = chunkCounts.size();
+		chunkKeys = chunkCounts.keys(chunkKeys);
+		Arrays.sort(chunkKeys, 0, chunkCount);
+
+		if (chunkOrder.length < chunkCount) {
+			chunkOrder = new long[chunkKeys.length];
+		}
+		for (int i = 0; i < chunkCount; ++i) {
+			chunkOrder[i] = (long) -chunkCounts.get(chunkKeys[i]) << 32 | i;
+		}
+		Arrays.sort(chunkOrder, 0, chunkCount);
+
+		for (int i = 0; i < chunkCount && remaining > maximumActiveBlocks; ++i) {
+			long chunkKey = chunkKeys[(int) chunkOrder[i]];
+			freeze(chunkKey, SpreadLimit.ACTIVE_BLOCKS, BlockPosition.getChunkStart(chunkKey), count, maximumActiveBlocks);
+			remaining -= chunkCounts.get(chunkKey);
+		}
+	}
+
+	/**
+	 * Checks the body of an infinite source that flowed, and freezes the chunk of the source if its body is too large, reaches too far or grows too fast.
+	 * Bodies larger than the water body budget only count as large as the budget.
+	 *
+	 * @param source The packed position of the infinite source.
+	 * @param flow   The number of the current flow.
+	 */
+	void checkSource(final long source, final long flow) {
+		long chunkKey = BlockPosition.getChunkKey(source);
+		if (frozenRegions.containsKey(chunkKey)) {
+			return;
+		}
+
+		int body = waterBodies.getBody(source);
+		if (body == WaterBodyIndex.NONE) {
+			return;
+		}
+
+		int size = waterBodies.getSize(body);
+		if (size > maximumSourceBodySize) {
+			freeze(chunkKey, SpreadLimit.SOURCE_BODY_SIZE, source, size, maximumSourceBodySize);
+
+			return;
+		}
+
+		int reach = waterBodies.getReach(body, source);
+		if (reach > maximumSourceDistance) {
+			freeze(chunkKey, SpreadLimit.SOURCE_DISTANCE, source, reach, maximumSourceDistance);
+
+			return;
+		}
+
+		// Start a new period for sources that didn't flow for a while, since their body may have changed in between
+		SourceHistory history = sourceHistories.get(source);
+		if (history == null) {
+			history = new SourceHistory();
+			sourceHistories.put(source, history);
+		}
+
+		if (history.lastFlow == 0 || flow - history.lastFlow > GROWTH_FLOWS) {
+			history.startFlow = flow;
+			history.startSize = size;
+		} else if (flow - history.startFlow >= GROWTH_FLOWS) {
+			int growth = (int) ((size - history.startSize) / (flow - history.startFlow));
+
+			if (growth > maximumSourceGrowth) {
+				freeze(chunkKey, SpreadLimit.SOURCE_GROWTH, source, growth, maximumSourceGrowth);
+			}
+
+			history.startFlow = flow;
+			history.startSize = size;
+		}
+
+		history.lastFlow = flow;
+	}
+
+	/**
+	 * Forgets the growth of the bodies of sources that haven't flowed for a while. Only does any work once every few flows.
+	 *
+	 * @param flow The number of the current flow.
+	 */
+	void dropStaleSources(final long flow) {
+		if (flow % GROWTH_FLOWS != 0 || sourceHistories.isEmpty()) {
+			return;
+		}
+
+		for (long source : sourceHistories.keys()) {
+			if (flow - sourceHistories.get(source).lastFlow > GROWTH_FLOWS) {
+				sourceHistories.remove(source);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the growth of the bodies of all sources, so they are measured from scratch.
+	 */
+	void resetSources() {
+		sourceHistories.clear();
+	}
+
+	/**
+	 * Freezes a chunk, unless it is frozen already.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @param limit    The limit that was exceeded.
+	 * @param source   The packed position of the infinite source that exceeded the limit, or the start of the chunk if the limit is not about a source.
+	 * @param value    The value that exceeded the limit.
+	 * @param maximum  The maximum the limit allowed.
+	 * @return The frozen region, or null if the chunk was frozen already.
+	 */
+	FrozenRegion freeze(final long chunkKey, final SpreadLimit limit, final long source, final int value, final int maximum) {
+		if (frozenRegions.containsKey(chunkKey)) {
+			return null;
+		}
+
+		FrozenRegion region = new FrozenRegion(chunkKey, limit, source, value, maximum);
+		frozenRegions.put(chunkKey, region);
+		trips.add(region);
+		metrics.addBreakerTrip();
+
+		return region;
+	}
+
+	/**
+	 * Sets an active block aside if its chunk is frozen.
+	 *
+	 * @param position The packed position of the block.
+	 * @return Whether the block was set aside.
+	 */
+	boolean setAside(final long position) {
+		if (frozenRegions.isEmpty()) {
+			return false;
+		}
+
+		FrozenRegion region = frozenRegions.get(BlockPosition.getChunkKey(position));
+		if (region == null) {
+			return false;
+		}
+
+		region.getBlocks().add(position);
+
+		return true;
+	}
+
+	/**
+	 * Unfreezes a chunk.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @return The region that was frozen, with the blocks that were set aside, or null if the chunk was not frozen.
+	 */
+	FrozenRegion unfreeze(final long chunkKey) {
+		FrozenRegion region = frozenRegions.remove(chunkKey);
+
+		// A chunk unfrozen before its trip was polled is not reported anymore
+		if (region != null) {
+			trips.remove(region);
+		}
+
+		return region;
+	}
+
+	/**
+	 * Gets a frozen chunk.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 * @return The frozen region, or null if the chunk is not frozen.
+	 */
+	FrozenRegion getFrozenRegion(final long chunkKey) {
+		return frozenRegions.get(chunkKey);
+	}
+
+	/**
+	 * Gets the chunk keys of all frozen chunks.
+	 *
+	 * @return The chunk keys.
+	 */
+	long[] getFrozenChunks() {
+		return frozenRegions.keys();
+	}
+
+	/**
+	 * Gets the amount of frozen chunks.
+	 *
+	 * @return The amount of chunks.
+	 */
+	int getFrozenRegionCount() {
+		return frozenRegions.size();
+	}
+
+	/**
+	 * Moves the chunks frozen since the last call to a list.
+	 *
+	 * @param target The list to add the frozen regions to.
+	 */
+	void pollTrips(final List<FrozenRegion> target) {
+		target.addAll(trips);
+		trips.clear();
+	}
+}
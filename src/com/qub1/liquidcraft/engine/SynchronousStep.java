@@ -0,0 +1,539 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.LiquidType;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes a synchronous update of all active blocks of a LiquidEngine in parallel.
+ * The levels of the active blocks and their neighbors are copied into a read buffer on the calling thread, the next state is computed from that buffer on a fork-join pool, partitioned by chunk section, and the differences are written back on the calling thread.
+ * <p>
+ * The computation is split into three phases, in each of which a block only writes its own slots:
+ * first every active block offers liquid to its neighbors, then every block accepts offers up to its capacity, and finally every block combines what it sent and received into its next state.
+ */
+class SynchronousStep {
+	/**
+	 * The amount of neighbors of a block, in the directions of LiquidEngine.NEIGHBOR_OFFSETS.
+	 */
+	private static final int DIRECTION_COUNT = LiquidEngine.NEIGHBOR_OFFSETS.length;
+
+	/**
+	 * The opposite of every direction of LiquidEngine.NEIGHBOR_OFFSETS: up and down, north and south, east and west.
+	 */
+	private static final int[] OPPOSITES = {1, 0, 4, 5, 2, 3};
+
+	/**
+	 * The index of the upward direction.
+	 */
+	private static final int UP = 0;
+
+	/**
+	 * The index of the downward direction.
+	 */
+	private static final int DOWN = 1;
+
+	/**
+	 * The index of the first horizontal direction, all directions from here on are horizontal.
+	 */
+	private static final int FIRST_HORIZONTAL = 2;
+
+	/**
+	 * The kind of blocks which are not air or a liquid.
+	 */
+	private static final byte KIND_SOLID = 0;
+
+	/**
+	 * The kind of air blocks. Liquids have the kind KIND_LIQUID plus the ordinal of their LiquidType.
+	 */
+	private static final byte KIND_AIR = 1;
+
+	/**
+	 * The kind of the first liquid, the kind of every liquid is this plus the ordinal of its LiquidType.
+	 */
+	private static final byte KIND_LIQUID = 2;
+
+	/**
+	 * The smallest amount of blocks a partition task handles without splitting further.
+	 */
+	private static final int MINIMUM_TASK_SIZE = 1024;
+
+	/**
+	 * All liquid types, indexed by ordinal, so kinds can be turned back into types without allocating.
+	 */
+	private static final LiquidType[] LIQUID_TYPES = LiquidType.values();
+
+	/**
+	 * The engine whose active blocks are stepped.
+	 */
+	private final LiquidEngine engine;
+
+	/**
+	 * Maps the packed positions of the blocks in the step to their index.
+	 */
+	private final LongIntMap indices = new LongIntMap(-1);
+
+	/**
+	 * The packed positions of the blocks in the step, sorted so blocks in the same chunk section are adjacent.
+	 */
+	private final LongList positions = new LongList();
+
+	/**
+	 * The index of the first block of every partition, followed by the amount of blocks.
+	 */
+	private final LongList partitions = new LongList();
+
+	/**
+	 * The amount of blocks in the step.
+	 */
+	private int count;
+
+	/**
+	 * The kind of every block at the start of the step.
+	 */
+	private byte[] kinds = new byte[0];
+
+	/**
+	 * The level of every block at the start of the step.
+	 */
+	private byte[] levels = new byte[0];
+
+	/**
+	 * Whether every block is an infinite source.
+	 */
+	private boolean[] infinite = new boolean[0];
+
+	/**
+	 * Whether every block is an active block, as opposed to a neighbor that is only read and written.
+	 */
+	private boolean[] active = new boolean[0];
+
+	/**
+	 * The kind of every block after the step.
+	 */
+	private byte[] nextKinds = new byte[0];
+
+	/**
+	 * The level of every block after the step.
+	 */
+	private byte[] nextLevels = new byte[0];
+
+	/**
+	 * The kind of the liquid every block received, or KIND_AIR if it received nothing.
+	 */
+	private byte[] receivedKinds = new byte[0];
+
+	/**
+	 * The total amount of liquid every block received.
+	 */
+	private byte[] receivedAmounts = new byte[0];
+
+	/**
+	 * The index of the neighbor in each direction of every block, or -1 if the neighbor is not part of the step.
+	 */
+	private int[] neighbors = new int[0];
+
+	/**
+	 * The amount of liquid every block offers to the neighbor in each direction.
+	 */
+	private byte[] offers = new byte[0];
+
+	/**
+	 * The amount of liquid every block accepted from the neighbor in each direction.
+	 */
+	private byte[] accepted = new byte[0];
+
+	/**
+	 * The amount of steps computed, used to rotate the order in which neighbors are offered liquid.
+	 */
+	private int step = 0;
+
+	/**
+	 * Creates a new SynchronousStep.
+	 *
+	 * @param engine The engine to update.
+	 */
+	SynchronousStep(final LiquidEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Updates the specified active blocks once.
+	 *
+	 * @param activeBlocks The packed positions of the active blocks.
+	 * @param from         The index of the first active block to update.
+	 * @param to           The index after the last active block to update.
+	 * @param pool         The pool to compute the step on.
+	 */
+	void run(final long[] activeBlocks, final int from, final int to, final ForkJoinPool pool) {
+		collect(activeBlocks, from, to);
+
+		if (count == 0) {
+			return;
+		}
+
+		read(activeBlocks, from, to);
+
+		pool.invoke(new PartitionTask(0, partitions.size() / 2, this::offer));
+		pool.invoke(new PartitionTask(0, partitions.size() / 2, this::accept));
+		pool.invoke(new PartitionTask(0, partitions.size() / 2, this::resolve));
+
+		write();
+		++step;
+	}
+
+	/**
+	 * Collects the active blocks and their neighbors, and divides them into partitions per chunk section.
+	 *
+	 * @param activeBlocks The packed positions of the active blocks.
+	 * @param from         The index of the first active block.
+	 * @param to           The index after the last active block.
+	 */
+	private void collect(final long[] activeBlocks, final int from, final int to) {
+		positions.clear();
+		indices.clear();
+
+		for (int i = from; i < to; ++i) {
+			long position = activeBlocks[i];
+			positions.add(position);
+
+			int y = BlockPosition.getY(position);
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (BlockPosition.isValidY(y + direction[1])) {
+					positions.add(BlockPosition.offset(position, direction[0], direction[1], direction[2]));
+				}
+			}
+		}
+
+		// Sorting packed positions groups them by chunk, and within a chunk by section
+		positions.sort();
+
+		count = 0;
+		partitions.clear();
+		long previousSection = 0;
+
+		for (int i = 0; i < positions.size(); ++i) {
+			long position = positions.get(i);
+
+			// Skip duplicates
+			if (count > 0 && positions.get(count - 1) == position) {
+				continue;
+			}
+
+			long section = BlockPosition.getSectionKey(position);
+			if (count == 0 || section != previousSection) {
+				partitions.add(count);
+				partitions.add(0);
+				previousSection = section;
+			}
+
+			positions.set(count, position);
+			indices.put(position, count);
+			++count;
+		}
+
+		// Store the size of every partition
+		for (int i = 0; i < partitions.size(); i += 2) {
+			long end = i + 2 < partitions.size() ? partitions.get(i + 2) : count;
+			partitions.set(i + 1, end - partitions.get(i));
+		}
+
+		ensureCapacity();
+	}
+
+	/**
+	 * Copies the state of all blocks into the read buffer.
+	 *
+	 * @param activeBlocks The packed positions of the active blocks.
+	 * @param from         The index of the first active block.
+	 * @param to           The index after the last active block.
+	 */
+	private void read(final long[] activeBlocks, final int from, final int to) {
+		Arrays.fill(active, 0, count, false);
+		Arrays.fill(offers, 0, count * DIRECTION_COUNT, (byte) 0);
+
+		for (int i = 0; i < count; ++i) {
+			long position = positions.get(i);
+			Material material = engine.getMaterial(position);
+
+			if (material == Material.AIR) {
+				kinds[i] = KIND_AIR;
+				levels[i] = LiquidEngine.MINIMUM_LIQUID_LEVEL;
+			} else if (LiquidEngine.isLiquid(material, false)) {
+				kinds[i] = (byte) (KIND_LIQUID + LiquidType.fromMaterial(material).ordinal());
+				levels[i] = (byte) engine.getLiquidLevel(position);
+			} else {
+				kinds[i] = KIND_SOLID;
+			}
+
+			infinite[i] = engine.isInfiniteLiquidSource(position);
+
+			int y = BlockPosition.getY(position);
+			for (int direction = 0; direction < DIRECTION_COUNT; ++direction) {
+				int[] offset = LiquidEngine.NEIGHBOR_OFFSETS[direction];
+				neighbors[i * DIRECTION_COUNT + direction] = BlockPosition.isValidY(y + offset[1]) ? indices.get(BlockPosition.offset(position, offset[0], offset[1], offset[2])) : -1;
+			}
+		}
+
+		for (int i = from; i < to; ++i) {
+			active[indices.get(activeBlocks[i])] = true;
+		}
+	}
+
+	/**
+	 * The first phase: every active liquid block offers liquid to its neighbors, downward first and otherwise horizontally.
+	 *
+	 * @param index The index of the block.
+	 */
+	private void offer(final int index) {
+		int kind = kinds[index];
+		int level = levels[index];
+
+		if (!active[index] || kind < KIND_LIQUID || level <= LiquidEngine.MINIMUM_LIQUID_LEVEL) {
+			return;
+		}
+
+		int base = index * DIRECTION_COUNT;
+
+		// Move as much as possible downward
+		int below = neighbors[base + DOWN];
+		if (below >= 0 && canAccept(below, kind)) {
+			int amount = Math.min(level, LiquidEngine.MAXIMUM_LIQUID_LEVEL - levels[below]);
+			offers[base + DOWN] = (byte) amount;
+
+			return;
+		}
+
+		// Otherwise, divide the liquid over the horizontal neighbors which are at least 2 levels lower
+		int candidates = 0;
+		int lowestLevel = level;
+		for (int direction = FIRST_HORIZONTAL; direction < DIRECTION_COUNT; ++direction) {
+			int neighbor = neighbors[base + direction];
+
+			if (neighbor >= 0 && canAccept(neighbor, kind) && level - levels[neighbor] >= 2) {
+				++candidates;
+				lowestLevel = Math.min(lowestLevel, levels[neighbor]);
+			}
+		}
+
+		// Never give away more than half the difference with the lowest neighbor, or the block would drop below its neighbors and flow back
+		int remaining = (level - lowestLevel) / 2;
+		int start = (step + index) & 3;
+		for (int i = 0; i < 4 && remaining > 0; ++i) {
+			int direction = FIRST_HORIZONTAL + ((start + i) & 3);
+			int neighbor = neighbors[base + direction];
+
+			if (neighbor >= 0 && canAccept(neighbor, kind) && level - levels[neighbor] >= 2) {
+				int amount = Math.min(remaining, Math.max(1, (level - levels[neighbor]) / (candidates + 1)));
+				offers[base + direction] = (byte) amount;
+				remaining -= amount;
+			}
+		}
+	}
+
+	/**
+	 * The second phase: every block accepts the offers of its neighbors, from above first, up to its capacity.
+	 * A block only accepts a single type of liquid, and never accepts more than half the difference with its highest horizontal giver, so neighbors pouring into the same block cannot make it overshoot and flow back.
+	 *
+	 * @param index The index of the block.
+	 */
+	private void accept(final int index) {
+		int base = index * DIRECTION_COUNT;
+		int capacity = canAccept(index, kinds[index] >= KIND_LIQUID ? kinds[index] : KIND_AIR) ? LiquidEngine.MAXIMUM_LIQUID_LEVEL - levels[index] : 0;
+		int acceptedKind = kinds[index] >= KIND_LIQUID ? kinds[index] : -1;
+		int received = 0;
+
+		int highestGiverLevel = 0;
+		for (int direction = FIRST_HORIZONTAL; direction < DIRECTION_COUNT; ++direction) {
+			int giver = neighbors[base + direction];
+
+			if (giver >= 0 && offers[giver * DIRECTION_COUNT + OPPOSITES[direction]] > 0) {
+				highestGiverLevel = Math.max(highestGiverLevel, levels[giver]);
+			}
+		}
+
+		int horizontalCapacity = (highestGiverLevel - levels[index]) / 2;
+
+		for (int direction = 0; direction < DIRECTION_COUNT; ++direction) {
+			accepted[base + direction] = 0;
+
+			int giver = neighbors[base + direction];
+			if (giver < 0) {
+				continue;
+			}
+
+			// The giver offered in the opposite direction
+			int offer = offers[giver * DIRECTION_COUNT + OPPOSITES[direction]];
+			if (offer == 0 || (acceptedKind != -1 && kinds[giver] != acceptedKind)) {
+				continue;
+			}
+
+			int amount = Math.min(offer, direction >= FIRST_HORIZONTAL ? Math.min(capacity, horizontalCapacity) : capacity);
+			if (amount > 0) {
+				if (direction >= FIRST_HORIZONTAL) {
+					horizontalCapacity -= amount;
+				}
+
+				accepted[base + direction] = (byte) amount;
+				capacity -= amount;
+				received += amount;
+				acceptedKind = kinds[giver];
+			}
+		}
+
+		receivedAmounts[index] = (byte) received;
+		receivedKinds[index] = (byte) (received > 0 ? acceptedKind : KIND_AIR);
+	}
+
+	/**
+	 * The third phase: every block combines what it sent and received into its next state.
+	 *
+	 * @param index The index of the block.
+	 */
+	private void resolve(final int index) {
+		int kind = kinds[index];
+		nextKinds[index] = kinds[index];
+		nextLevels[index] = levels[index];
+
+		if (kind == KIND_SOLID) {
+			return;
+		}
+
+		int base = index * DIRECTION_COUNT;
+		int sent = 0;
+
+		for (int direction = 0; direction < DIRECTION_COUNT; ++direction) {
+			int receiver = neighbors[base + direction];
+
+			if (receiver >= 0) {
+				sent += accepted[receiver * DIRECTION_COUNT + OPPOSITES[direction]];
+			}
+		}
+
+		// Infinite sources never lose liquid
+		int level = levels[index] - (infinite[index] ? 0 : sent) + receivedAmounts[index];
+
+		if (level <= LiquidEngine.MINIMUM_LIQUID_LEVEL) {
+			nextKinds[index] = KIND_AIR;
+			nextLevels[index] = LiquidEngine.MINIMUM_LIQUID_LEVEL;
+		} else {
+			nextKinds[index] = kind == KIND_AIR ? receivedKinds[index] : (byte) kind;
+			nextLevels[index] = (byte) level;
+		}
+	}
+
+	/**
+	 * Writes all changed blocks back to the engine, and deactivates active blocks that did not change.
+	 */
+	private void write() {
+		for (int i = 0; i < count; ++i) {
+			long position = positions.get(i);
+
+			if (nextKinds[i] != kinds[i] || nextLevels[i] != levels[i]) {
+				Material material = nextKinds[i] == KIND_AIR ? Material.AIR : LIQUID_TYPES[nextKinds[i] - KIND_LIQUID].getValue();
+				engine.writeStep(position, material, nextLevels[i]);
+			} else if (active[i]) {
+				engine.deactivate(position);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a block can accept liquid of the specified kind.
+	 *
+	 * @param index The index of the block.
+	 * @param kind  The kind of liquid.
+	 * @return Whether the block can accept the liquid.
+	 */
+	private boolean canAccept(final int index, final int kind) {
+		return !infinite[index] && (kinds[index] == KIND_AIR || kinds[index] == kind) && levels[index] < LiquidEngine.MAXIMUM_LIQUID_LEVEL;
+	}
+
+	/**
+	 * Grows the buffers to fit the current amount of blocks.
+	 */
+	private void ensureCapacity() {
+		if (kinds.length >= count) {
+			return;
+		}
+
+		int capacity = Math.max(count, kinds.length * 2);
+		kinds = new byte[capacity];
+		levels = new byte[capacity];
+		infinite = new boolean[capacity];
+		active = new boolean[capacity];
+		nextKinds = new byte[capacity];
+		nextLevels = new byte[capacity];
+		receivedKinds = new byte[capacity];
+		receivedAmounts = new byte[capacity];
+		neighbors = new int[capacity * DIRECTION_COUNT];
+		offers = new byte[capacity * DIRECTION_COUNT];
+		accepted = new byte[capacity * DIRECTION_COUNT];
+	}
+
+	/**
+	 * A computation applied to a single block.
+	 */
+	private interface BlockPhase {
+		void apply(int index);
+	}
+
+	/**
+	 * Applies a phase to a range of partitions, splitting the range over the pool.
+	 */
+	private class PartitionTask extends RecursiveAction {
+		/**
+		 * Tasks are never serialized, but RecursiveAction is Serializable.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The first partition of the range.
+		 */
+		private final int fromPartition;
+
+		/**
+		 * The partition after the last partition of the range.
+		 */
+		private final int toPartition;
+
+		/**
+		 * The phase to apply to every block of the range.
+		 */
+		private final transient BlockPhase phase;
+
+		/**
+		 * Creates a new PartitionTask.
+		 *
+		 * @param fromPartition The first partition of the range.
+		 * @param toPartition   The partition after the last partition of the range.
+		 * @param phase         The phase to apply to every block of the range.
+		 */
+		PartitionTask(final int fromPartition, final int toPartition, final BlockPhase phase) {
+			this.fromPartition = fromPartition;
+			this.toPartition = toPartition;
+			this.phase = phase;
+		}
+
+		@Override
+		protected void compute() {
+			int first = (int) partitions.get(fromPartition * 2);
+			int last = (int) (partitions.get((toPartition - 1) * 2) + partitions.get((toPartition - 1) * 2 + 1));
+
+			// Split while there is more than one partition and enough work
+			if (toPartition - fromPartition > 1 && last - first > MINIMUM_TASK_SIZE) {
+				int middle = (fromPartition + toPartition) >>> 1;
+				invokeAll(new PartitionTask(fromPartition, middle, phase), new PartitionTask(middle, toPartition, phase));
+			} else {
+				for (int i = first; i < last; ++i) {
+					phase.apply(i);
+				}
+			}
+		}
+	}
+}
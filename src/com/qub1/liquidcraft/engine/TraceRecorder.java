@@ -0,0 +1,518 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.LiquidType;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+import org.bukkit.Material;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records everything a {@link LiquidEngine} is told from outside, so {@link TraceReplayer} can repeat the simulation exactly without a server.
+ * <p>
+ * A trace starts with the state of the engine and the blocks and remainders of every loaded chunk, followed by one event per input: changed blocks with their new contents,
+ * loaded and unloaded chunks, infinite sources, frozen and unfrozen chunks, player chunks, settings, and the start of every flow together with how many blocks every part of it handled.
+ * Recording the size of every part makes the replay independent of the time budgets that split flows on the server.
+ * <p>
+ * Errors while writing stop the recording instead of reaching the engine, and are reported by {@link #getError()}.
+ */
+public class TraceRecorder implements Closeable {
+	/**
+	 * The first bytes of every trace, "LCTR".
+	 */
+	static final int MAGIC = 0x4C435452;
+
+	/**
+	 * The version of the trace format.
+	 */
+	static final byte FORMAT_VERSION = 4;
+
+	/**
+	 * The event types.
+	 */
+	static final byte SETTINGS = 1;
+	static final byte CHUNK_LOADED = 2;
+	static final byte CHUNK_UNLOADED = 3;
+	static final byte PENDING_BLOCKS = 4;
+	static final byte BLOCK_CHANGED = 5;
+	static final byte INFINITE_SOURCE = 6;
+	static final byte PLAYER_CHUNKS = 7;
+	static final byte LEVEL_OF_DETAIL_DISABLED = 8;
+	static final byte FLOW_STARTED = 9;
+	static final byte FLOW_CONTINUED = 10;
+	static final byte TICK = 11;
+	static final byte REGION_FROZEN = 12;
+	static final byte REGION_UNFROZEN = 13;
+
+	/**
+	 * The materials blocks are stored as, by code. The engine only tells solid blocks apart from air and liquids, so every other material is stored as stone.
+	 */
+	static final Material[] MATERIALS = {Material.AIR, Material.STONE, Material.WATER, Material.STATIONARY_WATER, Material.LAVA, Material.STATIONARY_LAVA};
+
+	/**
+	 * The code of the materials that are stored as stone.
+	 */
+	private static final int SOLID_CODE = 1;
+
+	/**
+	 * The amount of blocks in a chunk.
+	 */
+	static final int CHUNK_VOLUME = 16 * 16 * BlockPosition.WORLD_HEIGHT;
+
+	private final DataOutputStream output;
+
+	/**
+	 * Holds the blocks of a chunk while it is written, reused between chunks.
+	 */
+	private final byte[] chunkBlocks = new byte[CHUNK_VOLUME];
+
+	/**
+	 * The first error that occurred while writing, after which nothing more is written.
+	 */
+	private IOException error = null;
+
+	/**
+	 * The amount of ticks recorded.
+	 */
+	private int ticks = 0;
+
+	/**
+	 * Creates a new TraceRecorder.
+	 *
+	 * @param output The stream to write the trace to, which is compressed and closed with the recorder.
+	 * @throws IOException If the header of the trace could not be written.
+	 */
+	public TraceRecorder(final OutputStream output) throws IOException {
+		this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(output)));
+		this.output.writeInt(MAGIC);
+		this.output.writeByte(FORMAT_VERSION);
+	}
+
+	/**
+	 * Encodes the contents of a block into a single byte.
+	 *
+	 * @param material The material of the block.
+	 * @param level    The liquid level of the block.
+	 * @return The material code in the high 4 bits, and the liquid level of liquids in the low 4 bits.
+	 */
+	static int encodeBlock(final Material material, final int level) {
+		for (int code = 0; code < MATERIALS.length; ++code) {
+			if (MATERIALS[code] == material) {
+				return code << 4 | (LiquidType.isLiquid(material) ? level : 0);
+			}
+		}
+
+		return SOLID_CODE << 4;
+	}
+
+	/**
+	 * Records the start of the trace: the settings and state of the engine, and the blocks of every loaded chunk.
+	 *
+	 * @param engine          The engine.
+	 * @param world           The world of the engine.
+	 * @param worldId         The id of the world.
+	 * @param loadedChunks    The chunk keys of the loaded chunks, in ascending order.
+	 * @param activeBlocks    The active blocks, in ascending order.
+	 * @param infiniteSources The infinite sources, in ascending order.
+	 * @param liquidStates    The state store holding the remainders of the blocks.
+	 * @param pendingBlocks   The blocks waiting for a chunk to load, by the chunk key of that chunk.
+	 * @param playerChunks    The chunks players are in, or null if the level of detail is disabled.
+	 * @param playerRadius    The distance in chunks around a player in which blocks are near.
+	 */
+	void recordStart(final LiquidEngine engine, final LiquidWorld world, final int worldId, final long[] loadedChunks, final LongList activeBlocks, final LongList infiniteSources, final LiquidStateStore liquidStates, final LongObjectMap<LongOrderedSet> pendingBlocks, final LongList playerChunks, final int playerRadius) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(worldId);
+		} catch (IOException e) {
+			fail(e);
+		}
+
+		recordSettings(engine);
+
+		// Both lists are sorted, and blocks are sorted by chunk first, so every chunk takes the next part of each list
+		int activeIndex = 0;
+		int infiniteIndex = 0;
+		for (long chunkKey : loadedChunks) {
+			long chunkStart = BlockPosition.getChunkStart(chunkKey);
+			ChunkLiquidState state = new ChunkLiquidState(BlockPosition.getChunkX(chunkStart), BlockPosition.getChunkZ(chunkStart));
+
+			while (activeIndex < activeBlocks.size() && BlockPosition.getChunkKey(activeBlocks.get(activeIndex)) <= chunkKey) {
+				if (BlockPosition.getChunkKey(activeBlocks.get(activeIndex)) == chunkKey) {
+					state.getActiveBlocks().add(activeBlocks.get(activeIndex));
+				}
+
+				++activeIndex;
+			}
+
+			while (infiniteIndex < infiniteSources.size() && BlockPosition.getChunkKey(infiniteSources.get(infiniteIndex)) <= chunkKey) {
+				if (BlockPosition.getChunkKey(infiniteSources.get(infiniteIndex)) == chunkKey) {
+					state.getInfiniteSources().add(infiniteSources.get(infiniteIndex));
+				}
+
+				++infiniteIndex;
+			}
+
+			for (int sectionY = 0; sectionY < BlockPosition.WORLD_HEIGHT >> 4; ++sectionY) {
+				liquidStates.getRemainders((chunkKey << 4) | sectionY, state);
+			}
+
+			recordChunkLoaded(world, state);
+		}
+
+		try {
+			output.writeByte(PENDING_BLOCKS);
+			output.writeInt(pendingBlocks.size());
+		} catch (IOException e) {
+			fail(e);
+		}
+
+		LongList positions = new LongList();
+		for (long chunkKey : pendingBlocks.keys()) {
+			positions.clear();
+			for (long position : pendingBlocks.get(chunkKey).toArray()) {
+				positions.add(position);
+			}
+
+			try {
+				output.writeLong(chunkKey);
+			} catch (IOException e) {
+				fail(e);
+			}
+
+			writeList(positions);
+		}
+
+		if (playerChunks != null) {
+			recordPlayerChunks(playerChunks, playerRadius);
+		}
+	}
+
+	/**
+	 * Records all settings of the engine that affect the simulation.
+	 *
+	 * @param engine The engine.
+	 */
+	void recordSettings(final LiquidEngine engine) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(SETTINGS);
+			output.writeLong(engine.getSeed());
+			output.writeByte(engine.getUpdateMode().ordinal());
+			output.writeBoolean(engine.isChunkTracking());
+			output.writeInt(engine.getMaximumBlocksPerFlow());
+			output.writeInt(engine.getNearestSearchRadius());
+			output.writeInt(engine.getNearestSearchBudget());
+			output.writeInt(engine.getWaterBodyBudget());
+			output.writeInt(engine.getSleepFlows());
+			output.writeInt(engine.getFarFlowInterval());
+			output.writeBoolean(engine.isVesselSolving());
+			output.writeInt(engine.getMaximumActiveBlocks());
+			output.writeInt(engine.getMaximumSourceBodySize());
+			output.writeInt(engine.getMaximumSourceDistance());
+			output.writeInt(engine.getMaximumSourceGrowth());
+
+			output.writeByte(LiquidType.values().length);
+			for (LiquidType liquidType : LiquidType.values()) {
+				output.writeInt(engine.getFlowRate(liquidType));
+				output.writeInt(engine.getFlowInterval(liquidType));
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records a chunk that was loaded, together with all of its blocks.
+	 *
+	 * @param world The world to read the blocks from.
+	 * @param state The state of the chunk.
+	 */
+	void recordChunkLoaded(final LiquidWorld world, final ChunkLiquidState state) {
+		if (error != null) {
+			return;
+		}
+
+		int startX = state.getChunkX() << 4;
+		int startZ = state.getChunkZ() << 4;
+
+		int index = 0;
+		for (int y = 0; y < BlockPosition.WORLD_HEIGHT; ++y) {
+			for (int z = 0; z < 16; ++z) {
+				for (int x = 0; x < 16; ++x) {
+					chunkBlocks[index++] = (byte) encodeBlock(world.getMaterial(startX + x, y, startZ + z), world.getLevel(startX + x, y, startZ + z));
+				}
+			}
+		}
+
+		try {
+			output.writeByte(CHUNK_LOADED);
+			output.writeInt(state.getChunkX());
+			output.writeInt(state.getChunkZ());
+			output.write(chunkBlocks);
+		} catch (IOException e) {
+			fail(e);
+		}
+
+		writeList(state.getInfiniteSources());
+		writeList(state.getActiveBlocks());
+		writeList(state.getRemainderBlocks());
+
+		try {
+			for (int i = 0; i < state.getRemainderBlocks().size(); ++i) {
+				output.writeByte(state.getRemainder(i));
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records a chunk that was unloaded.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 */
+	void recordChunkUnloaded(final int chunkX, final int chunkZ) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(CHUNK_UNLOADED);
+			output.writeInt(chunkX);
+			output.writeInt(chunkZ);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records a block that was changed outside of the engine.
+	 *
+	 * @param position The packed position of the block.
+	 * @param material The new material of the block.
+	 * @param level    The new liquid level of the block.
+	 */
+	void recordChangedBlock(final long position, final Material material, final int level) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(BLOCK_CHANGED);
+			output.writeLong(position);
+			output.writeByte(encodeBlock(material, level));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records whether a block is an infinite liquid source.
+	 *
+	 * @param position The packed position of the block.
+	 * @param value    Whether the block is an infinite liquid source.
+	 */
+	void recordInfiniteSource(final long position, final boolean value) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(INFINITE_SOURCE);
+			output.writeLong(position);
+			output.writeBoolean(value);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records a chunk that was frozen when the trace started. Chunks frozen later are frozen by the replay itself.
+	 *
+	 * @param region The frozen region.
+	 */
+	void recordRegionFrozen(final FrozenRegion region) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(REGION_FROZEN);
+			output.writeLong(region.getChunkKey());
+			output.writeByte(region.getLimit().ordinal());
+			output.writeLong(region.getSource());
+			output.writeInt(region.getValue());
+			output.writeInt(region.getMaximum());
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records a chunk that was unfrozen.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 */
+	void recordRegionUnfrozen(final long chunkKey) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(REGION_UNFROZEN);
+			output.writeLong(chunkKey);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records the chunks players are in.
+	 *
+	 * @param playerChunks The chunk keys of the chunks players are in.
+	 * @param radius       The distance in chunks around a player in which blocks are near.
+	 */
+	void recordPlayerChunks(final LongList playerChunks, final int radius) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(PLAYER_CHUNKS);
+			output.writeInt(radius);
+		} catch (IOException e) {
+			fail(e);
+		}
+
+		writeList(playerChunks);
+	}
+
+	/**
+	 * Records that the level of detail was disabled.
+	 */
+	void recordLevelOfDetailDisabled() {
+		write(LEVEL_OF_DETAIL_DISABLED);
+	}
+
+	/**
+	 * Records the start of a flow.
+	 */
+	void recordFlowStarted() {
+		write(FLOW_STARTED);
+	}
+
+	/**
+	 * Records a part of a flow.
+	 *
+	 * @param handled The amount of blocks the part handled.
+	 */
+	void recordFlowContinued(final int handled) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(FLOW_CONTINUED);
+			output.writeInt(handled);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records the end of a server tick, so the replay can measure the time spent in every tick.
+	 */
+	public void recordTick() {
+		write(TICK);
+		++ticks;
+	}
+
+	/**
+	 * Gets the amount of ticks recorded.
+	 *
+	 * @return The amount of ticks.
+	 */
+	public int getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * Gets the first error that occurred while writing, after which the recording stopped.
+	 *
+	 * @return The error, or null if there was none.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Writes an event without data.
+	 *
+	 * @param event The event type.
+	 */
+	private void write(final byte event) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeByte(event);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Writes a list of packed positions, as its size followed by its elements.
+	 *
+	 * @param list The list.
+	 */
+	private void writeList(final LongList list) {
+		if (error != null) {
+			return;
+		}
+
+		try {
+			output.writeInt(list.size());
+			for (int i = 0; i < list.size(); ++i) {
+				output.writeLong(list.get(i));
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Stops recording after an error, keeping the first error.
+	 *
+	 * @param e The error.
+	 */
+	private void fail(final IOException e) {
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+
+		if (error != null) {
+			throw error;
+		}
+	}
+}
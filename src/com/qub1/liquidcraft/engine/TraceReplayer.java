@@ -0,0 +1,260 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.LiquidType;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongList;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Repeats a trace written by {@link TraceRecorder} against a new engine in a {@link ChunkedLiquidWorld}, one server tick at a time.
+ * The engine makes the same choices as the engine that was recorded, so slow ticks can be reproduced and measured without a server.
+ */
+public class TraceReplayer implements Closeable {
+	private final DataInputStream input;
+	private final ChunkedLiquidWorld world;
+	private final LiquidEngine engine;
+
+	/**
+	 * Holds the lists read from the trace, reused between events.
+	 */
+	private final LongList list = new LongList();
+
+	/**
+	 * The amount of ticks replayed.
+	 */
+	private int ticks = 0;
+
+	/**
+	 * Whether the end of the trace was reached.
+	 */
+	private boolean finished = false;
+
+	/**
+	 * Creates a new TraceReplayer, and restores the state the trace starts with.
+	 *
+	 * @param input The stream to read the trace from, which is closed with the replayer.
+	 * @throws IOException If the trace could not be read or is not a valid trace.
+	 */
+	public TraceReplayer(final InputStream input) throws IOException {
+		this.input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)));
+
+		if (this.input.readInt() != TraceRecorder.MAGIC) {
+			throw (new IOException("Not a liquid trace"));
+		}
+
+		byte version = this.input.readByte();
+		if (version != TraceRecorder.FORMAT_VERSION) {
+			throw (new IOException("Unsupported trace version \"" + version + "\""));
+		}
+
+		world = new ChunkedLiquidWorld(this.input.readUnsignedByte());
+		engine = new LiquidEngine(world);
+
+		// The start of the trace ends with the blocks waiting for a chunk to load, the player chunks that may follow are read as part of the first tick
+		byte event;
+		do {
+			event = this.input.readByte();
+			replay(event);
+		} while (event != TraceRecorder.PENDING_BLOCKS);
+	}
+
+	/**
+	 * Replays the events of the next server tick.
+	 *
+	 * @return Whether a tick was replayed, false once the end of the trace is reached.
+	 * @throws IOException If the trace could not be read or is not a valid trace.
+	 */
+	public boolean replayTick() throws IOException {
+		if (finished) {
+			return false;
+		}
+
+		while (true) {
+			int event = input.read();
+
+			// A trace that was cut off, for example by a crash, is replayed up to its last complete tick
+			if (event == -1) {
+				finished = true;
+
+				return false;
+			}
+
+			if (event == TraceRecorder.TICK) {
+				++ticks;
+
+				return true;
+			}
+
+			try {
+				replay((byte) event);
+			} catch (EOFException e) {
+				finished = true;
+
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Replays a single event.
+	 *
+	 * @param event The event type.
+	 * @throws IOException If the trace could not be read or is not a valid trace.
+	 */
+	private void replay(final byte event) throws IOException {
+		switch (event) {
+			case TraceRecorder.SETTINGS:
+				readSettings();
+				break;
+			case TraceRecorder.CHUNK_LOADED: {
+				int chunkX = input.readInt();
+				int chunkZ = input.readInt();
+				byte[] blocks = new byte[TraceRecorder.CHUNK_VOLUME];
+				input.readFully(blocks);
+				world.setChunk(chunkX, chunkZ, blocks);
+
+				ChunkLiquidState state = new ChunkLiquidState(chunkX, chunkZ);
+				readList(state.getInfiniteSources());
+				readList(state.getActiveBlocks());
+				readList(list);
+				for (int i = 0; i < list.size(); ++i) {
+					state.addRemainder(list.get(i), input.readByte());
+				}
+
+				engine.loadChunk(state);
+				break;
+			}
+			case TraceRecorder.CHUNK_UNLOADED: {
+				int chunkX = input.readInt();
+				int chunkZ = input.readInt();
+				engine.unloadChunk(chunkX, chunkZ);
+				break;
+			}
+			case TraceRecorder.PENDING_BLOCKS: {
+				int count = input.readInt();
+				for (int i = 0; i < count; ++i) {
+					long chunkKey = input.readLong();
+					readList(list);
+					engine.addPendingBlocks(chunkKey, list);
+				}
+				break;
+			}
+			case TraceRecorder.BLOCK_CHANGED: {
+				long position = input.readLong();
+				int block = input.readUnsignedByte();
+				world.set(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position), TraceRecorder.MATERIALS[block >> 4], block & 0xF);
+				engine.addChangedBlock(position);
+				break;
+			}
+			case TraceRecorder.INFINITE_SOURCE:
+				engine.setInfiniteLiquidSource(input.readLong(), input.readBoolean());
+				break;
+			case TraceRecorder.REGION_FROZEN:
+				engine.freezeChunk(input.readLong(), SpreadLimit.values()[input.readUnsignedByte()], input.readLong(), input.readInt(), input.readInt());
+				break;
+			case TraceRecorder.REGION_UNFROZEN: {
+				long position = BlockPosition.getChunkStart(input.readLong());
+				engine.unfreezeChunk(BlockPosition.getChunkX(position), BlockPosition.getChunkZ(position));
+				break;
+			}
+			case TraceRecorder.PLAYER_CHUNKS: {
+				int radius = input.readInt();
+				readList(list);
+				engine.setPlayerChunks(list, radius);
+				break;
+			}
+			case TraceRecorder.LEVEL_OF_DETAIL_DISABLED:
+				engine.disableLevelOfDetail();
+				break;
+			case TraceRecorder.FLOW_STARTED:
+				engine.startFlow();
+				break;
+			case TraceRecorder.FLOW_CONTINUED:
+				engine.continueFlow(Long.MAX_VALUE, input.readInt());
+				break;
+			default:
+				throw (new IOException("Invalid trace event \"" + event + "\""));
+		}
+	}
+
+	/**
+	 * Reads the settings of the engine and applies them.
+	 *
+	 * @throws IOException If the trace could not be read.
+	 */
+	private void readSettings() throws IOException {
+		engine.setSeed(input.readLong());
+		engine.setUpdateMode(UpdateMode.values()[input.readUnsignedByte()]);
+		engine.setChunkTracking(input.readBoolean());
+		engine.setMaximumBlocksPerFlow(input.readInt());
+		engine.setNearestSearchBounds(input.readInt(), input.readInt());
+		engine.setWaterBodyBudget(input.readInt());
+		engine.setSleepFlows(input.readInt());
+		engine.setFarFlowInterval(input.readInt());
+		engine.setVesselSolving(input.readBoolean());
+		engine.setSpreadLimits(input.readInt(), input.readInt(), input.readInt(), input.readInt());
+
+		int liquidTypeCount = input.readUnsignedByte();
+		if (liquidTypeCount != LiquidType.values().length) {
+			throw (new IOException("Invalid amount of liquid types \"" + liquidTypeCount + "\""));
+		}
+
+		for (LiquidType liquidType : LiquidType.values()) {
+			engine.setLiquidProfile(liquidType, input.readInt(), input.readInt());
+		}
+	}
+
+	/**
+	 * Reads a list of packed positions.
+	 *
+	 * @param target The list to replace the contents of.
+	 * @throws IOException If the trace could not be read.
+	 */
+	private void readList(final LongList target) throws IOException {
+		target.clear();
+
+		int size = input.readInt();
+		for (int i = 0; i < size; ++i) {
+			target.add(input.readLong());
+		}
+	}
+
+	/**
+	 * Gets the engine the trace is replayed against.
+	 *
+	 * @return The engine.
+	 */
+	public LiquidEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Gets the world the trace is replayed in.
+	 *
+	 * @return The world.
+	 */
+	public ChunkedLiquidWorld getWorld() {
+		return world;
+	}
+
+	/**
+	 * Gets the amount of ticks replayed.
+	 *
+	 * @return The amount of ticks.
+	 */
+	public int getTickCount() {
+		return ticks;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
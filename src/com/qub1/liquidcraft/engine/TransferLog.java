@@ -0,0 +1,194 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongOrderedSet;
+
+import java.util.Arrays;
+
+/**
+ * The blocks every transfer of a LiquidEngine changed, while its changes are applied to the world later and may be rejected there.
+ * A transfer is everything a single handled block changes, which is the block together with every block its liquid flowed to or from, or a whole flow in the synchronous update mode.
+ * <p>
+ * Liquid only moves within a transfer, so a transfer is rejected as a whole if any of its blocks can't be applied.
+ * Transfers that changed the same block are rejected together, since the later one started from the result of the earlier one.
+ */
+class TransferLog {
+	/**
+	 * The value used for blocks without a remainder or transfer.
+	 */
+	private static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * The packed positions of the changed blocks, in the order they were changed, where a block changed by several transfers appears once for each.
+	 */
+	private final LongList blocks = new LongList();
+
+	/**
+	 * The index in {@link #blocks} at which every transfer starts, by transfer.
+	 */
+	private int[] transferStarts = new int[16];
+
+	/**
+	 * The amount of transfers so far.
+	 */
+	private int transferCount = 0;
+
+	/**
+	 * The remainder every changed block had before its first change, by packed position.
+	 */
+	private final LongIntMap remainders = new LongIntMap(NONE);
+
+	/**
+	 * The first transfer that changed every block, by packed position, used while rejecting transfers.
+	 */
+	private final LongIntMap firstTransfers = new LongIntMap(NONE);
+
+	/**
+	 * The transfer every transfer was joined to, by transfer, forming a union-find forest while rejecting transfers.
+	 */
+	private int[] parents = new int[0];
+
+	/**
+	 * Whether every group of joined transfers is rejected, by the transfer at its root.
+	 */
+	private boolean[] rejected = new boolean[0];
+
+	/**
+	 * Starts a new transfer, which the blocks changed from now on belong to.
+	 */
+	void startTransfer() {
+		// A transfer that changed nothing can be reused
+		if (transferCount > 0 && transferStarts[transferCount - 1] == blocks.size()) {
+			return;
+		}
+
+		if (transferCount == transferStarts.length) {
+			transferStarts = Arrays.copyOf(transferStarts, transferCount * 2);
+		}
+
+		transferStarts[transferCount++] = blocks.size();
+	}
+
+	/**
+	 * Adds a block to the current transfer, before its remainder is changed.
+	 *
+	 * @param position  The packed position of the block.
+	 * @param remainder The remainder the block has before the change.
+	 */
+	void add(final long position, final int remainder) {
+		if (transferCount == 0) {
+			startTransfer();
+		}
+
+		if (!remainders.containsKey(position)) {
+			remainders.put(position, remainder);
+		}
+
+		blocks.add(position);
+	}
+
+	/**
+	 * Gets the remainder a block had before it was first changed.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The remainder, or 0 if the block was not changed.
+	 */
+	int getOriginalRemainder(final long position) {
+		int remainder = remainders.get(position);
+
+		return remainder == NONE ? 0 : remainder;
+	}
+
+	/**
+	 * Determines the blocks of all transfers that have to be rejected, because they changed a conflicting block or a block of another rejected transfer.
+	 *
+	 * @param conflicts The packed positions of the blocks whose changes can't be applied.
+	 * @param target    The set to add the packed positions of the rejected blocks to, including the conflicting blocks.
+	 */
+	void reject(final LongList conflicts, final LongOrderedSet target) {
+		if (conflicts.isEmpty()) {
+			return;
+		}
+
+		if (parents.length < transferCount) {
+			parents = new int[transferStarts.length];
+			rejected = new boolean[transferStarts.length];
+		}
+
+		for (int i = 0; i < transferCount; ++i) {
+			parents[i] = i;
+			rejected[i] = false;
+		}
+
+		// Join every transfer with the first transfer that changed the same block
+		firstTransfers.clear();
+		for (int transfer = 0; transfer < transferCount; ++transfer) {
+			for (int i = transferStarts[transfer]; i < getTransferEnd(transfer); ++i) {
+				long position = blocks.get(i);
+				int first = firstTransfers.get(position);
+
+				if (first == NONE) {
+					firstTransfers.put(position, transfer);
+				} else {
+					parents[find(transfer)] = find(first);
+				}
+			}
+		}
+
+		for (int i = 0; i < conflicts.size(); ++i) {
+			long position = conflicts.get(i);
+			int transfer = firstTransfers.get(position);
+
+			if (transfer != NONE) {
+				rejected[find(transfer)] = true;
+			}
+
+			target.add(position);
+		}
+
+		for (int transfer = 0; transfer < transferCount; ++transfer) {
+			if (rejected[find(transfer)]) {
+				for (int i = transferStarts[transfer]; i < getTransferEnd(transfer); ++i) {
+					target.add(blocks.get(i));
+				}
+			}
+		}
+
+		firstTransfers.clear();
+	}
+
+	/**
+	 * Removes all transfers.
+	 */
+	void clear() {
+		blocks.clear();
+		transferCount = 0;
+		remainders.clear();
+	}
+
+	/**
+	 * Gets the index in {@link #blocks} at which a transfer ends.
+	 *
+	 * @param transfer The transfer.
+	 * @return The index after its last block.
+	 */
+	private int getTransferEnd(final int transfer) {
+		return transfer + 1 < transferCount ? transferStarts[transfer + 1] : blocks.size();
+	}
+
+	/**
+	 * Finds the transfer at the root of the group of a transfer, halving the path to it on the way.
+	 *
+	 * @param transfer The transfer.
+	 * @return The transfer at the root.
+	 */
+	private int find(int transfer) {
+		while (parents[transfer] != transfer) {
+			parents[transfer] = parents[parents[transfer]];
+			transfer = parents[transfer];
+		}
+
+		return transfer;
+	}
+}
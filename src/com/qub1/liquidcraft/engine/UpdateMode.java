@@ -0,0 +1,17 @@
+package com.qub1.liquidcraft.engine;
+
+/**
+ * The ways a LiquidEngine can update its active blocks.
+ */
+public enum UpdateMode {
+	/**
+	 * Blocks are handled one after another on the calling thread, each seeing the changes made by the blocks before it.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * All blocks are updated at once from a snapshot of the previous state, computed in parallel on worker threads.
+	 * The result does not depend on the order of the blocks, but liquid only flows to direct neighbors.
+	 */
+	SYNCHRONOUS
+}
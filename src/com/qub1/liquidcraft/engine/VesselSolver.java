@@ -0,0 +1,359 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.LiquidType;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongPriorityQueue;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+/**
+ * Settles a connected body of liquid of a LiquidEngine at once, treating it as a set of communicating vessels.
+ * <p>
+ * The body is found by a flood fill over its liquid blocks, which gives its total volume and the height of its highest block.
+ * Its vessel is the body together with all air blocks the body reaches without rising above that height.
+ * Every block of the vessel gets a fill height, which is the lowest surface height at which the liquid of the body reaches it, so a basin behind a ridge is only reached once the surface rises to the ridge.
+ * <p>
+ * The vessel is then divided into layers of blocks with the same fill height and height, and the volume of the body fills the layers from the lowest up.
+ * The last layer that gets any liquid is divided evenly over as few of its blocks as keep each of them at a level or more, preferring blocks that already hold liquid, and the blocks above it are drained.
+ * Flow rates don't apply, so a body settles in a single flow however large it is.
+ * <p>
+ * Bodies with an infinite source, bodies next to chunks that can't be read and vessels larger than the water body budget are left to the regular flow.
+ */
+class VesselSolver {
+	/**
+	 * The value used for blocks without an index, and the result of blocks that were not solved in the current flow.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * The result of blocks whose body could not be solved in the current flow.
+	 */
+	private static final int FAILED = 0;
+
+	/**
+	 * The result of blocks whose body was solved in the current flow.
+	 */
+	private static final int SOLVED = 1;
+
+	/**
+	 * The engine whose bodies are settled.
+	 */
+	private final LiquidEngine engine;
+
+	/**
+	 * Maps the packed positions of the blocks of the vessel to their index.
+	 */
+	private final LongIntMap indices = new LongIntMap(NONE);
+
+	/**
+	 * The packed positions of the blocks of the vessel, with the blocks of the body first.
+	 */
+	private final LongList positions = new LongList();
+
+	/**
+	 * The blocks of the body waiting to be handled by the flood fill.
+	 */
+	private final LongList bodyQueue = new LongList();
+
+	/**
+	 * The blocks of the vessel waiting to be handled, by fill height.
+	 */
+	private final LongPriorityQueue vesselQueue = new LongPriorityQueue();
+
+	/**
+	 * The blocks of the vessel in the order they are filled, each as its layer in the upper half and its index in the lower half.
+	 */
+	private final LongList fillOrder = new LongList();
+
+	/**
+	 * The fill height of every block of the vessel, by index.
+	 */
+	private int[] fillHeights = new int[0];
+
+	/**
+	 * The volume every block of the vessel holds before it is solved, by index.
+	 */
+	private int[] volumes = new int[0];
+
+	/**
+	 * The volume every block of the vessel holds after it is solved, by index.
+	 */
+	private int[] targets = new int[0];
+
+	/**
+	 * The result of every block of a body the solver visited in the current flow, by packed position.
+	 */
+	private final LongIntMap results = new LongIntMap(NONE);
+
+	/**
+	 * The flow the results are for.
+	 */
+	private long resultFlow = 0;
+
+	/**
+	 * Creates a new VesselSolver.
+	 *
+	 * @param engine The engine to settle the bodies of.
+	 */
+	VesselSolver(final LiquidEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Settles the body of liquid of a block. Every body is only solved once per flow, and later blocks of the same body get the same result.
+	 *
+	 * @param position The packed position of the block.
+	 * @param flow     The number of the current flow.
+	 * @return Whether the body was settled, false if it is left to the regular flow.
+	 */
+	boolean solve(final long position, final long flow) {
+		if (flow != resultFlow) {
+			results.clear();
+			resultFlow = flow;
+		}
+
+		int result = results.get(position);
+		if (result != NONE) {
+			return result == SOLVED;
+		}
+
+		LiquidType liquidType = LiquidType.fromMaterial(engine.getMaterial(position));
+		if (liquidType == null) {
+			return false;
+		}
+
+		indices.clear();
+		positions.clear();
+
+		int bodySize = collectBody(position, liquidType);
+		boolean solved = bodySize != NONE && collectVessel(bodySize) && fill(bodySize, liquidType);
+
+		// Remember the result for the whole body, so its other blocks don't solve it again in this flow
+		for (int i = 0; i < (bodySize == NONE ? positions.size() : bodySize); ++i) {
+			results.put(positions.get(i), solved ? SOLVED : FAILED);
+		}
+
+		return solved;
+	}
+
+	/**
+	 * Collects the blocks of the body of a block by a flood fill, together with their volumes.
+	 *
+	 * @param start      The packed position of the block.
+	 * @param liquidType The liquid type of the body.
+	 * @return The amount of blocks in the body, or NONE if the body can't be solved.
+	 */
+	private int collectBody(final long start, final LiquidType liquidType) {
+		int budget = engine.getWaterBodyBudget();
+
+		// An infinite source has no volume to divide
+		addBlock(start, engine.getVolume(start));
+		if (engine.isInfiniteLiquidSource(start)) {
+			return NONE;
+		}
+
+		bodyQueue.clear();
+		bodyQueue.add(start);
+
+		while (!bodyQueue.isEmpty()) {
+			long position = bodyQueue.removeLast();
+			int y = BlockPosition.getY(position);
+
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (!BlockPosition.isValidY(y + direction[1])) {
+					continue;
+				}
+
+				long neighbor = BlockPosition.offset(position, direction[0], direction[1], direction[2]);
+
+				if (indices.containsKey(neighbor)) {
+					continue;
+				}
+
+				// The body may continue into chunks that can't be read, so its volume is unknown
+				if (!engine.isLoaded(neighbor)) {
+					return NONE;
+				}
+
+				if (LiquidType.fromMaterial(engine.getMaterial(neighbor)) != liquidType) {
+					continue;
+				}
+
+				if (positions.size() >= budget || engine.isInfiniteLiquidSource(neighbor)) {
+					return NONE;
+				}
+
+				addBlock(neighbor, engine.getVolume(neighbor));
+				bodyQueue.add(neighbor);
+			}
+		}
+
+		return positions.size();
+	}
+
+	/**
+	 * Collects the air blocks the body reaches without rising above its highest block, and determines the fill height of every block of the vessel.
+	 * The blocks are visited from the lowest fill height up, so every block gets the lowest surface height at which liquid reaches it.
+	 *
+	 * @param bodySize The amount of blocks in the body.
+	 * @return Whether the vessel was collected, false if it is too large or reaches chunks that can't be read.
+	 */
+	private boolean collectVessel(final int bodySize) {
+		int budget = engine.getWaterBodyBudget();
+
+		// The liquid of the body is where it is, so every block of the body is reached at its own height
+		int top = 0;
+		vesselQueue.clear();
+		for (int i = 0; i < bodySize; ++i) {
+			long position = positions.get(i);
+			int y = BlockPosition.getY(position);
+
+			fillHeights[i] = y;
+			top = Math.max(top, y);
+			vesselQueue.add(position, y);
+		}
+
+		while (!vesselQueue.isEmpty()) {
+			int fillHeight = vesselQueue.peekPriority();
+			long position = vesselQueue.poll();
+			int y = BlockPosition.getY(position);
+
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				int neighborY = y + direction[1];
+
+				// The surface never rises above the highest block of the body
+				if (neighborY > top || !BlockPosition.isValidY(neighborY)) {
+					continue;
+				}
+
+				long neighbor = BlockPosition.offset(position, direction[0], direction[1], direction[2]);
+
+				if (indices.containsKey(neighbor)) {
+					continue;
+				}
+
+				if (!engine.isLoaded(neighbor)) {
+					return false;
+				}
+
+				// Other liquids and separate bodies of the same liquid bound the vessel like solid blocks
+				if (engine.getMaterial(neighbor) != Material.AIR) {
+					continue;
+				}
+
+				if (positions.size() >= budget) {
+					return false;
+				}
+
+				int index = addBlock(neighbor, 0);
+				fillHeights[index] = Math.max(fillHeight, neighborY);
+				vesselQueue.add(neighbor, fillHeights[index]);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Divides the volume of the body over the layers of the vessel from the lowest up, and writes every block whose volume changed.
+	 * Nothing is written if no block would show a different level, so a settled body stays asleep.
+	 *
+	 * @param bodySize   The amount of blocks in the body.
+	 * @param liquidType The liquid type of the body.
+	 * @return Whether the body was settled.
+	 */
+	private boolean fill(final int bodySize, final LiquidType liquidType) {
+		int count = positions.size();
+
+		int volume = 0;
+		for (int i = 0; i < bodySize; ++i) {
+			volume += volumes[i];
+		}
+
+		// Order the blocks by layer, where blocks of the body come first within a layer since they were indexed first
+		fillOrder.clear();
+		for (int i = 0; i < count; ++i) {
+			long layer = (long) fillHeights[i] << 8 | BlockPosition.getY(positions.get(i));
+			fillOrder.add(layer << 32 | i);
+		}
+
+		fillOrder.sort();
+
+		Arrays.fill(targets, 0, count, 0);
+		int remaining = volume;
+		int first = 0;
+		while (first < count && remaining > 0) {
+			// Find the end of the layer
+			long layer = fillOrder.get(first) >>> 32;
+			int end = first + 1;
+			while (end < count && fillOrder.get(end) >>> 32 == layer) {
+				++end;
+			}
+
+			int size = end - first;
+			if (remaining >= size * LiquidEngine.MAXIMUM_VOLUME) {
+				// The whole layer is filled
+				for (int i = first; i < end; ++i) {
+					targets[(int) fillOrder.get(i)] = LiquidEngine.MAXIMUM_VOLUME;
+				}
+
+				remaining -= size * LiquidEngine.MAXIMUM_VOLUME;
+			} else {
+				// The surface lies in this layer, so divide the rest evenly over as many blocks as can hold a level each
+				int filled = Math.min(size, Math.max(1, remaining / LiquidEngine.VOLUME_PER_LEVEL));
+				for (int i = 0; i < filled; ++i) {
+					targets[(int) fillOrder.get(first + i)] = remaining / filled + (i < remaining % filled ? 1 : 0);
+				}
+
+				remaining = 0;
+			}
+
+			first = end;
+		}
+
+		// Leave the world alone if the body already shows its equilibrium
+		boolean changed = false;
+		for (int i = 0; i < count && !changed; ++i) {
+			changed = LiquidEngine.toLiquidLevel(targets[i]) != LiquidEngine.toLiquidLevel(volumes[i]);
+		}
+
+		if (!changed) {
+			return true;
+		}
+
+		for (int i = 0; i < count; ++i) {
+			if (targets[i] != volumes[i]) {
+				engine.setVolume(positions.get(i), targets[i], liquidType);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds a block to the vessel.
+	 *
+	 * @param position The packed position of the block.
+	 * @param volume   The volume of the block.
+	 * @return The index of the block.
+	 */
+	private int addBlock(final long position, final int volume) {
+		int index = positions.size();
+
+		if (index == volumes.length) {
+			int capacity = Math.max(64, index * 2);
+			fillHeights = Arrays.copyOf(fillHeights, capacity);
+			volumes = Arrays.copyOf(volumes, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+		}
+
+		indices.put(position, index);
+		positions.add(position);
+		volumes[index] = volume;
+
+		return index;
+	}
+}
@@ -0,0 +1,868 @@
+package com.qub1.liquidcraft.engine;
+
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+import com.qub1.liquidcraft.util.LongPriorityQueue;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the connected bodies of liquid in a world, so a block can find a lower block of its body without searching it.
+ * <p>
+ * Blocks of the same liquid that touch each other are joined into bodies using a union-find structure, where every indexed block has a node and the root node of a body holds its totals.
+ * A body tracks its volume, its surface level with the amount of surface blocks, and the blocks that can still receive liquid, ordered so the lowest and emptiest is found first.
+ * <p>
+ * Adding a block or changing its level updates its body in place. Removing a block keeps the body if its neighbors are still connected around it, and otherwise invalidates the body.
+ * Unknown blocks and invalidated bodies are indexed again when they are next asked for, by a bounded flood fill.
+ * All blocks of a body are always connected, but a body may hold only part of a large body of liquid, in which case it is not complete.
+ */
+class WaterBodyIndex {
+	/**
+	 * The value returned for blocks without a body.
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * The amount of dead nodes tolerated before the whole index is cleared, on top of a multiple of the live nodes.
+	 */
+	private static final int MAXIMUM_DEAD_NODES = 4096;
+
+	/**
+	 * The amount of open block entries tolerated per block of a body before the body is indexed again, since stale entries are only removed lazily.
+	 */
+	private static final int MAXIMUM_OPEN_ENTRIES_PER_BLOCK = 4;
+
+	/**
+	 * The world to index.
+	 */
+	private final LiquidWorld world;
+
+	/**
+	 * The engine simulating the world, which knows which chunks are loaded.
+	 */
+	private final LiquidEngine engine;
+
+	/**
+	 * The maximum amount of blocks a flood fill indexes.
+	 */
+	private int budget;
+
+	/**
+	 * Maps the packed positions of all indexed blocks to their node.
+	 */
+	private final LongIntMap nodes = new LongIntMap(NONE);
+
+	/**
+	 * The amount of nodes in use, including nodes of blocks that were removed.
+	 */
+	private int nodeCount = 0;
+
+	/**
+	 * The packed positions of the blocks that were given a node, by chunk key, so the bodies in a chunk can be found when it is unloaded.
+	 * A block is listed again every time it gets a new node, and the lists are emptied together with the index.
+	 */
+	private final LongObjectMap<LongList> chunkBlocks = new LongObjectMap<>();
+
+	/**
+	 * The chunk key of the chunk list that was used last, since consecutive nodes are usually created in the same chunk.
+	 */
+	private long lastChunkKey = 0;
+
+	/**
+	 * The chunk list that was used last, or null if there is none.
+	 */
+	private LongList lastChunkBlocks = null;
+
+	/**
+	 * The parent of every node, where a root node is its own parent.
+	 */
+	private int[] parents = new int[0];
+
+	// The totals of every body, valid for root nodes only
+	private int[] sizes = new int[0];
+	private int[] volumes = new int[0];
+	private int[] surfaceLevels = new int[0];
+	private int[] surfaceSizes = new int[0];
+	private Material[] liquids = new Material[0];
+	private boolean[] invalid = new boolean[0];
+	private boolean[] complete = new boolean[0];
+
+	// The horizontal bounds of every body, which only grow until the body is indexed again
+	private int[] minimumXs = new int[0];
+	private int[] maximumXs = new int[0];
+	private int[] minimumZs = new int[0];
+	private int[] maximumZs = new int[0];
+
+	/**
+	 * The blocks that can receive liquid for every valid body, prioritized by height and then level, created when first needed.
+	 * Entries become stale when the block changes, and are skipped or corrected when they reach the front.
+	 */
+	private LongPriorityQueue[] openBlocks = new LongPriorityQueue[0];
+
+	/**
+	 * The blocks waiting to be handled by a flood fill, reused between fills.
+	 */
+	private final LongList fillQueue = new LongList();
+
+	/**
+	 * The same-body neighbors of a removed block, reused between removals.
+	 */
+	private final LongList removedNeighbors = new LongList(6);
+
+	/**
+	 * The blocks waiting to be handled by a connectivity check, reused between checks.
+	 */
+	private final LongList localQueue = new LongList(27);
+
+	/**
+	 * The blocks around a removed block which were reached by the connectivity check, indexed by offset.
+	 */
+	private final boolean[] localReached = new boolean[27];
+
+	/**
+	 * Creates a new WaterBodyIndex.
+	 *
+	 * @param world  The world to index.
+	 * @param engine The engine simulating the world.
+	 * @param budget The maximum amount of blocks a flood fill indexes.
+	 */
+	WaterBodyIndex(final LiquidWorld world, final LiquidEngine engine, final int budget) {
+		this.world = world;
+		this.engine = engine;
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the maximum amount of blocks a flood fill indexes.
+	 *
+	 * @return The budget.
+	 */
+	int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the maximum amount of blocks a flood fill indexes. Takes effect for bodies indexed from now on.
+	 *
+	 * @param budget The budget.
+	 */
+	void setBudget(final int budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the body of a liquid block, indexing it first if it is unknown or was invalidated.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The body, or NONE if the block is not a liquid.
+	 */
+	int getBody(final long position) {
+		// Clear the index once too many blocks have been removed, since their nodes can't be reused
+		if (nodeCount > 4 * nodes.size() + MAXIMUM_DEAD_NODES) {
+			clear();
+		}
+
+		int node = nodes.get(position);
+		if (node != NONE) {
+			int root = find(node);
+
+			if (!invalid[root]) {
+				return root;
+			}
+		}
+
+		Material material = getMaterial(position);
+
+		return LiquidEngine.isLiquid(material, false) ? fill(position, material) : NONE;
+	}
+
+	/**
+	 * Gets the amount of blocks in a body.
+	 *
+	 * @param body The body.
+	 * @return The amount of blocks.
+	 */
+	int getSize(final int body) {
+		return sizes[body];
+	}
+
+	/**
+	 * Gets the total liquid level of all blocks in a body.
+	 *
+	 * @param body The body.
+	 * @return The volume.
+	 */
+	int getVolume(final int body) {
+		return volumes[body];
+	}
+
+	/**
+	 * Gets the height of the highest blocks in a body.
+	 *
+	 * @param body The body.
+	 * @return The surface level.
+	 */
+	int getSurfaceLevel(final int body) {
+		return surfaceLevels[body];
+	}
+
+	/**
+	 * Gets the amount of blocks at the surface level of a body.
+	 *
+	 * @param body The body.
+	 * @return The amount of surface blocks.
+	 */
+	int getSurfaceSize(final int body) {
+		return surfaceSizes[body];
+	}
+
+	/**
+	 * Checks whether a body holds all blocks of its body of liquid, rather than the part a flood fill reached within its budget.
+	 *
+	 * @param body The body.
+	 * @return Whether the body is complete.
+	 */
+	boolean isComplete(final int body) {
+		return complete[body];
+	}
+
+	/**
+	 * Gets how far a body reaches horizontally from a block, as the largest distance along the X or Z axis to the bounds of the body.
+	 * Blocks removed from the body don't shrink its bounds until it is indexed again, so the distance may be larger than the body is now.
+	 *
+	 * @param body     The body.
+	 * @param position The packed position of the block.
+	 * @return The distance.
+	 */
+	int getReach(final int body, final long position) {
+		int x = BlockPosition.getX(position);
+		int z = BlockPosition.getZ(position);
+
+		return Math.max(Math.max(x - minimumXs[body], maximumXs[body] - x), Math.max(z - minimumZs[body], maximumZs[body] - z));
+	}
+
+	/**
+	 * Checks whether a body has a block that can receive liquid, being a block of the body which isn't full or an air block next to it.
+	 *
+	 * @param body The body.
+	 * @return Whether there is an open block.
+	 */
+	boolean hasOpenBlock(final int body) {
+		LongPriorityQueue queue = openBlocks[body];
+
+		// Skip and correct stale entries until the front entry is up to date
+		while (queue != null && !queue.isEmpty()) {
+			long position = queue.peek();
+			int priority = getOpenPriority(body, position);
+
+			if (priority == queue.peekPriority()) {
+				return true;
+			}
+
+			queue.poll();
+			if (priority != NONE) {
+				queue.add(position, priority);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the lowest open block of a body, and among the lowest the one with the lowest level.
+	 * Only valid right after {@link #hasOpenBlock(int)} returned true.
+	 *
+	 * @param body The body.
+	 * @return The packed position of the open block.
+	 */
+	long getLowestOpenBlock(final int body) {
+		return openBlocks[body].peek();
+	}
+
+	/**
+	 * Updates the index after a block changed.
+	 *
+	 * @param position    The packed position of the block.
+	 * @param oldMaterial The material before the change.
+	 * @param oldLevel    The liquid level before the change.
+	 * @param newMaterial The material after the change.
+	 * @param newLevel    The liquid level after the change.
+	 */
+	void update(final long position, final Material oldMaterial, final int oldLevel, final Material newMaterial, final int newLevel) {
+		boolean wasLiquid = LiquidEngine.isLiquid(oldMaterial, false);
+		boolean isLiquid = LiquidEngine.isLiquid(newMaterial, false);
+
+		if (wasLiquid && isLiquid && LiquidEngine.isSameLiquid(oldMaterial, newMaterial)) {
+			// Only the level changed, so update the volume
+			int node = nodes.get(position);
+
+			if (node != NONE) {
+				int root = find(node);
+				volumes[root] += newLevel - oldLevel;
+
+				if (newLevel < LiquidEngine.MAXIMUM_LIQUID_LEVEL) {
+					addOpenBlock(root, position, newLevel);
+				}
+			}
+
+			return;
+		}
+
+		if (wasLiquid) {
+			removeBlock(position, oldLevel);
+		}
+
+		if (isLiquid) {
+			addBlock(position, newMaterial, newLevel);
+		} else if (newMaterial == Material.AIR) {
+			// The block is now open to all bodies around it
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (!BlockPosition.isValidY(BlockPosition.getY(position) + direction[1])) {
+					continue;
+				}
+
+				int node = nodes.get(BlockPosition.offset(position, direction[0], direction[1], direction[2]));
+				if (node != NONE) {
+					addOpenBlock(find(node), position, LiquidEngine.MINIMUM_LIQUID_LEVEL);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the bodies of a block and its neighbors, for when a block changed outside of the engine.
+	 * A placed block may split a body, and a removed block may join bodies or open them up.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	void invalidate(final long position) {
+		invalidateBodyOf(position);
+
+		for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+			if (BlockPosition.isValidY(BlockPosition.getY(position) + direction[1])) {
+				invalidateBodyOf(BlockPosition.offset(position, direction[0], direction[1], direction[2]));
+			}
+		}
+	}
+
+	/**
+	 * Removes all bodies from the index.
+	 */
+	void clear() {
+		nodes.clear();
+		nodeCount = 0;
+		Arrays.fill(openBlocks, null);
+		Arrays.fill(liquids, null);
+		chunkBlocks.forEachValue(LongList::clear);
+	}
+
+	/**
+	 * Removes the blocks of a chunk that is unloaded from the index, and invalidates the bodies they were part of.
+	 * Bodies elsewhere are kept, and open blocks in the chunk are dropped from their bodies once they come up, since the chunk can't be read anymore.
+	 *
+	 * @param chunkKey The chunk key of the chunk.
+	 */
+	void unloadChunk(final long chunkKey) {
+		LongList blocks = chunkBlocks.remove(chunkKey);
+		if (lastChunkBlocks == blocks) {
+			lastChunkBlocks = null;
+		}
+
+		if (blocks == null) {
+			return;
+		}
+
+		for (int i = 0; i < blocks.size(); ++i) {
+			int node = nodes.remove(blocks.get(i));
+
+			if (node != NONE) {
+				invalidateBody(find(node));
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the body of a block, if it has one.
+	 *
+	 * @param position The packed position of the block.
+	 */
+	private void invalidateBodyOf(final long position) {
+		int node = nodes.get(position);
+
+		if (node != NONE) {
+			invalidateBody(find(node));
+		}
+	}
+
+	/**
+	 * Invalidates a body, so it is indexed again when it is next asked for.
+	 *
+	 * @param root The root node of the body.
+	 */
+	private void invalidateBody(final int root) {
+		invalid[root] = true;
+		openBlocks[root] = null;
+	}
+
+	/**
+	 * Indexes the body of liquid around a block by a flood fill, stopping once the budget is reached.
+	 *
+	 * @param start    The packed position of the block to start from.
+	 * @param material The material of the block.
+	 * @return The new body.
+	 */
+	private int fill(final long start, final Material material) {
+		int root = createNode(start, material, getLevel(start));
+		complete[root] = true;
+
+		fillQueue.clear();
+		fillQueue.add(start);
+
+		while (!fillQueue.isEmpty()) {
+			long position = fillQueue.removeLast();
+			int y = BlockPosition.getY(position);
+
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (!BlockPosition.isValidY(y + direction[1])) {
+					continue;
+				}
+
+				long neighbor = BlockPosition.offset(position, direction[0], direction[1], direction[2]);
+
+				// The body may continue into chunks that are not loaded, but those can't be read
+				if (!engine.isLoaded(neighbor)) {
+					complete[root] = false;
+					continue;
+				}
+
+				Material neighborMaterial = getMaterial(neighbor);
+
+				if (neighborMaterial == Material.AIR) {
+					addOpenBlock(root, neighbor, LiquidEngine.MINIMUM_LIQUID_LEVEL);
+				} else if (isSameBody(root, neighbor, neighborMaterial)) {
+					// Skip blocks that are already part of the new body
+					int node = nodes.get(neighbor);
+					if (node != NONE && find(node) == root) {
+						continue;
+					}
+
+					if (sizes[root] >= budget) {
+						complete[root] = false;
+						continue;
+					}
+
+					// Add the block to the body
+					int neighborNode = createNode(neighbor, neighborMaterial, getLevel(neighbor));
+					join(root, neighborNode);
+					fillQueue.add(neighbor);
+				}
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Adds a liquid block to the index, joining the bodies around it.
+	 *
+	 * @param position The packed position of the block.
+	 * @param material The material of the block.
+	 * @param level    The liquid level of the block.
+	 */
+	private void addBlock(final long position, final Material material, final int level) {
+		int root = createNode(position, material, level);
+		complete[root] = true;
+		int y = BlockPosition.getY(position);
+
+		for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+			if (!BlockPosition.isValidY(y + direction[1])) {
+				continue;
+			}
+
+			long neighbor = BlockPosition.offset(position, direction[0], direction[1], direction[2]);
+
+			if (!engine.isLoaded(neighbor)) {
+				complete[root] = false;
+				continue;
+			}
+
+			Material neighborMaterial = getMaterial(neighbor);
+
+			if (neighborMaterial == Material.AIR) {
+				addOpenBlock(root, neighbor, LiquidEngine.MINIMUM_LIQUID_LEVEL);
+			} else if (isSameBody(root, neighbor, neighborMaterial)) {
+				int node = nodes.get(neighbor);
+
+				if (node == NONE) {
+					// The neighbor belongs to the body but was never indexed, so index the whole body when it is next asked for
+					invalidateBody(root);
+				} else {
+					root = join(root, find(node));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a liquid block from the index, invalidating its body unless its neighbors are still connected without it.
+	 *
+	 * @param position The packed position of the block.
+	 * @param level    The liquid level the block had.
+	 */
+	private void removeBlock(final long position, final int level) {
+		int node = nodes.remove(position);
+		if (node == NONE) {
+			return;
+		}
+
+		int root = find(node);
+		--sizes[root];
+		volumes[root] -= level;
+
+		if (invalid[root] || sizes[root] == 0) {
+			return;
+		}
+
+		// Without a per-height count the next surface level is unknown
+		if (BlockPosition.getY(position) == surfaceLevels[root] && --surfaceSizes[root] == 0) {
+			invalidateBody(root);
+			return;
+		}
+
+		if (!isLocallyConnected(root, position)) {
+			invalidateBody(root);
+			return;
+		}
+
+		// The block is now an open block next to the body
+		addOpenBlock(root, position, LiquidEngine.MINIMUM_LIQUID_LEVEL);
+	}
+
+	/**
+	 * Checks whether all neighbors of a removed block which are part of its body are still connected through the 3x3x3 blocks around it.
+	 * If so, the body is still connected. If not, it might still be connected further away, but finding out would mean searching it.
+	 *
+	 * @param root     The root node of the body.
+	 * @param position The packed position of the removed block.
+	 * @return Whether the neighbors are connected around the block.
+	 */
+	private boolean isLocallyConnected(final int root, final long position) {
+		removedNeighbors.clear();
+
+		for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+			long neighbor = BlockPosition.offset(position, direction[0], direction[1], direction[2]);
+
+			if (BlockPosition.isValidY(BlockPosition.getY(position) + direction[1]) && isInBody(root, neighbor)) {
+				removedNeighbors.add(neighbor);
+			}
+		}
+
+		// A block with at most one neighbor in the body never connects anything
+		if (removedNeighbors.size() <= 1) {
+			return true;
+		}
+
+		// Search the blocks around the removed block from the first neighbor
+		Arrays.fill(localReached, false);
+		localQueue.clear();
+		localQueue.add(removedNeighbors.get(0));
+		localReached[getLocalIndex(position, removedNeighbors.get(0))] = true;
+
+		while (!localQueue.isEmpty()) {
+			long current = localQueue.removeLast();
+
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (!BlockPosition.isValidY(BlockPosition.getY(current) + direction[1])) {
+					continue;
+				}
+
+				long neighbor = BlockPosition.offset(current, direction[0], direction[1], direction[2]);
+				int index = getLocalIndex(position, neighbor);
+
+				if (index != NONE && !localReached[index] && neighbor != position && isInBody(root, neighbor)) {
+					localReached[index] = true;
+					localQueue.add(neighbor);
+				}
+			}
+		}
+
+		for (int i = 1; i < removedNeighbors.size(); ++i) {
+			if (!localReached[getLocalIndex(position, removedNeighbors.get(i))]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the index of a block in the 3x3x3 blocks around a center block.
+	 *
+	 * @param center   The packed position of the center block.
+	 * @param position The packed position of the block.
+	 * @return The index, or NONE if the block is not around the center block.
+	 */
+	private static int getLocalIndex(final long center, final long position) {
+		int dx = BlockPosition.getX(position) - BlockPosition.getX(center) + 1;
+		int dy = BlockPosition.getY(position) - BlockPosition.getY(center) + 1;
+		int dz = BlockPosition.getZ(position) - BlockPosition.getZ(center) + 1;
+
+		if (dx < 0 || dx > 2 || dy < 0 || dy > 2 || dz < 0 || dz > 2) {
+			return NONE;
+		}
+
+		return (dy * 3 + dx) * 3 + dz;
+	}
+
+	/**
+	 * Adds an entry for a block that can receive liquid to a body.
+	 *
+	 * @param root     The root node of the body.
+	 * @param position The packed position of the block.
+	 * @param level    The liquid level of the block.
+	 */
+	private void addOpenBlock(final int root, final long position, final int level) {
+		if (invalid[root]) {
+			return;
+		}
+
+		LongPriorityQueue queue = openBlocks[root];
+		if (queue == null) {
+			queue = new LongPriorityQueue(4);
+			openBlocks[root] = queue;
+		} else if (queue.size() >= MAXIMUM_OPEN_ENTRIES_PER_BLOCK * sizes[root] + 64) {
+			// Index the body again once it has collected too many stale entries
+			invalidateBody(root);
+			return;
+		}
+
+		queue.add(position, getPriority(position, level));
+	}
+
+	/**
+	 * Gets the current priority of an open block of a body.
+	 *
+	 * @param root     The root node of the body.
+	 * @param position The packed position of the block.
+	 * @return The priority, or NONE if the block is no longer an open block of the body.
+	 */
+	private int getOpenPriority(final int root, final long position) {
+		if (!engine.isLoaded(position)) {
+			return NONE;
+		}
+
+		Material material = getMaterial(position);
+
+		if (material == Material.AIR) {
+			// Air blocks are only open if they still touch the body
+			for (int[] direction : LiquidEngine.NEIGHBOR_OFFSETS) {
+				if (BlockPosition.isValidY(BlockPosition.getY(position) + direction[1]) && isInBody(root, BlockPosition.offset(position, direction[0], direction[1], direction[2]))) {
+					return getPriority(position, LiquidEngine.MINIMUM_LIQUID_LEVEL);
+				}
+			}
+
+			return NONE;
+		}
+
+		if (!LiquidEngine.isLiquid(material, false) || !isInBody(root, position)) {
+			return NONE;
+		}
+
+		int level = getLevel(position);
+
+		return level < LiquidEngine.MAXIMUM_LIQUID_LEVEL ? getPriority(position, level) : NONE;
+	}
+
+	/**
+	 * Gets the priority of an open block, ordering blocks by height and then by level.
+	 *
+	 * @param position The packed position of the block.
+	 * @param level    The liquid level of the block.
+	 * @return The priority.
+	 */
+	private static int getPriority(final long position, final int level) {
+		return BlockPosition.getY(position) << 4 | level;
+	}
+
+	/**
+	 * Checks whether a block is indexed as part of a body.
+	 *
+	 * @param root     The root node of the body.
+	 * @param position The packed position of the block.
+	 * @return Whether the block is part of the body.
+	 */
+	private boolean isInBody(final int root, final long position) {
+		int node = nodes.get(position);
+
+		return node != NONE && find(node) == root;
+	}
+
+	/**
+	 * Checks whether a block holds the same liquid as a body.
+	 *
+	 * @param root     The root node of the body.
+	 * @param position The packed position of the block.
+	 * @param material The material of the block.
+	 * @return Whether the block can be part of the body.
+	 */
+	private boolean isSameBody(final int root, final long position, final Material material) {
+		return LiquidEngine.isLiquid(material, false) && LiquidEngine.isSameLiquid(material, liquids[root]);
+	}
+
+	/**
+	 * Creates a node for a block as a body of its own, replacing any node it had.
+	 *
+	 * @param position The packed position of the block.
+	 * @param material The material of the block.
+	 * @param level    The liquid level of the block.
+	 * @return The node.
+	 */
+	private int createNode(final long position, final Material material, final int level) {
+		if (nodeCount == parents.length) {
+			int capacity = Math.max(16, nodeCount * 2);
+			parents = Arrays.copyOf(parents, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			volumes = Arrays.copyOf(volumes, capacity);
+			surfaceLevels = Arrays.copyOf(surfaceLevels, capacity);
+			surfaceSizes = Arrays.copyOf(surfaceSizes, capacity);
+			liquids = Arrays.copyOf(liquids, capacity);
+			invalid = Arrays.copyOf(invalid, capacity);
+			complete = Arrays.copyOf(complete, capacity);
+			minimumXs = Arrays.copyOf(minimumXs, capacity);
+			maximumXs = Arrays.copyOf(maximumXs, capacity);
+			minimumZs = Arrays.copyOf(minimumZs, capacity);
+			maximumZs = Arrays.copyOf(maximumZs, capacity);
+			openBlocks = Arrays.copyOf(openBlocks, capacity);
+		}
+
+		// A block moving to a new body leaves its old body behind, which then no longer adds up
+		int oldNode = nodes.put(position, nodeCount);
+		if (oldNode != NONE) {
+			invalidateBody(find(oldNode));
+		}
+
+		long chunkKey = BlockPosition.getChunkKey(position);
+		if (lastChunkBlocks == null || lastChunkKey != chunkKey) {
+			lastChunkBlocks = chunkBlocks.get(chunkKey);
+			lastChunkKey = chunkKey;
+
+			if (lastChunkBlocks == null) {
+				lastChunkBlocks = new LongList();
+				chunkBlocks.put(chunkKey, lastChunkBlocks);
+			}
+		}
+		lastChunkBlocks.add(position);
+
+		int node = nodeCount++;
+		parents[node] = node;
+		sizes[node] = 1;
+		volumes[node] = level;
+		surfaceLevels[node] = BlockPosition.getY(position);
+		surfaceSizes[node] = 1;
+		liquids[node] = material;
+		invalid[node] = false;
+		complete[node] = true;
+		minimumXs[node] = maximumXs[node] = BlockPosition.getX(position);
+		minimumZs[node] = maximumZs[node] = BlockPosition.getZ(position);
+		openBlocks[node] = null;
+
+		if (level < LiquidEngine.MAXIMUM_LIQUID_LEVEL) {
+			addOpenBlock(node, position, level);
+		}
+
+		return node;
+	}
+
+	/**
+	 * Finds the root node of a node, halving the path on the way.
+	 *
+	 * @param node The node.
+	 * @return The root node.
+	 */
+	private int find(int node) {
+		while (parents[node] != node) {
+			parents[node] = parents[parents[node]];
+			node = parents[node];
+		}
+
+		return node;
+	}
+
+	/**
+	 * Joins two bodies, attaching the smaller to the larger.
+	 *
+	 * @param root1 The root node of the first body.
+	 * @param root2 The root node of the second body.
+	 * @return The root node of the joined body.
+	 */
+	private int join(final int root1, final int root2) {
+		if (root1 == root2) {
+			return root1;
+		}
+
+		int root = sizes[root1] >= sizes[root2] ? root1 : root2;
+		int child = root == root1 ? root2 : root1;
+
+		parents[child] = root;
+		sizes[root] += sizes[child];
+		volumes[root] += volumes[child];
+		complete[root] &= complete[child];
+		minimumXs[root] = Math.min(minimumXs[root], minimumXs[child]);
+		maximumXs[root] = Math.max(maximumXs[root], maximumXs[child]);
+		minimumZs[root] = Math.min(minimumZs[root], minimumZs[child]);
+		maximumZs[root] = Math.max(maximumZs[root], maximumZs[child]);
+
+		if (surfaceLevels[child] > surfaceLevels[root]) {
+			surfaceLevels[root] = surfaceLevels[child];
+			surfaceSizes[root] = surfaceSizes[child];
+		} else if (surfaceLevels[child] == surfaceLevels[root]) {
+			surfaceSizes[root] += surfaceSizes[child];
+		}
+
+		if (invalid[root] || invalid[child]) {
+			invalidateBody(root);
+		} else {
+			// Move the smaller queue into the larger one
+			LongPriorityQueue queue = openBlocks[root];
+			LongPriorityQueue childQueue = openBlocks[child];
+
+			if (queue == null || (childQueue != null && childQueue.size() > queue.size())) {
+				if (queue != null) {
+					childQueue.addAll(queue);
+				}
+
+				openBlocks[root] = childQueue;
+			} else if (childQueue != null) {
+				queue.addAll(childQueue);
+			}
+		}
+
+		openBlocks[child] = null;
+		liquids[child] = null;
+
+		return root;
+	}
+
+	/**
+	 * Gets the material of a block.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The material.
+	 */
+	private Material getMaterial(final long position) {
+		return world.getMaterial(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position));
+	}
+
+	/**
+	 * Gets the liquid level of a liquid block.
+	 *
+	 * @param position The packed position of the block.
+	 * @return The liquid level.
+	 */
+	private int getLevel(final long position) {
+		return world.getLevel(BlockPosition.getX(position), BlockPosition.getY(position), BlockPosition.getZ(position));
+	}
+}
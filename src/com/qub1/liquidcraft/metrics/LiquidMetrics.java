@@ -0,0 +1,267 @@
+package com.qub1.liquidcraft.metrics;
+
+import com.qub1.liquidcraft.engine.FlowMetrics;
+import com.qub1.liquidcraft.engine.LiquidEngine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Collects the metrics of all liquid engines once per tick, together with a histogram of the time spent on liquids per tick.
+ * The engines are only read on the server thread, while the collected values can be read from any thread, for example over JMX.
+ * Engines in use by a worker thread are read without waiting for them, so their values may lag behind slightly.
+ */
+public class LiquidMetrics implements LiquidMetricsMBean {
+	/**
+	 * The upper bounds of the buckets of the tick time histogram, in milliseconds.
+	 */
+	private static final double[] TICK_TIME_BUCKET_BOUNDS = {0.5, 1, 2, 5, 10, 20, 50};
+
+	/**
+	 * The amount of nanoseconds per millisecond.
+	 */
+	private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
+
+	private int activeBlocks = 0;
+	private int sleepingSections = 0;
+	private int pendingBlocks = 0;
+	private int frozenChunks = 0;
+	private long breakerTrips = 0;
+	private int handledBlocksLastTick = 0;
+	private long handledBlocks = 0;
+	private long blockUpdates = 0;
+	private long downTime = 0;
+	private long horizontalTime = 0;
+	private long nearestTime = 0;
+	private long synchronousTime = 0;
+	private long writeTime = 0;
+	private long ticks = 0;
+	private long totalTickTime = 0;
+	private long maximumTickTime = 0;
+	private final long[] tickTimeHistogram = new long[TICK_TIME_BUCKET_BOUNDS.length + 1];
+
+	/**
+	 * The totals of the engines when the metrics were last reset, so resetting doesn't touch the engines.
+	 */
+	private long handledBlocksOffset = 0;
+	private long blockUpdatesOffset = 0;
+	private long downTimeOffset = 0;
+	private long horizontalTimeOffset = 0;
+	private long nearestTimeOffset = 0;
+	private long synchronousTimeOffset = 0;
+	private long writeTimeOffset = 0;
+	private long breakerTripsOffset = 0;
+
+	/**
+	 * The amount of blocks waiting for a chunk to load in every engine, where the index is the world id, as counted in the last tick the engine was not in use.
+	 */
+	private int[] pendingBlockCounts = new int[0];
+
+	/**
+	 * Records a tick, collecting the current metrics of all engines.
+	 * Only called on the server thread.
+	 *
+	 * @param engines  The engines of all worlds, where the index is the world id, or null for ids of unloaded worlds.
+	 * @param running  Tells whether the engine of a world id is in use by a worker thread.
+	 * @param tickTime The time spent on liquids in the tick, in nanoseconds.
+	 */
+	public synchronized void recordTick(final List<LiquidEngine> engines, final IntPredicate running, final long tickTime) {
+		int active = 0;
+		int sleeping = 0;
+		int pending = 0;
+		int frozen = 0;
+		long trips = 0;
+		long handled = 0;
+		long updates = 0;
+		long down = 0;
+		long horizontal = 0;
+		long nearest = 0;
+		long synchronous = 0;
+		long write = 0;
+
+		if (pendingBlockCounts.length < engines.size()) {
+			pendingBlockCounts = Arrays.copyOf(pendingBlockCounts, engines.size());
+		}
+
+		for (int id = 0; id < engines.size(); ++id) {
+			LiquidEngine engine = engines.get(id);
+			if (engine == null) {
+				pendingBlockCounts[id] = 0;
+				continue;
+			}
+
+			FlowMetrics metrics = engine.getMetrics();
+
+			// Counting the waiting blocks walks maps a worker thread may be changing, so engines in use keep their last count
+			if (!running.test(id)) {
+				pendingBlockCounts[id] = engine.getPendingBlockCount();
+			}
+
+			active += engine.getActiveBlockCount();
+			sleeping += engine.getSleepingSectionCount();
+			pending += pendingBlockCounts[id];
+			frozen += engine.getFrozenRegionCount();
+			trips += metrics.getBreakerTrips();
+			handled += metrics.getHandledBlocks();
+			updates += metrics.getBlockUpdates();
+			down += metrics.getDownTime();
+			horizontal += metrics.getHorizontalTime();
+			nearest += metrics.getNearestTime();
+			synchronous += metrics.getSynchronousTime();
+			write += metrics.getWriteTime();
+		}
+
+		activeBlocks = active;
+		sleepingSections = sleeping;
+		pendingBlocks = pending;
+		frozenChunks = frozen;
+		breakerTrips = trips - breakerTripsOffset;
+		handledBlocksLastTick = (int) (handled - handledBlocksOffset - handledBlocks);
+		handledBlocks = handled - handledBlocksOffset;
+		blockUpdates = updates - blockUpdatesOffset;
+		downTime = down - downTimeOffset;
+		horizontalTime = horizontal - horizontalTimeOffset;
+		nearestTime = nearest - nearestTimeOffset;
+		synchronousTime = synchronous - synchronousTimeOffset;
+		writeTime = write - writeTimeOffset;
+
+		++ticks;
+		totalTickTime += tickTime;
+		maximumTickTime = Math.max(maximumTickTime, tickTime);
+
+		// Find the first bucket the tick fits in, the last bucket takes everything else
+		double milliseconds = tickTime / NANOSECONDS_PER_MILLISECOND;
+		int bucket = 0;
+		while (bucket < TICK_TIME_BUCKET_BOUNDS.length && milliseconds >= TICK_TIME_BUCKET_BOUNDS[bucket]) {
+			++bucket;
+		}
+
+		++tickTimeHistogram[bucket];
+	}
+
+	@Override
+	public synchronized int getActiveBlocks() {
+		return activeBlocks;
+	}
+
+	@Override
+	public synchronized int getSleepingSections() {
+		return sleepingSections;
+	}
+
+	@Override
+	public synchronized int getPendingBlocks() {
+		return pendingBlocks;
+	}
+
+	@Override
+	public synchronized int getFrozenChunks() {
+		return frozenChunks;
+	}
+
+	@Override
+	public synchronized long getBreakerTrips() {
+		return breakerTrips;
+	}
+
+	@Override
+	public synchronized int getHandledBlocksLastTick() {
+		return handledBlocksLastTick;
+	}
+
+	@Override
+	public synchronized double getHandledBlocksPerTick() {
+		return ticks == 0 ? 0 : (double) handledBlocks / ticks;
+	}
+
+	@Override
+	public synchronized long getHandledBlocks() {
+		return handledBlocks;
+	}
+
+	@Override
+	public synchronized long getBlockUpdates() {
+		return blockUpdates;
+	}
+
+	@Override
+	public synchronized double getDownTime() {
+		return downTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public synchronized double getHorizontalTime() {
+		return horizontalTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public synchronized double getNearestTime() {
+		return nearestTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public synchronized double getSynchronousTime() {
+		return synchronousTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public synchronized double getWriteTime() {
+		return writeTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	@Override
+	public synchronized double getAverageTickTime() {
+		return ticks == 0 ? 0 : totalTickTime / NANOSECONDS_PER_MILLISECOND / ticks;
+	}
+
+	@Override
+	public synchronized double getMaximumTickTime() {
+		return maximumTickTime / NANOSECONDS_PER_MILLISECOND;
+	}
+
+	@Override
+	public double[] getTickTimeBucketBounds() {
+		return TICK_TIME_BUCKET_BOUNDS.clone();
+	}
+
+	@Override
+	public synchronized long[] getTickTimeHistogram() {
+		return tickTimeHistogram.clone();
+	}
+
+	@Override
+	public synchronized void reset() {
+		// The engine totals keep counting, so remember where they were
+		handledBlocksOffset += handledBlocks;
+		blockUpdatesOffset += blockUpdates;
+		downTimeOffset += downTime;
+		horizontalTimeOffset += horizontalTime;
+		nearestTimeOffset += nearestTime;
+		synchronousTimeOffset += synchronousTime;
+		writeTimeOffset += writeTime;
+		breakerTripsOffset += breakerTrips;
+
+		handledBlocksLastTick = 0;
+		handledBlocks = 0;
+		blockUpdates = 0;
+		downTime = 0;
+		horizontalTime = 0;
+		nearestTime = 0;
+		synchronousTime = 0;
+		writeTime = 0;
+		breakerTrips = 0;
+		ticks = 0;
+		totalTickTime = 0;
+		maximumTickTime = 0;
+
+		for (int i = 0; i < tickTimeHistogram.length; ++i) {
+			tickTimeHistogram[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.qub1.liquidcraft.metrics;
+
+/**
+ * The management interface of LiquidMetrics, exposed over JMX.
+ * Times are in milliseconds and totals count from the moment the plugin was enabled or the metrics were reset.
+ */
+public interface LiquidMetricsMBean {
+	/**
+	 * Gets the amount of active liquid blocks in all worlds.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getActiveBlocks();
+
+	/**
+	 * Gets the amount of sleeping chunk sections in all worlds.
+	 *
+	 * @return The amount of sections.
+	 */
+	int getSleepingSections();
+
+	/**
+	 * Gets the amount of active blocks waiting for a neighboring chunk to load in all worlds.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getPendingBlocks();
+
+	/**
+	 * Gets the amount of chunks in all worlds whose liquids are frozen because they spread beyond their limits.
+	 *
+	 * @return The amount of chunks.
+	 */
+	int getFrozenChunks();
+
+	/**
+	 * Gets the total amount of chunks frozen because liquids spread beyond their limits.
+	 *
+	 * @return The amount of chunks.
+	 */
+	long getBreakerTrips();
+
+	/**
+	 * Gets the amount of blocks handled in the last tick.
+	 *
+	 * @return The amount of blocks.
+	 */
+	int getHandledBlocksLastTick();
+
+	/**
+	 * Gets the average amount of blocks handled per tick.
+	 *
+	 * @return The average amount of blocks.
+	 */
+	double getHandledBlocksPerTick();
+
+	/**
+	 * Gets the total amount of blocks handled.
+	 *
+	 * @return The amount of blocks.
+	 */
+	long getHandledBlocks();
+
+	/**
+	 * Gets the total amount of blocks written to the worlds.
+	 *
+	 * @return The amount of blocks.
+	 */
+	long getBlockUpdates();
+
+	/**
+	 * Gets the total time spent flowing down.
+	 *
+	 * @return The time.
+	 */
+	double getDownTime();
+
+	/**
+	 * Gets the total time spent flowing to direct horizontal neighbors.
+	 *
+	 * @return The time.
+	 */
+	double getHorizontalTime();
+
+	/**
+	 * Gets the total time spent flowing to the lowest open block or nearest lower block.
+	 *
+	 * @return The time.
+	 */
+	double getNearestTime();
+
+	/**
+	 * Gets the total time spent computing synchronous updates.
+	 *
+	 * @return The time.
+	 */
+	double getSynchronousTime();
+
+	/**
+	 * Gets the total time spent writing changed blocks to the worlds.
+	 *
+	 * @return The time.
+	 */
+	double getWriteTime();
+
+	/**
+	 * Gets the amount of ticks measured.
+	 *
+	 * @return The amount of ticks.
+	 */
+	long getTicks();
+
+	/**
+	 * Gets the average time spent on liquids per tick.
+	 *
+	 * @return The time.
+	 */
+	double getAverageTickTime();
+
+	/**
+	 * Gets the longest time spent on liquids in a single tick.
+	 *
+	 * @return The time.
+	 */
+	double getMaximumTickTime();
+
+	/**
+	 * Gets the upper bounds of the buckets of the tick time histogram, where the last bucket has no upper bound.
+	 *
+	 * @return The bounds.
+	 */
+	double[] getTickTimeBucketBounds();
+
+	/**
+	 * Gets the amount of ticks in every bucket of the tick time histogram.
+	 *
+	 * @return The amount of ticks per bucket.
+	 */
+	long[] getTickTimeHistogram();
+
+	/**
+	 * Sets all totals and the histogram back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,339 @@
+package com.qub1.liquidcraft.storage;
+
+import com.qub1.liquidcraft.engine.ChunkLiquidState;
+import com.qub1.liquidcraft.util.BlockPosition;
+import com.qub1.liquidcraft.util.LongIntMap;
+import com.qub1.liquidcraft.util.LongList;
+import com.qub1.liquidcraft.util.LongObjectMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Saves and loads the liquid state of the chunks of a single world, in region files named r.X.Z.lcr inside a folder.
+ * <p>
+ * The data of a chunk is a format version byte, followed by the infinite liquid sources, the active blocks and the blocks with a remainder.
+ * Each is stored as an int count followed by one short per block, holding the position of the block within the chunk.
+ * The blocks with a remainder are followed by one byte per block, holding the remainder. Data of the first version has no remainders.
+ * Chunks without state have no data.
+ * <p>
+ * A region file stays open while any of its chunks is loaded, and only one storage can use a folder at a time, since every region file tracks its free sectors itself.
+ */
+public class LiquidStorage implements Closeable {
+	/**
+	 * The version of the chunk data format.
+	 */
+	private static final byte FORMAT_VERSION = 2;
+
+	/**
+	 * The version of the chunk data format before remainders were saved, which can still be loaded.
+	 */
+	private static final byte FORMAT_VERSION_WITHOUT_REMAINDERS = 1;
+
+	/**
+	 * The mask of the bits of a packed position that locate a block within its chunk.
+	 */
+	private static final long CHUNK_LOCAL_MASK = 0xFFFF;
+
+	/**
+	 * The folders used by a storage that is not closed yet.
+	 */
+	private static final Set<File> OPEN_FOLDERS = new HashSet<>();
+
+	/**
+	 * The folder holding the region files.
+	 */
+	private final File folder;
+
+	/**
+	 * The id of the world, used to pack positions.
+	 */
+	private final int worldId;
+
+	/**
+	 * The open region files, by region key.
+	 */
+	private final LongObjectMap<RegionFile> regions = new LongObjectMap<>();
+
+	/**
+	 * The amount of loaded chunks in every region that has any, by region key.
+	 */
+	private final LongIntMap loadedChunks = new LongIntMap(0);
+
+	/**
+	 * Holds the data of a chunk while it is being written, reused between writes.
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+
+	/**
+	 * Creates a new LiquidStorage.
+	 *
+	 * @param folder  The folder holding the region files, created when the first chunk with state is saved.
+	 * @param worldId The id of the world.
+	 * @throws IllegalStateException If another storage that is not closed yet uses the folder.
+	 */
+	public LiquidStorage(final File folder, final int worldId) {
+		if (!OPEN_FOLDERS.add(getFolderKey(folder))) {
+			throw (new IllegalStateException("Folder " + folder + " is already used by another liquid storage"));
+		}
+
+		this.folder = folder;
+		this.worldId = worldId;
+	}
+
+	/**
+	 * Loads the state of a chunk that was loaded, which keeps its region file open until the chunk is unloaded with {@link #unload(ChunkLiquidState)}.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return The state of the chunk, which is empty if nothing was saved.
+	 * @throws IOException If the region file can't be read or the data is invalid.
+	 */
+	public ChunkLiquidState load(final int chunkX, final int chunkZ) throws IOException {
+		ChunkLiquidState state = new ChunkLiquidState(chunkX, chunkZ);
+
+		// The chunk counts as loaded even if its data can't be read, since it is unloaded all the same
+		loadedChunks.add(getRegionKey(chunkX, chunkZ), 1);
+
+		// Regions without a file have no state, and no file is created for them
+		RegionFile region = getRegion(chunkX, chunkZ, false);
+		if (region == null) {
+			return state;
+		}
+
+		ByteBuffer data = region.read(chunkX & (RegionFile.REGION_SIZE - 1), chunkZ & (RegionFile.REGION_SIZE - 1));
+		if (data == null) {
+			return state;
+		}
+
+		try {
+			byte version = data.get();
+			if (version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_REMAINDERS) {
+				throw (new IOException("Unsupported liquid data version " + version + " in chunk " + chunkX + ", " + chunkZ));
+			}
+
+			long base = BlockPosition.pack(worldId, chunkX << 4, 0, chunkZ << 4);
+			readPositions(data, base, state.getInfiniteSources());
+			readPositions(data, base, state.getActiveBlocks());
+
+			if (version != FORMAT_VERSION_WITHOUT_REMAINDERS) {
+				readRemainders(data, base, state);
+			}
+		} catch (BufferUnderflowException e) {
+			throw (new IOException("Truncated liquid data in chunk " + chunkX + ", " + chunkZ, e));
+		}
+
+		return state;
+	}
+
+	/**
+	 * Saves the state of a chunk, replacing anything saved before.
+	 *
+	 * @param state The state of the chunk.
+	 * @throws IOException If the region file can't be written.
+	 */
+	public void save(final ChunkLiquidState state) throws IOException {
+		int chunkX = state.getChunkX();
+		int chunkZ = state.getChunkZ();
+
+		// Don't create a region file just to say a chunk has no state
+		RegionFile region = getRegion(chunkX, chunkZ, !state.isEmpty());
+		if (region == null) {
+			return;
+		}
+
+		writeBuffer.clear();
+		if (!state.isEmpty()) {
+			ensureCapacity(1 + 12 + 2 * (state.getInfiniteSources().size() + state.getActiveBlocks().size()) + 3 * state.getRemainderBlocks().size());
+
+			writeBuffer.put(FORMAT_VERSION);
+			writePositions(state.getInfiniteSources());
+			writePositions(state.getActiveBlocks());
+			writePositions(state.getRemainderBlocks());
+
+			for (int i = 0; i < state.getRemainderBlocks().size(); ++i) {
+				writeBuffer.put((byte) state.getRemainder(i));
+			}
+		}
+
+		writeBuffer.flip();
+		region.write(chunkX & (RegionFile.REGION_SIZE - 1), chunkZ & (RegionFile.REGION_SIZE - 1), writeBuffer);
+	}
+
+	/**
+	 * Saves the state of a chunk that is being unloaded, and closes its region file once no chunk of the region is loaded anymore.
+	 *
+	 * @param state The state of the chunk.
+	 * @throws IOException If the region file can't be written or closed.
+	 */
+	public void unload(final ChunkLiquidState state) throws IOException {
+		long key = getRegionKey(state.getChunkX(), state.getChunkZ());
+
+		try {
+			save(state);
+		} finally {
+			if (loadedChunks.add(key, -1) <= 0) {
+				loadedChunks.remove(key);
+
+				RegionFile region = regions.remove(key);
+				if (region != null) {
+					region.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes all region files, writing all changes to the disk, and frees the folder for another storage.
+	 *
+	 * @throws IOException If a region file can't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		OPEN_FOLDERS.remove(getFolderKey(folder));
+		loadedChunks.clear();
+
+		IOException exception = null;
+
+		// Close every file, even if one fails
+		for (long key : regions.keys()) {
+			try {
+				regions.get(key).close();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+
+		regions.clear();
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Gets the region file of a chunk, opening it if necessary.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @param create Whether to create the file if it does not exist.
+	 * @return The region file, or null if it does not exist and should not be created.
+	 * @throws IOException If the file can't be opened.
+	 */
+	private RegionFile getRegion(final int chunkX, final int chunkZ, final boolean create) throws IOException {
+		long key = getRegionKey(chunkX, chunkZ);
+
+		RegionFile region = regions.get(key);
+		if (region == null) {
+			File file = new File(folder, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".lcr");
+
+			if (!file.exists()) {
+				if (!create) {
+					return null;
+				}
+
+				if (!folder.isDirectory() && !folder.mkdirs()) {
+					throw (new IOException("Could not create folder " + folder));
+				}
+			}
+
+			region = new RegionFile(file);
+			regions.put(key, region);
+		}
+
+		return region;
+	}
+
+	/**
+	 * Gets the absolute path of a folder without redundant parts, so every folder has a single key in {@link #OPEN_FOLDERS}.
+	 *
+	 * @param folder The folder.
+	 * @return The key of the folder.
+	 */
+	private static File getFolderKey(final File folder) {
+		return folder.toPath().toAbsolutePath().normalize().toFile();
+	}
+
+	/**
+	 * Gets the key of the region of a chunk.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return The region key.
+	 */
+	private static long getRegionKey(final int chunkX, final int chunkZ) {
+		return ((long) (chunkX >> 5) << 32) | ((chunkZ >> 5) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reads a count followed by that many chunk-local positions.
+	 *
+	 * @param data   The data to read from.
+	 * @param base   The packed position of the first block of the chunk.
+	 * @param target The list to add the packed positions to.
+	 * @throws IOException If the count is invalid.
+	 */
+	private static void readPositions(final ByteBuffer data, final long base, final LongList target) throws IOException {
+		int count = data.getInt();
+
+		if (count < 0 || count > data.remaining() / 2) {
+			throw (new IOException("Invalid block count " + count));
+		}
+
+		for (int i = 0; i < count; ++i) {
+			target.add(base | (data.getShort() & CHUNK_LOCAL_MASK));
+		}
+	}
+
+	/**
+	 * Reads a count followed by that many chunk-local positions, and then the remainder of every block.
+	 *
+	 * @param data   The data to read from.
+	 * @param base   The packed position of the first block of the chunk.
+	 * @param target The state to add the remainders to.
+	 * @throws IOException If the count is invalid.
+	 */
+	private static void readRemainders(final ByteBuffer data, final long base, final ChunkLiquidState target) throws IOException {
+		int count = data.getInt();
+
+		if (count < 0 || count > data.remaining() / 3) {
+			throw (new IOException("Invalid block count " + count));
+		}
+
+		int remaindersStart = data.position() + 2 * count;
+		for (int i = 0; i < count; ++i) {
+			target.addRemainder(base | (data.getShort() & CHUNK_LOCAL_MASK), data.get(remaindersStart + i));
+		}
+
+		data.position(remaindersStart + count);
+	}
+
+	/**
+	 * Writes a count followed by the chunk-local position of every block.
+	 *
+	 * @param positions The packed positions to write.
+	 */
+	private void writePositions(final LongList positions) {
+		writeBuffer.putInt(positions.size());
+
+		for (int i = 0; i < positions.size(); ++i) {
+			writeBuffer.putShort((short) (positions.get(i) & CHUNK_LOCAL_MASK));
+		}
+	}
+
+	/**
+	 * Makes sure the write buffer can hold the specified amount of bytes.
+	 *
+	 * @param capacity The amount of bytes.
+	 */
+	private void ensureCapacity(final int capacity) {
+		if (writeBuffer.capacity() < capacity) {
+			writeBuffer = ByteBuffer.allocate(Math.max(capacity, writeBuffer.capacity() * 2));
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.qub1.liquidcraft.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * A file holding binary data for a square of REGION_SIZE by REGION_SIZE chunks, accessed through a memory mapping.
+ * <p>
+ * The file starts with a header holding the first sector and the length in bytes of the data of every chunk, where a length of 0 means the chunk has no data.
+ * The data of a chunk takes up a run of whole sectors. Data is rewritten in place if it still fits, and otherwise moved to the first run of free sectors that is large enough, growing the file if there is none.
+ */
+public class RegionFile implements Closeable {
+	/**
+	 * The amount of chunks along each side of a region.
+	 */
+	public static final int REGION_SIZE = 32;
+
+	/**
+	 * The size of a sector in bytes.
+	 */
+	private static final int SECTOR_SIZE = 256;
+
+	/**
+	 * The size of a header entry in bytes: the first sector and the length of the data.
+	 */
+	private static final int ENTRY_SIZE = 8;
+
+	/**
+	 * The amount of sectors taken up by the header.
+	 */
+	private static final int HEADER_SECTORS = REGION_SIZE * REGION_SIZE * ENTRY_SIZE / SECTOR_SIZE;
+
+	/**
+	 * The minimum amount of sectors the file grows by, so growing data does not remap the file every time.
+	 */
+	private static final int MINIMUM_GROWTH_SECTORS = 64;
+
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The amount of sectors in the file.
+	 */
+	private int sectorCount;
+
+	/**
+	 * Marks the sectors in use by the header or the data of a chunk.
+	 */
+	private final BitSet usedSectors = new BitSet();
+
+	/**
+	 * Opens a region file, creating it if it does not exist.
+	 *
+	 * @param file The file to open.
+	 * @throws IOException If the file can't be opened or mapped.
+	 */
+	public RegionFile(final File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+		// A new file starts out as an empty header
+		int sectors = (int) ((channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE);
+		map(Math.max(sectors, HEADER_SECTORS));
+
+		usedSectors.set(0, HEADER_SECTORS);
+		for (int index = 0; index < REGION_SIZE * REGION_SIZE; ++index) {
+			int firstSector = buffer.getInt(index * ENTRY_SIZE);
+			int length = buffer.getInt(index * ENTRY_SIZE + 4);
+
+			if (length == 0) {
+				continue;
+			}
+
+			// Drop entries pointing outside of the file, which can only be left behind by a crash
+			int end = firstSector + getSectorCount(length);
+			if (firstSector < HEADER_SECTORS || length < 0 || end > sectorCount) {
+				setEntry(index, 0, 0);
+				continue;
+			}
+
+			usedSectors.set(firstSector, end);
+		}
+	}
+
+	/**
+	 * Reads the data of a chunk.
+	 *
+	 * @param localX The X coordinate of the chunk within the region.
+	 * @param localZ The Z coordinate of the chunk within the region.
+	 * @return A read-only view of the data, or null if the chunk has no data.
+	 */
+	public ByteBuffer read(final int localX, final int localZ) {
+		int index = getIndex(localX, localZ);
+		int length = buffer.getInt(index * ENTRY_SIZE + 4);
+
+		if (length == 0) {
+			return null;
+		}
+
+		ByteBuffer data = buffer.asReadOnlyBuffer();
+		int start = buffer.getInt(index * ENTRY_SIZE) * SECTOR_SIZE;
+		data.position(start);
+		data.limit(start + length);
+
+		return data.slice();
+	}
+
+	/**
+	 * Writes the data of a chunk, replacing any data it had.
+	 *
+	 * @param localX The X coordinate of the chunk within the region.
+	 * @param localZ The Z coordinate of the chunk within the region.
+	 * @param data   The data to write, from its position to its limit. An empty buffer removes the data of the chunk.
+	 * @throws IOException If the file can't be grown.
+	 */
+	public void write(final int localX, final int localZ, final ByteBuffer data) throws IOException {
+		int index = getIndex(localX, localZ);
+		int oldFirstSector = buffer.getInt(index * ENTRY_SIZE);
+		int oldSectors = getSectorCount(buffer.getInt(index * ENTRY_SIZE + 4));
+		int length = data.remaining();
+		int sectors = getSectorCount(length);
+
+		// Free the old sectors first, so they can be reused
+		usedSectors.clear(oldFirstSector, oldFirstSector + oldSectors);
+
+		if (length == 0) {
+			setEntry(index, 0, 0);
+			return;
+		}
+
+		// Stay in place if the data still fits, otherwise find the first free run of sectors that is large enough
+		int firstSector = sectors <= oldSectors ? oldFirstSector : findFreeSectors(sectors);
+		if (firstSector + sectors > sectorCount) {
+			map(Math.max(firstSector + sectors, sectorCount + MINIMUM_GROWTH_SECTORS));
+		}
+
+		ByteBuffer target = buffer.duplicate();
+		target.position(firstSector * SECTOR_SIZE);
+		target.put(data.duplicate());
+
+		usedSectors.set(firstSector, firstSector + sectors);
+		setEntry(index, firstSector, length);
+	}
+
+	/**
+	 * Writes all changes to the disk and closes the file.
+	 *
+	 * @throws IOException If the file can't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+
+	/**
+	 * Finds the first run of free sectors of the specified length, which may extend past the end of the file.
+	 *
+	 * @param sectors The amount of sectors needed.
+	 * @return The first sector of the run.
+	 */
+	private int findFreeSectors(final int sectors) {
+		int start = usedSectors.nextClearBit(HEADER_SECTORS);
+
+		while (true) {
+			int end = usedSectors.nextSetBit(start);
+
+			if (end == -1 || end - start >= sectors) {
+				return start;
+			}
+
+			start = usedSectors.nextClearBit(end);
+		}
+	}
+
+	/**
+	 * Maps the file, growing it to the specified amount of sectors if it is smaller.
+	 *
+	 * @param sectors The amount of sectors to map.
+	 * @throws IOException If the file can't be mapped.
+	 */
+	private void map(final int sectors) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) sectors * SECTOR_SIZE);
+		sectorCount = sectors;
+	}
+
+	/**
+	 * Sets the header entry of a chunk.
+	 *
+	 * @param index       The index of the chunk within the region.
+	 * @param firstSector The first sector of the data.
+	 * @param length      The length of the data in bytes.
+	 */
+	private void setEntry(final int index, final int firstSector, final int length) {
+		buffer.putInt(index * ENTRY_SIZE, firstSector);
+		buffer.putInt(index * ENTRY_SIZE + 4, length);
+	}
+
+	/**
+	 * Gets the index of a chunk within the region.
+	 *
+	 * @param localX The X coordinate of the chunk within the region.
+	 * @param localZ The Z coordinate of the chunk within the region.
+	 * @return The index.
+	 */
+	private static int getIndex(final int localX, final int localZ) {
+		if (localX < 0 || localX >= REGION_SIZE || localZ < 0 || localZ >= REGION_SIZE) {
+			throw (new IllegalArgumentException("Chunk " + localX + ", " + localZ + " is not within a region"));
+		}
+
+		return localZ * REGION_SIZE + localX;
+	}
+
+	/**
+	 * Gets the amount of sectors needed to hold data of the specified length.
+	 *
+	 * @param length The length in bytes.
+	 * @return The amount of sectors.
+	 */
+	private static int getSectorCount(final int length) {
+		return (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+	}
+}
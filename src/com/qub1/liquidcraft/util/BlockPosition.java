@@ -0,0 +1,190 @@
+package com.qub1.liquidcraft.util;
+
+/**
+ * Packs block coordinates into a single long, so positions can be stored in primitive collections.
+ * The layout from the highest to the lowest bit is: world id (8 bits), chunk X (20 bits), chunk Z (20 bits), Y (8 bits), X within the chunk (4 bits), Z within the chunk (4 bits).
+ * This means that sorting packed positions groups them by world and chunk, and that the top 52 bits identify the chunk section.
+ * Supported X and Z coordinates range from -8388608 to 8388607, Y from 0 to 255 and world ids from 0 to 255.
+ */
+public final class BlockPosition {
+	/**
+	 * The highest supported world id.
+	 */
+	public static final int MAXIMUM_WORLD_ID = 0xFF;
+
+	/**
+	 * The height of a world.
+	 */
+	public static final int WORLD_HEIGHT = 256;
+
+	/**
+	 * The amount of bits used by the position within a chunk section.
+	 */
+	private static final int SECTION_SHIFT = 12;
+
+	/**
+	 * The amount of bits used by the position within a chunk.
+	 */
+	private static final int CHUNK_SHIFT = 16;
+
+	private BlockPosition() {
+	}
+
+	/**
+	 * Packs the specified coordinates.
+	 *
+	 * @param worldId The id of the world the block is in.
+	 * @param x       The X coordinate.
+	 * @param y       The Y coordinate.
+	 * @param z       The Z coordinate.
+	 * @return The packed position.
+	 */
+	public static long pack(final int worldId, final int x, final int y, final int z) {
+		return ((long) (worldId & 0xFF) << 56) | ((long) ((x >> 4) & 0xFFFFF) << 36) | ((long) ((z >> 4) & 0xFFFFF) << 16) | ((y & 0xFF) << 8) | ((x & 0xF) << 4) | (z & 0xF);
+	}
+
+	/**
+	 * Gets the world id of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The world id.
+	 */
+	public static int getWorldId(final long position) {
+		return (int) (position >>> 56);
+	}
+
+	/**
+	 * Gets the X coordinate of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The X coordinate.
+	 */
+	public static int getX(final long position) {
+		return (getChunkX(position) << 4) | (int) ((position >> 4) & 0xF);
+	}
+
+	/**
+	 * Gets the Y coordinate of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The Y coordinate.
+	 */
+	public static int getY(final long position) {
+		return (int) ((position >> 8) & 0xFF);
+	}
+
+	/**
+	 * Gets the Z coordinate of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The Z coordinate.
+	 */
+	public static int getZ(final long position) {
+		return (getChunkZ(position) << 4) | (int) (position & 0xF);
+	}
+
+	/**
+	 * Gets the chunk X coordinate of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The chunk X coordinate.
+	 */
+	public static int getChunkX(final long position) {
+		// Shift left first so the arithmetic shift right restores the sign
+		return (int) ((position << 8) >> 44);
+	}
+
+	/**
+	 * Gets the chunk Z coordinate of a packed position.
+	 *
+	 * @param position The packed position.
+	 * @return The chunk Z coordinate.
+	 */
+	public static int getChunkZ(final long position) {
+		return (int) ((position << 28) >> 44);
+	}
+
+	/**
+	 * Gets a key identifying the chunk (including the world) the packed position is in.
+	 *
+	 * @param position The packed position.
+	 * @return The chunk key.
+	 */
+	public static long getChunkKey(final long position) {
+		return position >>> CHUNK_SHIFT;
+	}
+
+	/**
+	 * Gets the packed position of the first block (lowest X, Y and Z) of the chunk with the specified key.
+	 *
+	 * @param chunkKey The chunk key.
+	 * @return The packed position.
+	 */
+	public static long getChunkStart(final long chunkKey) {
+		return chunkKey << CHUNK_SHIFT;
+	}
+
+	/**
+	 * Gets a key identifying the 16x16x16 chunk section (including the world) the packed position is in.
+	 *
+	 * @param position The packed position.
+	 * @return The section key.
+	 */
+	public static long getSectionKey(final long position) {
+		return position >>> SECTION_SHIFT;
+	}
+
+	/**
+	 * Gets the index of the packed position within its chunk section, ranging from 0 to 4095.
+	 *
+	 * @param position The packed position.
+	 * @return The index within the section.
+	 */
+	public static int getSectionIndex(final long position) {
+		return (int) (position & 0xFFF);
+	}
+
+	/**
+	 * Offsets a packed position.
+	 *
+	 * @param position The packed position.
+	 * @param dx       The X offset.
+	 * @param dy       The Y offset.
+	 * @param dz       The Z offset.
+	 * @return The packed offset position.
+	 */
+	public static long offset(final long position, final int dx, final int dy, final int dz) {
+		return pack(getWorldId(position), getX(position) + dx, getY(position) + dy, getZ(position) + dz);
+	}
+
+	/**
+	 * Checks whether the specified Y coordinate is within the world.
+	 *
+	 * @param y The Y coordinate.
+	 * @return Whether the Y coordinate is valid.
+	 */
+	public static boolean isValidY(final int y) {
+		return y >= 0 && y < WORLD_HEIGHT;
+	}
+
+	/**
+	 * Mixes the bits of a packed position, for use as a hash code.
+	 *
+	 * @param position The packed position.
+	 * @return The hash code.
+	 */
+	public static int hash(final long position) {
+		long hash = position * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Describes a packed position, for use in messages.
+	 *
+	 * @param position The packed position.
+	 * @return A description of the position.
+	 */
+	public static String toString(final long position) {
+		return "(" + getX(position) + ", " + getY(position) + ", " + getZ(position) + ") in world " + getWorldId(position);
+	}
+}
@@ -0,0 +1,281 @@
+package com.qub1.liquidcraft.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive longs to primitive ints using open addressing.
+ * Looking up, adding and removing entries take constant time and do not allocate unless the map grows.
+ */
+public class LongIntMap {
+	/**
+	 * The maximum fraction of full slots before the table grows.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/**
+	 * The value returned for keys that are not in the map.
+	 */
+	private final int missingValue;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] full;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * Creates a new LongIntMap.
+	 *
+	 * @param missingValue The value returned for keys that are not in the map.
+	 */
+	public LongIntMap(final int missingValue) {
+		this(missingValue, 16);
+	}
+
+	/**
+	 * Creates a new LongIntMap.
+	 *
+	 * @param missingValue The value returned for keys that are not in the map.
+	 * @param expectedSize The amount of entries the map should hold without growing.
+	 */
+	public LongIntMap(final int missingValue, final int expectedSize) {
+		this.missingValue = missingValue;
+
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+
+		allocate(capacity);
+	}
+
+	/**
+	 * Gets the value associated with a key.
+	 *
+	 * @param key The key to look up.
+	 * @return The value, or the missing value if there is none.
+	 */
+	public int get(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (full[slot]) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return missingValue;
+	}
+
+	/**
+	 * Checks whether the map contains a key.
+	 *
+	 * @param key The key to look for.
+	 * @return Whether the map contains the key.
+	 */
+	public boolean containsKey(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (full[slot]) {
+			if (keys[slot] == key) {
+				return true;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key   The key.
+	 * @param value The value.
+	 * @return The previous value, or the missing value if there was none.
+	 */
+	public int put(final long key, final int value) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (full[slot]) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		full[slot] = true;
+
+		if (++size > keys.length * LOAD_FACTOR) {
+			grow();
+		}
+
+		return missingValue;
+	}
+
+	/**
+	 * Adds to the value associated with a key, treating a missing key as zero.
+	 *
+	 * @param key    The key.
+	 * @param amount The amount to add.
+	 * @return The new value.
+	 */
+	public int add(final long key, final int amount) {
+		int value = (containsKey(key) ? get(key) : 0) + amount;
+		put(key, value);
+
+		return value;
+	}
+
+	/**
+	 * Removes the value associated with a key.
+	 *
+	 * @param key The key.
+	 * @return The removed value, or the missing value if there was none.
+	 */
+	public int remove(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (full[slot]) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				shiftBack(slot);
+				--size;
+
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return missingValue;
+	}
+
+	/**
+	 * Copies all keys into an array.
+	 *
+	 * @return The keys, in no particular order.
+	 */
+	public long[] keys() {
+		return keys(new long[size]);
+	}
+
+	/**
+	 * Copies all keys into an array.
+	 * The target array is reused if it is large enough, otherwise a new one is allocated.
+	 *
+	 * @param target The array to copy into.
+	 * @return The array holding the keys in no particular order, followed by unspecified values if it is larger than the map.
+	 */
+	public long[] keys(long[] target) {
+		if (target.length < size) {
+			target = new long[size];
+		}
+
+		int index = 0;
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (full[slot]) {
+				target[index++] = keys[slot];
+			}
+		}
+
+		return target;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(full, false);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Gets the amount of entries in the map.
+	 *
+	 * @return The amount of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the map is empty.
+	 *
+	 * @return Whether the map is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Empties a slot and moves any following entries of the same probe sequence back, so lookups keep working without tombstones.
+	 *
+	 * @param slot The slot to empty.
+	 */
+	private void shiftBack(int slot) {
+		int current = (slot + 1) & mask;
+
+		while (full[current]) {
+			int home = BlockPosition.hash(keys[current]) & mask;
+
+			// Move the entry if its home slot is not between the empty slot and its current slot
+			if (((current - home) & mask) >= ((current - slot) & mask)) {
+				keys[slot] = keys[current];
+				values[slot] = values[current];
+				slot = current;
+			}
+
+			current = (current + 1) & mask;
+		}
+
+		full[slot] = false;
+	}
+
+	/**
+	 * Doubles the table size.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldFull = full;
+
+		allocate(keys.length * 2);
+
+		for (int slot = 0; slot < oldKeys.length; ++slot) {
+			if (oldFull[slot]) {
+				int newSlot = BlockPosition.hash(oldKeys[slot]) & mask;
+
+				while (full[newSlot]) {
+					newSlot = (newSlot + 1) & mask;
+				}
+
+				keys[newSlot] = oldKeys[slot];
+				values[newSlot] = oldValues[slot];
+				full[newSlot] = true;
+			}
+		}
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity The table size, a power of two.
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		full = new boolean[capacity];
+		mask = capacity - 1;
+	}
+}
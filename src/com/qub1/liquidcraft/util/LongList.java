@@ -0,0 +1,174 @@
+package com.qub1.liquidcraft.util;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A growable list of primitive longs.
+ */
+public class LongList {
+	private long[] elements;
+	private int size = 0;
+
+	/**
+	 * Creates a new LongList.
+	 */
+	public LongList() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new LongList.
+	 *
+	 * @param capacity The amount of elements the list should hold without growing.
+	 */
+	public LongList(final int capacity) {
+		elements = new long[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Adds an element to the end of the list.
+	 *
+	 * @param element The element to add.
+	 */
+	public void add(final long element) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+
+		elements[size++] = element;
+	}
+
+	/**
+	 * Adds all elements of another list to the end of this list.
+	 *
+	 * @param other The list to add.
+	 */
+	public void addAll(final LongList other) {
+		for (int i = 0; i < other.size; ++i) {
+			add(other.elements[i]);
+		}
+	}
+
+	/**
+	 * Gets the element at the specified index.
+	 *
+	 * @param index The index.
+	 * @return The element.
+	 */
+	public long get(final int index) {
+		if (index >= size) {
+			throw (new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size));
+		}
+
+		return elements[index];
+	}
+
+	/**
+	 * Replaces the element at the specified index.
+	 *
+	 * @param index   The index.
+	 * @param element The new element.
+	 */
+	public void set(final int index, final long element) {
+		if (index >= size) {
+			throw (new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size));
+		}
+
+		elements[index] = element;
+	}
+
+	/**
+	 * Removes and returns the last element.
+	 *
+	 * @return The last element.
+	 */
+	public long removeLast() {
+		if (size == 0) {
+			throw (new IndexOutOfBoundsException("The list is empty"));
+		}
+
+		return elements[--size];
+	}
+
+	/**
+	 * Removes the element at the specified index by moving the last element into its place.
+	 *
+	 * @param index The index of the element to remove.
+	 */
+	public void swapRemove(final int index) {
+		elements[index] = elements[size - 1];
+		--size;
+	}
+
+	/**
+	 * Checks whether the list contains an element. This takes linear time.
+	 *
+	 * @param element The element to look for.
+	 * @return Whether the list contains the element.
+	 */
+	public boolean contains(final long element) {
+		for (int i = 0; i < size; ++i) {
+			if (elements[i] == element) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Shuffles the elements.
+	 *
+	 * @param random The random number generator to use.
+	 */
+	public void shuffle(final SplittableRandom random) {
+		for (int i = size - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			long element = elements[i];
+			elements[i] = elements[j];
+			elements[j] = element;
+		}
+	}
+
+	/**
+	 * Sorts the elements in ascending order.
+	 */
+	public void sort() {
+		Arrays.sort(elements, 0, size);
+	}
+
+	/**
+	 * Copies the elements into a new array.
+	 *
+	 * @return The elements.
+	 */
+	public long[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Gets the amount of elements in the list.
+	 *
+	 * @return The amount of elements.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the list is empty.
+	 *
+	 * @return Whether the list is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -0,0 +1,238 @@
+package com.qub1.liquidcraft.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A map from primitive longs to objects using open addressing.
+ * Looking up, adding and removing entries take constant time and do not allocate unless the map grows.
+ *
+ * @param <V> The value type.
+ */
+public class LongObjectMap<V> {
+	/**
+	 * The maximum fraction of full slots before the table grows.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * Creates a new LongObjectMap.
+	 */
+	public LongObjectMap() {
+		allocate(16);
+	}
+
+	/**
+	 * Gets the value associated with a key.
+	 *
+	 * @param key The key to look up.
+	 * @return The value, or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return (V) values[slot];
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks whether the map contains a key.
+	 *
+	 * @param key The key to look for.
+	 * @return Whether the map contains the key.
+	 */
+	public boolean containsKey(final long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key   The key.
+	 * @param value The value, which may not be null.
+	 * @return The previous value, or null if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(final long key, final V value) {
+		if (value == null) {
+			throw (new IllegalArgumentException("Null values are not supported"));
+		}
+
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size > keys.length * LOAD_FACTOR) {
+			grow();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes the value associated with a key.
+	 *
+	 * @param key The key.
+	 * @return The removed value, or null if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V previous = (V) values[slot];
+				shiftBack(slot);
+				--size;
+
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Calls the specified action for every value in the map.
+	 * The map may not be modified while doing so.
+	 *
+	 * @param action The action to call.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(final Consumer<? super V> action) {
+		for (Object value : values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	/**
+	 * Copies all keys into an array.
+	 *
+	 * @return The keys, in no particular order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+
+		int index = 0;
+		for (int slot = 0; slot < keys.length; ++slot) {
+			if (values[slot] != null) {
+				result[index++] = keys[slot];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Gets the amount of entries in the map.
+	 *
+	 * @return The amount of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the map is empty.
+	 *
+	 * @return Whether the map is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Empties a slot and moves any following entries of the same probe sequence back, so lookups keep working without tombstones.
+	 *
+	 * @param slot The slot to empty.
+	 */
+	private void shiftBack(int slot) {
+		int current = (slot + 1) & mask;
+
+		while (values[current] != null) {
+			int home = BlockPosition.hash(keys[current]) & mask;
+
+			// Move the entry if its home slot is not between the empty slot and its current slot
+			if (((current - home) & mask) >= ((current - slot) & mask)) {
+				keys[slot] = keys[current];
+				values[slot] = values[current];
+				slot = current;
+			}
+
+			current = (current + 1) & mask;
+		}
+
+		values[slot] = null;
+	}
+
+	/**
+	 * Doubles the table size.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		allocate(keys.length * 2);
+
+		for (int slot = 0; slot < oldKeys.length; ++slot) {
+			if (oldValues[slot] != null) {
+				int newSlot = BlockPosition.hash(oldKeys[slot]) & mask;
+
+				while (values[newSlot] != null) {
+					newSlot = (newSlot + 1) & mask;
+				}
+
+				keys[newSlot] = oldKeys[slot];
+				values[newSlot] = oldValues[slot];
+			}
+		}
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity The table size, a power of two.
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+}
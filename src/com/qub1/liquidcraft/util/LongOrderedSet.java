@@ -0,0 +1,370 @@
+package com.qub1.liquidcraft.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of primitive longs using open addressing, which remembers the order in which elements were added.
+ * Adding, checking and removing elements take constant time and do not allocate unless the set grows.
+ */
+public class LongOrderedSet {
+	/**
+	 * The slot state of a slot that was never used.
+	 */
+	private static final byte EMPTY = 0;
+
+	/**
+	 * The slot state of a slot holding an element.
+	 */
+	private static final byte FULL = 1;
+
+	/**
+	 * The slot state of a slot whose element was removed.
+	 */
+	private static final byte REMOVED = 2;
+
+	/**
+	 * The index used to mark the end of the order list.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * The maximum fraction of used (full or removed) slots before the table is rebuilt.
+	 */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/**
+	 * The element in every slot.
+	 */
+	private long[] keys;
+
+	/**
+	 * The state of every slot, one of EMPTY, FULL or REMOVED.
+	 */
+	private byte[] states;
+
+	/**
+	 * The previous slot in insertion order, for every full slot.
+	 */
+	private int[] previous;
+
+	/**
+	 * The next slot in insertion order, for every full slot.
+	 */
+	private int[] next;
+
+	/**
+	 * The slot of the first element in insertion order, or NONE if the set is empty.
+	 */
+	private int head = NONE;
+
+	/**
+	 * The slot of the last element in insertion order, or NONE if the set is empty.
+	 */
+	private int tail = NONE;
+
+	/**
+	 * The amount of elements in the set.
+	 */
+	private int size = 0;
+
+	/**
+	 * The amount of slots that are full or removed, which decides when the table is rebuilt.
+	 */
+	private int used = 0;
+
+	/**
+	 * The table size minus one, used to turn a hash into a slot.
+	 */
+	private int mask;
+
+	/**
+	 * Creates a new LongOrderedSet.
+	 */
+	public LongOrderedSet() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new LongOrderedSet.
+	 *
+	 * @param expectedSize The amount of elements the set should hold without growing.
+	 */
+	public LongOrderedSet(final int expectedSize) {
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Adds an element to the end of the set, if it is not in the set already.
+	 *
+	 * @param key The element to add.
+	 * @return Whether the element was added.
+	 */
+	public boolean add(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+		int firstRemoved = NONE;
+
+		// Look for the element, remembering the first removed slot so we can reuse it
+		while (states[slot] != EMPTY) {
+			if (states[slot] == FULL) {
+				if (keys[slot] == key) {
+					return false;
+				}
+			} else if (firstRemoved == NONE) {
+				firstRemoved = slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		if (firstRemoved != NONE) {
+			slot = firstRemoved;
+		} else {
+			++used;
+		}
+
+		keys[slot] = key;
+		states[slot] = FULL;
+		link(slot);
+		++size;
+
+		// Rebuild the table if there are too few empty slots left
+		if (used > keys.length * LOAD_FACTOR) {
+			rehash(size * 2 > keys.length * LOAD_FACTOR ? keys.length * 2 : keys.length);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether the set contains an element.
+	 *
+	 * @param key The element to look for.
+	 * @return Whether the set contains the element.
+	 */
+	public boolean contains(final long key) {
+		return find(key) != NONE;
+	}
+
+	/**
+	 * Removes an element from the set.
+	 *
+	 * @param key The element to remove.
+	 * @return Whether the element was in the set.
+	 */
+	public boolean remove(final long key) {
+		int slot = find(key);
+
+		if (slot == NONE) {
+			return false;
+		}
+
+		states[slot] = REMOVED;
+		unlink(slot);
+		--size;
+
+		return true;
+	}
+
+	/**
+	 * Gets the element that was added first.
+	 *
+	 * @return The first element.
+	 * @throws NoSuchElementException If the set is empty.
+	 */
+	public long first() {
+		if (head == NONE) {
+			throw (new NoSuchElementException());
+		}
+
+		return keys[head];
+	}
+
+	/**
+	 * Removes and returns the element that was added first.
+	 *
+	 * @return The first element.
+	 * @throws NoSuchElementException If the set is empty.
+	 */
+	public long removeFirst() {
+		long key = first();
+		remove(key);
+
+		return key;
+	}
+
+	/**
+	 * Copies all elements into an array, in insertion order.
+	 *
+	 * @return The elements.
+	 */
+	public long[] toArray() {
+		return toArray(new long[size]);
+	}
+
+	/**
+	 * Copies all elements into an array, in insertion order.
+	 * The target array is reused if it is large enough, otherwise a new one is allocated.
+	 *
+	 * @param target The array to copy into.
+	 * @return The array holding the elements, followed by unspecified values if it is larger than the set.
+	 */
+	public long[] toArray(long[] target) {
+		if (target.length < size) {
+			target = new long[size];
+		}
+
+		int index = 0;
+		for (int slot = head; slot != NONE; slot = next[slot]) {
+			target[index++] = keys[slot];
+		}
+
+		return target;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		Arrays.fill(states, EMPTY);
+		head = NONE;
+		tail = NONE;
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Gets the amount of elements in the set.
+	 *
+	 * @return The amount of elements.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the set is empty.
+	 *
+	 * @return Whether the set is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Finds the slot holding an element.
+	 *
+	 * @param key The element to find.
+	 * @return The slot, or NONE if the element is not in the set.
+	 */
+	private int find(final long key) {
+		int slot = BlockPosition.hash(key) & mask;
+
+		while (states[slot] != EMPTY) {
+			if (states[slot] == FULL && keys[slot] == key) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * Appends a slot to the end of the order list.
+	 *
+	 * @param slot The slot to append.
+	 */
+	private void link(final int slot) {
+		previous[slot] = tail;
+		next[slot] = NONE;
+
+		if (tail == NONE) {
+			head = slot;
+		} else {
+			next[tail] = slot;
+		}
+
+		tail = slot;
+	}
+
+	/**
+	 * Removes a slot from the order list.
+	 *
+	 * @param slot The slot to remove.
+	 */
+	private void unlink(final int slot) {
+		if (previous[slot] == NONE) {
+			head = next[slot];
+		} else {
+			next[previous[slot]] = next[slot];
+		}
+
+		if (next[slot] == NONE) {
+			tail = previous[slot];
+		} else {
+			previous[next[slot]] = previous[slot];
+		}
+	}
+
+	/**
+	 * Rebuilds the table, dropping removed slots and keeping the insertion order.
+	 *
+	 * @param capacity The new table size, a power of two.
+	 */
+	private void rehash(final int capacity) {
+		long[] oldKeys = keys;
+		int[] oldNext = next;
+		int oldHead = head;
+
+		allocate(capacity);
+
+		for (int slot = oldHead; slot != NONE; slot = oldNext[slot]) {
+			long key = oldKeys[slot];
+			int newSlot = BlockPosition.hash(key) & mask;
+
+			while (states[newSlot] != EMPTY) {
+				newSlot = (newSlot + 1) & mask;
+			}
+
+			keys[newSlot] = key;
+			states[newSlot] = FULL;
+			link(newSlot);
+			++size;
+			++used;
+		}
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity The table size, a power of two.
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		states = new byte[capacity];
+		previous = new int[capacity];
+		next = new int[capacity];
+		mask = capacity - 1;
+		head = NONE;
+		tail = NONE;
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Calculates the table size needed to hold the specified amount of elements.
+	 *
+	 * @param expectedSize The amount of elements.
+	 * @return The table size, a power of two.
+	 */
+	private static int tableSizeFor(final int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+}
@@ -0,0 +1,161 @@
+package com.qub1.liquidcraft.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive longs, each with an int priority.
+ * Elements with the lowest priority are polled first.
+ */
+public class LongPriorityQueue {
+	private long[] elements;
+	private int[] priorities;
+	private int size = 0;
+
+	/**
+	 * Creates a new LongPriorityQueue.
+	 */
+	public LongPriorityQueue() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new LongPriorityQueue.
+	 *
+	 * @param capacity The amount of elements the queue should hold without growing.
+	 */
+	public LongPriorityQueue(final int capacity) {
+		elements = new long[Math.max(capacity, 1)];
+		priorities = new int[elements.length];
+	}
+
+	/**
+	 * Adds an element to the queue.
+	 *
+	 * @param element  The element to add.
+	 * @param priority The priority of the element.
+	 */
+	public void add(final long element, final int priority) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+			priorities = Arrays.copyOf(priorities, size * 2);
+		}
+
+		// Move the element up until its parent has a lower or equal priority
+		int index = size++;
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+
+			if (priorities[parent] <= priority) {
+				break;
+			}
+
+			elements[index] = elements[parent];
+			priorities[index] = priorities[parent];
+			index = parent;
+		}
+
+		elements[index] = element;
+		priorities[index] = priority;
+	}
+
+	/**
+	 * Adds all elements of another queue to this queue.
+	 *
+	 * @param other The queue to add.
+	 */
+	public void addAll(final LongPriorityQueue other) {
+		for (int i = 0; i < other.size; ++i) {
+			add(other.elements[i], other.priorities[i]);
+		}
+	}
+
+	/**
+	 * Gets the element with the lowest priority, without removing it.
+	 *
+	 * @return The element.
+	 */
+	public long peek() {
+		if (size == 0) {
+			throw (new IndexOutOfBoundsException("The queue is empty"));
+		}
+
+		return elements[0];
+	}
+
+	/**
+	 * Gets the lowest priority in the queue.
+	 *
+	 * @return The priority of the element returned by {@link #peek()}.
+	 */
+	public int peekPriority() {
+		if (size == 0) {
+			throw (new IndexOutOfBoundsException("The queue is empty"));
+		}
+
+		return priorities[0];
+	}
+
+	/**
+	 * Removes and returns the element with the lowest priority.
+	 *
+	 * @return The element.
+	 */
+	public long poll() {
+		long result = peek();
+
+		// Move the last element down from the top until both children have a higher or equal priority
+		--size;
+		long element = elements[size];
+		int priority = priorities[size];
+		int index = 0;
+		while (true) {
+			int child = 2 * index + 1;
+
+			if (child >= size) {
+				break;
+			}
+
+			if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+				++child;
+			}
+
+			if (priorities[child] >= priority) {
+				break;
+			}
+
+			elements[index] = elements[child];
+			priorities[index] = priorities[child];
+			index = child;
+		}
+
+		elements[index] = element;
+		priorities[index] = priority;
+
+		return result;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Gets the amount of elements in the queue.
+	 *
+	 * @return The amount of elements.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the queue is empty.
+	 *
+	 * @return Whether the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -0,0 +1,110 @@
+package com.qub1.liquidcraft.util;
+
+/**
+ * A bounded, lock-free ring buffer of primitive longs for a single producer and a single consumer.
+ * The producer and the consumer may be on different threads, as long as there is only one of each.
+ */
+public class LongRingBuffer {
+	private final long[] elements;
+	private final int mask;
+
+	/**
+	 * The total amount of elements ever polled, only written by the consumer.
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * The total amount of elements ever offered, only written by the producer.
+	 */
+	private volatile long tail = 0;
+
+	/**
+	 * Creates a new LongRingBuffer.
+	 *
+	 * @param capacity The amount of elements the buffer can hold, rounded up to a power of two.
+	 */
+	public LongRingBuffer(final int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw (new IllegalArgumentException("Invalid capacity \"" + capacity + "\""));
+		}
+
+		// A power of two capacity turns the index wrap-around into a mask
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		elements = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an element to the buffer, if there is room for it.
+	 * Only called by the producer.
+	 *
+	 * @param element The element to add.
+	 * @return Whether the element was added, false if the buffer is full.
+	 */
+	public boolean offer(final long element) {
+		long currentTail = tail;
+
+		if (currentTail - head == elements.length) {
+			return false;
+		}
+
+		elements[(int) currentTail & mask] = element;
+
+		// Publishing the new tail after the write makes the element visible to the consumer
+		tail = currentTail + 1;
+
+		return true;
+	}
+
+	/**
+	 * Removes all elements from the buffer and adds them to a list, in the order they were offered.
+	 * Only called by the consumer.
+	 *
+	 * @param target The list to add the elements to.
+	 * @return The amount of elements drained.
+	 */
+	public int drainTo(final LongList target) {
+		long currentHead = head;
+		long currentTail = tail;
+
+		for (long i = currentHead; i < currentTail; ++i) {
+			target.add(elements[(int) i & mask]);
+		}
+
+		// Publishing the new head after the reads frees the slots for the producer
+		head = currentTail;
+
+		return (int) (currentTail - currentHead);
+	}
+
+	/**
+	 * Gets the amount of elements in the buffer.
+	 *
+	 * @return The amount of elements.
+	 */
+	public int size() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * Checks whether the buffer is empty.
+	 *
+	 * @return Whether the buffer is empty.
+	 */
+	public boolean isEmpty() {
+		return tail == head;
+	}
+
+	/**
+	 * Gets the amount of elements the buffer can hold.
+	 *
+	 * @return The capacity.
+	 */
+	public int capacity() {
+		return elements.length;
+	}
+}